@@ -0,0 +1,57 @@
+package com.twl.miniredis.benchmark;
+
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.service.DatabaseService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * INCR from every available processor, either on a single hot counter or spread over a few counters.
+ *
+ * @author Tiago Wolker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(Threads.MAX)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CounterBenchmark {
+
+    @Param({"1", "64"})
+    public int counters;
+
+    private DatabaseService service;
+    private String[] names;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        service = new DatabaseService(new DatabaseRepository(new CommandPropagator()));
+        names = new String[counters];
+        for (int i = 0; i < counters; i++) {
+            names[i] = "counter:" + i;
+            service.del(names[i]);
+        }
+    }
+
+    @Benchmark
+    public String incr() throws Exception {
+        return service.incr(names[counters == 1 ? 0 : ThreadLocalRandom.current().nextInt(counters)]);
+    }
+}
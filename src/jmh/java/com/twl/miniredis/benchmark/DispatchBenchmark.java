@@ -0,0 +1,92 @@
+package com.twl.miniredis.benchmark;
+
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.resp.RespReader;
+import com.twl.miniredis.resp.RespWriter;
+import com.twl.miniredis.service.DatabaseService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end execution of a RESP request, as done by a connection of the RESP listener: parsing, dispatching and
+ * encoding the reply, without the network.
+ *
+ * @author Tiago Wolker
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DispatchBenchmark {
+
+    @Param({"SET", "GET", "INCR", "ZADD", "ZRANGE"})
+    public String command;
+
+    private CommandDispatcher dispatcher;
+    private final ClientSession session = new ClientSession();
+    private final RespWriter writer = new RespWriter();
+    private ByteBuffer request;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        DatabaseService service = new DatabaseService(new DatabaseRepository(new CommandPropagator()));
+        dispatcher = new CommandDispatcher(service);
+        service.setKeyValue("string", "value", null);
+        for (int i = 0; i < 100; i++) {
+            service.zadd("zset", Integer.toString(i), "member:" + i);
+        }
+        switch (command) {
+            case "SET":
+                request = encode("SET", "string", "value");
+                break;
+            case "GET":
+                request = encode("GET", "string");
+                break;
+            case "INCR":
+                request = encode("INCR", "counter");
+                break;
+            case "ZADD":
+                request = encode("ZADD", "zset", "50", "member:1");
+                break;
+            default:
+                request = encode("ZRANGE", "zset", "0", "9", "WITHSCORES");
+        }
+    }
+
+    @Benchmark
+    public int execute() throws Exception {
+        request.rewind();
+        List<String> args = RespReader.read(request);
+        writer.reset();
+        writer.write(dispatcher.execute(session, args), session.getProtocol());
+        return writer.size();
+    }
+
+    private static ByteBuffer encode(String... args) {
+        StringBuilder builder = new StringBuilder().append('*').append(args.length).append("\r\n");
+        for (String arg : args) {
+            builder.append('$').append(arg.getBytes(StandardCharsets.UTF_8).length).append("\r\n").append(arg).append("\r\n");
+        }
+        return ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
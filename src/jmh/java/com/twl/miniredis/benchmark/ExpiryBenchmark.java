@@ -0,0 +1,65 @@
+package com.twl.miniredis.benchmark;
+
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.service.DatabaseService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time taken by the active expire cycle to remove millions of keys that are already due, next to keys that never
+ * expire and must not slow the cycle down.
+ *
+ * @author Tiago Wolker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ExpiryBenchmark {
+
+    private static final long CYCLE_TIME_BUDGET_MILLIS = 60_000;
+
+    @Param({"100000", "1000000", "5000000"})
+    public int expiringKeys;
+
+    @Param({"1000000"})
+    public int persistentKeys;
+
+    private DatabaseService service;
+
+    @Setup(Level.Trial)
+    public void setupPersistentKeys() throws Exception {
+        service = new DatabaseService(new DatabaseRepository(new CommandPropagator()));
+        for (int i = 0; i < persistentKeys; i++) {
+            service.setKeyValueUntil("persistent:" + i, "value", Long.MAX_VALUE);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setupExpiringKeys() throws Exception {
+        long deadline = System.currentTimeMillis();
+        for (int i = 0; i < expiringKeys; i++) {
+            service.setKeyValueUntil("expiring:" + i, "value", deadline);
+        }
+    }
+
+    @Benchmark
+    public int activeExpireCycle() {
+        return service.activeExpireCycle(CYCLE_TIME_BUDGET_MILLIS);
+    }
+}
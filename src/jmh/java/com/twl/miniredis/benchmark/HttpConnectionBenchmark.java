@@ -0,0 +1,162 @@
+package com.twl.miniredis.benchmark;
+
+import com.twl.miniredis.MiniRedisApplication;
+import com.twl.miniredis.config.VirtualThreads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time taken to serve a burst of concurrent slow HTTP clients, on the Tomcat thread pool or with a virtual thread
+ * per request (<code>virtualThreads=true</code>, JDK 21+ only).
+ * <br/><br/>
+ * Each client sends a <code>PUT /SET</code> with <code>Expect: 100-continue</code> and only sends its body
+ * <code>stallMillis</code> after the server asked for it, as a client on a high latency network would. The request
+ * holds its server thread while it waits, so with the thread pool the clients are served in batches of the pool size,
+ * while with virtual threads they all wait at once.
+ * <br/><br/>
+ * Clients and server run in the same process, which needs about two file descriptors per client: raise the limit
+ * with <code>ulimit -n</code> before running the larger sizes.
+ *
+ * @author Tiago Wolker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class HttpConnectionBenchmark {
+
+    @Param({"1000", "10000"})
+    public int clients;
+
+    @Param({"100"})
+    public int stallMillis;
+
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+
+    private ConfigurableApplicationContext context;
+    private InetSocketAddress address;
+
+    private static final class Client {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(1024);
+        boolean continued;
+        long sendAt;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void startServer() {
+        if (virtualThreads && !VirtualThreads.isSupported()) {
+            throw new IllegalStateException("Virtual threads require JDK 21 or later, run with -p virtualThreads=false.");
+        }
+        context = new SpringApplicationBuilder(MiniRedisApplication.class)
+                .properties("server.port=0",
+                        "miniredis.resp.enabled=false",
+                        "miniredis.threads.virtual=" + virtualThreads,
+                        "server.tomcat.max-connections=" + (clients * 2),
+                        "server.tomcat.accept-count=" + clients,
+                        "logging.level.root=WARN",
+                        "spring.main.banner-mode=off")
+                .run();
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        address = new InetSocketAddress("127.0.0.1", port);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        context.close();
+    }
+
+    @Benchmark
+    public int slowClients() throws IOException {
+        byte[] body = "key=http-benchmark&value=value".getBytes(StandardCharsets.US_ASCII);
+        byte[] headers = ("PUT /SET HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\nExpect: 100-continue\r\n"
+                + "Content-Type: application/x-www-form-urlencoded\r\nContent-Length: " + body.length + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        int completed = 0;
+        ArrayDeque<Client> stalled = new ArrayDeque<>();
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < clients; i++) {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                Client client = new Client(channel);
+                channel.register(selector, channel.connect(address) ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, client);
+            }
+            while (completed < clients) {
+                long now = System.currentTimeMillis();
+                while (!stalled.isEmpty() && stalled.peek().sendAt <= now) {
+                    Client client = stalled.poll();
+                    client.channel.write(ByteBuffer.wrap(body));
+                    client.in.clear();
+                }
+                selector.select(stalled.isEmpty() ? 0 : Math.max(stalled.peek().sendAt - now, 1));
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Client client = (Client) key.attachment();
+                    if (key.isConnectable()) {
+                        client.channel.finishConnect();
+                        key.interestOps(SelectionKey.OP_WRITE);
+                    } else if (key.isWritable()) {
+                        client.channel.write(ByteBuffer.wrap(headers));
+                        key.interestOps(SelectionKey.OP_READ);
+                    } else if (key.isReadable()) {
+                        int read = client.channel.read(client.in);
+                        if (read < 0 || !client.in.hasRemaining()) {
+                            if (!new String(client.in.array(), 0, client.in.position(), StandardCharsets.US_ASCII)
+                                    .startsWith("HTTP/1.1 200")) {
+                                throw new IllegalStateException("Unexpected response to a slow client.");
+                            }
+                            key.cancel();
+                            client.channel.close();
+                            completed++;
+                        } else if (!client.continued && endsHeaders(client.in)) {
+                            client.continued = true;
+                            client.sendAt = System.currentTimeMillis() + stallMillis;
+                            stalled.add(client);
+                        }
+                    }
+                }
+            }
+        }
+        return completed;
+    }
+
+    private static boolean endsHeaders(ByteBuffer in) {
+        int end = in.position();
+        return end >= 4 && in.get(end - 4) == '\r' && in.get(end - 3) == '\n' && in.get(end - 2) == '\r'
+                && in.get(end - 1) == '\n';
+    }
+}
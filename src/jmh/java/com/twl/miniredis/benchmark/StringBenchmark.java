@@ -0,0 +1,70 @@
+package com.twl.miniredis.benchmark;
+
+import com.twl.miniredis.db.Database;
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.service.DatabaseService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SET and GET of random keys over a pre-filled keyspace, with values on heap or off-heap.
+ *
+ * @author Tiago Wolker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StringBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int keys;
+
+    @Param({"16", "1024"})
+    public int valueSize;
+
+    @Param({"false", "true"})
+    public boolean offHeap;
+
+    private DatabaseService service;
+    private String[] names;
+    private String value;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Database.configureStorage(offHeap);
+        service = new DatabaseService(new DatabaseRepository(new CommandPropagator()));
+        value = "v".repeat(valueSize);
+        names = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            names[i] = "key:" + i;
+            service.setKeyValueUntil(names[i], value, Long.MAX_VALUE);
+        }
+    }
+
+    @Benchmark
+    public void set() throws Exception {
+        service.setKeyValueUntil(names[ThreadLocalRandom.current().nextInt(keys)], value, Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    public String get() throws Exception {
+        return service.getStringValue(names[ThreadLocalRandom.current().nextInt(keys)]);
+    }
+}
@@ -0,0 +1,83 @@
+package com.twl.miniredis.benchmark;
+
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.service.DatabaseService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ZADD score updates, ZRANK and 10 member ZRANGE windows at random positions of a sorted set, from the listpack
+ * encoding up to 10M members. The largest size needs a few GB of heap, e.g. <code>-jvmArgs -Xmx8g</code>.
+ *
+ * @author Tiago Wolker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ZSetBenchmark {
+
+    private static final String KEY = "zset";
+    private static final int BATCH = 1000;
+    private static final int WINDOW = 10;
+
+    @Param({"10", "1000", "100000", "10000000"})
+    public int size;
+
+    private DatabaseService service;
+    private String[] members;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        service = new DatabaseService(new DatabaseRepository(new CommandPropagator()));
+        service.del(KEY);
+        members = new String[size];
+        String[] batch = new String[Math.min(size, BATCH) * 2];
+        int filled = 0;
+        for (int i = 0; i < size; i++) {
+            members[i] = "member:" + i;
+            batch[filled++] = Integer.toString(ThreadLocalRandom.current().nextInt(size));
+            batch[filled++] = members[i];
+            if (filled == batch.length || i == size - 1) {
+                String[] pairs = filled == batch.length ? batch : Arrays.copyOf(batch, filled);
+                service.zadd(KEY, pairs);
+                filled = 0;
+            }
+        }
+    }
+
+    @Benchmark
+    public Integer zadd() throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return service.zadd(KEY, Integer.toString(random.nextInt(size)), members[random.nextInt(size)]);
+    }
+
+    @Benchmark
+    public Integer zrank() throws Exception {
+        return service.zrank(KEY, members[ThreadLocalRandom.current().nextInt(size)]);
+    }
+
+    @Benchmark
+    public LinkedHashMap<String, Double> zrange() throws Exception {
+        int start = ThreadLocalRandom.current().nextInt(Math.max(size - WINDOW, 1));
+        return service.zrange(KEY, start, start + WINDOW - 1);
+    }
+}
@@ -0,0 +1,634 @@
+package com.twl.miniredis.cluster;
+
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.command.CommandRouter;
+import com.twl.miniredis.command.CommandSpec;
+import com.twl.miniredis.command.Reply;
+import com.twl.miniredis.db.Database;
+import com.twl.miniredis.db.HashSlots;
+import com.twl.miniredis.exception.ProtocolException;
+import com.twl.miniredis.model.dto.ClusterSlotRange;
+import com.twl.miniredis.persistence.AppendOnlyFile;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.resp.RespReader;
+import com.twl.miniredis.resp.RespWriter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * Cluster mode, enabled with <code>miniredis.cluster.enabled=true</code>: the keyspace is partitioned into
+ * {@link HashSlots#SLOT_COUNT} hash slots, each owned by one node, and commands are only executed by the node that
+ * owns the slot of their keys. Other nodes reply as Redis Cluster does:
+ * <ul>
+ *     <li><code>-MOVED slot host:port</code>: the slot is owned by another node.</li>
+ *     <li><code>-ASK slot host:port</code>: the slot is being migrated and the keys are no longer here; the client
+ *     sends <code>ASKING</code> and then the command to the given node, without updating its slot table.</li>
+ *     <li><code>-CROSSSLOT</code>: the keys of the command are in different slots. Keys sharing a
+ *     <code>{hashtag}</code> are always in the same slot.</li>
+ * </ul>
+ * There is no cluster bus: the initial topology comes from <code>miniredis.cluster.nodes</code>, and changes are
+ * applied to each node with <code>CLUSTER MEET</code> and <code>CLUSTER SETSLOT</code>, which is what
+ * {@link ClusterRestClient#migrateSlot(int, String, String)} does. A node that did not learn
+ * about a change yet redirects to the previous owner, which redirects again.
+ * <br/><br/>
+ * A slot is migrated without downtime: while the source is <code>MIGRATING</code> and the target
+ * <code>IMPORTING</code>, <code>MIGRATE</code> moves batches of keys, and commands for keys already moved are sent to
+ * the target with <code>-ASK</code>. Each command holds a read lock of its slot while it is routed and executed, and
+ * <code>MIGRATE</code> and <code>CLUSTER SETSLOT</code> hold its write lock, so no write to a key can be lost while
+ * it is moved.
+ *
+ * @author Tiago Wolker
+ */
+@Log4j2
+@Component
+public class ClusterManager implements CommandRouter, SmartLifecycle {
+
+    /**
+     * Starts routing after the data was loaded, which replays commands for every slot.
+     */
+    public static final int PHASE = AppendOnlyFile.PHASE + 1;
+
+    public static final String CROSSSLOT = "CROSSSLOT Keys in request don't hash to the same slot";
+    public static final String TRYAGAIN = "TRYAGAIN Multiple keys request during rehashing of slot";
+    public static final String CLUSTERDOWN = "CLUSTERDOWN Hash slot not served";
+    public static final String CLUSTER_DISABLED = "ERR This instance has cluster support disabled";
+    public static final String INVALID_SLOT = "ERR Invalid or out of range slot";
+
+    /**
+     * Timeout of <code>MIGRATE</code> when it is given as 0 or less, as in Redis, since the slot is locked while the
+     * target is waited for.
+     */
+    private static final int DEFAULT_MIGRATE_TIMEOUT_MS = 1000;
+
+    private final DatabaseRepository repository;
+    private final boolean enabled;
+    private final ClusterNode myself;
+    private final Map<String, ClusterNode> nodes = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<ClusterNode> owners = new AtomicReferenceArray<>(HashSlots.SLOT_COUNT);
+    private final Map<Integer, ClusterNode> migrating = new ConcurrentHashMap<>();
+    private final Map<Integer, ClusterNode> importing = new ConcurrentHashMap<>();
+    private final StampedLock[] locks;
+    private final CommandDispatcher dispatcher;
+
+    private volatile boolean running;
+
+    public ClusterManager(DatabaseRepository repository,
+                          CommandDispatcher dispatcher,
+                          @Value("${miniredis.cluster.enabled:false}") boolean enabled,
+                          @Value("${miniredis.cluster.myself:}") String myself,
+                          @Value("${miniredis.cluster.nodes:}") String topology,
+                          @Value("${miniredis.resp.port:6379}") int respPort,
+                          @Value("${server.port:8080}") int httpPort) {
+        this.repository = repository;
+        this.dispatcher = dispatcher;
+        this.enabled = enabled;
+        this.myself = myself.isBlank() ? new ClusterNode("127.0.0.1", respPort, httpPort) : ClusterNode.parse(myself);
+        this.locks = enabled ? new StampedLock[HashSlots.SLOT_COUNT] : null;
+        if (enabled) {
+            for (int slot = 0; slot < HashSlots.SLOT_COUNT; slot++) {
+                locks[slot] = new StampedLock();
+            }
+            nodes.put(this.myself.getAddress(), this.myself);
+            this.configure(topology);
+            Database.enableSlotIndex();
+        }
+
+        dispatcher.register("CLUSTER", -2, false, this::cluster);
+        dispatcher.register("ASKING", 1, false, (session, args) -> {
+            session.setAsking(true);
+            return Reply.OK;
+        });
+        dispatcher.register("MIGRATE", -6, true, ClusterManager::migrateKeys, true, this::migrate);
+    }
+
+    @Override
+    public void start() {
+        if (enabled) {
+            dispatcher.setRouter(this);
+            running = true;
+            log.info("Cluster mode enabled as {}, serving {} slots.", myself, this.countSlots(myself));
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public ClusterNode getMyself() {
+        return myself;
+    }
+
+    public ClusterNode getNode(String address) {
+        return nodes.get(address);
+    }
+
+    /**
+     * @return the node that owns the slot, or null if no node serves it.
+     */
+    public ClusterNode getOwner(int slot) {
+        return owners.get(slot);
+    }
+
+    @Override
+    public Object route(ClientSession session, CommandSpec spec, List<String> args, Supplier<Object> execution) {
+        boolean asking = session.isAsking();
+        if (!"ASKING".equals(spec.getName())) {
+            session.setAsking(false);
+        }
+        if ("MIGRATE".equals(spec.getName())) {
+            return this.routeMigrate(args, execution);
+        }
+        if (spec.getKeys() == null || session.isPrimary() || session.isScripted()) {
+            return execution.get();
+        }
+        List<String> keys = spec.getKeys().keys(args);
+        if (keys.isEmpty()) {
+            return execution.get();
+        }
+        int slot = slot(keys);
+        if (slot < 0) {
+            return Reply.error(CROSSSLOT);
+        }
+        long stamp = locks[slot].readLock();
+        try {
+            Reply redirect = this.redirect(slot, keys, asking);
+            return redirect != null ? redirect : execution.get();
+        } finally {
+            locks[slot].unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Executes <code>MIGRATE</code> holding the write lock of the slot of its keys. The slot is locked here rather
+     * than by the command, so it is locked before the keys, as for every other command.
+     */
+    private Object routeMigrate(List<String> args, Supplier<Object> execution) {
+        List<String> keys = migrateKeys(args);
+        if (keys.isEmpty()) {
+            return execution.get();
+        }
+        int slot = slot(keys);
+        if (slot < 0) {
+            return Reply.error(CROSSSLOT);
+        }
+        long stamp = locks[slot].writeLock();
+        try {
+            return execution.get();
+        } finally {
+            locks[slot].unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the slot of the keys, or -1 if they are not all in the same slot.
+     */
+    public static int slot(List<String> keys) {
+        int slot = HashSlots.slot(keys.get(0));
+        for (int i = 1; i < keys.size(); i++) {
+            if (HashSlots.slot(keys.get(i)) != slot) {
+                return -1;
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Locks the slot against migrations while a request served outside the dispatcher, such as a REST request, is
+     * routed and executed.
+     *
+     * @return stamp to pass to {@link #unlockSlot(int, long)}.
+     */
+    public long lockSlot(int slot) {
+        return locks[slot].readLock();
+    }
+
+    public void unlockSlot(int slot, long stamp) {
+        locks[slot].unlockRead(stamp);
+    }
+
+    /**
+     * Decides whether keys of the given slot are served by this node. Must be called with the slot locked.
+     *
+     * @param asking whether the client sent <code>ASKING</code> before the command.
+     * @return null to execute the command, or the redirection or error to reply with.
+     */
+    public Reply redirect(int slot, List<String> keys, boolean asking) {
+        ClusterNode owner = owners.get(slot);
+        if (myself.equals(owner)) {
+            ClusterNode target = migrating.get(slot);
+            if (target != null) {
+                int missing = this.countMissing(keys);
+                if (missing == keys.size()) {
+                    return Reply.error("ASK " + slot + " " + target.getAddress());
+                } else if (missing > 0) {
+                    return Reply.error(TRYAGAIN);
+                }
+            }
+            return null;
+        }
+        if (asking && importing.containsKey(slot)) {
+            return keys.size() > 1 && this.countMissing(keys) > 0 ? Reply.error(TRYAGAIN) : null;
+        }
+        if (owner == null) {
+            return Reply.error(CLUSTERDOWN);
+        }
+        return Reply.error("MOVED " + slot + " " + owner.getAddress());
+    }
+
+    /**
+     * @return contiguous ranges of slots with the same owner, in slot order.
+     */
+    public List<ClusterSlotRange> slotRanges() {
+        List<ClusterSlotRange> ranges = new ArrayList<>();
+        int start = 0;
+        for (int slot = 1; slot <= HashSlots.SLOT_COUNT; slot++) {
+            ClusterNode owner = owners.get(start);
+            if (slot == HashSlots.SLOT_COUNT || !Objects.equals(owner, owners.get(slot))) {
+                if (owner != null) {
+                    ranges.add(new ClusterSlotRange(start, slot - 1, owner.getHost(), owner.getPort(), owner.getHttpPort()));
+                }
+                start = slot;
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Parses the initial topology: <code>host:port@httpPort=0-5460;6000,host:port@httpPort=5461-10922,...</code>.
+     * Without a topology, this node serves every slot.
+     */
+    private void configure(String topology) {
+        if (topology.isBlank()) {
+            for (int slot = 0; slot < HashSlots.SLOT_COUNT; slot++) {
+                owners.set(slot, myself);
+            }
+            return;
+        }
+        for (String entry : topology.split(",")) {
+            int equals = entry.indexOf('=');
+            ClusterNode parsed = ClusterNode.parse(equals < 0 ? entry : entry.substring(0, equals));
+            ClusterNode node = nodes.computeIfAbsent(parsed.getAddress(), address -> parsed);
+            if (equals < 0) {
+                continue;
+            }
+            for (String range : entry.substring(equals + 1).split(";")) {
+                String[] bounds = range.trim().split("-");
+                int first = Integer.parseInt(bounds[0].trim());
+                int last = bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : first;
+                if (first < 0 || last >= HashSlots.SLOT_COUNT || first > last) {
+                    throw new IllegalArgumentException("Invalid slot range " + range + " in miniredis.cluster.nodes.");
+                }
+                for (int slot = first; slot <= last; slot++) {
+                    owners.set(slot, node);
+                }
+            }
+        }
+    }
+
+    private int countMissing(List<String> keys) {
+        int missing = 0;
+        for (String key : keys) {
+            if (!repository.exists(key)) {
+                missing++;
+            }
+        }
+        return missing;
+    }
+
+    private int countSlots(ClusterNode node) {
+        int count = 0;
+        for (int slot = 0; slot < HashSlots.SLOT_COUNT; slot++) {
+            if (node.equals(owners.get(slot))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * CLUSTER INFO | MYID | NODES | SLOTS | KEYSLOT key | COUNTKEYSINSLOT slot | GETKEYSINSLOT slot count
+     * | MEET host port [httpPort] | SETSLOT slot IMPORTING node | MIGRATING node | NODE node | STABLE
+     */
+    private Object cluster(ClientSession session, List<String> args) {
+        String subcommand = args.get(1).toUpperCase(Locale.ROOT);
+        if ("KEYSLOT".equals(subcommand) && args.size() == 3) {
+            return (long) HashSlots.slot(args.get(2));
+        }
+        if (!enabled) {
+            return Reply.error(CLUSTER_DISABLED);
+        }
+        switch (subcommand) {
+            case "INFO":
+                return this.info();
+            case "MYID":
+                return myself.getAddress();
+            case "NODES":
+                return this.describeNodes();
+            case "SLOTS":
+                List<Object> slots = new ArrayList<>();
+                for (ClusterSlotRange range : this.slotRanges()) {
+                    slots.add(Arrays.asList((long) range.getStart(), (long) range.getEnd(),
+                            Arrays.asList(range.getHost(), (long) range.getPort(), range.getHost() + ":" + range.getPort())));
+                }
+                return slots;
+            case "COUNTKEYSINSLOT":
+                if (args.size() == 3) {
+                    int slot = parseSlot(args.get(2));
+                    return slot < 0 ? Reply.error(INVALID_SLOT) : (long) repository.countKeysInSlot(slot);
+                }
+                break;
+            case "GETKEYSINSLOT":
+                if (args.size() == 4) {
+                    int slot = parseSlot(args.get(2));
+                    int count = Integer.parseInt(args.get(3));
+                    if (slot < 0 || count < 0) {
+                        return Reply.error(slot < 0 ? INVALID_SLOT : "ERR Invalid number of keys");
+                    }
+                    return repository.getKeysInSlot(slot, count);
+                }
+                break;
+            case "MEET":
+                if (args.size() == 4 || args.size() == 5) {
+                    ClusterNode node = new ClusterNode(args.get(2), Integer.parseInt(args.get(3)),
+                            args.size() == 5 ? Integer.parseInt(args.get(4)) : 0);
+                    nodes.merge(node.getAddress(), node, (current, met) -> met.getHttpPort() > 0 ? met : current);
+                    return Reply.OK;
+                }
+                break;
+            case "SETSLOT":
+                if (args.size() >= 4) {
+                    return this.setSlot(args);
+                }
+                break;
+            default:
+                return Reply.error("ERR unknown subcommand '" + args.get(1) + "'");
+        }
+        return Reply.error("ERR wrong number of arguments for 'cluster|" + subcommand.toLowerCase(Locale.ROOT) + "' command");
+    }
+
+    private Object setSlot(List<String> args) {
+        int slot = parseSlot(args.get(2));
+        if (slot < 0) {
+            return Reply.error(INVALID_SLOT);
+        }
+        String action = args.get(3).toUpperCase(Locale.ROOT);
+        ClusterNode node = null;
+        if (!"STABLE".equals(action)) {
+            if (args.size() != 5) {
+                return Reply.error(CommandDispatcher.SYNTAX_ERROR);
+            }
+            node = nodes.get(args.get(4));
+            if (node == null) {
+                return Reply.error("ERR I don't know about node " + args.get(4));
+            }
+        }
+        long stamp = locks[slot].writeLock();
+        try {
+            ClusterNode owner = owners.get(slot);
+            switch (action) {
+                case "MIGRATING":
+                    if (!myself.equals(owner)) {
+                        return Reply.error("ERR I'm not the owner of hash slot " + slot);
+                    }
+                    migrating.put(slot, node);
+                    break;
+                case "IMPORTING":
+                    if (myself.equals(owner)) {
+                        return Reply.error("ERR I'm already the owner of hash slot " + slot);
+                    }
+                    importing.put(slot, node);
+                    break;
+                case "STABLE":
+                    migrating.remove(slot);
+                    importing.remove(slot);
+                    break;
+                case "NODE":
+                    if (myself.equals(owner) && !myself.equals(node) && !repository.getKeysInSlot(slot, 1).isEmpty()) {
+                        return Reply.error("ERR Can't assign hashslot " + slot
+                                + " to a different node while I still hold keys for this hash slot.");
+                    }
+                    owners.set(slot, node);
+                    migrating.remove(slot);
+                    if (myself.equals(node)) {
+                        importing.remove(slot);
+                    }
+                    log.info("Hash slot {} assigned to {}.", slot, node);
+                    break;
+                default:
+                    return Reply.error(CommandDispatcher.SYNTAX_ERROR);
+            }
+            return Reply.OK;
+        } finally {
+            locks[slot].unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * MIGRATE host port key|"" destination-db timeout [COPY] [REPLACE] [KEYS key [key ...]]
+     * <br/><br/>
+     * The keys, which must be in the same slot, are sent to the target as the commands that recreate them, each
+     * preceded by <code>ASKING</code>, and deleted here once the target replied, unless COPY is given. Keys existing
+     * on the target are always replaced. Runs with the slot locked by {@link #routeMigrate(List, Supplier)}, and its
+     * keys locked exclusively by the dispatcher.
+     */
+    private Object migrate(ClientSession session, List<String> args) {
+        if (!enabled) {
+            return Reply.error(CLUSTER_DISABLED);
+        }
+        boolean copy = false;
+        for (int i = 6; i < args.size(); i++) {
+            String option = args.get(i).toUpperCase(Locale.ROOT);
+            if ("COPY".equals(option)) {
+                copy = true;
+            } else if ("KEYS".equals(option) && args.get(3).isEmpty()) {
+                break;
+            } else if (!"REPLACE".equals(option)) {
+                return Reply.error(CommandDispatcher.SYNTAX_ERROR);
+            }
+        }
+        List<String> keys = migrateKeys(args);
+        if (keys.isEmpty()) {
+            return Reply.error(CommandDispatcher.SYNTAX_ERROR);
+        }
+        long requestedTimeout = Long.parseLong(args.get(5));
+        int timeout = requestedTimeout <= 0 ? DEFAULT_MIGRATE_TIMEOUT_MS
+                : (int) Math.min(requestedTimeout, Integer.MAX_VALUE);
+        try {
+            RespWriter out = new RespWriter();
+            List<String> asking = Collections.singletonList("ASKING");
+            int[] commands = new int[1];
+            List<String> found = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                if (repository.dumpKey(key, command -> {
+                    out.write(asking, 2).write(Arrays.asList(command), 2);
+                    commands[0] += 2;
+                })) {
+                    found.add(key);
+                }
+            }
+            if (found.isEmpty()) {
+                return Reply.status("NOKEY");
+            }
+            String error = this.send(args.get(1), Integer.parseInt(args.get(2)), timeout, out, commands[0]);
+            if (error != null) {
+                return Reply.error("ERR Target instance replied with error: " + error);
+            }
+            if (!copy) {
+                repository.del(found.toArray(new String[0]));
+            }
+            return Reply.OK;
+        } catch (IOException | ProtocolException e) {
+            log.warn("Error migrating {} keys to {}:{}: {}", keys.size(), args.get(1), args.get(2), e.getMessage());
+            return Reply.error("IOERR error or timeout writing to target instance");
+        }
+    }
+
+    /**
+     * @return the keys of <code>MIGRATE</code>: its key argument, or the keys after <code>KEYS</code> when it is empty.
+     */
+    private static List<String> migrateKeys(List<String> args) {
+        if (!args.get(3).isEmpty()) {
+            return Collections.singletonList(args.get(3));
+        }
+        for (int i = 6; i < args.size(); i++) {
+            if ("KEYS".equalsIgnoreCase(args.get(i))) {
+                return args.subList(i + 1, args.size());
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Sends the commands to the target in a single write and reads their replies, which are all simple.
+     *
+     * @return the first error replied by the target, or null.
+     */
+    private String send(String host, int port, int timeout, RespWriter commands, int count)
+            throws IOException, ProtocolException {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), timeout);
+            socket.setSoTimeout(timeout);
+            OutputStream output = socket.getOutputStream();
+            output.write(commands.toByteArray());
+            output.flush();
+            InputStream input = socket.getInputStream();
+            ByteBuffer in = ByteBuffer.allocate(4096);
+            String error = null;
+            for (int replies = 0; replies < count; ) {
+                in.flip();
+                List<String> reply = RespReader.read(in);
+                in.compact();
+                if (reply == null) {
+                    int read = input.read(in.array(), in.position(), in.remaining());
+                    if (read < 0) {
+                        throw new EOFException("closed by the target");
+                    }
+                    in.position(in.position() + read);
+                } else if (!reply.isEmpty()) {
+                    if (error == null && reply.get(0).startsWith("-")) {
+                        error = String.join(" ", reply).substring(1);
+                    }
+                    replies++;
+                }
+            }
+            return error;
+        }
+    }
+
+    private String info() {
+        int assigned = 0;
+        for (int slot = 0; slot < HashSlots.SLOT_COUNT; slot++) {
+            if (owners.get(slot) != null) {
+                assigned++;
+            }
+        }
+        long size = this.slotRanges().stream().map(range -> range.getHost() + ":" + range.getPort()).distinct().count();
+        return "cluster_enabled:1\r\n"
+                + "cluster_state:" + (assigned == HashSlots.SLOT_COUNT ? "ok" : "fail") + "\r\n"
+                + "cluster_slots_assigned:" + assigned + "\r\n"
+                + "cluster_known_nodes:" + nodes.size() + "\r\n"
+                + "cluster_size:" + size + "\r\n";
+    }
+
+    /**
+     * One line per node, in the format of Redis' <code>CLUSTER NODES</code>, with the address as the node id and the
+     * HTTP port in place of the cluster bus port.
+     */
+    private String describeNodes() {
+        List<ClusterSlotRange> ranges = this.slotRanges();
+        StringBuilder description = new StringBuilder();
+        for (ClusterNode node : this.sortedNodes()) {
+            description.append(node.getAddress()).append(' ').append(node)
+                    .append(node.equals(myself) ? " myself,master" : " master").append(" - 0 0 0 connected");
+            for (ClusterSlotRange range : ranges) {
+                if (range.getHost().equals(node.getHost()) && range.getPort() == node.getPort()) {
+                    description.append(' ').append(range.getStart());
+                    if (range.getEnd() != range.getStart()) {
+                        description.append('-').append(range.getEnd());
+                    }
+                }
+            }
+            if (node.equals(myself)) {
+                migrating.forEach((slot, target) -> description.append(" [").append(slot).append("->-")
+                        .append(target.getAddress()).append(']'));
+                importing.forEach((slot, source) -> description.append(" [").append(slot).append("-<-")
+                        .append(source.getAddress()).append(']'));
+            }
+            description.append('\n');
+        }
+        return description.toString();
+    }
+
+    private Collection<ClusterNode> sortedNodes() {
+        List<ClusterNode> sorted = new ArrayList<>(nodes.values());
+        sorted.sort((a, b) -> a.getAddress().compareTo(b.getAddress()));
+        return sorted;
+    }
+
+    private static int parseSlot(String value) {
+        try {
+            int slot = Integer.parseInt(value);
+            return slot >= 0 && slot < HashSlots.SLOT_COUNT ? slot : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.twl.miniredis.cluster;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * Node of a cluster, identified by the address of its RESP listener, <code>host:port</code>. Without a cluster bus,
+ * the optional port after <code>@</code> is the port of the node's HTTP API, used to redirect REST requests.
+ *
+ * @author Tiago Wolker
+ */
+@Getter
+@EqualsAndHashCode(of = {"host", "port"})
+public final class ClusterNode {
+
+    private final String host;
+    private final int port;
+    /**
+     * Port of the HTTP API, or 0 if unknown.
+     */
+    private final int httpPort;
+
+    public ClusterNode(String host, int port, int httpPort) {
+        this.host = host;
+        this.port = port;
+        this.httpPort = httpPort;
+    }
+
+    /**
+     * @param spec <code>host:port</code> or <code>host:port@httpPort</code>.
+     * @throws IllegalArgumentException if the spec is malformed.
+     */
+    public static ClusterNode parse(String spec) {
+        String address = spec.trim();
+        int httpPort = 0;
+        int at = address.indexOf('@');
+        try {
+            if (at >= 0) {
+                httpPort = Integer.parseInt(address.substring(at + 1));
+                address = address.substring(0, at);
+            }
+            int colon = address.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Invalid node address " + spec + ", expected host:port[@httpPort].");
+            }
+            return new ClusterNode(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)), httpPort);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid node address " + spec + ", expected host:port[@httpPort].");
+        }
+    }
+
+    /**
+     * @return <code>host:port</code> of the RESP listener, which is also the id of the node.
+     */
+    public String getAddress() {
+        return host + ":" + port;
+    }
+
+    @Override
+    public String toString() {
+        return this.getAddress() + "@" + httpPort;
+    }
+}
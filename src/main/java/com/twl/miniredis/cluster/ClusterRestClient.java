@@ -0,0 +1,289 @@
+package com.twl.miniredis.cluster;
+
+import com.twl.miniredis.db.HashSlots;
+import com.twl.miniredis.model.dto.ClusterSlotRange;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Client of the HTTP API of a cluster, which sends each request straight to the node that owns the slot of its key.
+ * <br/><br/>
+ * The slot table is loaded from <code>/CLUSTER/SLOTS</code> of the first seed that answers, and kept up to date by the
+ * redirects of the nodes, see {@link ClusterRoutingInterceptor}: a <code>MOVED</code> redirect updates the owner of
+ * the slot, while an <code>ASK</code> redirect is followed once with {@link ClusterRoutingInterceptor#ASKING_HEADER}
+ * and leaves the table unchanged. Redirects must not be followed by the {@link RestTemplate} itself, see
+ * {@link #noRedirectRestTemplate()}.
+ *
+ * @author Tiago Wolker
+ */
+public class ClusterRestClient {
+
+    public static final int MAX_REDIRECTS = 5;
+    static final int MIGRATE_BATCH = 100;
+    static final int MIGRATE_TIMEOUT_MILLIS = 5000;
+
+    private static final ParameterizedTypeReference<List<Object>> PIPELINE_REPLIES = new ParameterizedTypeReference<>() {
+    };
+
+    private final RestTemplate restTemplate;
+    private final List<String> seedUrls;
+    private final AtomicReferenceArray<String> slots = new AtomicReferenceArray<>(HashSlots.SLOT_COUNT);
+
+    /**
+     * @param seedUrls base URLs of some nodes of the cluster, e.g. <code>http://10.0.0.1:8080</code>.
+     */
+    public ClusterRestClient(RestTemplate restTemplate, List<String> seedUrls) {
+        if (seedUrls.isEmpty()) {
+            throw new IllegalArgumentException("At least one seed URL is required.");
+        }
+        this.restTemplate = restTemplate;
+        this.seedUrls = new ArrayList<>(seedUrls);
+    }
+
+    /**
+     * @return a {@link RestTemplate} that returns redirects to the caller instead of following them.
+     */
+    public static RestTemplate noRedirectRestTemplate() {
+        return new RestTemplate(new SimpleClientHttpRequestFactory() {
+            @Override
+            protected void prepareConnection(HttpURLConnection connection, String httpMethod) throws java.io.IOException {
+                super.prepareConnection(connection, httpMethod);
+                connection.setInstanceFollowRedirects(false);
+            }
+        });
+    }
+
+    /**
+     * Reloads the slot table from the first seed that answers.
+     *
+     * @throws RestClientException if no seed answered.
+     */
+    public void refresh() {
+        RestClientException failure = null;
+        for (String seed : seedUrls) {
+            try {
+                ClusterSlotRange[] ranges = restTemplate.getForObject(seed + "/CLUSTER/SLOTS", ClusterSlotRange[].class);
+                for (int slot = 0; slot < HashSlots.SLOT_COUNT; slot++) {
+                    slots.set(slot, null);
+                }
+                for (ClusterSlotRange range : ranges != null ? ranges : new ClusterSlotRange[0]) {
+                    String url = "http://" + range.getHost() + ":" + range.getHttpPort();
+                    for (int slot = range.getStart(); slot <= range.getEnd(); slot++) {
+                        slots.set(slot, url);
+                    }
+                }
+                return;
+            } catch (RestClientException e) {
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * @return base URL of the node that owns the slot, as far as this client knows, or a seed if unknown.
+     */
+    public String getNodeUrl(int slot) {
+        String url = slots.get(slot);
+        return url != null ? url : seedUrls.get(0);
+    }
+
+    public String get(String key) {
+        return this.exchange(key, HttpMethod.GET, "/GET/{key}", null, String.class, key);
+    }
+
+    public String set(String key, String value, Integer exSeconds) {
+        MultiValueMap<String, String> params = new LinkedMultiValueMap<>();
+        params.add("key", key);
+        params.add("value", value);
+        if (exSeconds != null) {
+            params.add("exSeconds", exSeconds.toString());
+        }
+        return this.exchange(key, HttpMethod.PUT, "/SET", params, String.class);
+    }
+
+    /**
+     * @param keys keys in the same slot, see {@link HashSlots}.
+     */
+    public Integer del(String... keys) {
+        return this.exchange(keys[0], HttpMethod.DELETE, "/DEL/{keys}", null, Integer.class, String.join(",", keys));
+    }
+
+    public String incr(String key) {
+        return this.exchange(key, HttpMethod.PUT, "/INCR/{key}", null, String.class, key);
+    }
+
+    public Integer zadd(String key, String... scoreMembers) {
+        MultiValueMap<String, String> params = new LinkedMultiValueMap<>();
+        params.put("values", Arrays.asList(scoreMembers));
+        return this.exchange(key, HttpMethod.PUT, "/ZADD/{key}", params, Integer.class, key);
+    }
+
+    public LinkedHashMap<String, Double> zrange(String key, int start, int stop) {
+        MultiValueMap<String, String> params = new LinkedMultiValueMap<>();
+        params.add("start", Integer.toString(start));
+        params.add("stop", Integer.toString(stop));
+        return this.exchange(key, HttpMethod.GET, "/ZRANGE/{key}", params, new ParameterizedTypeReference<>() {
+        }, key);
+    }
+
+    /**
+     * Sends a request to the node that owns the slot of the key, following up to {@link #MAX_REDIRECTS} redirects.
+     *
+     * @param params request parameters, sent in the query string.
+     * @throws RestClientException if the request failed, or was redirected too many times.
+     */
+    public <T> T exchange(String key, HttpMethod method, String path, MultiValueMap<String, String> params,
+                          Class<T> type, Object... uriVariables) {
+        return this.exchange(key, method, path, params, ParameterizedTypeReference.forType(type), uriVariables);
+    }
+
+    public <T> T exchange(String key, HttpMethod method, String path, MultiValueMap<String, String> params,
+                          ParameterizedTypeReference<T> type, Object... uriVariables) {
+        int slot = HashSlots.slot(key);
+        String url = this.getNodeUrl(slot);
+        boolean asking = false;
+        for (int redirects = 0; redirects <= MAX_REDIRECTS; redirects++) {
+            URI uri = UriComponentsBuilder.fromHttpUrl(url + path)
+                    .queryParams(params != null ? params : new LinkedMultiValueMap<>())
+                    .buildAndExpand(uriVariables).encode().toUri();
+            HttpHeaders headers = new HttpHeaders();
+            if (asking) {
+                headers.set(ClusterRoutingInterceptor.ASKING_HEADER, "true");
+            }
+            ResponseEntity<T> response;
+            try {
+                response = restTemplate.exchange(uri, method, new HttpEntity<>(headers), type);
+            } catch (HttpClientErrorException e) {
+                if (e.getRawStatusCode() != 421) {
+                    throw e;
+                }
+                // The node does not know where the slot went: reload the table and try again.
+                this.refresh();
+                url = this.getNodeUrl(slot);
+                asking = false;
+                continue;
+            }
+            String redirect = response.getHeaders().getFirst(ClusterRoutingInterceptor.REDIRECT_HEADER);
+            URI location = response.getHeaders().getLocation();
+            if (response.getStatusCode() != HttpStatus.TEMPORARY_REDIRECT || redirect == null || location == null) {
+                return response.getBody();
+            }
+            url = location.getScheme() + "://" + location.getAuthority();
+            asking = redirect.startsWith("ASK ");
+            if (!asking) {
+                slots.set(slot, url);
+            }
+        }
+        throw new RestClientException("Too many cluster redirects for key " + key + ".");
+    }
+
+    /**
+     * Moves a slot and its keys from one node to another without downtime, as <code>redis-cli --cluster
+     * reshard</code> does:
+     * <ol>
+     *     <li>Sets the slot <code>IMPORTING</code> on the target and <code>MIGRATING</code> on the source.</li>
+     *     <li>Moves the keys of the slot in batches with <code>MIGRATE</code>, while requests for keys already moved
+     *     are redirected to the target with <code>ASK</code>.</li>
+     *     <li>Assigns the slot to the target on the target, the source and every other known node.</li>
+     * </ol>
+     * Every node is introduced to both nodes with <code>CLUSTER MEET</code> first.
+     *
+     * @param sourceUrl base URL of the node that owns the slot.
+     * @param targetUrl base URL of the node that receives it.
+     * @throws RestClientException if a node could not be reached, or replied with an error.
+     */
+    public void migrateSlot(int slot, String sourceUrl, String targetUrl) {
+        String source = (String) this.pipeline(sourceUrl, List.of("CLUSTER", "MYID")).get(0);
+        String target = (String) this.pipeline(targetUrl, List.of("CLUSTER", "MYID")).get(0);
+        ClusterNode sourceNode = ClusterNode.parse(source + "@" + URI.create(sourceUrl).getPort());
+        ClusterNode targetNode = ClusterNode.parse(target + "@" + URI.create(targetUrl).getPort());
+
+        Set<String> nodeUrls = new LinkedHashSet<>(seedUrls);
+        nodeUrls.add(sourceUrl);
+        nodeUrls.add(targetUrl);
+        this.refresh();
+        for (int i = 0; i < HashSlots.SLOT_COUNT; i++) {
+            if (slots.get(i) != null) {
+                nodeUrls.add(slots.get(i));
+            }
+        }
+        for (String url : nodeUrls) {
+            this.pipeline(url, meet(sourceNode), meet(targetNode));
+        }
+
+        String slotId = Integer.toString(slot);
+        this.pipeline(targetUrl, List.of("CLUSTER", "SETSLOT", slotId, "IMPORTING", source));
+        this.pipeline(sourceUrl, List.of("CLUSTER", "SETSLOT", slotId, "MIGRATING", target));
+        while (true) {
+            @SuppressWarnings("unchecked")
+            List<String> keys = (List<String>) this.pipeline(sourceUrl,
+                    List.of("CLUSTER", "GETKEYSINSLOT", slotId, Integer.toString(MIGRATE_BATCH))).get(0);
+            if (keys.isEmpty()) {
+                break;
+            }
+            List<String> migrate = new ArrayList<>(Arrays.asList("MIGRATE", targetNode.getHost(),
+                    Integer.toString(targetNode.getPort()), "", "0", Integer.toString(MIGRATE_TIMEOUT_MILLIS), "KEYS"));
+            migrate.addAll(keys);
+            this.pipeline(sourceUrl, migrate);
+        }
+
+        List<String> assign = List.of("CLUSTER", "SETSLOT", slotId, "NODE", target);
+        this.pipeline(targetUrl, assign);
+        this.pipeline(sourceUrl, assign);
+        nodeUrls.remove(sourceUrl);
+        nodeUrls.remove(targetUrl);
+        for (String url : nodeUrls) {
+            this.pipeline(url, assign);
+        }
+        slots.set(slot, targetUrl);
+    }
+
+    private static List<String> meet(ClusterNode node) {
+        return List.of("CLUSTER", "MEET", node.getHost(), Integer.toString(node.getPort()),
+                Integer.toString(node.getHttpPort()));
+    }
+
+    /**
+     * Executes commands on a node through <code>/PIPELINE</code>.
+     *
+     * @throws RestClientException if a command replied with an error.
+     */
+    @SafeVarargs
+    private List<Object> pipeline(String url, List<String>... commands) {
+        List<Object> replies = restTemplate.exchange(url + "/PIPELINE", HttpMethod.POST,
+                new HttpEntity<>(Arrays.asList(commands)), PIPELINE_REPLIES).getBody();
+        if (replies == null) {
+            return Collections.emptyList();
+        }
+        for (Object reply : replies) {
+            if (reply instanceof Map && ((Map<?, ?>) reply).containsKey("error")) {
+                throw new RestClientException(url + " replied with error: " + ((Map<?, ?>) reply).get("error"));
+            }
+        }
+        return replies;
+    }
+}
@@ -0,0 +1,105 @@
+package com.twl.miniredis.cluster;
+
+import com.twl.miniredis.command.Reply;
+import com.twl.miniredis.controller.RequestKeys;
+import com.twl.miniredis.exception.BusinessException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.List;
+
+/**
+ * Routes REST requests as {@link ClusterManager} routes commands, by the keys {@link RequestKeys} finds.
+ * <br/><br/>
+ * A request for keys served by another node is answered with <code>307 Temporary Redirect</code> to the same path on
+ * that node's HTTP port, and an {@link #REDIRECT_HEADER} header with the <code>MOVED</code> or <code>ASK</code>
+ * reply. Clients that followed an <code>ASK</code> redirect send {@link #ASKING_HEADER}. If the HTTP port of the node
+ * is unknown, the response is <code>421 Misdirected Request</code> with the header only. Other routing errors, such as
+ * <code>CROSSSLOT</code>, are rejected with 409 Conflict.
+ * <br/><br/>
+ * The slot stays locked until the request completed, or until its asynchronous handling started, so streamed
+ * responses do not block migrations.
+ *
+ * @author Tiago Wolker
+ */
+public class ClusterRoutingInterceptor implements AsyncHandlerInterceptor {
+
+    public static final String REDIRECT_HEADER = "X-Cluster-Redirect";
+    public static final String ASKING_HEADER = "X-Cluster-Asking";
+
+    private static final String SLOT_ATTRIBUTE = ClusterRoutingInterceptor.class.getName() + ".slot";
+    private static final String STAMP_ATTRIBUTE = ClusterRoutingInterceptor.class.getName() + ".stamp";
+
+    private final ClusterManager cluster;
+
+    public ClusterRoutingInterceptor(ClusterManager cluster) {
+        this.cluster = cluster;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws BusinessException {
+        if (request.getDispatcherType() != DispatcherType.REQUEST) {
+            return true;
+        }
+        List<String> keys = RequestKeys.of(request);
+        if (keys.isEmpty()) {
+            return true;
+        }
+        int slot = ClusterManager.slot(keys);
+        if (slot < 0) {
+            throw new BusinessException(ClusterManager.CROSSSLOT);
+        }
+        long stamp = cluster.lockSlot(slot);
+        Reply redirect;
+        try {
+            redirect = cluster.redirect(slot, keys, request.getHeader(ASKING_HEADER) != null);
+        } catch (RuntimeException e) {
+            cluster.unlockSlot(slot, stamp);
+            throw e;
+        }
+        if (redirect == null) {
+            request.setAttribute(SLOT_ATTRIBUTE, slot);
+            request.setAttribute(STAMP_ATTRIBUTE, stamp);
+            return true;
+        }
+        cluster.unlockSlot(slot, stamp);
+        String message = redirect.getMessage();
+        if (!message.startsWith("MOVED ") && !message.startsWith("ASK ")) {
+            throw new BusinessException(message);
+        }
+        response.setHeader(REDIRECT_HEADER, message);
+        ClusterNode node = cluster.getNode(message.substring(message.lastIndexOf(' ') + 1));
+        if (node == null || node.getHttpPort() == 0) {
+            response.setStatus(421);
+            return false;
+        }
+        String query = request.getQueryString();
+        response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+        response.setHeader(HttpHeaders.LOCATION, request.getScheme() + "://" + node.getHost() + ":" + node.getHttpPort()
+                + request.getRequestURI() + (query != null ? "?" + query : ""));
+        return false;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        this.unlock(request);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        this.unlock(request);
+    }
+
+    private void unlock(HttpServletRequest request) {
+        Object stamp = request.getAttribute(STAMP_ATTRIBUTE);
+        if (stamp != null) {
+            request.removeAttribute(STAMP_ATTRIBUTE);
+            cluster.unlockSlot((Integer) request.getAttribute(SLOT_ATTRIBUTE), (Long) stamp);
+        }
+    }
+}
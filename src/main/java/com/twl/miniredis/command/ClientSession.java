@@ -0,0 +1,53 @@
+package com.twl.miniredis.command;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per connection state used while executing commands, such as the negotiated protocol version.
+ *
+ * @author Tiago Wolker
+ */
+@Getter
+@Setter
+public class ClientSession {
+
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final long id = NEXT_ID.incrementAndGet();
+    private int protocol = 2;
+    private String name;
+    /**
+     * Remote address of the client, as <code>ip:port</code>, or empty for internal sessions.
+     */
+    private String address = "";
+    private boolean closeRequested;
+    /**
+     * True for the connection a replica applies the writes of its primary with, which are allowed on a read-only
+     * replica.
+     */
+    private boolean primary;
+    /**
+     * True for the session a script calls commands with, which already holds the locks of its keys and runs on the
+     * node that owns them.
+     */
+    private boolean scripted;
+    /**
+     * Set by a command that takes over the connection once its reply is encoded.
+     */
+    private ConnectionHandoff handoff;
+    /**
+     * Set by <code>ASKING</code>, lets the next command run on a slot this cluster node is importing.
+     */
+    private boolean asking;
+    /**
+     * Whether the keys read by the client are tracked, see {@link KeyTracker}.
+     */
+    private boolean tracking;
+    /**
+     * Delivers push messages to the client, or null if its connection cannot receive them.
+     */
+    private PushSink pushSink;
+}
@@ -0,0 +1,674 @@
+package com.twl.miniredis.command;
+
+import com.twl.miniredis.db.zset.ZSet;
+import com.twl.miniredis.exception.BusinessException;
+import com.twl.miniredis.exception.NonNumericValueException;
+import com.twl.miniredis.exception.NotFoundException;
+import com.twl.miniredis.model.dto.ExpirableValue;
+import com.twl.miniredis.model.dto.ScanResult;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.resp.RespWriter;
+import com.twl.miniredis.service.DatabaseService;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Command table that translates Redis commands, as sent by the RESP listener, into {@link DatabaseService} calls.
+ * <br/><br/>
+ * Replies are plain Java objects: {@link String} for bulk strings, {@link Long} or {@link Integer} for integers,
+ * {@link List} for arrays, {@link Map} for maps (flattened on RESP2), null for nil and {@link Reply} for status and
+ * error replies. This method never throws, errors are always translated into error replies.
+ *
+ * @author Tiago Wolker
+ */
+@Component
+@Log4j2
+public class CommandDispatcher {
+
+    public static final String SERVER_NAME = "mini-redis";
+    public static final String SERVER_VERSION = "0.0.1";
+
+    public static final String SYNTAX_ERROR = "ERR syntax error";
+    public static final String NOT_AN_INTEGER = "ERR value is not an integer or out of range";
+    public static final String NOT_A_FLOAT = "ERR value is not a valid float";
+    public static final String READONLY = "READONLY You can't write against a read only replica.";
+
+    private static final long MAX_EXPIRE_SECONDS = Long.MAX_VALUE / 2000;
+    private static final long DEFAULT_SCAN_COUNT = 10;
+    private static final KeyLocator FIRST_KEY = KeyLocator.range(1, 1, 1);
+
+    private final Map<String, CommandSpec> commands = new HashMap<>();
+    private final DatabaseService service;
+    private volatile CommandObserver[] observers = new CommandObserver[0];
+    private volatile boolean readOnly;
+    private volatile CommandRouter router;
+    private volatile KeyTracker tracker;
+    private volatile KeyLocks keyLocks;
+    private volatile Supplier<String> writeCheck;
+
+    public CommandDispatcher(DatabaseService service) {
+        this.service = service;
+
+        register("PING", -1, false, this::ping);
+        register("ECHO", 2, false, (session, args) -> args.get(1));
+        register("HELLO", -1, false, this::hello);
+        register("QUIT", 1, false, this::quit);
+        register("SELECT", 2, false, this::select);
+        register("COMMAND", -1, false, (session, args) -> Collections.emptyList());
+        register("CONFIG", -2, false, (session, args) -> Collections.emptyList());
+        register("CLIENT", -2, false, this::client);
+
+        register("SET", -3, true, FIRST_KEY, this::set);
+        register("GET", 2, false, FIRST_KEY, (session, args) -> service.getBytesValue(args.get(1)));
+        register("DEL", -2, true, KeyLocator.range(1, -1, 1), (session, args) -> service.del(arguments(args, 1)));
+        register("DBSIZE", 1, false, (session, args) -> service.dbsize());
+        register("FLUSHALL", -1, true, this::flushAll);
+        register("OBJECT", 3, false, KeyLocator.range(2, 2, 1), this::object);
+        register("SCAN", -2, false, this::scan);
+        register("INCR", 2, true, FIRST_KEY, (session, args) -> Long.parseLong(service.incr(args.get(1))));
+        register("INCRBY", 3, true, FIRST_KEY, (session, args) -> Long.parseLong(service.incrBy(args.get(1), Long.parseLong(args.get(2)))));
+        register("DECR", 2, true, FIRST_KEY, (session, args) -> Long.parseLong(service.decr(args.get(1))));
+        register("DECRBY", 3, true, FIRST_KEY, (session, args) -> Long.parseLong(service.decrBy(args.get(1), Long.parseLong(args.get(2)))));
+        register("INCRBYFLOAT", 3, true, FIRST_KEY, this::incrByFloat);
+
+        register("ZADD", -4, true, FIRST_KEY, (session, args) -> service.zadd(args.get(1), arguments(args, 2)));
+        register("ZCARD", 2, false, FIRST_KEY, (session, args) -> service.zcard(args.get(1)));
+        register("ZRANK", 3, false, FIRST_KEY, (session, args) -> service.zrank(args.get(1), args.get(2)));
+        register("ZRANGE", -4, false, FIRST_KEY, this::zrange);
+        register("ZREVRANGE", -4, false, FIRST_KEY, this::zrange);
+        register("ZRANGEBYSCORE", -4, false, FIRST_KEY, this::zrangeByScore);
+        register("ZREVRANGEBYSCORE", -4, false, FIRST_KEY, this::zrangeByScore);
+        register("ZRANGEBYLEX", -4, false, FIRST_KEY, this::zrangeByLex);
+        register("ZCOUNT", 4, false, FIRST_KEY, (session, args) -> service.zcount(args.get(1), args.get(2), args.get(3)));
+        register("ZREVRANK", 3, false, FIRST_KEY, (session, args) -> service.zrevrank(args.get(1), args.get(2)));
+        register("ZSCORE", 3, false, FIRST_KEY, (session, args) -> service.zscore(args.get(1), args.get(2)));
+        register("ZINCRBY", 4, true, FIRST_KEY, this::zincrBy);
+        register("ZREM", -3, true, FIRST_KEY, (session, args) -> service.zrem(args.get(1), arguments(args, 2)));
+        register("ZUNIONSTORE", -4, true, CommandDispatcher::zstoreKeys, this::zstore);
+        register("ZINTERSTORE", -4, true, CommandDispatcher::zstoreKeys, this::zstore);
+        register("ZSCAN", -3, false, FIRST_KEY, this::zscan);
+
+        register("HSET", -4, true, FIRST_KEY, (session, args) -> service.hset(args.get(1), arguments(args, 2)));
+        register("HGET", 3, false, FIRST_KEY, (session, args) -> service.hget(args.get(1), args.get(2)));
+        register("HMGET", -3, false, FIRST_KEY, (session, args) -> service.hmget(args.get(1), arguments(args, 2)));
+        register("HDEL", -3, true, FIRST_KEY, (session, args) -> service.hdel(args.get(1), arguments(args, 2)));
+        register("HINCRBY", 4, true, FIRST_KEY, (session, args) -> service.hincrBy(args.get(1), args.get(2), Long.parseLong(args.get(3))));
+        register("HLEN", 2, false, FIRST_KEY, (session, args) -> service.hlen(args.get(1)));
+        register("HGETALL", 2, false, FIRST_KEY, (session, args) -> service.hgetall(args.get(1)));
+    }
+
+    /**
+     * Executes the given command.
+     *
+     * @param session state of the client that issued the command.
+     * @param args command name followed by its arguments.
+     * @return reply of the command.
+     */
+    public Object execute(ClientSession session, List<String> args) {
+        if (args.isEmpty()) {
+            return Reply.error("ERR empty command");
+        }
+        CommandSpec spec = commands.get(args.get(0).toUpperCase(Locale.ROOT));
+        if (spec == null) {
+            return Reply.error("ERR unknown command '" + args.get(0) + "'");
+        }
+        if (!spec.acceptsArity(args.size())) {
+            spec.getStats().reject();
+            return Reply.error("ERR wrong number of arguments for '" + spec.getName().toLowerCase(Locale.ROOT) + "' command");
+        }
+        if (spec.isWrite() && !session.isPrimary()) {
+            Supplier<String> writeCheck = this.writeCheck;
+            String error = readOnly ? READONLY : writeCheck != null ? writeCheck.get() : null;
+            if (error != null) {
+                spec.getStats().reject();
+                return Reply.error(error);
+            }
+        }
+        long started = System.nanoTime();
+        CommandRouter router = this.router;
+        Object reply = router == null ? this.invoke(spec, session, args)
+                : router.route(session, spec, args, () -> this.invoke(spec, session, args));
+        long nanos = System.nanoTime() - started;
+        spec.getStats().record(nanos, reply instanceof Reply && ((Reply) reply).isError());
+        for (CommandObserver observer : observers) {
+            observer.onExecuted(session, args, nanos);
+        }
+        return reply;
+    }
+
+    private Object invoke(CommandSpec spec, ClientSession session, List<String> args) {
+        KeyLocks.Held held = null;
+        try {
+            List<String> keys = spec.getKeys() != null ? spec.getKeys().keys(args) : null;
+            if (session.isTracking() && !spec.isWrite() && keys != null) {
+                tracker.track(session, keys);
+            }
+            KeyLocks keyLocks = this.keyLocks;
+            if (keyLocks != null && !session.isScripted()) {
+                if (keys != null) {
+                    held = keyLocks.lock(keys, spec.isExclusive());
+                } else if (spec.isWrite()) {
+                    // The keys it writes are unknown, e.g. FLUSHALL, so it must not run during any script.
+                    held = keyLocks.lockAll();
+                }
+            }
+            return spec.getHandler().handle(session, args);
+        } catch (NotFoundException e) {
+            return null;
+        } catch (NonNumericValueException | NumberFormatException e) {
+            return Reply.error(NOT_AN_INTEGER);
+        } catch (BusinessException e) {
+            return Reply.error(e.getMessage());
+        } catch (Exception e) {
+            log.error("Unexpected error executing command {}.", spec.getName(), e);
+            return Reply.error("ERR " + e.getMessage());
+        } finally {
+            if (held != null) {
+                held.unlock();
+            }
+        }
+    }
+
+    /**
+     * Rejects write commands, except those applied by the connection to the primary, as replicas do.
+     */
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Rejects write commands, except those applied by the connection to the primary, while the check returns an error,
+     * as the append only file does while it cannot be written.
+     *
+     * @param writeCheck returns the error to reply with, or null to accept writes.
+     */
+    public void setWriteCheck(Supplier<String> writeCheck) {
+        this.writeCheck = writeCheck;
+    }
+
+    public CommandSpec lookup(String name) {
+        return commands.get(name.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * @return every command of the table, with its statistics.
+     */
+    public Collection<CommandSpec> getCommands() {
+        return Collections.unmodifiableCollection(commands.values());
+    }
+
+    /**
+     * Adds a command to the table. Besides the commands registered here, components such as the persistence layer
+     * register their own commands when they are created.
+     *
+     * @param name command name, in upper case.
+     * @param arity number of arguments including the command name, or its negative for a minimum.
+     * @param write whether the command changes the database.
+     */
+    public void register(String name, int arity, boolean write, CommandHandler handler) {
+        this.register(name, arity, write, null, handler);
+    }
+
+    /**
+     * Adds a command that reads or writes keys, see {@link #register(String, int, boolean, CommandHandler)}.
+     *
+     * @param keys finds the keys among the arguments.
+     */
+    public void register(String name, int arity, boolean write, KeyLocator keys, CommandHandler handler) {
+        this.register(name, arity, write, keys, false, handler);
+    }
+
+    /**
+     * Adds a command that reads or writes keys, see {@link #register(String, int, boolean, CommandHandler)}.
+     *
+     * @param keys finds the keys among the arguments.
+     * @param exclusive whether the command holds its keys exclusively while it runs, see {@link #setKeyLocks}.
+     */
+    public void register(String name, int arity, boolean write, KeyLocator keys, boolean exclusive,
+                         CommandHandler handler) {
+        commands.put(name, new CommandSpec(name, arity, write, keys, exclusive, handler));
+    }
+
+    /**
+     * Routes every command through the given router before it runs, as cluster mode does.
+     */
+    public void setRouter(CommandRouter router) {
+        this.router = router;
+    }
+
+    /**
+     * Enables <code>CLIENT TRACKING</code>, see {@link KeyTracker}.
+     */
+    public void setTracker(KeyTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    /**
+     * Locks the keys of every command while it runs, shared or, for exclusive commands, exclusively. Write commands
+     * without keys lock every key exclusively. Commands of a {@link ClientSession#isScripted() scripted} session run
+     * under the locks of their script.
+     */
+    public void setKeyLocks(KeyLocks keyLocks) {
+        this.keyLocks = keyLocks;
+    }
+
+    /**
+     * Releases the state kept for a client whose connection was closed.
+     */
+    public void disconnect(ClientSession session) {
+        if (session.isTracking()) {
+            tracker.untrack(session);
+        }
+    }
+
+    /**
+     * Adds an observer of the executed commands, such as the slow log. Commands rejected before being executed are
+     * not observed.
+     */
+    public synchronized void addObserver(CommandObserver observer) {
+        CommandObserver[] current = observers;
+        CommandObserver[] updated = new CommandObserver[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = observer;
+        observers = updated;
+    }
+
+    private Object ping(ClientSession session, List<String> args) {
+        if (args.size() > 2) {
+            return Reply.error("ERR wrong number of arguments for 'ping' command");
+        }
+        return args.size() == 2 ? args.get(1) : Reply.PONG;
+    }
+
+    private Object hello(ClientSession session, List<String> args) {
+        int i = 1;
+        int protocol = session.getProtocol();
+        if (args.size() > 1) {
+            try {
+                protocol = Integer.parseInt(args.get(1));
+            } catch (NumberFormatException e) {
+                return Reply.error("ERR Protocol version is not an integer or out of range");
+            }
+            if (protocol != 2 && protocol != 3) {
+                return Reply.error("NOPROTO unsupported protocol version");
+            }
+            i++;
+        }
+        String name = null;
+        for (; i < args.size(); i++) {
+            String option = args.get(i).toUpperCase(Locale.ROOT);
+            if ("SETNAME".equals(option) && i + 1 < args.size()) {
+                name = args.get(++i);
+            } else if ("AUTH".equals(option) && i + 2 < args.size()) {
+                i += 2;
+            } else {
+                return Reply.error(SYNTAX_ERROR);
+            }
+        }
+        // Applied only once every option is valid, so a failed HELLO leaves the connection as it was.
+        session.setProtocol(protocol);
+        if (name != null) {
+            session.setName(name);
+        }
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("server", SERVER_NAME);
+        info.put("version", SERVER_VERSION);
+        info.put("proto", session.getProtocol());
+        info.put("id", session.getId());
+        info.put("mode", "standalone");
+        info.put("role", "master");
+        info.put("modules", Collections.emptyList());
+        return info;
+    }
+
+    private Object quit(ClientSession session, List<String> args) {
+        session.setCloseRequested(true);
+        return Reply.OK;
+    }
+
+    private Object select(ClientSession session, List<String> args) {
+        return "0".equals(args.get(1)) ? Reply.OK : Reply.error("ERR DB index is out of range");
+    }
+
+    private Object client(ClientSession session, List<String> args) {
+        String subcommand = args.get(1).toUpperCase(Locale.ROOT);
+        switch (subcommand) {
+            case "ID":
+                return session.getId();
+            case "GETNAME":
+                return session.getName();
+            case "SETNAME":
+                if (args.size() != 3) {
+                    return Reply.error(SYNTAX_ERROR);
+                }
+                session.setName(args.get(2));
+                return Reply.OK;
+            case "TRACKING":
+                KeyTracker tracker = this.tracker;
+                return tracker != null ? tracker.configure(session, args) : Reply.error("ERR client tracking is not available");
+            default:
+                return Reply.error("ERR unknown subcommand '" + args.get(1) + "'");
+        }
+    }
+
+    /**
+     * SET key value [EX seconds | PX milliseconds | EXAT unix-time-seconds | PXAT unix-time-milliseconds]
+     */
+    private Object set(ClientSession session, List<String> args) throws Exception {
+        long expireAt = ExpirableValue.NO_EXPIRE;
+        for (int i = 3; i < args.size(); i++) {
+            String option = args.get(i).toUpperCase(Locale.ROOT);
+            if (expireAt == ExpirableValue.NO_EXPIRE && i + 1 < args.size()
+                    && ("EX".equals(option) || "PX".equals(option) || "EXAT".equals(option) || "PXAT".equals(option))) {
+                long time = Long.parseLong(args.get(++i));
+                if (time <= 0 || time > MAX_EXPIRE_SECONDS) {
+                    return Reply.error("ERR invalid expire time in 'set' command");
+                }
+                switch (option) {
+                    case "EX":
+                        expireAt = System.currentTimeMillis() + time * 1000;
+                        break;
+                    case "PX":
+                        expireAt = System.currentTimeMillis() + time;
+                        break;
+                    case "EXAT":
+                        expireAt = time * 1000;
+                        break;
+                    default:
+                        expireAt = time;
+                }
+            } else {
+                return Reply.error(SYNTAX_ERROR);
+            }
+        }
+        service.setKeyValueUntil(args.get(1), args.get(2), expireAt);
+        return Reply.OK;
+    }
+
+    /**
+     * OBJECT ENCODING key
+     */
+    private Object object(ClientSession session, List<String> args) throws Exception {
+        if (!"ENCODING".equalsIgnoreCase(args.get(1))) {
+            return Reply.error("ERR unknown subcommand '" + args.get(1) + "'");
+        }
+        return service.encoding(args.get(2));
+    }
+
+    /**
+     * INCRBYFLOAT key increment
+     */
+    private Object incrByFloat(ClientSession session, List<String> args) throws Exception {
+        double increment;
+        try {
+            increment = Double.parseDouble(args.get(2));
+        } catch (NumberFormatException e) {
+            return Reply.error(NOT_A_FLOAT);
+        }
+        try {
+            return service.incrByFloat(args.get(1), increment);
+        } catch (NonNumericValueException e) {
+            return Reply.error(NOT_A_FLOAT);
+        }
+    }
+
+    /**
+     * FLUSHALL [ASYNC|SYNC], the keys are always removed before the reply.
+     */
+    private Object flushAll(ClientSession session, List<String> args) {
+        if (args.size() > 2 || args.size() == 2 && !"ASYNC".equalsIgnoreCase(args.get(1))
+                && !"SYNC".equalsIgnoreCase(args.get(1))) {
+            return Reply.error(SYNTAX_ERROR);
+        }
+        service.flushAll();
+        return Reply.OK;
+    }
+
+    /**
+     * ZRANGE | ZREVRANGE key start stop [WITHSCORES]
+     */
+    private Object zrange(ClientSession session, List<String> args) throws Exception {
+        boolean withScores = false;
+        if (args.size() == 5 && "WITHSCORES".equalsIgnoreCase(args.get(4))) {
+            withScores = true;
+        } else if (args.size() != 4) {
+            return Reply.error(SYNTAX_ERROR);
+        }
+        int start = Integer.parseInt(args.get(2));
+        int stop = Integer.parseInt(args.get(3));
+        LinkedHashMap<String, Double> range;
+        try {
+            range = "ZREVRANGE".equalsIgnoreCase(args.get(0))
+                    ? service.zrevrange(args.get(1), start, stop)
+                    : service.zrange(args.get(1), start, stop);
+        } catch (NotFoundException e) {
+            return Collections.emptyList();
+        }
+        return rangeReply(session, range, withScores);
+    }
+
+    /**
+     * ZRANGEBYSCORE key min max | ZREVRANGEBYSCORE key max min, followed by [WITHSCORES] [LIMIT offset count]
+     */
+    private Object zrangeByScore(ClientSession session, List<String> args) throws Exception {
+        boolean withScores = false;
+        long[] limit = {0, -1};
+        for (int i = 4; i < args.size(); i++) {
+            if ("WITHSCORES".equalsIgnoreCase(args.get(i))) {
+                withScores = true;
+            } else if ("LIMIT".equalsIgnoreCase(args.get(i)) && i + 2 < args.size()) {
+                limit[0] = Long.parseLong(args.get(++i));
+                limit[1] = Long.parseLong(args.get(++i));
+            } else {
+                return Reply.error(SYNTAX_ERROR);
+            }
+        }
+        LinkedHashMap<String, Double> range;
+        try {
+            range = "ZREVRANGEBYSCORE".equalsIgnoreCase(args.get(0))
+                    ? service.zrevrangeByScore(args.get(1), args.get(2), args.get(3), limit[0], limit[1])
+                    : service.zrangeByScore(args.get(1), args.get(2), args.get(3), limit[0], limit[1]);
+        } catch (NotFoundException e) {
+            return Collections.emptyList();
+        }
+        return rangeReply(session, range, withScores);
+    }
+
+    /**
+     * ZRANGEBYLEX key min max [LIMIT offset count]
+     */
+    private Object zrangeByLex(ClientSession session, List<String> args) throws Exception {
+        long offset = 0;
+        long count = -1;
+        if (args.size() == 7 && "LIMIT".equalsIgnoreCase(args.get(4))) {
+            offset = Long.parseLong(args.get(5));
+            count = Long.parseLong(args.get(6));
+        } else if (args.size() != 4) {
+            return Reply.error(SYNTAX_ERROR);
+        }
+        try {
+            return new ArrayList<>(service.zrangeByLex(args.get(1), args.get(2), args.get(3), offset, count).keySet());
+        } catch (NotFoundException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * ZINCRBY key increment member
+     */
+    private Object zincrBy(ClientSession session, List<String> args) throws Exception {
+        double increment;
+        try {
+            increment = ZSet.parseScore(args.get(2));
+        } catch (NumberFormatException e) {
+            return Reply.error(NOT_A_FLOAT);
+        }
+        return service.zincrBy(args.get(1), increment, args.get(3));
+    }
+
+    /**
+     * Destination followed by the input keys of ZUNIONSTORE | ZINTERSTORE.
+     */
+    private static List<String> zstoreKeys(List<String> args) {
+        int numKeys;
+        try {
+            numKeys = Integer.parseInt(args.get(2));
+        } catch (NumberFormatException e) {
+            numKeys = 0;
+        }
+        List<String> keys = new ArrayList<>();
+        keys.add(args.get(1));
+        keys.addAll(args.subList(3, Math.min(3 + Math.max(numKeys, 0), args.size())));
+        return keys;
+    }
+
+    /**
+     * ZUNIONSTORE | ZINTERSTORE destination numkeys key [key ...] [WEIGHTS weight [weight ...]]
+     * [AGGREGATE SUM|MIN|MAX]
+     */
+    private Object zstore(ClientSession session, List<String> args) throws Exception {
+        int numKeys = Integer.parseInt(args.get(2));
+        if (numKeys < 1) {
+            return Reply.error("ERR at least 1 input key is needed for '" + args.get(0).toLowerCase(Locale.ROOT) + "' command");
+        } else if (3 + numKeys > args.size()) {
+            return Reply.error(SYNTAX_ERROR);
+        }
+        String[] keys = args.subList(3, 3 + numKeys).toArray(new String[0]);
+        double[] weights = null;
+        String aggregate = null;
+        for (int i = 3 + numKeys; i < args.size(); i++) {
+            if ("WEIGHTS".equalsIgnoreCase(args.get(i)) && i + numKeys < args.size()) {
+                weights = new double[numKeys];
+                for (int j = 0; j < numKeys; j++) {
+                    try {
+                        weights[j] = ZSet.parseScore(args.get(++i));
+                    } catch (NumberFormatException e) {
+                        return Reply.error("ERR weight value is not a float");
+                    }
+                }
+            } else if ("AGGREGATE".equalsIgnoreCase(args.get(i)) && i + 1 < args.size()) {
+                aggregate = args.get(++i);
+            } else {
+                return Reply.error(SYNTAX_ERROR);
+            }
+        }
+        return "ZINTERSTORE".equalsIgnoreCase(args.get(0))
+                ? service.zinterstore(args.get(1), keys, weights, aggregate)
+                : service.zunionstore(args.get(1), keys, weights, aggregate);
+    }
+
+    /**
+     * @return the members of a range, followed by their scores if requested, as pairs on RESP3.
+     */
+    private static List<Object> rangeReply(ClientSession session, LinkedHashMap<String, Double> range, boolean withScores) {
+        List<Object> reply = new ArrayList<>(withScores ? range.size() * 2 : range.size());
+        for (Map.Entry<String, Double> entry : range.entrySet()) {
+            if (!withScores) {
+                reply.add(entry.getKey());
+            } else if (session.getProtocol() == 3) {
+                reply.add(List.of(entry.getKey(), entry.getValue()));
+            } else {
+                reply.add(entry.getKey());
+                reply.add(entry.getValue());
+            }
+        }
+        return reply;
+    }
+
+    /**
+     * SCAN cursor [MATCH pattern] [COUNT count] [TYPE type]
+     */
+    private Object scan(ClientSession session, List<String> args) throws Exception {
+        String[] options = new String[3];
+        Reply error = scanOptions(args, 2, options, true);
+        if (error != null) {
+            return error;
+        }
+        Long cursor = parseCursor(args.get(1));
+        if (cursor == null) {
+            return Reply.error(DatabaseRepository.INVALID_CURSOR);
+        }
+        ScanResult<List<String>> result = service.scan(cursor, options[0],
+                options[1] == null ? DEFAULT_SCAN_COUNT : Long.parseLong(options[1]), options[2]);
+        return List.of(Long.toUnsignedString(result.getCursor()), result.getElements());
+    }
+
+    /**
+     * ZSCAN key cursor [MATCH pattern] [COUNT count]
+     */
+    private Object zscan(ClientSession session, List<String> args) throws Exception {
+        String[] options = new String[3];
+        Reply error = scanOptions(args, 3, options, false);
+        if (error != null) {
+            return error;
+        }
+        Long cursor = parseCursor(args.get(2));
+        if (cursor == null) {
+            return Reply.error(DatabaseRepository.INVALID_CURSOR);
+        }
+        ScanResult<LinkedHashMap<String, Double>> result = service.zscan(args.get(1), cursor, options[0],
+                options[1] == null ? DEFAULT_SCAN_COUNT : Long.parseLong(options[1]));
+        List<String> elements = new ArrayList<>(result.getElements().size() * 2);
+        for (Map.Entry<String, Double> entry : result.getElements().entrySet()) {
+            elements.add(entry.getKey());
+            elements.add(RespWriter.formatDouble(entry.getValue()));
+        }
+        return List.of(Long.toUnsignedString(result.getCursor()), elements);
+    }
+
+    /**
+     * Reads the MATCH, COUNT and, if allowed, TYPE options into <code>options</code>, in this order.
+     *
+     * @return an error reply, or null if the options are valid.
+     */
+    private static Reply scanOptions(List<String> args, int from, String[] options, boolean allowType) {
+        for (int i = from; i < args.size(); i += 2) {
+            String option = args.get(i).toUpperCase(Locale.ROOT);
+            if (i + 1 >= args.size()) {
+                return Reply.error(SYNTAX_ERROR);
+            } else if ("MATCH".equals(option)) {
+                options[0] = args.get(i + 1);
+            } else if ("COUNT".equals(option)) {
+                try {
+                    if (Long.parseLong(args.get(i + 1)) < 1) {
+                        return Reply.error(SYNTAX_ERROR);
+                    }
+                } catch (NumberFormatException e) {
+                    return Reply.error(NOT_AN_INTEGER);
+                }
+                options[1] = args.get(i + 1);
+            } else if (allowType && "TYPE".equals(option)) {
+                options[2] = args.get(i + 1);
+            } else {
+                return Reply.error(SYNTAX_ERROR);
+            }
+        }
+        return null;
+    }
+
+    private static Long parseCursor(String cursor) {
+        try {
+            return Long.parseUnsignedLong(cursor);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String[] arguments(List<String> args, int from) {
+        return args.subList(from, args.size()).toArray(new String[0]);
+    }
+}
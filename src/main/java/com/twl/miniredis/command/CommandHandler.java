@@ -0,0 +1,14 @@
+package com.twl.miniredis.command;
+
+import java.util.List;
+
+/**
+ * Executes a single command. The first argument is always the command name.
+ *
+ * @author Tiago Wolker
+ */
+@FunctionalInterface
+public interface CommandHandler {
+
+    Object handle(ClientSession session, List<String> args) throws Exception;
+}
@@ -0,0 +1,20 @@
+package com.twl.miniredis.command;
+
+import java.util.List;
+
+/**
+ * Notified after each command executed by the {@link CommandDispatcher}, on the thread that executed it, so
+ * implementations must be cheap for the common case.
+ *
+ * @author Tiago Wolker
+ */
+@FunctionalInterface
+public interface CommandObserver {
+
+    /**
+     * @param session client that issued the command.
+     * @param args command name followed by its arguments.
+     * @param nanos execution time.
+     */
+    void onExecuted(ClientSession session, List<String> args, long nanos);
+}
@@ -0,0 +1,20 @@
+package com.twl.miniredis.command;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Decides whether a command runs on this node, as cluster mode does with the hash slot of its keys. Called by the
+ * {@link CommandDispatcher} for every command that passed the arity check.
+ *
+ * @author Tiago Wolker
+ */
+@FunctionalInterface
+public interface CommandRouter {
+
+    /**
+     * @param execution runs the command on this node and returns its reply.
+     * @return the reply of the execution, or an error, such as a redirection, without running it.
+     */
+    Object route(ClientSession session, CommandSpec spec, List<String> args, Supplier<Object> execution);
+}
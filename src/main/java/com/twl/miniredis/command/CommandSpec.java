@@ -0,0 +1,34 @@
+package com.twl.miniredis.command;
+
+import com.twl.miniredis.metrics.CommandStats;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Command table entry. Arity follows the Redis convention: a positive value is the exact number of arguments
+ * (command name included) and a negative value is the minimum number of arguments.
+ *
+ * @author Tiago Wolker
+ */
+@Getter
+@AllArgsConstructor
+public class CommandSpec {
+
+    private final String name;
+    private final int arity;
+    private final boolean write;
+    /**
+     * Finds the keys of the command, or null for a command without keys.
+     */
+    private final KeyLocator keys;
+    /**
+     * Whether the command holds its keys exclusively while it runs, as scripts do, see {@link KeyLocks}.
+     */
+    private final boolean exclusive;
+    private final CommandHandler handler;
+    private final CommandStats stats = new CommandStats();
+
+    public boolean acceptsArity(int argc) {
+        return arity > 0 ? argc == arity : argc >= -arity;
+    }
+}
@@ -0,0 +1,21 @@
+package com.twl.miniredis.command;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Takes over a RESP connection after a command, such as <code>PSYNC</code>, turned it into something other than a
+ * request and reply stream. The listener stops serving the connection once the reply of the command is encoded.
+ *
+ * @author Tiago Wolker
+ */
+@FunctionalInterface
+public interface ConnectionHandoff {
+
+    /**
+     * @param channel non-blocking channel of the connection, no longer registered with the listener.
+     * @param pendingOutput replies encoded but not written yet, including the reply of the command, which must be
+     *                      written before anything else.
+     */
+    void takeOver(SocketChannel channel, ByteBuffer pendingOutput);
+}
@@ -0,0 +1,44 @@
+package com.twl.miniredis.command;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds the keys among the arguments of a command, so cluster mode can route the command to the node that owns them.
+ *
+ * @author Tiago Wolker
+ */
+@FunctionalInterface
+public interface KeyLocator {
+
+    /**
+     * @param args command name followed by its arguments, with an arity already checked.
+     * @return the keys of the command, possibly empty.
+     */
+    List<String> keys(List<String> args);
+
+    /**
+     * Keys at fixed positions, as in the Redis command table.
+     *
+     * @param first position of the first key.
+     * @param last position of the last key, or a negative value counting from the end (-1 for the last argument).
+     * @param step distance between keys.
+     */
+    static KeyLocator range(int first, int last, int step) {
+        return args -> {
+            int end = last < 0 ? args.size() + last : Math.min(last, args.size() - 1);
+            if (first > end) {
+                return Collections.emptyList();
+            }
+            if (first == end) {
+                return Collections.singletonList(args.get(first));
+            }
+            List<String> keys = new ArrayList<>((end - first) / step + 1);
+            for (int i = first; i <= end; i += step) {
+                keys.add(args.get(i));
+            }
+            return keys;
+        };
+    }
+}
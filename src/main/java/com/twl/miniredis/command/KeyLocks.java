@@ -0,0 +1,92 @@
+package com.twl.miniredis.command;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Striped read-write locks over keys, which make scripts atomic: commands hold the locks of their keys shared while
+ * they run, and a script holds the locks of the keys it declared exclusively, so no other command sees or changes
+ * those keys halfway through the script.
+ * <br/><br/>
+ * The stripes of a command are always locked in ascending order, so commands on several keys cannot deadlock, and a
+ * holder must not lock again before it unlocks, as the locks are not reentrant. Commands that write without naming
+ * their keys, such as <code>FLUSHALL</code>, {@link #lockAll() lock every stripe}.
+ *
+ * @author Tiago Wolker
+ */
+public final class KeyLocks {
+
+    private static final int STRIPES = 1024;
+
+    private final StampedLock[] locks = new StampedLock[STRIPES];
+
+    public KeyLocks() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new StampedLock();
+        }
+    }
+
+    /**
+     * Locks the stripes of the given keys, blocking until they are available.
+     *
+     * @param exclusive whether to exclude every other holder of the stripes, rather than only exclusive holders.
+     * @return the held locks, to {@link Held#unlock() unlock} once done.
+     */
+    public Held lock(List<String> keys, boolean exclusive) {
+        int[] stripes = new int[keys.size()];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = (keys.get(i).hashCode() & 0x7FFFFFFF) % STRIPES;
+        }
+        Arrays.sort(stripes);
+        int count = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            if (i == 0 || stripes[i] != stripes[i - 1]) {
+                stripes[count++] = stripes[i];
+            }
+        }
+        long[] stamps = new long[count];
+        for (int i = 0; i < count; i++) {
+            StampedLock lock = locks[stripes[i]];
+            stamps[i] = exclusive ? lock.writeLock() : lock.readLock();
+        }
+        return new Held(stripes, stamps, count);
+    }
+
+    /**
+     * Locks every stripe exclusively, in ascending order as {@link #lock(List, boolean)} does, blocking until no other
+     * command holds any of them.
+     *
+     * @return the held locks, to {@link Held#unlock() unlock} once done.
+     */
+    public Held lockAll() {
+        int[] stripes = new int[STRIPES];
+        long[] stamps = new long[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = i;
+            stamps[i] = locks[i].writeLock();
+        }
+        return new Held(stripes, stamps, STRIPES);
+    }
+
+    /**
+     * Locks taken by {@link #lock(List, boolean)} or {@link #lockAll()}.
+     */
+    public final class Held {
+        private final int[] stripes;
+        private final long[] stamps;
+        private final int count;
+
+        private Held(int[] stripes, long[] stamps, int count) {
+            this.stripes = stripes;
+            this.stamps = stamps;
+            this.count = count;
+        }
+
+        public void unlock() {
+            for (int i = count - 1; i >= 0; i--) {
+                locks[stripes[i]].unlock(stamps[i]);
+            }
+        }
+    }
+}
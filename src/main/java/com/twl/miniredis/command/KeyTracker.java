@@ -0,0 +1,28 @@
+package com.twl.miniredis.command;
+
+import java.util.List;
+
+/**
+ * Remembers the keys read by clients that enabled tracking with <code>CLIENT TRACKING ON</code>, so they can be told
+ * when those keys change.
+ *
+ * @author Tiago Wolker
+ */
+public interface KeyTracker {
+
+    /**
+     * Handles <code>CLIENT TRACKING ON|OFF [options]</code>.
+     */
+    Object configure(ClientSession session, List<String> args);
+
+    /**
+     * Called before a command that reads the keys is executed for a session with tracking enabled, so a write that
+     * follows the read is always invalidated.
+     */
+    void track(ClientSession session, List<String> keys);
+
+    /**
+     * Called when the connection of a session with tracking enabled is closed.
+     */
+    void untrack(ClientSession session);
+}
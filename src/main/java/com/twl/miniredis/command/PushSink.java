@@ -0,0 +1,21 @@
+package com.twl.miniredis.command;
+
+import java.util.List;
+
+/**
+ * Delivers out-of-band messages, such as invalidations of client-side caches, to a client between its replies. RESP
+ * connections deliver them as RESP3 push messages.
+ *
+ * @author Tiago Wolker
+ */
+@FunctionalInterface
+public interface PushSink {
+
+    /**
+     * Queues the message without blocking, since it may be called while keys are locked.
+     *
+     * @param message elements of the push message, e.g. <code>["invalidate", ["key"]]</code>.
+     * @return false if the client is gone and will never receive messages again.
+     */
+    boolean push(List<?> message);
+}
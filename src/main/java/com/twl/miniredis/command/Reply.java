@@ -0,0 +1,48 @@
+package com.twl.miniredis.command;
+
+import lombok.Getter;
+
+/**
+ * Simple status (<code>+OK</code>) or error (<code>-ERR message</code>) reply. Every other reply is returned by the
+ * {@link CommandDispatcher} as a plain Java object: strings, numbers, lists, maps or null.
+ *
+ * @author Tiago Wolker
+ */
+@Getter
+public final class Reply {
+
+    public static final Reply OK = status("OK");
+    public static final Reply PONG = status("PONG");
+
+    private final String message;
+    private final boolean error;
+
+    private Reply(String message, boolean error) {
+        this.message = message;
+        this.error = error;
+    }
+
+    public static Reply status(String message) {
+        return new Reply(message, false);
+    }
+
+    /**
+     * @param message error message. If it does not start with an upper case error code, <code>ERR</code> is used.
+     */
+    public static Reply error(String message) {
+        if (message == null || message.isEmpty()) {
+            return new Reply("ERR", true);
+        }
+        int space = message.indexOf(' ');
+        String code = space > 0 ? message.substring(0, space) : message;
+        if (!code.equals(code.toUpperCase()) || !Character.isLetter(code.charAt(0))) {
+            message = "ERR " + message;
+        }
+        return new Reply(message.replace('\r', ' ').replace('\n', ' '), true);
+    }
+
+    @Override
+    public String toString() {
+        return message;
+    }
+}
@@ -0,0 +1,29 @@
+package com.twl.miniredis.config;
+
+import com.twl.miniredis.cluster.ClusterManager;
+import com.twl.miniredis.cluster.ClusterRoutingInterceptor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Routes the HTTP API by hash slot in cluster mode, see {@link ClusterRoutingInterceptor}.
+ *
+ * @author Tiago Wolker
+ */
+@Configuration
+@ConditionalOnProperty(name = "miniredis.cluster.enabled", havingValue = "true")
+public class ClusterConfig implements WebMvcConfigurer {
+
+    private final ClusterManager cluster;
+
+    public ClusterConfig(ClusterManager cluster) {
+        this.cluster = cluster;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new ClusterRoutingInterceptor(cluster));
+    }
+}
@@ -0,0 +1,28 @@
+package com.twl.miniredis.config;
+
+import com.twl.miniredis.db.Database;
+import com.twl.miniredis.db.eviction.EvictionPolicy;
+import com.twl.miniredis.db.hash.Hash;
+import com.twl.miniredis.db.zset.ZSet;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class DatabaseConfig {
+
+    public DatabaseConfig(@Value("${miniredis.database.shards:0}") int shards,
+                          @Value("${miniredis.maxmemory.bytes:0}") long maxMemory,
+                          @Value("${miniredis.maxmemory.policy:noeviction}") String policy,
+                          @Value("${miniredis.maxmemory.samples:5}") int samples,
+                          @Value("${miniredis.zset.max-listpack-entries:128}") int zsetMaxListpackEntries,
+                          @Value("${miniredis.zset.max-listpack-value:64}") int zsetMaxListpackValue,
+                          @Value("${miniredis.hash.max-listpack-entries:128}") int hashMaxListpackEntries,
+                          @Value("${miniredis.hash.max-listpack-value:64}") int hashMaxListpackValue,
+                          @Value("${miniredis.storage.off-heap:false}") boolean offHeap) {
+        Database.configure(shards);
+        Database.configureEviction(maxMemory, EvictionPolicy.fromName(policy), samples);
+        ZSet.configureListpack(zsetMaxListpackEntries, zsetMaxListpackValue);
+        Hash.configureListpack(hashMaxListpackEntries, hashMaxListpackValue);
+        Database.configureStorage(offHeap);
+    }
+}
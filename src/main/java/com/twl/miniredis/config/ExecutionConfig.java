@@ -0,0 +1,68 @@
+package com.twl.miniredis.config;
+
+import lombok.extern.log4j.Log4j2;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.task.TaskExecutorBuilder;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * Opt-in virtual thread execution, enabled with <code>miniredis.threads.virtual=true</code>: each HTTP request runs
+ * on its own virtual thread instead of a thread of the Tomcat pool, so connections parked by slow clients no longer
+ * hold a platform thread, and the scheduled jobs and asynchronous tasks run on virtual threads too. On a JDK without
+ * virtual threads the default pools are kept.
+ *
+ * @author Tiago Wolker
+ */
+@Configuration
+@ConditionalOnProperty(name = "miniredis.threads.virtual", havingValue = "true")
+@Log4j2
+public class ExecutionConfig {
+
+    /**
+     * One thread per job, so a slow job never delays the others.
+     */
+    private static final int SCHEDULER_POOL_SIZE = 3;
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer() {
+        if (!VirtualThreads.isSupported()) {
+            log.warn("Virtual threads are not supported by Java {}, HTTP requests run on the Tomcat thread pool.",
+                    System.getProperty("java.version"));
+            return protocolHandler -> {
+            };
+        }
+        log.info("HTTP requests run on virtual threads.");
+        return protocolHandler -> protocolHandler.setExecutor(VirtualThreads.newThreadPerTaskExecutor("http-"));
+    }
+
+    /**
+     * Replaces the task executor Spring Boot only creates when no other executor exists, which the
+     * {@link #taskScheduler() scheduler} below prevents. Used by the asynchronous and streamed HTTP responses and by
+     * {@link com.twl.miniredis.service.AsyncDatabaseService}.
+     */
+    @Bean(name = TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+    public AsyncTaskExecutor applicationTaskExecutor(TaskExecutorBuilder builder) {
+        if (VirtualThreads.isSupported()) {
+            return new TaskExecutorAdapter(VirtualThreads.newThreadPerTaskExecutor("task-"));
+        }
+        return builder.build();
+    }
+
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(SCHEDULER_POOL_SIZE);
+        scheduler.setThreadNamePrefix("scheduling-");
+        if (VirtualThreads.isSupported()) {
+            scheduler.setThreadFactory(VirtualThreads.factory("scheduling-"));
+        }
+        return scheduler;
+    }
+}
@@ -0,0 +1,40 @@
+package com.twl.miniredis.config;
+
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.exception.BusinessException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Read-only HTTP API of a replica, enabled with <code>miniredis.replication.replicaof</code>: PUT and DELETE requests
+ * are rejected with 409 Conflict, as the RESP listener rejects write commands. The commands of a <code>/PIPELINE</code>
+ * run through the {@link CommandDispatcher}, which rejects the writes among them.
+ *
+ * @author Tiago Wolker
+ */
+@Configuration
+@ConditionalOnExpression("!'${miniredis.replication.replicaof:}'.isBlank()")
+public class ReplicationConfig implements WebMvcConfigurer {
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request,
+                                     HttpServletResponse response,
+                                     Object handler) throws BusinessException {
+                String method = request.getMethod();
+                if ("PUT".equals(method) || "DELETE".equals(method)) {
+                    throw new BusinessException(CommandDispatcher.READONLY);
+                }
+                return true;
+            }
+        });
+    }
+}
@@ -1,9 +1,15 @@
 package com.twl.miniredis.config;
 
+import com.twl.miniredis.cluster.ClusterRestClient;
+import com.twl.miniredis.tracking.NearCacheClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.client.RestTemplate;
 
+import java.util.List;
+
 @Configuration
 public class RestTemplateBeans {
 
@@ -11,4 +17,27 @@ public class RestTemplateBeans {
     public RestTemplate restTemplate() {
         return new RestTemplate();
     }
+
+    /**
+     * Cluster-aware client, enabled by listing the base URLs of some nodes in
+     * <code>miniredis.cluster.client.seeds</code>.
+     */
+    @Bean
+    @ConditionalOnProperty("miniredis.cluster.client.seeds")
+    public ClusterRestClient clusterRestClient(@Value("${miniredis.cluster.client.seeds}") List<String> seeds) {
+        return new ClusterRestClient(ClusterRestClient.noRedirectRestTemplate(), seeds);
+    }
+
+    /**
+     * Client that caches the values it reads from the server at <code>miniredis.tracking.client.url</code>, see
+     * {@link NearCacheClient}.
+     */
+    @Bean(initMethod = "start", destroyMethod = "close")
+    @ConditionalOnProperty("miniredis.tracking.client.url")
+    public NearCacheClient nearCacheClient(RestTemplate restTemplate,
+                                           @Value("${miniredis.tracking.client.url}") String url,
+                                           @Value("${miniredis.tracking.client.max-entries:10000}") int maxEntries,
+                                           @Value("${miniredis.tracking.client.prefixes:}") List<String> prefixes) {
+        return new NearCacheClient(restTemplate, url, maxEntries, prefixes);
+    }
 }
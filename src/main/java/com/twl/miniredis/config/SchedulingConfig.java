@@ -0,0 +1,18 @@
+package com.twl.miniredis.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Runs the scheduled jobs (active expiry, snapshots and metrics sampling), unless
+ * <code>miniredis.scheduling.enabled=false</code>, which tests sharing the database with an application context set so
+ * no job changes it behind their back.
+ *
+ * @author Tiago Wolker
+ */
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty(name = "miniredis.scheduling.enabled", havingValue = "true", matchIfMissing = true)
+public class SchedulingConfig {
+}
@@ -0,0 +1,30 @@
+package com.twl.miniredis.config;
+
+import com.twl.miniredis.scripting.KeyLockInterceptor;
+import com.twl.miniredis.scripting.ScriptEngine;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Locks the keys of HTTP API requests, so scripts are atomic for them too, see {@link KeyLockInterceptor}.
+ *
+ * @author Tiago Wolker
+ */
+@Configuration
+@ConditionalOnProperty(name = "miniredis.scripting.enabled", havingValue = "true", matchIfMissing = false)
+public class ScriptingConfig implements WebMvcConfigurer {
+
+    private final ScriptEngine engine;
+
+    public ScriptingConfig(ScriptEngine engine) {
+        this.engine = engine;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // After the cluster routing interceptor, which locks the slot before the keys, as commands do.
+        registry.addInterceptor(new KeyLockInterceptor(engine.getKeyLocks())).order(1);
+    }
+}
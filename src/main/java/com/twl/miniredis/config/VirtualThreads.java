@@ -0,0 +1,72 @@
+package com.twl.miniredis.config;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads (JDK 21+) without requiring them at build time: they are looked up reflectively, so the
+ * server still runs on older JDKs, where {@link #isSupported()} returns false.
+ *
+ * @author Tiago Wolker
+ */
+public final class VirtualThreads {
+
+    private static final Method OF_VIRTUAL = findOfVirtual();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true if the running JDK supports virtual threads.
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @param prefix name prefix of the threads, followed by a counter.
+     * @return a factory of virtual threads.
+     * @throws UnsupportedOperationException if the running JDK does not support virtual threads.
+     */
+    public static ThreadFactory factory(String prefix) {
+        if (OF_VIRTUAL == null) {
+            throw new UnsupportedOperationException("Virtual threads require JDK 21 or later.");
+        }
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not available.", e);
+        }
+    }
+
+    /**
+     * @param prefix name prefix of the threads, followed by a counter.
+     * @return an executor that starts a new virtual thread for each task.
+     * @throws UnsupportedOperationException if the running JDK does not support virtual threads.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        ThreadFactory factory = factory(prefix);
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not available.", e);
+        }
+    }
+
+    private static Method findOfVirtual() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            // On JDK 19 and 20 virtual threads are a preview feature, which fails here unless it is enabled.
+            ofVirtual.invoke(null);
+            return ofVirtual;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
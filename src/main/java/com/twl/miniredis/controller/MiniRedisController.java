@@ -1,21 +1,62 @@
 package com.twl.miniredis.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.twl.miniredis.cluster.ClusterManager;
+import com.twl.miniredis.cluster.ClusterRestClient;
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.command.Reply;
 import com.twl.miniredis.exception.BusinessException;
 import com.twl.miniredis.exception.NotFoundException;
+import com.twl.miniredis.exception.ProtocolException;
+import com.twl.miniredis.metrics.ServerMetrics;
+import com.twl.miniredis.model.dto.ClusterSlotRange;
+import com.twl.miniredis.model.dto.ScanResult;
+import com.twl.miniredis.model.dto.ShardStats;
 import com.twl.miniredis.service.DatabaseService;
+import com.twl.miniredis.tracking.InvalidationStreams;
+import com.twl.miniredis.tracking.TrackingTable;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping
 public class MiniRedisController {
 
     private final DatabaseService service;
+    private final CommandDispatcher dispatcher;
+    private final ObjectMapper objectMapper;
+    private final ServerMetrics metrics;
+    private final ClusterManager cluster;
+    private final TrackingTable tracking;
+    private final InvalidationStreams invalidationStreams;
+    private final int pipelineMaxCommands;
 
-    public MiniRedisController(DatabaseService service) {
+    public MiniRedisController(DatabaseService service, CommandDispatcher dispatcher, ObjectMapper objectMapper,
+                               ServerMetrics metrics, ClusterManager cluster, TrackingTable tracking,
+                               InvalidationStreams invalidationStreams,
+                               @Value("${miniredis.pipeline.max-commands:10000}") int pipelineMaxCommands) {
         this.service = service;
+        this.dispatcher = dispatcher;
+        this.objectMapper = objectMapper;
+        this.metrics = metrics;
+        this.cluster = cluster;
+        this.tracking = tracking;
+        this.invalidationStreams = invalidationStreams;
+        this.pipelineMaxCommands = pipelineMaxCommands;
     }
 
     @PutMapping("/SET")
@@ -25,9 +66,34 @@ public class MiniRedisController {
         return service.setKeyValue(key, value, exSeconds);
     }
 
+    /**
+     * With the id of a <code>/TRACKING</code> stream in the <code>X-Tracking-Id</code> header, the key is tracked
+     * before it is read, and the header is echoed back if invalidations of the key will be sent to that stream.
+     */
     @GetMapping("/GET/{key}")
-    private String getByKey(@PathVariable String key) throws BusinessException, NotFoundException {
-        return service.getStringValue(key);
+    private ResponseEntity<String> getByKey(@PathVariable String key,
+                                            @RequestHeader(value = InvalidationStreams.TRACKING_HEADER, required = false) Long trackingId)
+            throws BusinessException, NotFoundException {
+        if (trackingId != null && tracking.track(trackingId, List.of(key))) {
+            return ResponseEntity.ok()
+                    .header(InvalidationStreams.TRACKING_HEADER, trackingId.toString())
+                    .body(service.getStringValue(key));
+        }
+        return ResponseEntity.ok(service.getStringValue(key));
+    }
+
+    /**
+     * Server-sent events stream of invalidations for client-side caches, see {@link InvalidationStreams}. With
+     * <code>bcast=true</code>, every written key starting with one of the <code>prefix</code> parameters is sent,
+     * instead of the keys read with the tracking id.
+     */
+    @GetMapping(value = "/TRACKING", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    private SseEmitter tracking(@RequestParam(defaultValue = "false") boolean bcast,
+                                @RequestParam(required = false) List<String> prefix) throws IOException, BusinessException {
+        if (prefix != null && !bcast) {
+            throw new BusinessException("ERR PREFIX option requires BCAST mode to be enabled");
+        }
+        return invalidationStreams.subscribe(bcast, prefix != null ? prefix : Collections.emptyList());
     }
 
     @DeleteMapping("/DEL/{keys}")
@@ -40,11 +106,61 @@ public class MiniRedisController {
         return service.dbsize();
     }
 
+    @GetMapping("/SHARDS")
+    private List<ShardStats> getShardStats() {
+        return service.shardStats();
+    }
+
+    @GetMapping(value = "/INFO", produces = MediaType.TEXT_PLAIN_VALUE)
+    private String info(@RequestParam(required = false) List<String> section) {
+        return metrics.info(section != null ? section : Collections.emptyList());
+    }
+
+    /**
+     * Statistics in the Prometheus text exposition format, to be scraped by Prometheus.
+     */
+    @GetMapping(value = "/metrics", produces = "text/plain; version=0.0.4; charset=utf-8")
+    private String prometheus() {
+        return metrics.prometheus();
+    }
+
+    /**
+     * Incrementally iterates the keys, see <code>SCAN</code>. Start with cursor 0 and call again with the returned
+     * cursor until it is 0.
+     */
+    @GetMapping("/SCAN")
+    private ScanResult<List<String>> scan(@RequestParam(defaultValue = "0") long cursor,
+                                         @RequestParam(required = false) String match,
+                                         @RequestParam(defaultValue = "10") long count,
+                                         @RequestParam(required = false) String type) throws BusinessException {
+        return service.scan(cursor, match, count, type);
+    }
+
     @PutMapping("/INCR/{key}")
     private String incr(@PathVariable String key) throws Exception {
         return service.incr(key);
     }
 
+    @PutMapping("/INCRBY/{key}")
+    private String incrBy(@PathVariable String key, @RequestParam long increment) throws Exception {
+        return service.incrBy(key, increment);
+    }
+
+    @PutMapping("/DECR/{key}")
+    private String decr(@PathVariable String key) throws Exception {
+        return service.decr(key);
+    }
+
+    @PutMapping("/DECRBY/{key}")
+    private String decrBy(@PathVariable String key, @RequestParam long decrement) throws Exception {
+        return service.decrBy(key, decrement);
+    }
+
+    @PutMapping("/INCRBYFLOAT/{key}")
+    private String incrByFloat(@PathVariable String key, @RequestParam double increment) throws Exception {
+        return service.incrByFloat(key, increment);
+    }
+
     @PutMapping("/ZADD/{key}")
     private Integer zadd(@PathVariable String key, @RequestParam String... values) throws Exception {
         return service.zadd(key, values);
@@ -66,4 +182,205 @@ public class MiniRedisController {
 
         return service.zrange(key, start, stop);
     }
+
+    @GetMapping("/ZREVRANGE/{key}")
+    private LinkedHashMap<String, Double> zrevrange(@PathVariable String key, @RequestParam int start, @RequestParam int stop)
+            throws BusinessException, NotFoundException {
+        return service.zrevrange(key, start, stop);
+    }
+
+    @GetMapping("/ZRANGEBYSCORE/{key}")
+    private LinkedHashMap<String, Double> zrangeByScore(@PathVariable String key, @RequestParam String min,
+                                                        @RequestParam String max,
+                                                        @RequestParam(defaultValue = "0") long offset,
+                                                        @RequestParam(defaultValue = "-1") long count)
+            throws BusinessException, NotFoundException {
+        return service.zrangeByScore(key, min, max, offset, count);
+    }
+
+    @GetMapping("/ZREVRANGEBYSCORE/{key}")
+    private LinkedHashMap<String, Double> zrevrangeByScore(@PathVariable String key, @RequestParam String max,
+                                                           @RequestParam String min,
+                                                           @RequestParam(defaultValue = "0") long offset,
+                                                           @RequestParam(defaultValue = "-1") long count)
+            throws BusinessException, NotFoundException {
+        return service.zrevrangeByScore(key, max, min, offset, count);
+    }
+
+    @GetMapping("/ZRANGEBYLEX/{key}")
+    private LinkedHashMap<String, Double> zrangeByLex(@PathVariable String key, @RequestParam String min,
+                                                      @RequestParam String max,
+                                                      @RequestParam(defaultValue = "0") long offset,
+                                                      @RequestParam(defaultValue = "-1") long count)
+            throws BusinessException, NotFoundException {
+        return service.zrangeByLex(key, min, max, offset, count);
+    }
+
+    @GetMapping("/ZCOUNT/{key}")
+    private Integer zcount(@PathVariable String key, @RequestParam String min, @RequestParam String max)
+            throws BusinessException {
+        return service.zcount(key, min, max);
+    }
+
+    @GetMapping("/ZREVRANK/{key}")
+    private Integer zrevrank(@PathVariable String key, @RequestParam String member) throws NotFoundException, BusinessException {
+        return service.zrevrank(key, member);
+    }
+
+    @GetMapping("/ZSCORE/{key}")
+    private Double zscore(@PathVariable String key, @RequestParam String member) throws NotFoundException, BusinessException {
+        return service.zscore(key, member);
+    }
+
+    @PutMapping("/ZINCRBY/{key}")
+    private Double zincrBy(@PathVariable String key, @RequestParam double increment, @RequestParam String member)
+            throws BusinessException {
+        return service.zincrBy(key, increment, member);
+    }
+
+    @DeleteMapping("/ZREM/{key}")
+    private Integer zrem(@PathVariable String key, @RequestParam String... members) throws BusinessException {
+        return service.zrem(key, members);
+    }
+
+    /**
+     * Same as <code>/ZRANGE/{key}</code>, but the range is read and written in chunks of <code>chunkSize</code>
+     * members, so a large range is never held in memory. The next chunk is only read once the previous one was
+     * written, so a slow client slows the reads down instead of making the response pile up.
+     */
+    @GetMapping(value = "/ZRANGE/{key}/stream", produces = MediaType.APPLICATION_JSON_VALUE)
+    private StreamingResponseBody zrangeStream(@PathVariable String key, @RequestParam long start, @RequestParam long stop,
+                                               @RequestParam(defaultValue = "1000") int chunkSize)
+            throws BusinessException, NotFoundException {
+        Iterator<LinkedHashMap<String, Double>> chunks = service.zrangeChunks(key, start, stop, chunkSize);
+        return outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.writeStartObject();
+                while (chunks.hasNext()) {
+                    for (Map.Entry<String, Double> entry : chunks.next().entrySet()) {
+                        generator.writeNumberField(entry.getKey(), entry.getValue());
+                    }
+                    generator.flush();
+                }
+                generator.writeEndObject();
+            }
+        };
+    }
+
+    @PutMapping("/ZUNIONSTORE/{destination}")
+    private Integer zunionstore(@PathVariable String destination, @RequestParam String[] keys,
+                                @RequestParam(required = false) double[] weights,
+                                @RequestParam(required = false) String aggregate) throws BusinessException {
+        return service.zunionstore(destination, keys, weights, aggregate);
+    }
+
+    @PutMapping("/ZINTERSTORE/{destination}")
+    private Integer zinterstore(@PathVariable String destination, @RequestParam String[] keys,
+                                @RequestParam(required = false) double[] weights,
+                                @RequestParam(required = false) String aggregate) throws BusinessException {
+        return service.zinterstore(destination, keys, weights, aggregate);
+    }
+
+    /**
+     * Incrementally iterates the members of a sorted set, see <code>ZSCAN</code>.
+     */
+    @GetMapping("/ZSCAN/{key}")
+    private ScanResult<LinkedHashMap<String, Double>> zscan(@PathVariable String key,
+                                                            @RequestParam(defaultValue = "0") long cursor,
+                                                            @RequestParam(required = false) String match,
+                                                            @RequestParam(defaultValue = "10") long count)
+            throws BusinessException {
+        return service.zscan(key, cursor, match, count);
+    }
+
+    /**
+     * Sets the fields of the request body, e.g. <code>{"name":"Ana","visits":"1"}</code>, in the hash stored at key.
+     */
+    @PutMapping("/HSET/{key}")
+    private Integer hset(@PathVariable String key, @RequestBody LinkedHashMap<String, String> fields)
+            throws BusinessException {
+        String[] fieldValues = new String[fields.size() * 2];
+        int i = 0;
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            fieldValues[i++] = field.getKey();
+            fieldValues[i++] = field.getValue();
+        }
+        return service.hset(key, fieldValues);
+    }
+
+    @GetMapping("/HGET/{key}")
+    private String hget(@PathVariable String key, @RequestParam String field) throws NotFoundException, BusinessException {
+        return service.hget(key, field);
+    }
+
+    @GetMapping("/HMGET/{key}")
+    private List<String> hmget(@PathVariable String key, @RequestParam String... fields) throws BusinessException {
+        return service.hmget(key, fields);
+    }
+
+    @DeleteMapping("/HDEL/{key}")
+    private Integer hdel(@PathVariable String key, @RequestParam String... fields) throws BusinessException {
+        return service.hdel(key, fields);
+    }
+
+    @PutMapping("/HINCRBY/{key}")
+    private Long hincrBy(@PathVariable String key, @RequestParam String field, @RequestParam long increment)
+            throws BusinessException {
+        return service.hincrBy(key, field, increment);
+    }
+
+    @GetMapping("/HLEN/{key}")
+    private Integer hlen(@PathVariable String key) throws BusinessException {
+        return service.hlen(key);
+    }
+
+    @GetMapping("/HGETALL/{key}")
+    private LinkedHashMap<String, String> hgetall(@PathVariable String key) throws BusinessException {
+        return service.hgetall(key);
+    }
+
+    /**
+     * Slot ranges and the nodes that own them, used by {@link ClusterRestClient} to route requests.
+     */
+    @GetMapping("/CLUSTER/SLOTS")
+    private List<ClusterSlotRange> clusterSlots() throws BusinessException {
+        if (!cluster.isEnabled()) {
+            throw new BusinessException(ClusterManager.CLUSTER_DISABLED);
+        }
+        return cluster.slotRanges();
+    }
+
+    /**
+     * Executes an ordered list of commands, e.g. <code>[["SET","key","1"],["INCR","key"]]</code>, in a single request.
+     * Results are streamed back as a JSON array in the same order, as soon as each command is executed. Failed
+     * commands produce <code>{"error": "message"}</code> without interrupting the ones that follow.
+     */
+    @PostMapping(value = "/PIPELINE", produces = MediaType.APPLICATION_JSON_VALUE)
+    private StreamingResponseBody pipeline(@RequestBody List<List<String>> commands) throws ProtocolException {
+        if (commands.size() > pipelineMaxCommands) {
+            throw new ProtocolException("Pipeline exceeds the maximum of " + pipelineMaxCommands + " commands.");
+        }
+        return outputStream -> {
+            ClientSession session = new ClientSession();
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.writeStartArray();
+                for (List<String> command : commands) {
+                    Object reply = dispatcher.execute(session, command != null ? command : Collections.emptyList());
+                    if (reply instanceof Reply) {
+                        Reply simple = (Reply) reply;
+                        if (simple.isError()) {
+                            generator.writeStartObject();
+                            generator.writeStringField("error", simple.getMessage());
+                            generator.writeEndObject();
+                        } else {
+                            generator.writeString(simple.getMessage());
+                        }
+                    } else {
+                        generator.writeObject(reply);
+                    }
+                }
+                generator.writeEndArray();
+            }
+        };
+    }
 }
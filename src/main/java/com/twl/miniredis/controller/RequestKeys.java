@@ -0,0 +1,53 @@
+package com.twl.miniredis.controller;
+
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the keys of a REST request: its <code>key</code>, <code>keys</code> and <code>destination</code> path
+ * variables and request parameters, <code>keys</code> being comma separated.
+ *
+ * @author Tiago Wolker
+ */
+public final class RequestKeys {
+
+    private RequestKeys() {
+    }
+
+    /**
+     * @return the keys of the request, possibly empty.
+     */
+    @SuppressWarnings("unchecked")
+    public static List<String> of(HttpServletRequest request) {
+        List<String> keys = new ArrayList<>();
+        Map<String, String> variables =
+                (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        if (variables != null) {
+            addKeys(keys, variables.get("key"), false);
+            addKeys(keys, variables.get("keys"), true);
+            addKeys(keys, variables.get("destination"), false);
+        }
+        String[] values = request.getParameterValues("key");
+        if (values != null) {
+            keys.addAll(Arrays.asList(values));
+        }
+        values = request.getParameterValues("keys");
+        if (values != null) {
+            for (String value : values) {
+                addKeys(keys, value, true);
+            }
+        }
+        return keys;
+    }
+
+    private static void addKeys(List<String> keys, String value, boolean commaSeparated) {
+        if (value != null) {
+            keys.addAll(commaSeparated ? Arrays.asList(value.split(",")) : List.of(value));
+        }
+    }
+}
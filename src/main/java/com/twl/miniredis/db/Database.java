@@ -1,21 +1,174 @@
 package com.twl.miniredis.db;
 
-import lombok.Getter;
-
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import com.twl.miniredis.db.eviction.EvictionPolicy;
+import com.twl.miniredis.db.offheap.SlabArena;
+import lombok.extern.log4j.Log4j2;
 
 /**
- * Final class that represents the in-memory database.
+ * Final class that represents the in-memory database. The keyspace is split into independent {@link Shard shards},
+ * and each key is always routed to the same shard by its hash, so writes, resizes and background scans on different
+ * shards do not contend with each other.
  *
  * @author Tiago Wolker
  */
+@Log4j2
 public final class Database {
 
-    @Getter
-    private static ConcurrentMap<String, Object> values = new ConcurrentHashMap<>();
+    private static volatile Shard[] shards = createShards(Runtime.getRuntime().availableProcessors());
+    private static volatile long maxMemory;
+    private static volatile EvictionPolicy evictionPolicy = EvictionPolicy.NOEVICTION;
+    private static volatile int evictionSamples = 5;
+    private static final SlabArena ARENA = new SlabArena();
+    private static volatile boolean offHeap;
+    private static volatile SlotIndex slotIndex;
 
     private Database() {
-        values = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Changes the number of shards. Only allowed while the database is empty, i.e. during startup.
+     *
+     * @param count number of shards, or 0 to use one per available processor.
+     */
+    public static synchronized void configure(int count) {
+        int shardCount = count > 0 ? count : Runtime.getRuntime().availableProcessors();
+        if (shardCount == shards.length) {
+            return;
+        }
+        if (size() > 0) {
+            log.warn("Database is not empty, keeping {} shards.", shards.length);
+            return;
+        }
+        shards = createShards(shardCount);
+    }
+
+    /**
+     * Sets the memory limit of the database and how keys are evicted once it is reached.
+     *
+     * @param maxMemory limit in bytes, as estimated by {@link MemoryUsage}, or 0 for no limit.
+     * @param policy policy used to choose the keys evicted.
+     * @param samples number of keys sampled to choose each evicted key.
+     */
+    public static void configureEviction(long maxMemory, EvictionPolicy policy, int samples) {
+        Database.maxMemory = maxMemory;
+        Database.evictionPolicy = policy;
+        Database.evictionSamples = Math.max(samples, 1);
+    }
+
+    /**
+     * Enables or disables storing string values in the off-heap {@link SlabArena}. Values already stored keep their
+     * current storage until they are replaced.
+     */
+    public static void configureStorage(boolean offHeap) {
+        Database.offHeap = offHeap;
+    }
+
+    public static boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * @return the arena holding off-heap values. It is the same arena for the lifetime of the process, so values
+     * stored off-heap can always be read and freed, even after off-heap storage is disabled.
+     */
+    public static SlabArena getArena() {
+        return ARENA;
+    }
+
+    /**
+     * Starts indexing the keys by hash slot, as needed by cluster mode. Existing keys are indexed while locked, so
+     * keys written concurrently are indexed exactly once either way.
+     */
+    public static synchronized SlotIndex enableSlotIndex() {
+        if (slotIndex == null) {
+            SlotIndex index = new SlotIndex();
+            slotIndex = index;
+            for (Shard shard : shards) {
+                for (String key : shard.getValues().keySet()) {
+                    shard.getValues().computeIfPresent(key, (k, value) -> {
+                        index.add(k);
+                        return value;
+                    });
+                }
+            }
+        }
+        return slotIndex;
+    }
+
+    /**
+     * @return the index of the keys by hash slot, or null unless cluster mode enabled it.
+     */
+    public static SlotIndex getSlotIndex() {
+        return slotIndex;
+    }
+
+    /**
+     * Updates the slot index, if enabled, after a key was created or deleted. Must be called while the key is locked.
+     */
+    public static void indexKey(String key, boolean created, boolean deleted) {
+        SlotIndex index = slotIndex;
+        if (index != null) {
+            if (created) {
+                index.add(key);
+            } else if (deleted) {
+                index.remove(key);
+            }
+        }
+    }
+
+    public static long getMaxMemory() {
+        return maxMemory;
+    }
+
+    public static EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    public static int getEvictionSamples() {
+        return evictionSamples;
+    }
+
+    /**
+     * @return estimated bytes used by the keys across all shards.
+     */
+    public static long usedMemory() {
+        long used = 0;
+        for (Shard shard : shards) {
+            used += shard.getMemory().get();
+        }
+        return used;
+    }
+
+    /**
+     * @return the shard that owns the given key.
+     */
+    public static Shard shard(String key) {
+        Shard[] current = shards;
+        // Uses the high bits of a multiplicative hash, so each shard's map still gets well spread low bits.
+        long hash = (key.hashCode() * 0x9E3779B9) & 0xFFFFFFFFL;
+        return current[(int) ((hash * current.length) >>> 32)];
+    }
+
+    public static Shard[] getShards() {
+        return shards;
+    }
+
+    /**
+     * @return number of keys across all shards.
+     */
+    public static int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.getValues().size();
+        }
+        return size;
+    }
+
+    private static Shard[] createShards(int count) {
+        Shard[] created = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            created[i] = new Shard(i);
+        }
+        return created;
     }
 }
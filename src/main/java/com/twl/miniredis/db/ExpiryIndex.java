@@ -0,0 +1,106 @@
+package com.twl.miniredis.db;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Index of the keys that have a time to live, ordered by deadline, so the active expiry cycle only visits keys that
+ * are actually due instead of scanning the whole keyspace.
+ * <br/><br/>
+ * The index is a hint: the expire time stored with the value is always the source of truth, and entries left behind by
+ * concurrent updates are discarded when they are polled.
+ *
+ * @author Tiago Wolker
+ */
+public final class ExpiryIndex {
+
+    private final ConcurrentSkipListSet<Deadline> deadlines = new ConcurrentSkipListSet<>();
+    private final ConcurrentMap<String, Long> byKey = new ConcurrentHashMap<>();
+
+    /**
+     * Sets or replaces the deadline of a key.
+     *
+     * @param expireAt deadline in epoch milliseconds.
+     */
+    public void put(String key, long expireAt) {
+        Long previous = byKey.put(key, expireAt);
+        if (previous != null) {
+            if (previous == expireAt) {
+                return;
+            }
+            deadlines.remove(new Deadline(previous, key));
+        }
+        deadlines.add(new Deadline(expireAt, key));
+    }
+
+    public void remove(String key) {
+        Long previous = byKey.remove(key);
+        if (previous != null) {
+            deadlines.remove(new Deadline(previous, key));
+        }
+    }
+
+    /**
+     * @return weakly consistent iterator over the keys with a deadline.
+     */
+    public Iterator<String> keys() {
+        return byKey.keySet().iterator();
+    }
+
+    /**
+     * @return deadline of the key in epoch milliseconds, or null if it has none.
+     */
+    public Long get(String key) {
+        return byKey.get(key);
+    }
+
+    /**
+     * @return number of keys with a deadline.
+     */
+    public int size() {
+        return byKey.size();
+    }
+
+    /**
+     * Removes and returns the earliest deadline, if it is due.
+     *
+     * @param now current time in epoch milliseconds.
+     * @return the earliest deadline not after <code>now</code>, or null if no key is due.
+     */
+    public Deadline pollExpired(long now) {
+        while (true) {
+            Iterator<Deadline> iterator = deadlines.iterator();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            Deadline first = iterator.next();
+            if (first.getExpireAt() > now) {
+                return null;
+            }
+            if (deadlines.remove(first)) {
+                byKey.remove(first.getKey(), first.getExpireAt());
+                return first;
+            }
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    public static final class Deadline implements Comparable<Deadline> {
+        private final long expireAt;
+        private final String key;
+
+        @Override
+        public int compareTo(Deadline other) {
+            int comparison = Long.compare(expireAt, other.expireAt);
+            return comparison != 0 ? comparison : key.compareTo(other.key);
+        }
+    }
+}
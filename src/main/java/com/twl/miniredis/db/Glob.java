@@ -0,0 +1,86 @@
+package com.twl.miniredis.db;
+
+/**
+ * Glob-style pattern matching, with the same syntax as Redis' <code>KEYS</code> and <code>SCAN MATCH</code>:
+ * <ul>
+ *     <li><code>?</code> matches any single character.</li>
+ *     <li><code>*</code> matches any sequence of characters, including none.</li>
+ *     <li><code>[abc]</code>, <code>[^abc]</code> and <code>[a-z]</code> match one character in, or not in, the set.</li>
+ *     <li><code>\</code> escapes the next character.</li>
+ * </ul>
+ *
+ * @author Tiago Wolker
+ */
+public final class Glob {
+
+    private Glob() {
+    }
+
+    public static boolean matches(String pattern, String string) {
+        return matches(pattern, 0, string, 0);
+    }
+
+    private static boolean matches(String pattern, int p, String string, int s) {
+        while (p < pattern.length()) {
+            char c = pattern.charAt(p);
+            if (c == '*') {
+                while (p + 1 < pattern.length() && pattern.charAt(p + 1) == '*') {
+                    p++;
+                }
+                if (p + 1 == pattern.length()) {
+                    return true;
+                }
+                for (int i = s; i <= string.length(); i++) {
+                    if (matches(pattern, p + 1, string, i)) {
+                        return true;
+                    }
+                }
+                return false;
+            } else if (c == '?') {
+                if (s >= string.length()) {
+                    return false;
+                }
+                s++;
+            } else if (c == '[') {
+                if (s >= string.length()) {
+                    return false;
+                }
+                char actual = string.charAt(s);
+                p++;
+                boolean negated = p < pattern.length() && pattern.charAt(p) == '^';
+                if (negated) {
+                    p++;
+                }
+                boolean matched = false;
+                while (p < pattern.length() && pattern.charAt(p) != ']') {
+                    if (pattern.charAt(p) == '\\' && p + 1 < pattern.length()) {
+                        p++;
+                        matched |= pattern.charAt(p) == actual;
+                    } else if (p + 2 < pattern.length() && pattern.charAt(p + 1) == '-') {
+                        char from = (char) Math.min(pattern.charAt(p), pattern.charAt(p + 2));
+                        char to = (char) Math.max(pattern.charAt(p), pattern.charAt(p + 2));
+                        matched |= actual >= from && actual <= to;
+                        p += 2;
+                    } else {
+                        matched |= pattern.charAt(p) == actual;
+                    }
+                    p++;
+                }
+                if (matched == negated) {
+                    return false;
+                }
+                s++;
+            } else {
+                if (c == '\\' && p + 1 < pattern.length()) {
+                    c = pattern.charAt(++p);
+                }
+                if (s >= string.length() || string.charAt(s) != c) {
+                    return false;
+                }
+                s++;
+            }
+            p++;
+        }
+        return s == string.length();
+    }
+}
@@ -0,0 +1,50 @@
+package com.twl.miniredis.db;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Maps keys to the hash slots of a cluster, as Redis Cluster does: the slot is the CRC16 (XMODEM) of the key modulo
+ * {@link #SLOT_COUNT}. When the key contains a non-empty <code>{hashtag}</code>, only the tag is hashed, so keys that
+ * share a tag, such as <code>{user:1}:name</code> and <code>{user:1}:visits</code>, are always in the same slot and
+ * can be used together by multi-key commands.
+ *
+ * @author Tiago Wolker
+ */
+public final class HashSlots {
+
+    public static final int SLOT_COUNT = 16384;
+
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC16_TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    private HashSlots() {
+    }
+
+    public static int slot(String key) {
+        int start = key.indexOf('{');
+        if (start >= 0) {
+            int end = key.indexOf('}', start + 1);
+            if (end > start + 1) {
+                key = key.substring(start + 1, end);
+            }
+        }
+        return crc16(key.getBytes(StandardCharsets.UTF_8)) & (SLOT_COUNT - 1);
+    }
+
+    static int crc16(byte[] bytes) {
+        int crc = 0;
+        for (byte b : bytes) {
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >>> 8) ^ b) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,86 @@
+package com.twl.miniredis.db;
+
+import com.twl.miniredis.db.hash.Hash;
+import com.twl.miniredis.db.offheap.SlabArena;
+import com.twl.miniredis.db.zset.ZSet;
+import com.twl.miniredis.model.dto.ExpirableValue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Approximate heap usage of the entries of the database, assuming a 64 bit JVM with compressed references and
+ * compact strings. The estimates only need to be stable and roughly proportional to the real usage, so
+ * <code>maxmemory</code> can bound the heap; they are not meant to match it byte by byte.
+ *
+ * @author Tiago Wolker
+ */
+public final class MemoryUsage {
+
+    /**
+     * Map node, key object and value wrapper with its primitive deadline and off-heap handle.
+     */
+    static final int ENTRY_OVERHEAD = 32 + 40 + 40;
+    /**
+     * Expiry index entries, the deadline itself is stored in the value wrapper.
+     */
+    static final int EXPIRE_OVERHEAD = 120;
+    /**
+     * Header of the byte array holding a string.
+     */
+    static final int BYTES_OVERHEAD = 16;
+    static final int COUNTER_SIZE = 16;
+    static final int ZSET_OVERHEAD = 160;
+    /**
+     * Member object, hash node, boxed score and skiplist node.
+     */
+    static final int ZSET_MEMBER_OVERHEAD = 40 + 32 + 16 + 48;
+    /**
+     * Member object plus its slots in the member and score arrays of the listpack encoding.
+     */
+    static final int LISTPACK_MEMBER_OVERHEAD = 40 + 4 + 8;
+    static final int HASH_OVERHEAD = 120;
+    /**
+     * Field and value objects, plus their slots in the packed array of the listpack encoding.
+     */
+    static final int LISTPACK_FIELD_OVERHEAD = 40 + 40 + 4 + 4;
+    /**
+     * Field and value objects, plus the hash node and its table slot.
+     */
+    static final int HASHTABLE_FIELD_OVERHEAD = 40 + 40 + 32 + 8;
+
+    private MemoryUsage() {
+    }
+
+    /**
+     * @return estimated bytes used by the entry, or 0 if there is none.
+     */
+    public static long estimate(String key, Object value) {
+        if (!(value instanceof ExpirableValue)) {
+            return 0;
+        }
+        ExpirableValue expirableValue = (ExpirableValue) value;
+        long size = ENTRY_OVERHEAD + key.length();
+        if (expirableValue.hasExpire()) {
+            size += EXPIRE_OVERHEAD;
+        }
+        Object stored = expirableValue.getValue();
+        if (expirableValue.isOffHeap()) {
+            size += SlabArena.chunkSize(expirableValue.getHandle());
+        } else if (stored instanceof AtomicLong) {
+            size += COUNTER_SIZE;
+        } else if (stored instanceof ZSet) {
+            ZSet zset = (ZSet) stored;
+            int memberOverhead = ZSet.ENCODING_LISTPACK.equals(zset.encoding()) ? LISTPACK_MEMBER_OVERHEAD : ZSET_MEMBER_OVERHEAD;
+            size += ZSET_OVERHEAD + (long) zset.size() * memberOverhead + zset.memberBytes();
+        } else if (stored instanceof Hash) {
+            Hash hash = (Hash) stored;
+            int fieldOverhead = Hash.ENCODING_LISTPACK.equals(hash.encoding()) ? LISTPACK_FIELD_OVERHEAD : HASHTABLE_FIELD_OVERHEAD;
+            size += HASH_OVERHEAD + (long) hash.size() * fieldOverhead + hash.contentBytes();
+        } else if (stored instanceof byte[]) {
+            size += BYTES_OVERHEAD + ((byte[]) stored).length;
+        } else if (stored != null) {
+            size += BYTES_OVERHEAD + stored.toString().length();
+        }
+        return size;
+    }
+}
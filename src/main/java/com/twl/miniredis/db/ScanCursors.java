@@ -0,0 +1,86 @@
+package com.twl.miniredis.db;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open <code>SCAN</code> and <code>ZSCAN</code> iterations, by cursor.
+ * <br/><br/>
+ * Redis cursors encode a position in its hash tables. A {@link java.util.concurrent.ConcurrentHashMap} exposes no
+ * such position, so the state of an iteration is kept here instead: usually a weakly consistent iterator, which
+ * returns every element present for the whole iteration exactly once, even across resizes. Each call takes the
+ * state out and, if the iteration is not over, stores it again under a new cursor, so a cursor can only be used
+ * once. Iterations left idle for {@link #IDLE_TIMEOUT_MILLIS}, or beyond the {@link #MAX_OPEN} most recent ones, are
+ * discarded.
+ *
+ * @author Tiago Wolker
+ */
+public final class ScanCursors {
+
+    /**
+     * Cursor that starts an iteration, and that is returned when it is over.
+     */
+    public static final long START = 0;
+
+    static final int MAX_OPEN = 1024;
+    static final long IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    // Insertion order is the order of last use, since an iteration is stored again after each call.
+    private final Map<Long, Open> open = new LinkedHashMap<>();
+
+    private static final class Open {
+        final Object state;
+        final long storedAt;
+
+        Open(Object state, long storedAt) {
+            this.state = state;
+            this.storedAt = storedAt;
+        }
+    }
+
+    /**
+     * Stores the state of an iteration that is not over.
+     *
+     * @return the cursor that continues it.
+     */
+    public synchronized long store(Object state) {
+        long now = System.currentTimeMillis();
+        this.purge(now);
+        if (open.size() >= MAX_OPEN) {
+            Iterator<Long> eldest = open.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        long cursor;
+        do {
+            cursor = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+        } while (open.containsKey(cursor));
+        open.put(cursor, new Open(state, now));
+        return cursor;
+    }
+
+    /**
+     * Removes the state of an iteration, so it can be continued.
+     *
+     * @return the state, or null if the cursor is unknown, was already used or expired.
+     */
+    public synchronized Object take(long cursor) {
+        this.purge(System.currentTimeMillis());
+        Open state = open.remove(cursor);
+        return state == null ? null : state.state;
+    }
+
+    public synchronized int size() {
+        return open.size();
+    }
+
+    private void purge(long now) {
+        Iterator<Open> states = open.values().iterator();
+        while (states.hasNext() && now - states.next().storedAt > IDLE_TIMEOUT_MILLIS) {
+            states.remove();
+        }
+    }
+}
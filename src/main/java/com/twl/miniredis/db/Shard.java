@@ -0,0 +1,83 @@
+package com.twl.miniredis.db;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Independent partition of the keyspace, with its own map, expiry index and statistics.
+ *
+ * @author Tiago Wolker
+ */
+@Getter
+public final class Shard {
+
+    private final int index;
+    private final ConcurrentMap<String, Object> values = new ConcurrentHashMap<>();
+    private final ExpiryIndex expires = new ExpiryIndex();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    /**
+     * Estimated bytes used by the entries of the shard, see {@link MemoryUsage}.
+     */
+    private final AtomicLong memory = new AtomicLong();
+    private final LongAdder zsets = new LongAdder();
+    private final LongAdder zsetMembers = new LongAdder();
+
+    @Getter(AccessLevel.NONE)
+    private final ReentrantLock samplingLock = new ReentrantLock();
+    @Getter(AccessLevel.NONE)
+    private Iterator<String> keyHand;
+    @Getter(AccessLevel.NONE)
+    private Iterator<String> volatileKeyHand;
+
+    Shard(int index) {
+        this.index = index;
+    }
+
+    /**
+     * Samples keys for eviction, continuing from where the previous sample of this shard stopped, like the hand of a
+     * clock, so successive samples cover the whole shard instead of always returning its first keys.
+     *
+     * @param keys filled with the sampled keys.
+     * @param volatileOnly whether to sample only keys with a time to live.
+     * @return number of keys sampled, 0 if there are none or the shard is being sampled by another thread.
+     */
+    public int sample(String[] keys, boolean volatileOnly) {
+        if (!samplingLock.tryLock()) {
+            return 0;
+        }
+        try {
+            int count = 0;
+            boolean restarted = false;
+            Iterator<String> hand = volatileOnly ? volatileKeyHand : keyHand;
+            while (count < keys.length) {
+                if (hand == null || !hand.hasNext()) {
+                    if (restarted) {
+                        break;
+                    }
+                    restarted = true;
+                    hand = volatileOnly ? expires.keys() : values.keySet().iterator();
+                    continue;
+                }
+                keys[count++] = hand.next();
+            }
+            if (volatileOnly) {
+                volatileKeyHand = hand;
+            } else {
+                keyHand = hand;
+            }
+            return count;
+        } finally {
+            samplingLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.twl.miniredis.db;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keys of each {@link HashSlots hash slot}, kept in cluster mode so the keys of a slot can be listed and migrated
+ * without scanning the whole keyspace. Keys are added when they are created and removed when they are deleted, while
+ * their lock is held, so the index is ordered with the writes to each key.
+ *
+ * @author Tiago Wolker
+ */
+public final class SlotIndex {
+
+    private final AtomicReferenceArray<Set<String>> slots = new AtomicReferenceArray<>(HashSlots.SLOT_COUNT);
+
+    void add(String key) {
+        int slot = HashSlots.slot(key);
+        Set<String> keys = slots.get(slot);
+        if (keys == null) {
+            slots.compareAndSet(slot, null, ConcurrentHashMap.newKeySet());
+            keys = slots.get(slot);
+        }
+        keys.add(key);
+    }
+
+    void remove(String key) {
+        Set<String> keys = slots.get(HashSlots.slot(key));
+        if (keys != null) {
+            keys.remove(key);
+        }
+    }
+
+    /**
+     * @return number of keys in the slot, including expired keys not removed yet.
+     */
+    public int count(int slot) {
+        Set<String> keys = slots.get(slot);
+        return keys == null ? 0 : keys.size();
+    }
+
+    /**
+     * @return a weakly consistent view of the keys of the slot.
+     */
+    public Iterable<String> keys(int slot) {
+        Set<String> keys = slots.get(slot);
+        return keys == null ? Collections.emptySet() : keys;
+    }
+
+}
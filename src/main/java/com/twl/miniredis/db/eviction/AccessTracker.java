@@ -0,0 +1,77 @@
+package com.twl.miniredis.db.eviction;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Access metadata kept in a single <code>int</code> per key, as Redis does: the time of the last access in seconds
+ * for LRU, or, for LFU, the time of the last decrement in minutes (16 bits) followed by a logarithmic access counter
+ * (8 bits).
+ * <br/><br/>
+ * The LFU counter grows with probability <code>1 / ((counter - 5) * 10 + 1)</code>, so it takes about a million
+ * accesses to saturate it, and it is decremented by one for every minute without access, so keys that stop being
+ * used become candidates again.
+ *
+ * @author Tiago Wolker
+ */
+public final class AccessTracker {
+
+    static final int LFU_INIT_VAL = 5;
+    private static final int LFU_LOG_FACTOR = 10;
+    private static final int LFU_MAX = 255;
+    private static final long EPOCH = System.currentTimeMillis();
+
+    private AccessTracker() {
+    }
+
+    /**
+     * @return access metadata of a key that was just created.
+     */
+    public static int initial(EvictionPolicy policy) {
+        return policy.isLfu() ? lfu(minutes(), LFU_INIT_VAL) : seconds();
+    }
+
+    /**
+     * @return access metadata updated after an access to the key.
+     */
+    public static int touch(int access, EvictionPolicy policy) {
+        if (!policy.isLfu()) {
+            return seconds();
+        }
+        int counter = decayedCounter(access);
+        if (counter < LFU_MAX) {
+            int base = Math.max(counter - LFU_INIT_VAL, 0);
+            if (ThreadLocalRandom.current().nextDouble() < 1.0 / (base * LFU_LOG_FACTOR + 1)) {
+                counter++;
+            }
+        }
+        return lfu(minutes(), counter);
+    }
+
+    /**
+     * @return idle score of the key: the higher it is, the better the key is as an eviction candidate.
+     */
+    public static long idleScore(int access, EvictionPolicy policy) {
+        if (policy.isLfu()) {
+            return LFU_MAX - decayedCounter(access);
+        }
+        return seconds() - access;
+    }
+
+    static int decayedCounter(int access) {
+        int counter = access & 0xFF;
+        int elapsed = (minutes() - (access >>> 8)) & 0xFFFF;
+        return Math.max(counter - elapsed, 0);
+    }
+
+    private static int lfu(int minutes, int counter) {
+        return ((minutes & 0xFFFF) << 8) | counter;
+    }
+
+    private static int seconds() {
+        return (int) ((System.currentTimeMillis() - EPOCH) / 1000);
+    }
+
+    private static int minutes() {
+        return (int) ((System.currentTimeMillis() - EPOCH) / 60_000) & 0xFFFF;
+    }
+}
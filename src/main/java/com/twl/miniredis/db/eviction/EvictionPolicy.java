@@ -0,0 +1,61 @@
+package com.twl.miniredis.db.eviction;
+
+import java.util.Locale;
+
+/**
+ * Policy used to choose the keys removed when the database is over <code>maxmemory</code>. Candidates are always
+ * chosen among a small sample of keys, as Redis does, so no global ordering of the keys is kept.
+ *
+ * @author Tiago Wolker
+ */
+public enum EvictionPolicy {
+
+    /**
+     * Nothing is evicted; writes fail while the database is over the limit.
+     */
+    NOEVICTION(false),
+    /**
+     * Evicts the least recently used keys.
+     */
+    ALLKEYS_LRU(false),
+    /**
+     * Evicts the least frequently used keys.
+     */
+    ALLKEYS_LFU(false),
+    /**
+     * Evicts the least recently used keys among the ones with a time to live.
+     */
+    VOLATILE_LRU(true),
+    /**
+     * Evicts the keys with the nearest expire time.
+     */
+    VOLATILE_TTL(true);
+
+    private final boolean volatileOnly;
+
+    EvictionPolicy(boolean volatileOnly) {
+        this.volatileOnly = volatileOnly;
+    }
+
+    /**
+     * @param name policy name as used by Redis, e.g. <code>allkeys-lru</code>.
+     */
+    public static EvictionPolicy fromName(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+    /**
+     * @return true if only keys with a time to live can be evicted.
+     */
+    public boolean isVolatileOnly() {
+        return volatileOnly;
+    }
+
+    public boolean isLfu() {
+        return this == ALLKEYS_LFU;
+    }
+}
@@ -0,0 +1,233 @@
+package com.twl.miniredis.db.hash;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Hash of fields to string values, with two encodings, chosen the same way Redis does:
+ * <ul>
+ *     <li><b>listpack</b>: small hashes keep their fields and values packed in one array, alternating and in
+ *     insertion order, with no per field node or hash entry. Lookups are linear, which is faster than hashing for a
+ *     few dozen fields.</li>
+ *     <li><b>hashtable</b>: once a hash has more than {@link #getMaxListpackEntries()} fields, or a field or value
+ *     longer than {@link #getMaxListpackValue()}, it is converted to a {@link HashMap}. Lookups are O(1). A hash is
+ *     never converted back.</li>
+ * </ul>
+ * Readers share a read lock and writers take the write lock, so concurrent reads on a hot hash do not block each
+ * other.
+ *
+ * @author Tiago Wolker
+ */
+public final class Hash {
+
+    public static final String ENCODING_LISTPACK = "listpack";
+    public static final String ENCODING_HASHTABLE = "hashtable";
+    public static final String VALUE_IS_NOT_AN_INTEGER = "ERR hash value is not an integer";
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private static volatile int maxListpackEntries = 128;
+    private static volatile int maxListpackValue = 64;
+
+    /**
+     * Fields and values of the listpack encoding: field i at 2i and its value at 2i + 1.
+     */
+    private String[] entries = new String[INITIAL_CAPACITY * 2];
+    private int count;
+    private Map<String, String> dict;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile long contentBytes;
+
+    /**
+     * Sets the limits of the listpack encoding, hashes over them are converted to the hashtable encoding on their next
+     * write.
+     */
+    public static void configureListpack(int maxEntries, int maxValue) {
+        maxListpackEntries = maxEntries;
+        maxListpackValue = maxValue;
+    }
+
+    public static int getMaxListpackEntries() {
+        return maxListpackEntries;
+    }
+
+    public static int getMaxListpackValue() {
+        return maxListpackValue;
+    }
+
+    /**
+     * Sets the field to the value, replacing its current value if it is already present.
+     *
+     * @return true if the field was added, false if it was already present.
+     */
+    public boolean put(String field, String value) {
+        lock.writeLock().lock();
+        try {
+            if (dict == null) {
+                int index = this.indexOf(field);
+                boolean fits = value.length() <= maxListpackValue;
+                if (index >= 0 && fits) {
+                    contentBytes += value.length() - entries[index + 1].length();
+                    entries[index + 1] = value;
+                    return false;
+                }
+                if (index < 0 && fits && count < maxListpackEntries && field.length() <= maxListpackValue) {
+                    if (count * 2 == entries.length) {
+                        String[] grown = new String[Math.min(entries.length * 2, Math.max(maxListpackEntries, count + 1) * 2)];
+                        System.arraycopy(entries, 0, grown, 0, count * 2);
+                        entries = grown;
+                    }
+                    entries[count * 2] = field;
+                    entries[count * 2 + 1] = value;
+                    count++;
+                    contentBytes += field.length() + value.length();
+                    return true;
+                }
+                this.convertToHashtable();
+            }
+            String current = dict.put(field, value);
+            if (current == null) {
+                contentBytes += field.length() + value.length();
+                return true;
+            }
+            contentBytes += value.length() - current.length();
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the value of the field, or null if it is not present.
+     */
+    public String get(String field) {
+        lock.readLock().lock();
+        try {
+            if (dict == null) {
+                int index = this.indexOf(field);
+                return index < 0 ? null : entries[index + 1];
+            }
+            return dict.get(field);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the field was present and removed.
+     */
+    public boolean remove(String field) {
+        lock.writeLock().lock();
+        try {
+            String value;
+            if (dict == null) {
+                int index = this.indexOf(field);
+                if (index < 0) {
+                    return false;
+                }
+                value = entries[index + 1];
+                // Shifts the following entries, so the listpack keeps the insertion order.
+                System.arraycopy(entries, index + 2, entries, index, count * 2 - index - 2);
+                count--;
+                entries[count * 2] = null;
+                entries[count * 2 + 1] = null;
+            } else {
+                value = dict.remove(field);
+                if (value == null) {
+                    return false;
+                }
+            }
+            contentBytes -= field.length() + value.length();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Increments the integer value of the field, which is set to the increment if it is not present.
+     *
+     * @return the new value.
+     * @throws NumberFormatException if the value of the field is not an integer.
+     * @throws ArithmeticException if the increment overflows a 64 bit signed integer.
+     */
+    public long incrBy(String field, long increment) {
+        lock.writeLock().lock();
+        try {
+            String current = this.get(field);
+            long value = current == null ? increment : Math.addExact(Long.parseLong(current), increment);
+            this.put(field, Long.toString(value));
+            return value;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return dict == null ? count : dict.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return a copy of the fields and their values, in insertion order with the listpack encoding.
+     */
+    public LinkedHashMap<String, String> entries() {
+        lock.readLock().lock();
+        try {
+            if (dict == null) {
+                LinkedHashMap<String, String> copy = new LinkedHashMap<>(count * 2);
+                for (int i = 0; i < count * 2; i += 2) {
+                    copy.put(entries[i], entries[i + 1]);
+                }
+                return copy;
+            }
+            return new LinkedHashMap<>(dict);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return {@link #ENCODING_LISTPACK} or {@link #ENCODING_HASHTABLE}.
+     */
+    public String encoding() {
+        lock.readLock().lock();
+        try {
+            return dict == null ? ENCODING_LISTPACK : ENCODING_HASHTABLE;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return total length of the fields and values, used to estimate the memory used by the hash.
+     */
+    public long contentBytes() {
+        return contentBytes;
+    }
+
+    private int indexOf(String field) {
+        for (int i = 0; i < count * 2; i += 2) {
+            if (entries[i].equals(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void convertToHashtable() {
+        Map<String, String> converted = new HashMap<>(Math.max(count * 2, 16));
+        for (int i = 0; i < count * 2; i += 2) {
+            converted.put(entries[i], entries[i + 1]);
+        }
+        dict = converted;
+        entries = null;
+        count = 0;
+    }
+}
@@ -0,0 +1,242 @@
+package com.twl.miniredis.db.offheap;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Slab allocator over direct memory, so stored values are not objects the garbage collector has to scan or copy.
+ * <br/><br/>
+ * Memory is reserved in slabs of {@link #SLAB_SIZE} bytes, each carved into chunks of a single size class (powers
+ * of two from 16 bytes to a whole slab). Freed chunks go to a free list of their size class and are reused by the
+ * next allocation of that class, so the arena never fragments across classes and slabs are never returned.
+ * <br/><br/>
+ * Values are referenced by a <code>long</code> handle packing the slab, the chunk offset, the size class and a
+ * generation. Each chunk starts with its current generation, which is bumped when it is freed, so a reader holding
+ * a stale handle (the value was deleted or replaced concurrently) gets null instead of someone else's bytes.
+ *
+ * @author Tiago Wolker
+ */
+public final class SlabArena {
+
+    public static final int SLAB_SIZE = 1 << 20;
+    /**
+     * Generation and length of the chunk.
+     */
+    static final int HEADER_SIZE = 8;
+
+    private static final int MIN_CHUNK_SHIFT = 4;
+    private static final int CLASSES = 20 - MIN_CHUNK_SHIFT + 1;
+    private static final int GENERATION_BITS = 16;
+    private static final int CLASS_BITS = 5;
+    private static final int SLOT_BITS = 16;
+    private static final int PAGE_BITS = 24;
+    private static final int GENERATION_MASK = (1 << GENERATION_BITS) - 1;
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final SizeClass[] classes = new SizeClass[CLASSES];
+    private final Object pagesLock = new Object();
+    private volatile ByteBuffer[] pages = new ByteBuffer[16];
+    private int pageCount;
+    private final LongAdder allocated = new LongAdder();
+    private final AtomicLong reserved = new AtomicLong();
+
+    private static final class SizeClass {
+        final int chunkSize;
+        long[] free = new long[64];
+        int freeCount;
+        int page = -1;
+        int next = SLAB_SIZE;
+
+        SizeClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    public SlabArena() {
+        for (int i = 0; i < CLASSES; i++) {
+            classes[i] = new SizeClass(1 << (i + MIN_CHUNK_SHIFT));
+        }
+    }
+
+    /**
+     * @return largest value that fits in a chunk.
+     */
+    public static int maxValueSize() {
+        return SLAB_SIZE - HEADER_SIZE;
+    }
+
+    /**
+     * @return size of the chunk referenced by the handle, header included.
+     */
+    public static int chunkSize(long handle) {
+        return 1 << (sizeClass(handle) + MIN_CHUNK_SHIFT);
+    }
+
+    /**
+     * Copies the value into a chunk.
+     *
+     * @return the handle of the chunk, or 0 if the value is larger than a slab or direct memory is exhausted, in
+     * which case the caller keeps the value on heap.
+     */
+    public long allocate(byte[] value) {
+        if (value.length > maxValueSize()) {
+            return 0;
+        }
+        int classIndex = classOf(value.length + HEADER_SIZE);
+        SizeClass sizeClass = classes[classIndex];
+        int page;
+        int offset;
+        int generation;
+        synchronized (sizeClass) {
+            if (sizeClass.freeCount > 0) {
+                long free = sizeClass.free[--sizeClass.freeCount];
+                page = (int) (free >>> 32);
+                offset = (int) free;
+                generation = (int) INT.getVolatile(pages[page], offset) & GENERATION_MASK;
+            } else {
+                if (sizeClass.next + sizeClass.chunkSize > SLAB_SIZE) {
+                    int newPage = this.newPage();
+                    if (newPage < 0) {
+                        return 0;
+                    }
+                    sizeClass.page = newPage;
+                    sizeClass.next = 0;
+                }
+                page = sizeClass.page;
+                offset = sizeClass.next;
+                sizeClass.next += sizeClass.chunkSize;
+                generation = 1;
+                INT.setVolatile(pages[page], offset, generation);
+            }
+        }
+        // The generation of a reused chunk was bumped when it was freed, so a stale reader notices these writes.
+        VarHandle.storeStoreFence();
+        ByteBuffer slab = pages[page];
+        slab.putInt(offset + 4, value.length);
+        ByteBuffer view = slab.duplicate();
+        view.position(offset + HEADER_SIZE);
+        view.put(value);
+        allocated.add(sizeClass.chunkSize);
+        return ((long) page << (SLOT_BITS + CLASS_BITS + GENERATION_BITS))
+                | ((long) (offset >>> MIN_CHUNK_SHIFT) << (CLASS_BITS + GENERATION_BITS))
+                | ((long) classIndex << GENERATION_BITS)
+                | generation;
+    }
+
+    /**
+     * @return a copy of the value, or null if the chunk was freed, possibly while it was being read.
+     */
+    public byte[] read(long handle) {
+        ByteBuffer slab = pages[page(handle)];
+        int offset = offset(handle);
+        int generation = generation(handle);
+        if (((int) INT.getVolatile(slab, offset) & GENERATION_MASK) != generation) {
+            return null;
+        }
+        int length = slab.getInt(offset + 4);
+        if (length < 0 || length > chunkSize(handle) - HEADER_SIZE) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        ByteBuffer view = slab.duplicate();
+        view.position(offset + HEADER_SIZE);
+        view.get(value);
+        VarHandle.acquireFence();
+        if (((int) INT.getVolatile(slab, offset) & GENERATION_MASK) != generation) {
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the chunk to its free list. Freeing a stale handle does nothing.
+     */
+    public void free(long handle) {
+        SizeClass sizeClass = classes[sizeClass(handle)];
+        int page = page(handle);
+        int offset = offset(handle);
+        synchronized (sizeClass) {
+            ByteBuffer slab = pages[page];
+            int current = (int) INT.getVolatile(slab, offset);
+            if ((current & GENERATION_MASK) != generation(handle)) {
+                return;
+            }
+            int next = current + 1;
+            if ((next & GENERATION_MASK) == 0) {
+                next++;
+            }
+            INT.setVolatile(slab, offset, next);
+            if (sizeClass.freeCount == sizeClass.free.length) {
+                long[] grown = new long[sizeClass.free.length * 2];
+                System.arraycopy(sizeClass.free, 0, grown, 0, sizeClass.freeCount);
+                sizeClass.free = grown;
+            }
+            sizeClass.free[sizeClass.freeCount++] = ((long) page << 32) | offset;
+        }
+        allocated.add(-sizeClass.chunkSize);
+    }
+
+    /**
+     * @return bytes of the chunks in use, headers and padding included.
+     */
+    public long getAllocatedBytes() {
+        return allocated.sum();
+    }
+
+    /**
+     * @return bytes of direct memory reserved by the slabs.
+     */
+    public long getReservedBytes() {
+        return reserved.get();
+    }
+
+    private int newPage() {
+        synchronized (pagesLock) {
+            if (pageCount == 1 << PAGE_BITS) {
+                return -1;
+            }
+            ByteBuffer slab;
+            try {
+                slab = ByteBuffer.allocateDirect(SLAB_SIZE).order(ByteOrder.nativeOrder());
+            } catch (OutOfMemoryError e) {
+                return -1;
+            }
+            ByteBuffer[] current = pages;
+            if (pageCount == current.length) {
+                ByteBuffer[] grown = new ByteBuffer[current.length * 2];
+                System.arraycopy(current, 0, grown, 0, pageCount);
+                grown[pageCount] = slab;
+                pages = grown;
+            } else {
+                current[pageCount] = slab;
+            }
+            reserved.addAndGet(SLAB_SIZE);
+            return pageCount++;
+        }
+    }
+
+    private static int classOf(int size) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1 << MIN_CHUNK_SHIFT) - 1);
+        return shift - MIN_CHUNK_SHIFT;
+    }
+
+    private static int page(long handle) {
+        return (int) (handle >>> (SLOT_BITS + CLASS_BITS + GENERATION_BITS));
+    }
+
+    private static int offset(long handle) {
+        return (int) ((handle >>> (CLASS_BITS + GENERATION_BITS)) & ((1 << SLOT_BITS) - 1)) << MIN_CHUNK_SHIFT;
+    }
+
+    private static int sizeClass(long handle) {
+        return (int) ((handle >>> GENERATION_BITS) & ((1 << CLASS_BITS) - 1));
+    }
+
+    private static int generation(long handle) {
+        return (int) (handle & GENERATION_MASK);
+    }
+}
@@ -0,0 +1,83 @@
+package com.twl.miniredis.db.zset;
+
+/**
+ * Member interval of <code>ZRANGEBYLEX</code>. Each bound is <code>[member</code> (inclusive),
+ * <code>(member</code> (exclusive), <code>-</code> (before every member) or <code>+</code> (after every member).
+ * <br/><br/>
+ * As in Redis, members are only ordered by their value when every member has the same score, otherwise the result is
+ * unspecified.
+ *
+ * @author Tiago Wolker
+ */
+public final class LexRange implements ZRangeSpec {
+
+    public static final String INVALID_LEX_RANGE = "ERR min or max not valid string range item";
+
+    private static final String NEGATIVE_INFINITY = "-";
+    private static final String POSITIVE_INFINITY = "+";
+
+    private final Bound min;
+    private final Bound max;
+
+    private static final class Bound {
+        /**
+         * The member, or null for <code>-</code> and <code>+</code>.
+         */
+        final String member;
+        final boolean exclusive;
+        final boolean positiveInfinity;
+
+        Bound(String member, boolean exclusive, boolean positiveInfinity) {
+            this.member = member;
+            this.exclusive = exclusive;
+            this.positiveInfinity = positiveInfinity;
+        }
+
+        /**
+         * @return a negative value, zero or a positive value if the member is before, at or after this bound.
+         */
+        int compare(String value) {
+            if (member == null) {
+                return positiveInfinity ? -1 : 1;
+            }
+            return value.compareTo(member);
+        }
+    }
+
+    private LexRange(Bound min, Bound max) {
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * @throws IllegalArgumentException with {@link #INVALID_LEX_RANGE} if a bound is not valid.
+     */
+    public static LexRange parse(String min, String max) {
+        return new LexRange(bound(min), bound(max));
+    }
+
+    private static Bound bound(String value) {
+        if (NEGATIVE_INFINITY.equals(value)) {
+            return new Bound(null, false, false);
+        } else if (POSITIVE_INFINITY.equals(value)) {
+            return new Bound(null, false, true);
+        } else if (value.startsWith("[")) {
+            return new Bound(value.substring(1), false, false);
+        } else if (value.startsWith("(")) {
+            return new Bound(value.substring(1), true, false);
+        }
+        throw new IllegalArgumentException(INVALID_LEX_RANGE);
+    }
+
+    @Override
+    public boolean gteMin(double score, String member) {
+        int compared = min.compare(member);
+        return min.exclusive ? compared > 0 : compared >= 0;
+    }
+
+    @Override
+    public boolean lteMax(double score, String member) {
+        int compared = max.compare(member);
+        return max.exclusive ? compared < 0 : compared <= 0;
+    }
+}
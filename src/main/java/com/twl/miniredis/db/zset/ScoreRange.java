@@ -0,0 +1,48 @@
+package com.twl.miniredis.db.zset;
+
+/**
+ * Score interval of <code>ZRANGEBYSCORE</code> and <code>ZCOUNT</code>. Each bound is a score, as accepted by
+ * {@link ZSet#parseScore(String)}, and is inclusive unless prefixed with <code>(</code>.
+ *
+ * @author Tiago Wolker
+ */
+public final class ScoreRange implements ZRangeSpec {
+
+    public static final String INVALID_SCORE_RANGE = "ERR min or max is not a float";
+
+    private final double min;
+    private final double max;
+    private final boolean minExclusive;
+    private final boolean maxExclusive;
+
+    private ScoreRange(double min, boolean minExclusive, double max, boolean maxExclusive) {
+        this.min = min;
+        this.max = max;
+        this.minExclusive = minExclusive;
+        this.maxExclusive = maxExclusive;
+    }
+
+    /**
+     * @throws IllegalArgumentException with {@link #INVALID_SCORE_RANGE} if a bound is not a valid score.
+     */
+    public static ScoreRange parse(String min, String max) {
+        try {
+            boolean minExclusive = min.startsWith("(");
+            boolean maxExclusive = max.startsWith("(");
+            return new ScoreRange(ZSet.parseScore(minExclusive ? min.substring(1) : min), minExclusive,
+                    ZSet.parseScore(maxExclusive ? max.substring(1) : max), maxExclusive);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(INVALID_SCORE_RANGE);
+        }
+    }
+
+    @Override
+    public boolean gteMin(double score, String member) {
+        return minExclusive ? score > min : score >= min;
+    }
+
+    @Override
+    public boolean lteMax(double score, String member) {
+        return maxExclusive ? score < max : score <= max;
+    }
+}
@@ -0,0 +1,21 @@
+package com.twl.miniredis.db.zset;
+
+/**
+ * Bounds of a <code>ZRANGEBYSCORE</code> or <code>ZRANGEBYLEX</code> query. The elements in range are contiguous in
+ * the order of a {@link ZSet}, the ones before it failing {@link #gteMin(double, String)} and the ones after it failing
+ * {@link #lteMax(double, String)}, so a range is located with two O(log n) searches.
+ *
+ * @author Tiago Wolker
+ */
+public interface ZRangeSpec {
+
+    /**
+     * @return true if the element is not before the start of the range.
+     */
+    boolean gteMin(double score, String member);
+
+    /**
+     * @return true if the element is not after the end of the range.
+     */
+    boolean lteMax(double score, String member);
+}
@@ -0,0 +1,497 @@
+package com.twl.miniredis.db.zset;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Sorted set with two encodings, chosen the same way Redis does:
+ * <ul>
+ *     <li><b>listpack</b>: small sets keep their members and scores in two sorted parallel arrays, with no per member
+ *     node, hash entry or boxed score. Lookups are linear, which is faster than hashing for a few dozen entries.</li>
+ *     <li><b>skiplist</b>: once a set has more than {@link #getMaxListpackEntries()} members, or a member longer than
+ *     {@link #getMaxListpackValue()}, it is converted to a member to score hash (concurrent, so it can be scanned
+ *     without holding the lock, see {@link #scanIterator()}) plus a {@link ZSkipList} ordered by
+ *     score. Lookups by member are O(1), rank lookups are O(log n) and range reads are O(log n + m). A set is never
+ *     converted back.</li>
+ * </ul>
+ * Readers share a read lock and writers take the write lock, so concurrent reads on a hot sorted set do not
+ * block each other.
+ *
+ * @author Tiago Wolker
+ */
+public final class ZSet {
+
+    public static final String ENCODING_LISTPACK = "listpack";
+    public static final String ENCODING_SKIPLIST = "skiplist";
+    public static final String INCREMENT_IS_NAN = "ERR resulting score is not a number (NaN)";
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private static volatile int maxListpackEntries = 128;
+    private static volatile int maxListpackValue = 64;
+
+    private String[] members = new String[INITIAL_CAPACITY];
+    private double[] scores = new double[INITIAL_CAPACITY];
+    private int count;
+    private Map<String, Double> dict;
+    private ZSkipList zsl;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile long memberBytes;
+
+    /**
+     * Sets the limits of the listpack encoding, sets over them are converted to the skiplist encoding on their next
+     * write.
+     */
+    public static void configureListpack(int maxEntries, int maxValue) {
+        maxListpackEntries = maxEntries;
+        maxListpackValue = maxValue;
+    }
+
+    public static int getMaxListpackEntries() {
+        return maxListpackEntries;
+    }
+
+    public static int getMaxListpackValue() {
+        return maxListpackValue;
+    }
+
+    /**
+     * Parses a score the way Redis does: any double, plus <code>inf</code>, <code>+inf</code> and
+     * <code>-inf</code>. NaN is not a valid score.
+     *
+     * @throws NumberFormatException if the given value is not a valid score.
+     */
+    public static double parseScore(String value) {
+        if ("+inf".equalsIgnoreCase(value) || "inf".equalsIgnoreCase(value)) {
+            return Double.POSITIVE_INFINITY;
+        } else if ("-inf".equalsIgnoreCase(value)) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        double score = Double.parseDouble(value);
+        if (Double.isNaN(score)) {
+            throw new NumberFormatException("NaN is not a valid score.");
+        }
+        return score;
+    }
+
+    /**
+     * Adds the member with the given score, or updates its score if it is already present.
+     *
+     * @return true if the member was added, false if it was already present.
+     */
+    public boolean add(double score, String member) {
+        lock.writeLock().lock();
+        try {
+            if (zsl == null) {
+                int index = this.indexOf(member);
+                if (index >= 0) {
+                    if (scores[index] != score) {
+                        this.removeAt(index);
+                        this.insertSorted(score, member);
+                    }
+                    return false;
+                }
+                if (count < maxListpackEntries && member.length() <= maxListpackValue) {
+                    this.insertSorted(score, member);
+                    memberBytes += member.length();
+                    return true;
+                }
+                this.convertToSkiplist();
+            }
+            Double current = dict.put(member, score);
+            if (current == null) {
+                zsl.insert(score, member);
+                memberBytes += member.length();
+                return true;
+            }
+            if (current != score) {
+                zsl.delete(current, member);
+                zsl.insert(score, member);
+            }
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return total length of the members, used to estimate the memory used by the set.
+     */
+    public long memberBytes() {
+        return memberBytes;
+    }
+
+    /**
+     * @return {@link #ENCODING_LISTPACK} or {@link #ENCODING_SKIPLIST}.
+     */
+    public String encoding() {
+        lock.readLock().lock();
+        try {
+            return zsl == null ? ENCODING_LISTPACK : ENCODING_SKIPLIST;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return (int) this.length();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the 0-based rank of the member, or -1 if it is not present.
+     */
+    public long rank(String member) {
+        lock.readLock().lock();
+        try {
+            if (zsl == null) {
+                return this.indexOf(member);
+            }
+            Double score = dict.get(member);
+            if (score == null) {
+                return -1;
+            }
+            return zsl.rank(score, member) - 1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the score of the member, or null if it is not present.
+     */
+    public Double score(String member) {
+        lock.readLock().lock();
+        try {
+            if (zsl == null) {
+                int index = this.indexOf(member);
+                return index < 0 ? null : scores[index];
+            }
+            return dict.get(member);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Increments the score of the member, which is added with the increment as its score if it is not present.
+     *
+     * @return the new score.
+     * @throws IllegalArgumentException if the new score is NaN, for example when adding +inf to -inf.
+     */
+    public double incrBy(double increment, String member) {
+        lock.writeLock().lock();
+        try {
+            Double current = this.score(member);
+            double score = current == null ? increment : current + increment;
+            if (Double.isNaN(score)) {
+                throw new IllegalArgumentException(INCREMENT_IS_NAN);
+            }
+            this.add(score, member);
+            return score;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the member was present and removed.
+     */
+    public boolean remove(String member) {
+        lock.writeLock().lock();
+        try {
+            if (zsl == null) {
+                int index = this.indexOf(member);
+                if (index < 0) {
+                    return false;
+                }
+                this.removeAt(index);
+            } else {
+                Double score = dict.remove(member);
+                if (score == null) {
+                    return false;
+                }
+                zsl.delete(score, member);
+            }
+            memberBytes -= member.length();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the 0-based rank of the member, with the scores ordered from high to low, or -1 if it is not present.
+     */
+    public long revRank(String member) {
+        lock.readLock().lock();
+        try {
+            long rank = this.rank(member);
+            return rank < 0 ? -1 : this.length() - 1 - rank;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the members between the given 0-based inclusive indexes, ordered from the lowest to the highest score.
+     * Negative indexes are offsets from the end of the set, and out of range indexes do not produce an error.
+     */
+    public LinkedHashMap<String, Double> range(long start, long stop) {
+        return this.range(start, stop, false);
+    }
+
+    /**
+     * Same as {@link #range(long, long)}, with the indexes counted and the members ordered from the highest to the
+     * lowest score.
+     */
+    public LinkedHashMap<String, Double> revRange(long start, long stop) {
+        return this.range(start, stop, true);
+    }
+
+    private LinkedHashMap<String, Double> range(long start, long stop, boolean reverse) {
+        lock.readLock().lock();
+        try {
+            long size = this.length();
+            if (start < 0) {
+                start = Math.max(size + start, 0);
+            }
+            if (stop < 0) {
+                stop = size + stop;
+            }
+            if (stop >= size) {
+                stop = size - 1;
+            }
+            if (start > stop || start >= size) {
+                return new LinkedHashMap<>();
+            }
+            return reverse ? this.collect(size - 1 - stop, size - 1 - start, true) : this.collect(start, stop, false);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of members in the given range, in O(log n).
+     */
+    public long count(ZRangeSpec range) {
+        lock.readLock().lock();
+        try {
+            return Math.max(this.countUpTo(range) - this.countBefore(range), 0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the members in the given score or lexicographical range, as <code>ZRANGEBYSCORE</code>,
+     * <code>ZREVRANGEBYSCORE</code> and <code>ZRANGEBYLEX</code> do. The range and the offset are located in
+     * O(log n), so only the returned members are visited.
+     *
+     * @param reverse true to order the members from the highest to the lowest score.
+     * @param offset number of members of the range skipped, a negative offset returns no members.
+     * @param count maximum number of members returned, or a negative value for every member of the range.
+     */
+    public LinkedHashMap<String, Double> rangeBy(ZRangeSpec range, boolean reverse, long offset, long count) {
+        lock.readLock().lock();
+        try {
+            long first = this.countBefore(range);
+            long last = this.countUpTo(range) - 1;
+            if (offset < 0 || count == 0 || first > last || offset > last - first) {
+                return new LinkedHashMap<>();
+            }
+            long visited = count < 0 ? last - first + 1 - offset : Math.min(count, last - first + 1 - offset);
+            if (reverse) {
+                return this.collect(last - offset - visited + 1, last - offset, true);
+            }
+            return this.collect(first + offset, first + offset + visited - 1, false);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the members between the given indexes, as {@link #range(long, long)} does, in chunks of at most
+     * <code>chunkSize</code> members. Each chunk is read separately, so the lock is never held while a chunk is being
+     * consumed. Indexes are resolved against the size of the set when this method is called, so members added or
+     * removed while iterating may shift the following chunks, skipping or repeating members.
+     */
+    public Iterator<LinkedHashMap<String, Double>> rangeChunks(long start, long stop, int chunkSize) {
+        long size = this.size();
+        long first = start < 0 ? Math.max(size + start, 0) : start;
+        long last = Math.min(stop < 0 ? size + stop : stop, size - 1);
+        return new Iterator<>() {
+            private long next = first;
+
+            @Override
+            public boolean hasNext() {
+                return next <= last;
+            }
+
+            @Override
+            public LinkedHashMap<String, Double> next() {
+                if (next > last) {
+                    throw new NoSuchElementException();
+                }
+                long chunkStop = Math.min(next + chunkSize - 1, last);
+                LinkedHashMap<String, Double> chunk = range(next, chunkStop);
+                // A chunk shorter than requested means the set shrank, so there is nothing left to read.
+                next = chunk.size() < chunkStop - next + 1 ? last + 1 : chunkStop + 1;
+                return chunk;
+            }
+        };
+    }
+
+    /**
+     * Iterates the members and scores for <code>ZSCAN</code>, in no particular order. With the skiplist encoding it
+     * is a weakly consistent iterator of the member hash, so it can be consumed without holding the lock, across
+     * calls, and returns every member present for the whole iteration exactly once. With the listpack encoding it
+     * iterates a copy, which is small.
+     */
+    public Iterator<Map.Entry<String, Double>> scanIterator() {
+        lock.readLock().lock();
+        try {
+            if (zsl == null) {
+                LinkedHashMap<String, Double> copy = new LinkedHashMap<>(count * 2);
+                for (int i = 0; i < count; i++) {
+                    copy.put(members[i], scores[i]);
+                }
+                return copy.entrySet().iterator();
+            }
+            return dict.entrySet().iterator();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long length() {
+        return zsl == null ? count : zsl.length();
+    }
+
+    /**
+     * Reads the members between the given valid 0-based ranks, from <code>first</code> to <code>last</code>, or from
+     * <code>last</code> to <code>first</code> if <code>reverse</code> is true.
+     */
+    private LinkedHashMap<String, Double> collect(long first, long last, boolean reverse) {
+        LinkedHashMap<String, Double> range = new LinkedHashMap<>();
+        if (zsl == null) {
+            for (int i = 0; i <= last - first; i++) {
+                int index = (int) (reverse ? last - i : first + i);
+                range.put(members[index], scores[index]);
+            }
+            return range;
+        }
+        ZSkipList.Node node = zsl.byRank((reverse ? last : first) + 1);
+        for (long i = first; i <= last && node != null; i++) {
+            range.put(node.member, node.score);
+            node = reverse ? node.backward : node.next();
+        }
+        return range;
+    }
+
+    /**
+     * @see ZSkipList#countBefore(ZRangeSpec)
+     */
+    private long countBefore(ZRangeSpec range) {
+        if (zsl != null) {
+            return zsl.countBefore(range);
+        }
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (range.gteMin(scores[middle], members[middle])) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @see ZSkipList#countUpTo(ZRangeSpec)
+     */
+    private long countUpTo(ZRangeSpec range) {
+        if (zsl != null) {
+            return zsl.countUpTo(range);
+        }
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (range.lteMax(scores[middle], members[middle])) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int indexOf(String member) {
+        for (int i = 0; i < count; i++) {
+            if (members[i].equals(member)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Inserts after every entry ordered before (score, member), the same order used by the skiplist.
+     */
+    private void insertSorted(double score, String member) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (scores[middle] < score || (scores[middle] == score && members[middle].compareTo(member) < 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (count == members.length) {
+            int capacity = Math.min(Math.max(count * 2, INITIAL_CAPACITY), Math.max(maxListpackEntries, count + 1));
+            String[] grownMembers = new String[capacity];
+            double[] grownScores = new double[capacity];
+            System.arraycopy(members, 0, grownMembers, 0, count);
+            System.arraycopy(scores, 0, grownScores, 0, count);
+            members = grownMembers;
+            scores = grownScores;
+        }
+        System.arraycopy(members, low, members, low + 1, count - low);
+        System.arraycopy(scores, low, scores, low + 1, count - low);
+        members[low] = member;
+        scores[low] = score;
+        count++;
+    }
+
+    private void removeAt(int index) {
+        count--;
+        System.arraycopy(members, index + 1, members, index, count - index);
+        System.arraycopy(scores, index + 1, scores, index, count - index);
+        members[count] = null;
+    }
+
+    private void convertToSkiplist() {
+        dict = new ConcurrentHashMap<>(count * 2);
+        zsl = new ZSkipList();
+        for (int i = 0; i < count; i++) {
+            dict.put(members[i], scores[i]);
+            zsl.insert(scores[i], members[i]);
+        }
+        members = null;
+        scores = null;
+        count = 0;
+    }
+}
@@ -0,0 +1,159 @@
+package com.twl.miniredis.db.zset;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Union and intersection of sorted sets, as computed by <code>ZUNIONSTORE</code> and <code>ZINTERSTORE</code>. The
+ * score of a member in the result is its score in each input multiplied by the weight of the input, aggregated with
+ * {@link Aggregate}.
+ * <br/><br/>
+ * Intersections iterate the smallest input and look its members up in the others, so their cost depends on the
+ * smallest input only. Unions of more than {@link #PARALLEL_UNION_THRESHOLD} members are split by member hash between
+ * the workers of the common fork-join pool, each aggregating its share of the members of every input.
+ * <br/><br/>
+ * Each input is read under its own lock, so the result is consistent with each input, but inputs written
+ * concurrently may be read at different times.
+ *
+ * @author Tiago Wolker
+ */
+public final class ZSetAggregation {
+
+    public static final String INVALID_AGGREGATE = "ERR syntax error";
+
+    static final int PARALLEL_UNION_THRESHOLD = 1 << 16;
+
+    /**
+     * How the weighted scores of a member in the inputs are combined.
+     */
+    public enum Aggregate {
+        SUM, MIN, MAX;
+
+        /**
+         * @throws IllegalArgumentException with {@link #INVALID_AGGREGATE} if the name is not an aggregate.
+         */
+        public static Aggregate parse(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(INVALID_AGGREGATE);
+            }
+        }
+
+        double apply(double current, double score) {
+            switch (this) {
+                case MIN:
+                    return Math.min(current, score);
+                case MAX:
+                    return Math.max(current, score);
+                default:
+                    double sum = current + score;
+                    // As in Redis, +inf plus -inf is 0.
+                    return Double.isNaN(sum) ? 0 : sum;
+            }
+        }
+    }
+
+    private ZSetAggregation() {
+    }
+
+    /**
+     * @param inputs sorted sets, null for a key that does not exist.
+     * @param weights weight of each input.
+     */
+    public static ZSet union(List<ZSet> inputs, double[] weights, Aggregate aggregate) {
+        List<LinkedHashMap<String, Double>> members = new ArrayList<>(inputs.size());
+        long total = 0;
+        for (ZSet input : inputs) {
+            LinkedHashMap<String, Double> snapshot = input == null ? new LinkedHashMap<>() : input.range(0, -1);
+            members.add(snapshot);
+            total += snapshot.size();
+        }
+        int partitions = ForkJoinPool.getCommonPoolParallelism();
+        if (total < PARALLEL_UNION_THRESHOLD || partitions < 2) {
+            return toZSet(union(members, weights, aggregate, 0, 1));
+        }
+        List<ForkJoinTask<Map<String, Double>>> tasks = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            int partition = i;
+            tasks.add(ForkJoinPool.commonPool().submit(() -> union(members, weights, aggregate, partition, partitions)));
+        }
+        ZSet result = new ZSet();
+        for (ForkJoinTask<Map<String, Double>> task : tasks) {
+            task.join().forEach((member, score) -> result.add(score, member));
+        }
+        return result;
+    }
+
+    /**
+     * @param inputs sorted sets, null for a key that does not exist.
+     * @param weights weight of each input.
+     */
+    public static ZSet intersection(List<ZSet> inputs, double[] weights, Aggregate aggregate) {
+        List<Integer> order = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            if (inputs.get(i) == null) {
+                return new ZSet();
+            }
+            order.add(i);
+        }
+        order.sort(Comparator.comparingInt(i -> inputs.get(i).size()));
+        int smallest = order.get(0);
+        Map<String, Double> result = new HashMap<>();
+        for (Map.Entry<String, Double> entry : inputs.get(smallest).range(0, -1).entrySet()) {
+            double score = weighted(entry.getValue(), weights[smallest]);
+            boolean everywhere = true;
+            for (int i = 1; i < order.size() && everywhere; i++) {
+                int other = order.get(i);
+                Double otherScore = inputs.get(other).score(entry.getKey());
+                if (otherScore == null) {
+                    everywhere = false;
+                } else {
+                    score = aggregate.apply(score, weighted(otherScore, weights[other]));
+                }
+            }
+            if (everywhere) {
+                result.put(entry.getKey(), score);
+            }
+        }
+        return toZSet(result);
+    }
+
+    /**
+     * Aggregates the members whose hash falls in the given partition.
+     */
+    private static Map<String, Double> union(List<LinkedHashMap<String, Double>> members, double[] weights,
+                                             Aggregate aggregate, int partition, int partitions) {
+        Map<String, Double> result = new HashMap<>();
+        for (int i = 0; i < members.size(); i++) {
+            double weight = weights[i];
+            for (Map.Entry<String, Double> entry : members.get(i).entrySet()) {
+                if (partitions > 1 && Math.floorMod(entry.getKey().hashCode(), partitions) != partition) {
+                    continue;
+                }
+                double score = weighted(entry.getValue(), weight);
+                result.merge(entry.getKey(), score, aggregate::apply);
+            }
+        }
+        return result;
+    }
+
+    private static double weighted(double score, double weight) {
+        double weighted = score * weight;
+        // As in Redis, 0 times an infinite score is 0.
+        return Double.isNaN(weighted) ? 0 : weighted;
+    }
+
+    private static ZSet toZSet(Map<String, Double> members) {
+        ZSet zset = new ZSet();
+        members.forEach((member, score) -> zset.add(score, member));
+        return zset;
+    }
+}
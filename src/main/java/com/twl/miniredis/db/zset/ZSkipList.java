@@ -0,0 +1,223 @@
+package com.twl.miniredis.db.zset;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Skip list ordered by score and then by member, with span counts on every forward link so that ranks can be
+ * computed while descending the list. This is the same layout used by Redis' <code>zskiplist</code>.
+ * <br/><br/>
+ * <b>Note:</b> this class is not thread safe, access is guarded by the owning {@link ZSet}.
+ *
+ * @author Tiago Wolker
+ */
+final class ZSkipList {
+
+    static final int MAX_LEVEL = 32;
+    private static final int P = 4;
+
+    static final class Node {
+        final String member;
+        final double score;
+        Node backward;
+        final Node[] forward;
+        final long[] span;
+
+        private Node(int level, double score, String member) {
+            this.member = member;
+            this.score = score;
+            this.forward = new Node[level];
+            this.span = new long[level];
+        }
+
+        Node next() {
+            return forward[0];
+        }
+    }
+
+    private final Node header = new Node(MAX_LEVEL, 0, null);
+    private Node tail;
+    private long length;
+    private int level = 1;
+
+    long length() {
+        return length;
+    }
+
+    Node first() {
+        return header.forward[0];
+    }
+
+    Node last() {
+        return tail;
+    }
+
+    /**
+     * Inserts a new node. The caller must make sure the member is not already present.
+     */
+    Node insert(double score, String member) {
+        Node[] update = new Node[MAX_LEVEL];
+        long[] rank = new long[MAX_LEVEL];
+        Node x = header;
+        for (int i = level - 1; i >= 0; i--) {
+            rank[i] = i == level - 1 ? 0 : rank[i + 1];
+            while (x.forward[i] != null && lessThan(x.forward[i], score, member)) {
+                rank[i] += x.span[i];
+                x = x.forward[i];
+            }
+            update[i] = x;
+        }
+        int newLevel = randomLevel();
+        if (newLevel > level) {
+            for (int i = level; i < newLevel; i++) {
+                rank[i] = 0;
+                update[i] = header;
+                update[i].span[i] = length;
+            }
+            level = newLevel;
+        }
+        x = new Node(newLevel, score, member);
+        for (int i = 0; i < newLevel; i++) {
+            x.forward[i] = update[i].forward[i];
+            update[i].forward[i] = x;
+            x.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            update[i].span[i] = (rank[0] - rank[i]) + 1;
+        }
+        for (int i = newLevel; i < level; i++) {
+            update[i].span[i]++;
+        }
+        x.backward = update[0] == header ? null : update[0];
+        if (x.forward[0] != null) {
+            x.forward[0].backward = x;
+        } else {
+            tail = x;
+        }
+        length++;
+        return x;
+    }
+
+    /**
+     * Removes the node holding the given score and member.
+     *
+     * @return true if the node was found and removed.
+     */
+    boolean delete(double score, String member) {
+        Node[] update = new Node[MAX_LEVEL];
+        Node x = header;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.forward[i] != null && lessThan(x.forward[i], score, member)) {
+                x = x.forward[i];
+            }
+            update[i] = x;
+        }
+        x = x.forward[0];
+        if (x != null && x.score == score && x.member.equals(member)) {
+            deleteNode(x, update);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return 1-based rank of the element, or 0 if it is not present.
+     */
+    long rank(double score, String member) {
+        long rank = 0;
+        Node x = header;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.forward[i] != null && !greaterThan(x.forward[i], score, member)) {
+                rank += x.span[i];
+                x = x.forward[i];
+            }
+            if (x.member != null && x.member.equals(member)) {
+                return rank;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param rank 1-based rank.
+     * @return the node at the given rank, or null if out of range.
+     */
+    Node byRank(long rank) {
+        long traversed = 0;
+        Node x = header;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.forward[i] != null && traversed + x.span[i] <= rank) {
+                traversed += x.span[i];
+                x = x.forward[i];
+            }
+            if (traversed == rank) {
+                return x;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return number of elements before the start of the range, which is the 0-based rank of its first element.
+     */
+    long countBefore(ZRangeSpec range) {
+        long rank = 0;
+        Node x = header;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.forward[i] != null && !range.gteMin(x.forward[i].score, x.forward[i].member)) {
+                rank += x.span[i];
+                x = x.forward[i];
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * @return number of elements up to the end of the range, which is the 1-based rank of its last element.
+     */
+    long countUpTo(ZRangeSpec range) {
+        long rank = 0;
+        Node x = header;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.forward[i] != null && range.lteMax(x.forward[i].score, x.forward[i].member)) {
+                rank += x.span[i];
+                x = x.forward[i];
+            }
+        }
+        return rank;
+    }
+
+    private void deleteNode(Node x, Node[] update) {
+        for (int i = 0; i < level; i++) {
+            if (update[i].forward[i] == x) {
+                update[i].span[i] += x.span[i] - 1;
+                update[i].forward[i] = x.forward[i];
+            } else {
+                update[i].span[i]--;
+            }
+        }
+        if (x.forward[0] != null) {
+            x.forward[0].backward = x.backward;
+        } else {
+            tail = x.backward;
+        }
+        while (level > 1 && header.forward[level - 1] == null) {
+            level--;
+        }
+        length--;
+    }
+
+    private static boolean lessThan(Node node, double score, String member) {
+        return node.score < score || (node.score == score && node.member.compareTo(member) < 0);
+    }
+
+    private static boolean greaterThan(Node node, double score, String member) {
+        return node.score > score || (node.score == score && node.member.compareTo(member) > 0);
+    }
+
+    private static int randomLevel() {
+        int newLevel = 1;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (newLevel < MAX_LEVEL && random.nextInt(P) == 0) {
+            newLevel++;
+        }
+        return newLevel;
+    }
+}
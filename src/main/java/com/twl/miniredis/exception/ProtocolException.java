@@ -0,0 +1,26 @@
+package com.twl.miniredis.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class ProtocolException extends Exception {
+
+    public ProtocolException() {}
+
+    public ProtocolException(String s) {
+        super(s);
+    }
+
+    public ProtocolException(String s, Throwable throwable) {
+        super(s, throwable);
+    }
+
+    public ProtocolException(Throwable throwable) {
+        super(throwable);
+    }
+
+    public ProtocolException(String s, Throwable throwable, boolean b, boolean b1) {
+        super(s, throwable, b, b1);
+    }
+}
@@ -0,0 +1,52 @@
+package com.twl.miniredis.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Calls, errors and latency of a single command, as reported by <code>INFO commandstats</code> and
+ * <code>INFO latencystats</code>.
+ *
+ * @author Tiago Wolker
+ */
+public final class CommandStats {
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder failedCalls = new LongAdder();
+    private final LongAdder rejectedCalls = new LongAdder();
+
+    /**
+     * Records an executed call.
+     *
+     * @param nanos execution time.
+     * @param failed whether the call replied with an error.
+     */
+    public void record(long nanos, boolean failed) {
+        latency.record(nanos);
+        if (failed) {
+            failedCalls.increment();
+        }
+    }
+
+    /**
+     * Records a call that was not executed, such as one with a wrong number of arguments.
+     */
+    public void reject() {
+        rejectedCalls.increment();
+    }
+
+    public long getCalls() {
+        return latency.getCount();
+    }
+
+    public long getFailedCalls() {
+        return failedCalls.sum();
+    }
+
+    public long getRejectedCalls() {
+        return rejectedCalls.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+}
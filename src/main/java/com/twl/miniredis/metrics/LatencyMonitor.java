@@ -0,0 +1,212 @@
+package com.twl.miniredis.metrics;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Attributes latency spikes to named events, as the Redis latency monitor does. Code paths that may block the server
+ * time themselves and report here; only the samples at or above the configured threshold are kept, so a quiet server
+ * records nothing.
+ * <br/><br/>
+ * For each event the monitor keeps the latest and the all time maximum latency, plus a history of the last
+ * {@link #HISTORY_SIZE} samples, with the samples of the same second merged into their maximum. Garbage collection
+ * pauses are reported as the {@link #GC} event, from the notifications of the JVM collectors.
+ *
+ * @author Tiago Wolker
+ */
+@Component
+@Log4j2
+public class LatencyMonitor {
+
+    public static final String COMMAND = "command";
+    public static final String EXPIRE_CYCLE = "expire-cycle";
+    public static final String EVICTION_CYCLE = "eviction-cycle";
+    public static final String AOF_FSYNC = "aof-fsync";
+    public static final String GC = "gc";
+
+    static final int HISTORY_SIZE = 160;
+
+    private final long thresholdMillis;
+    private final Map<String, Event> events = new ConcurrentHashMap<>();
+
+    /**
+     * Samples of a single event.
+     */
+    public static final class Event {
+        private final String name;
+        private final long[] times = new long[HISTORY_SIZE];
+        private final long[] latencies = new long[HISTORY_SIZE];
+        private int next;
+        private int size;
+        private long latestTime;
+        private long latest;
+        private long max;
+
+        Event(String name) {
+            this.name = name;
+        }
+
+        synchronized void add(long timeSeconds, long millis) {
+            if (size > 0) {
+                int last = (next + HISTORY_SIZE - 1) % HISTORY_SIZE;
+                if (times[last] == timeSeconds) {
+                    latencies[last] = Math.max(latencies[last], millis);
+                    this.update(timeSeconds, millis);
+                    return;
+                }
+            }
+            times[next] = timeSeconds;
+            latencies[next] = millis;
+            next = (next + 1) % HISTORY_SIZE;
+            size = Math.min(size + 1, HISTORY_SIZE);
+            this.update(timeSeconds, millis);
+        }
+
+        private void update(long timeSeconds, long millis) {
+            latestTime = timeSeconds;
+            latest = millis;
+            max = Math.max(max, millis);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return unix time in seconds of the latest sample.
+         */
+        public synchronized long getLatestTime() {
+            return latestTime;
+        }
+
+        public synchronized long getLatest() {
+            return latest;
+        }
+
+        public synchronized long getMax() {
+            return max;
+        }
+
+        /**
+         * @return pairs of unix time in seconds and latency in milliseconds, from the oldest to the newest.
+         */
+        public synchronized List<long[]> history() {
+            List<long[]> history = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                int index = (next - size + i + HISTORY_SIZE) % HISTORY_SIZE;
+                history.add(new long[]{times[index], latencies[index]});
+            }
+            return history;
+        }
+    }
+
+    /**
+     * @param thresholdMillis minimum latency of the samples that are kept, 0 disables the monitor.
+     */
+    public LatencyMonitor(@Value("${miniredis.latency-monitor.threshold-ms:0}") long thresholdMillis) {
+        this.thresholdMillis = thresholdMillis;
+        if (thresholdMillis > 0) {
+            this.listenToGarbageCollections();
+        }
+    }
+
+    public boolean isEnabled() {
+        return thresholdMillis > 0;
+    }
+
+    public long getThresholdMillis() {
+        return thresholdMillis;
+    }
+
+    /**
+     * Reports that the given event took the given time.
+     */
+    public void record(String event, long millis) {
+        if (thresholdMillis <= 0 || millis < thresholdMillis) {
+            return;
+        }
+        events.computeIfAbsent(event, Event::new)
+                .add(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()), millis);
+    }
+
+    /**
+     * Same as {@link #record(String, long)}, for an event that started at the given {@link System#nanoTime()}.
+     */
+    public void recordSince(String event, long startedNanos) {
+        if (thresholdMillis > 0) {
+            this.record(event, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos));
+        }
+    }
+
+    /**
+     * @return events with at least one sample, ordered by name.
+     */
+    public Collection<Event> latest() {
+        return new TreeMap<>(events).values();
+    }
+
+    /**
+     * @return samples of the event, or null if it has none.
+     */
+    public Event get(String event) {
+        return events.get(event);
+    }
+
+    /**
+     * Discards the samples of the given events, or of every event if none is given.
+     *
+     * @return number of events discarded.
+     */
+    public int reset(Collection<String> names) {
+        if (names.isEmpty()) {
+            int size = events.size();
+            events.clear();
+            return size;
+        }
+        int reset = 0;
+        for (String name : names) {
+            if (events.remove(name) != null) {
+                reset++;
+            }
+        }
+        return reset;
+    }
+
+    private void listenToGarbageCollections() {
+        try {
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (!(collector instanceof NotificationEmitter)) {
+                    continue;
+                }
+                ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                    if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                        return;
+                    }
+                    GarbageCollectionNotificationInfo info =
+                            GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                    // Concurrent collectors report whole cycles, which run alongside the application.
+                    String name = info.getGcName();
+                    if (!name.contains("Concurrent") && !name.contains("Cycles")) {
+                        this.record(GC, info.getGcInfo().getDuration());
+                    }
+                }, null, null);
+            }
+        } catch (LinkageError | RuntimeException e) {
+            log.warn("Garbage collection notifications are not available, {} events will not be reported.", GC, e);
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package com.twl.miniredis.metrics;
+
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.command.CommandSpec;
+import com.twl.miniredis.command.Reply;
+import com.twl.miniredis.db.Database;
+import com.twl.miniredis.model.dto.ReplicaInfo;
+import com.twl.miniredis.model.dto.ShardStats;
+import com.twl.miniredis.persistence.AppendOnlyFile;
+import com.twl.miniredis.persistence.Snapshot;
+import com.twl.miniredis.replication.ReplicationPrimary;
+import com.twl.miniredis.replication.ReplicationReplica;
+import com.twl.miniredis.resp.RespServer;
+import com.twl.miniredis.service.DatabaseService;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server, keyspace and per command statistics, reported by the <code>INFO</code> command and in the Prometheus text
+ * format. Commands record their own latency in their {@link CommandStats} as they are executed; everything else is
+ * read from the existing counters when a report is requested.
+ *
+ * @author Tiago Wolker
+ */
+@Component
+public class ServerMetrics {
+
+    private static final List<String> DEFAULT_SECTIONS = List.of("server", "clients", "memory", "persistence", "stats", "replication",
+            "keyspace");
+    private static final List<String> ALL_SECTIONS = List.of("server", "clients", "memory", "persistence", "stats", "replication",
+            "keyspace", "commandstats", "latencystats");
+    private static final double[] PERCENTILES = {50, 99, 99.9};
+    private static final String[] QUANTILES = {"0.5", "0.99", "0.999"};
+
+    private final CommandDispatcher dispatcher;
+    private final DatabaseService service;
+    private final AppendOnlyFile appendOnlyFile;
+    private final Snapshot snapshot;
+    private final RespServer respServer;
+    private final LatencyMonitor latencyMonitor;
+    private final ReplicationPrimary replicationPrimary;
+    private final ReplicationReplica replicationReplica;
+    private final long startTime = System.currentTimeMillis();
+
+    // Only updated by sampleOpsPerSecond, which is never run concurrently.
+    private long lastSampleNanos;
+    private long lastSampleCommands;
+    private volatile long opsPerSecond;
+
+    public ServerMetrics(CommandDispatcher dispatcher, DatabaseService service, AppendOnlyFile appendOnlyFile,
+                         Snapshot snapshot, RespServer respServer, LatencyMonitor latencyMonitor,
+                         ReplicationPrimary replicationPrimary, ReplicationReplica replicationReplica) {
+        this.dispatcher = dispatcher;
+        this.service = service;
+        this.appendOnlyFile = appendOnlyFile;
+        this.snapshot = snapshot;
+        this.respServer = respServer;
+        this.latencyMonitor = latencyMonitor;
+        this.replicationPrimary = replicationPrimary;
+        this.replicationReplica = replicationReplica;
+
+        dispatcher.register("INFO", -1, false, (session, args) -> this.info(args.subList(1, args.size())));
+        dispatcher.register("LATENCY", -2, false, this::latency);
+        if (latencyMonitor.isEnabled()) {
+            dispatcher.addObserver((session, args, nanos) -> latencyMonitor.record(LatencyMonitor.COMMAND,
+                    TimeUnit.NANOSECONDS.toMillis(nanos)));
+        }
+    }
+
+    /**
+     * LATENCY LATEST | HISTORY event | RESET [event ...]
+     */
+    private Object latency(ClientSession session, List<String> args) {
+        String subcommand = args.get(1).toUpperCase(Locale.ROOT);
+        if ("LATEST".equals(subcommand) && args.size() == 2) {
+            List<Object> reply = new ArrayList<>();
+            for (LatencyMonitor.Event event : latencyMonitor.latest()) {
+                reply.add(Arrays.asList(event.getName(), event.getLatestTime(), event.getLatest(), event.getMax()));
+            }
+            return reply;
+        } else if ("HISTORY".equals(subcommand) && args.size() == 3) {
+            List<Object> reply = new ArrayList<>();
+            LatencyMonitor.Event event = latencyMonitor.get(args.get(2));
+            if (event != null) {
+                for (long[] sample : event.history()) {
+                    reply.add(Arrays.asList(sample[0], sample[1]));
+                }
+            }
+            return reply;
+        } else if ("RESET".equals(subcommand)) {
+            return latencyMonitor.reset(args.subList(2, args.size()));
+        }
+        return Reply.error("ERR unknown subcommand or wrong number of arguments for '" + args.get(1) + "'");
+    }
+
+    /**
+     * Updates the instantaneous number of commands per second, from the commands executed since the last sample.
+     */
+    public void sampleOpsPerSecond() {
+        long now = System.nanoTime();
+        long commands = this.totalCommands();
+        if (lastSampleNanos != 0 && now > lastSampleNanos) {
+            opsPerSecond = (commands - lastSampleCommands) * 1_000_000_000L / (now - lastSampleNanos);
+        }
+        lastSampleNanos = now;
+        lastSampleCommands = commands;
+    }
+
+    public long getOpsPerSecond() {
+        return opsPerSecond;
+    }
+
+    /**
+     * @param sections names of the sections to report, <code>all</code> for every section, or none for the default
+     *                 ones. Unknown sections are ignored.
+     * @return the report in the <code>INFO</code> format: <code># Section</code> headers and <code>field:value</code>
+     * lines.
+     */
+    public String info(List<String> sections) {
+        Set<String> selected = new LinkedHashSet<>();
+        if (sections.isEmpty()) {
+            selected.addAll(DEFAULT_SECTIONS);
+        }
+        for (String section : sections) {
+            String name = section.toLowerCase(Locale.ROOT);
+            if ("all".equals(name) || "everything".equals(name)) {
+                selected.addAll(ALL_SECTIONS);
+            } else if ("default".equals(name)) {
+                selected.addAll(DEFAULT_SECTIONS);
+            } else if (ALL_SECTIONS.contains(name)) {
+                selected.add(name);
+            }
+        }
+        StringBuilder info = new StringBuilder();
+        for (String section : ALL_SECTIONS) {
+            if (selected.contains(section)) {
+                if (info.length() > 0) {
+                    info.append("\r\n");
+                }
+                info.append("# ").append(Character.toUpperCase(section.charAt(0))).append(section.substring(1)).append("\r\n");
+                this.appendSection(info, section);
+            }
+        }
+        return info.toString();
+    }
+
+    private void appendSection(StringBuilder info, String section) {
+        switch (section) {
+            case "server":
+                field(info, "mini_redis_version", CommandDispatcher.SERVER_VERSION);
+                field(info, "java_version", System.getProperty("java.version"));
+                field(info, "process_id", ProcessHandle.current().pid());
+                field(info, "tcp_port", respServer.getPort());
+                field(info, "uptime_in_seconds", (System.currentTimeMillis() - startTime) / 1000);
+                break;
+            case "clients":
+                field(info, "connected_clients", respServer.getConnectedClients());
+                break;
+            case "memory":
+                Runtime runtime = Runtime.getRuntime();
+                field(info, "used_memory", Database.usedMemory());
+                field(info, "maxmemory", Database.getMaxMemory());
+                field(info, "maxmemory_policy", Database.getEvictionPolicy().getName());
+                field(info, "offheap_allocated", Database.getArena().getAllocatedBytes());
+                field(info, "offheap_reserved", Database.getArena().getReservedBytes());
+                field(info, "heap_used", runtime.totalMemory() - runtime.freeMemory());
+                field(info, "heap_max", runtime.maxMemory());
+                break;
+            case "persistence":
+                field(info, "aof_enabled", appendOnlyFile.isEnabled() ? 1 : 0);
+                field(info, "aof_rewrite_in_progress", appendOnlyFile.isRewriting() ? 1 : 0);
+                field(info, "aof_last_write_status", appendOnlyFile.isLastWriteOk() ? "ok" : "err");
+                field(info, "aof_current_size", appendOnlyFile.getCurrentSize());
+                field(info, "aof_base_size", appendOnlyFile.getBaseSize());
+                field(info, "rdb_bgsave_in_progress", snapshot.isSaving() ? 1 : 0);
+                field(info, "rdb_last_save_time", snapshot.getLastSave() / 1000);
+                field(info, "rdb_last_bgsave_status", snapshot.isLastSaveFailed() ? "err" : "ok");
+                break;
+            case "stats":
+                ShardStats stats = this.keyspace();
+                field(info, "total_commands_processed", this.totalCommands());
+                field(info, "instantaneous_ops_per_sec", opsPerSecond);
+                field(info, "keyspace_hits", stats.getHits());
+                field(info, "keyspace_misses", stats.getMisses());
+                field(info, "expired_keys", stats.getExpired());
+                field(info, "evicted_keys", stats.getEvicted());
+                break;
+            case "replication":
+                this.appendReplication(info);
+                break;
+            case "keyspace":
+                ShardStats keyspace = this.keyspace();
+                if (keyspace.getKeys() > 0) {
+                    field(info, "db0", "keys=" + keyspace.getKeys() + ",expires=" + keyspace.getExpires()
+                            + ",zsets=" + keyspace.getZsets() + ",zset_members=" + keyspace.getZsetMembers());
+                }
+                break;
+            case "commandstats":
+                for (CommandSpec spec : this.executedCommands()) {
+                    CommandStats commandStats = spec.getStats();
+                    long usec = commandStats.getLatency().getSum() / 1000;
+                    field(info, "cmdstat_" + spec.getName().toLowerCase(Locale.ROOT), "calls=" + commandStats.getCalls()
+                            + ",usec=" + usec
+                            + ",usec_per_call=" + String.format(Locale.ROOT, "%.2f", (double) usec / commandStats.getCalls())
+                            + ",rejected_calls=" + commandStats.getRejectedCalls()
+                            + ",failed_calls=" + commandStats.getFailedCalls());
+                }
+                break;
+            default:
+                for (CommandSpec spec : this.executedCommands()) {
+                    LatencyHistogram latency = spec.getStats().getLatency();
+                    StringBuilder percentiles = new StringBuilder();
+                    for (double percentile : PERCENTILES) {
+                        if (percentiles.length() > 0) {
+                            percentiles.append(',');
+                        }
+                        percentiles.append('p').append(formatPercentile(percentile)).append('=')
+                                .append(String.format(Locale.ROOT, "%.3f", latency.percentile(percentile) / 1000.0));
+                    }
+                    field(info, "latency_percentiles_usec_" + spec.getName().toLowerCase(Locale.ROOT), percentiles);
+                }
+        }
+    }
+
+    /**
+     * @return the statistics in the Prometheus text exposition format.
+     */
+    public String prometheus() {
+        StringBuilder out = new StringBuilder();
+        List<CommandSpec> commands = this.executedCommands();
+
+        header(out, "miniredis_commands_total", "counter", "Commands executed.");
+        for (CommandSpec spec : commands) {
+            sample(out, "miniredis_commands_total", command(spec), spec.getStats().getCalls());
+        }
+        header(out, "miniredis_commands_failed_total", "counter", "Commands that replied with an error.");
+        for (CommandSpec spec : commands) {
+            sample(out, "miniredis_commands_failed_total", command(spec), spec.getStats().getFailedCalls());
+        }
+        header(out, "miniredis_commands_rejected_total", "counter", "Commands rejected before being executed.");
+        for (CommandSpec spec : commands) {
+            sample(out, "miniredis_commands_rejected_total", command(spec), spec.getStats().getRejectedCalls());
+        }
+        header(out, "miniredis_command_duration_seconds", "summary", "Command execution time.");
+        for (CommandSpec spec : commands) {
+            LatencyHistogram latency = spec.getStats().getLatency();
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                sample(out, "miniredis_command_duration_seconds",
+                        command(spec) + ",quantile=\"" + QUANTILES[i] + "\"", latency.percentile(PERCENTILES[i]) / 1e9);
+            }
+            sample(out, "miniredis_command_duration_seconds_sum", command(spec), latency.getSum() / 1e9);
+            sample(out, "miniredis_command_duration_seconds_count", command(spec), latency.getCount());
+        }
+
+        ShardStats keyspace = this.keyspace();
+        gauge(out, "miniredis_keys", "Keys in the database.", keyspace.getKeys());
+        gauge(out, "miniredis_expiring_keys", "Keys with a time to live.", keyspace.getExpires());
+        gauge(out, "miniredis_zsets", "Sorted sets in the database.", keyspace.getZsets());
+        gauge(out, "miniredis_zset_members", "Members of all sorted sets.", keyspace.getZsetMembers());
+        counter(out, "miniredis_keyspace_hits_total", "Lookups of existing keys.", keyspace.getHits());
+        counter(out, "miniredis_keyspace_misses_total", "Lookups of missing keys.", keyspace.getMisses());
+        counter(out, "miniredis_expired_keys_total", "Keys removed because their time to live elapsed.", keyspace.getExpired());
+        counter(out, "miniredis_evicted_keys_total", "Keys evicted by the maxmemory policy.", keyspace.getEvicted());
+        gauge(out, "miniredis_memory_used_bytes", "Estimated memory used by the keys.", Database.usedMemory());
+        gauge(out, "miniredis_memory_max_bytes", "Memory limit, 0 when there is none.", Database.getMaxMemory());
+        gauge(out, "miniredis_offheap_allocated_bytes", "Off-heap memory used by values.", Database.getArena().getAllocatedBytes());
+        gauge(out, "miniredis_offheap_reserved_bytes", "Off-heap memory reserved by the value arena.", Database.getArena().getReservedBytes());
+        gauge(out, "miniredis_connected_clients", "Connected RESP clients.", respServer.getConnectedClients());
+        gauge(out, "miniredis_instantaneous_ops_per_second", "Commands executed per second.", opsPerSecond);
+        gauge(out, "miniredis_aof_current_size_bytes", "Size of the append only file.", appendOnlyFile.getCurrentSize());
+        gauge(out, "miniredis_uptime_seconds", "Time since the server started.", (System.currentTimeMillis() - startTime) / 1000);
+        header(out, "miniredis_latency_event_max_seconds", "gauge", "Longest sample of each latency monitor event.");
+        for (LatencyMonitor.Event event : latencyMonitor.latest()) {
+            sample(out, "miniredis_latency_event_max_seconds", "event=\"" + event.getName() + "\"", event.getMax() / 1e3);
+        }
+        return out.toString();
+    }
+
+    private long totalCommands() {
+        long total = 0;
+        for (CommandSpec spec : dispatcher.getCommands()) {
+            total += spec.getStats().getCalls();
+        }
+        return total;
+    }
+
+    private List<CommandSpec> executedCommands() {
+        List<CommandSpec> executed = new ArrayList<>();
+        for (CommandSpec spec : dispatcher.getCommands()) {
+            CommandStats stats = spec.getStats();
+            if (stats.getCalls() > 0 || stats.getRejectedCalls() > 0) {
+                executed.add(spec);
+            }
+        }
+        executed.sort(Comparator.comparing(CommandSpec::getName));
+        return executed;
+    }
+
+    /**
+     * @return totals of every shard, in a single {@link ShardStats}.
+     */
+    private ShardStats keyspace() {
+        ShardStats total = new ShardStats();
+        for (ShardStats shard : service.shardStats()) {
+            total.setKeys(total.getKeys() + shard.getKeys());
+            total.setExpires(total.getExpires() + shard.getExpires());
+            total.setHits(total.getHits() + shard.getHits());
+            total.setMisses(total.getMisses() + shard.getMisses());
+            total.setExpired(total.getExpired() + shard.getExpired());
+            total.setEvicted(total.getEvicted() + shard.getEvicted());
+            total.setMemory(total.getMemory() + shard.getMemory());
+            total.setZsets(total.getZsets() + shard.getZsets());
+            total.setZsetMembers(total.getZsetMembers() + shard.getZsetMembers());
+        }
+        return total;
+    }
+
+    private static String formatPercentile(double percentile) {
+        return percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile);
+    }
+
+    private void appendReplication(StringBuilder info) {
+        long now = System.currentTimeMillis();
+        if (replicationReplica.isEnabled()) {
+            field(info, "role", "slave");
+            field(info, "master_host", replicationReplica.getHost());
+            field(info, "master_port", replicationReplica.getPort());
+            field(info, "master_link_status", replicationReplica.isLinkUp() ? "up" : "down");
+            field(info, "master_last_io_seconds_ago", replicationReplica.getLastIoMillis() == 0 ? -1
+                    : (now - replicationReplica.getLastIoMillis()) / 1000);
+            field(info, "master_sync_in_progress", replicationReplica.isSyncing() ? 1 : 0);
+            field(info, "slave_repl_offset", replicationReplica.getOffset());
+            field(info, "slave_read_only", dispatcher.isReadOnly() ? 1 : 0);
+        } else {
+            field(info, "role", "master");
+        }
+        List<ReplicaInfo> replicas = replicationPrimary.getReplicas();
+        field(info, "connected_slaves", replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            ReplicaInfo replica = replicas.get(i);
+            String address = replica.getAddress();
+            int colon = address.lastIndexOf(':');
+            field(info, "slave" + i, "ip=" + (colon > 0 ? address.substring(0, colon) : address)
+                    + ",port=" + (replica.getListeningPort() == null ? -1 : replica.getListeningPort())
+                    + ",state=" + (replica.isOnline() ? "online" : "wait_bgsave")
+                    + ",offset=" + replica.getAckOffset() + ",lag=" + (now - replica.getLastAckMillis()) / 1000);
+        }
+        field(info, "master_replid", replicationPrimary.getReplicationId());
+        field(info, "master_repl_offset", replicationPrimary.getOffset());
+        field(info, "repl_backlog_active", replicationPrimary.isBacklogActive() ? 1 : 0);
+        field(info, "repl_backlog_size", replicationPrimary.getBacklogSize());
+        field(info, "repl_backlog_first_byte_offset", replicationPrimary.getBacklogFirstOffset());
+        field(info, "repl_backlog_histlen", replicationPrimary.getOffset() - replicationPrimary.getBacklogFirstOffset());
+    }
+
+    private static void field(StringBuilder info, String name, Object value) {
+        info.append(name).append(':').append(value).append("\r\n");
+    }
+
+    private static String command(CommandSpec spec) {
+        return "command=\"" + spec.getName().toLowerCase(Locale.ROOT) + "\"";
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, Number value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        header(out, name, "gauge", help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, "counter", help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+}
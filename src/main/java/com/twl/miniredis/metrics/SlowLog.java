@@ -0,0 +1,155 @@
+package com.twl.miniredis.metrics;
+
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.command.Reply;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Commands that took longer than a configured time to execute, as reported by <code>SLOWLOG GET</code>. The log is
+ * a ring buffer of the last entries, so it never grows, and commands below the threshold only cost a comparison.
+ * <br/><br/>
+ * As in Redis, the arguments of an entry are truncated to {@link #MAX_ARGS} arguments of {@link #MAX_ARG_LENGTH}
+ * characters, so a huge command does not keep its payload alive in the log.
+ *
+ * @author Tiago Wolker
+ */
+@Component
+public class SlowLog {
+
+    static final int MAX_ARGS = 32;
+    static final int MAX_ARG_LENGTH = 128;
+
+    private static final int DEFAULT_GET_COUNT = 10;
+
+    private final long thresholdNanos;
+    private final Entry[] entries;
+    private int next;
+    private int size;
+    private long nextId;
+
+    /**
+     * A logged command.
+     */
+    @Getter
+    public static final class Entry {
+        private final long id;
+        /**
+         * Unix time in seconds when the command was logged.
+         */
+        private final long timestamp;
+        private final long durationMicros;
+        private final List<String> args;
+        private final String clientAddress;
+        private final String clientName;
+
+        Entry(long id, long timestamp, long durationMicros, List<String> args, String clientAddress, String clientName) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.durationMicros = durationMicros;
+            this.args = args;
+            this.clientAddress = clientAddress;
+            this.clientName = clientName;
+        }
+    }
+
+    /**
+     * @param slowerThanMicros minimum execution time of the logged commands, 0 logs every command and a negative
+     *                         value disables the log.
+     * @param maxLength number of entries kept.
+     */
+    public SlowLog(CommandDispatcher dispatcher,
+                   @Value("${miniredis.slowlog.log-slower-than-us:10000}") long slowerThanMicros,
+                   @Value("${miniredis.slowlog.max-len:128}") int maxLength) {
+        this.thresholdNanos = slowerThanMicros < 0 ? -1 : TimeUnit.MICROSECONDS.toNanos(slowerThanMicros);
+        this.entries = new Entry[Math.max(maxLength, 1)];
+
+        dispatcher.register("SLOWLOG", -2, false, this::slowlog);
+        dispatcher.addObserver(this::onExecuted);
+    }
+
+    private void onExecuted(ClientSession session, List<String> args, long nanos) {
+        if (thresholdNanos < 0 || nanos < thresholdNanos) {
+            return;
+        }
+        this.add(session, args, TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    synchronized void add(ClientSession session, List<String> args, long durationMicros) {
+        String name = session.getName();
+        entries[next] = new Entry(nextId++, TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()),
+                durationMicros, truncate(args), session.getAddress(), name == null ? "" : name);
+        next = (next + 1) % entries.length;
+        size = Math.min(size + 1, entries.length);
+    }
+
+    /**
+     * @param count maximum number of entries, or a negative value for every entry.
+     * @return the logged entries, from the newest to the oldest.
+     */
+    public synchronized List<Entry> get(int count) {
+        int limit = count < 0 ? size : Math.min(count, size);
+        List<Entry> latest = new ArrayList<>(limit);
+        for (int i = 1; i <= limit; i++) {
+            latest.add(entries[(next - i + entries.length) % entries.length]);
+        }
+        return latest;
+    }
+
+    public synchronized int length() {
+        return size;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(entries, null);
+        next = 0;
+        size = 0;
+    }
+
+    /**
+     * SLOWLOG GET [count] | LEN | RESET
+     */
+    private Object slowlog(ClientSession session, List<String> args) {
+        String subcommand = args.get(1).toUpperCase(Locale.ROOT);
+        if ("GET".equals(subcommand) && args.size() <= 3) {
+            int count = args.size() == 3 ? Integer.parseInt(args.get(2)) : DEFAULT_GET_COUNT;
+            List<Object> reply = new ArrayList<>();
+            for (Entry entry : this.get(count)) {
+                reply.add(Arrays.asList(entry.getId(), entry.getTimestamp(), entry.getDurationMicros(), entry.getArgs(),
+                        entry.getClientAddress(), entry.getClientName()));
+            }
+            return reply;
+        } else if ("LEN".equals(subcommand) && args.size() == 2) {
+            return this.length();
+        } else if ("RESET".equals(subcommand) && args.size() == 2) {
+            this.reset();
+            return Reply.OK;
+        }
+        return Reply.error("ERR unknown subcommand or wrong number of arguments for '" + args.get(1) + "'");
+    }
+
+    private static List<String> truncate(List<String> args) {
+        int kept = args.size() > MAX_ARGS ? MAX_ARGS - 1 : args.size();
+        List<String> truncated = new ArrayList<>(Math.min(args.size(), MAX_ARGS));
+        for (int i = 0; i < kept; i++) {
+            String arg = args.get(i);
+            if (arg.length() > MAX_ARG_LENGTH) {
+                arg = arg.substring(0, MAX_ARG_LENGTH) + "... (" + (arg.length() - MAX_ARG_LENGTH) + " more characters)";
+            }
+            truncated.add(arg);
+        }
+        if (kept < args.size()) {
+            truncated.add("... (" + (args.size() - kept) + " more arguments)");
+        }
+        return Collections.unmodifiableList(truncated);
+    }
+}
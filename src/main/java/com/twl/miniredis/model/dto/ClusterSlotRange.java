@@ -0,0 +1,28 @@
+package com.twl.miniredis.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Contiguous range of hash slots owned by the same node, as reported by <code>/CLUSTER/SLOTS</code>.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ClusterSlotRange {
+    private int start;
+    /**
+     * Last slot of the range, inclusive.
+     */
+    private int end;
+    private String host;
+    /**
+     * Port of the RESP listener.
+     */
+    private int port;
+    /**
+     * Port of the HTTP API, or 0 if unknown.
+     */
+    private int httpPort;
+}
@@ -1,15 +1,152 @@
 package com.twl.miniredis.model.dto;
 
-import lombok.AllArgsConstructor;
+import com.twl.miniredis.db.Database;
+import com.twl.miniredis.db.eviction.AccessTracker;
+import lombok.AccessLevel;
 import lombok.Data;
-import lombok.NoArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Setter;
 
-import java.time.LocalDateTime;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * A stored value with its deadline. To keep the per key overhead low, values use compact encodings: strings that
+ * are canonical 64 bit integers are stored as a counter ({@link AtomicLong}), other strings as their UTF-8 bytes,
+ * sorted sets as a {@link com.twl.miniredis.db.zset.ZSet} and hashes as a {@link com.twl.miniredis.db.hash.Hash}.
+ * The deadline is a primitive epoch millisecond instead of a date object.
+ * <br/><br/>
+ * With off-heap storage enabled, string bytes are moved to the {@link Database#getArena() arena} and only their
+ * handle is kept here, with a null value.
+ */
 @Data
-@AllArgsConstructor
-@NoArgsConstructor
 public class ExpirableValue {
+
+    /**
+     * Deadline of the values that never expire.
+     */
+    public static final long NO_EXPIRE = Long.MAX_VALUE;
+
+    private static final int MAX_LONG_LENGTH = 20;
+
     private Object value;
-    private LocalDateTime expireTime;
+    /**
+     * Epoch milliseconds when the value expires, or {@link #NO_EXPIRE}.
+     */
+    private long expireAt;
+    /**
+     * Access metadata used by the eviction policies, see {@link AccessTracker}. Updated without synchronization, as
+     * it is only an approximation.
+     */
+    @EqualsAndHashCode.Exclude
+    private int access;
+    /**
+     * Handle of the bytes stored in the off-heap arena, or 0 when the value is on heap.
+     */
+    @Setter(AccessLevel.NONE)
+    private long handle;
+
+    public ExpirableValue(Object value, long expireAt) {
+        this.value = value;
+        this.expireAt = expireAt;
+        this.access = AccessTracker.initial(Database.getEvictionPolicy());
+    }
+
+    /**
+     * Creates the value of a string in its compact encoding, see {@link #encode(String)}.
+     */
+    public static ExpirableValue ofString(String value, long expireAt) {
+        return of(encode(value), expireAt);
+    }
+
+    /**
+     * Creates a value from its encoding, moving string bytes to the off-heap arena when off-heap storage is enabled
+     * and the arena has room for them.
+     */
+    public static ExpirableValue of(Object encoded, long expireAt) {
+        if (encoded instanceof byte[] && Database.isOffHeap()) {
+            long handle = Database.getArena().allocate((byte[]) encoded);
+            if (handle != 0) {
+                ExpirableValue offHeapValue = new ExpirableValue(null, expireAt);
+                offHeapValue.handle = handle;
+                return offHeapValue;
+            }
+        }
+        return new ExpirableValue(encoded, expireAt);
+    }
+
+    /**
+     * @return the compact encoding of a string value: a counter if it is the canonical representation of a 64 bit
+     * integer, or its UTF-8 bytes otherwise.
+     */
+    public static Object encode(String value) {
+        int length = value.length();
+        if (length > 0 && length <= MAX_LONG_LENGTH) {
+            char first = value.charAt(0);
+            if ((first >= '0' && first <= '9') || first == '-') {
+                try {
+                    long parsed = Long.parseLong(value);
+                    if (Long.toString(parsed).equals(value)) {
+                        return new AtomicLong(parsed);
+                    }
+                } catch (NumberFormatException ignored) {
+                    // Not an integer, stored as bytes.
+                }
+            }
+        }
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public boolean hasExpire() {
+        return expireAt != NO_EXPIRE;
+    }
+
+    public boolean isExpired(long nowMillis) {
+        return expireAt <= nowMillis;
+    }
+
+    public boolean isOffHeap() {
+        return handle != 0;
+    }
+
+    /**
+     * Frees the off-heap bytes of a value that was removed or replaced. Must be called while holding the key's lock,
+     * once the value is no longer reachable from the database.
+     */
+    public void release() {
+        if (handle != 0) {
+            Database.getArena().free(handle);
+        }
+    }
+
+    /**
+     * @return the string representation of the value, decoding it if it is stored as bytes, or null if it was
+     * released concurrently.
+     */
+    public String asString() {
+        byte[] bytes = this.storedBytes();
+        if (bytes != null) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value == null ? null : String.valueOf(value);
+    }
+
+    /**
+     * @return the value as bytes, without copying when it is already stored as bytes on heap, or null if it was
+     * released concurrently.
+     */
+    public byte[] asBytes() {
+        byte[] bytes = this.storedBytes();
+        if (bytes != null) {
+            return bytes;
+        }
+        return value == null ? null : String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] storedBytes() {
+        if (handle != 0) {
+            return Database.getArena().read(handle);
+        }
+        return value instanceof byte[] ? (byte[]) value : null;
+    }
 }
@@ -0,0 +1,26 @@
+package com.twl.miniredis.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * State of a replica connected to this primary, as reported by INFO and ROLE.
+ */
+@Data
+@AllArgsConstructor
+public class ReplicaInfo {
+    /**
+     * Remote address of the connection, as <code>ip:port</code>.
+     */
+    private String address;
+    /**
+     * Port of the replica's own listener, if it sent <code>REPLCONF listening-port</code>.
+     */
+    private Integer listeningPort;
+    /**
+     * False while a full resynchronization is in progress.
+     */
+    private boolean online;
+    private long ackOffset;
+    private long lastAckMillis;
+}
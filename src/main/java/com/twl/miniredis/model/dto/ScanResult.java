@@ -0,0 +1,15 @@
+package com.twl.miniredis.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Reply of a <code>SCAN</code> style call: the elements found and the cursor that continues the iteration, or
+ * {@link com.twl.miniredis.db.ScanCursors#START} when it is over.
+ */
+@Data
+@AllArgsConstructor
+public class ScanResult<T> {
+    private long cursor;
+    private T elements;
+}
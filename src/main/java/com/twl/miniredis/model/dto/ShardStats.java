@@ -0,0 +1,21 @@
+package com.twl.miniredis.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ShardStats {
+    private int shard;
+    private int keys;
+    private int expires;
+    private long hits;
+    private long misses;
+    private long expired;
+    private long evicted;
+    private long memory;
+    private long zsets;
+    private long zsetMembers;
+}
@@ -0,0 +1,590 @@
+package com.twl.miniredis.persistence;
+
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.command.Reply;
+import com.twl.miniredis.metrics.LatencyMonitor;
+import com.twl.miniredis.exception.ProtocolException;
+import com.twl.miniredis.propagation.CommandListener;
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.resp.RespReader;
+import com.twl.miniredis.resp.RespWriter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Append only file: every write propagated by the repository is logged with the Redis serialization protocol and
+ * replayed through the {@link CommandDispatcher} on startup.
+ * <br/><br/>
+ * Request threads only enqueue commands in a bounded buffer, while a dedicated writer thread drains it and writes
+ * whole batches, so a single fsync covers every command that arrived while the previous one was running (group
+ * commit). The fsync policy defines what a write waits for:
+ * <ul>
+ *     <li><b>always</b>: the request returns only after its command was fsynced.</li>
+ *     <li><b>everysec</b>: the file is fsynced at most once per second, losing up to one second of writes on a
+ *     crash.</li>
+ *     <li><b>no</b>: flushing is left to the operating system.</li>
+ * </ul>
+ * The file is rewritten in the background (BGREWRITEAOF, or automatically once it grows by a percentage of its size
+ * after the last rewrite) with the commands that recreate the current keyspace. The keyspace is dumped key by key
+ * through the same queue as the writes, while the writer thread appends every write to both files, so replaying the
+ * new file gives the same result as the old one; once the dump is complete, the new file atomically replaces it.
+ * <br/><br/>
+ * While the file cannot be written or fsynced, the failed operation is retried every second and the dispatcher rejects
+ * write commands with a MISCONF error, as Redis does; commands waiting for an <b>always</b> fsync keep waiting.
+ *
+ * @author Tiago Wolker
+ */
+@Log4j2
+@Component
+public class AppendOnlyFile implements CommandListener, SmartLifecycle {
+
+    /**
+     * Starts before the RESP listener and the web server, so the data is loaded before any client connects, and
+     * stops after them, so the last writes are flushed.
+     */
+    public static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 1024;
+
+    private static final int MAX_BATCH_SIZE = 4096;
+    private static final int LOAD_BUFFER_SIZE = 1024 * 1024;
+    private static final long EVERYSEC_INTERVAL_MILLIS = 1000;
+    private static final long RETRY_INTERVAL_MILLIS = 1000;
+
+    public static final String WRITE_ERROR = "MISCONF Errors writing to the AOF file: ";
+    public static final String REWRITE_IN_PROGRESS = "ERR Background append only file rewriting already in progress";
+
+    public enum FsyncPolicy {
+        ALWAYS, EVERYSEC, NO
+    }
+
+    private final CommandPropagator propagator;
+    private final CommandDispatcher dispatcher;
+    private final DatabaseRepository repository;
+    private final LatencyMonitor latencyMonitor;
+    private final boolean enabled;
+    private final Path path;
+    private final FsyncPolicy fsyncPolicy;
+    private final BlockingQueue<Entry> queue;
+    private final ThreadLocal<Entry> pendingSync = new ThreadLocal<>();
+    private final int rewritePercentage;
+    private final long rewriteMinSize;
+    private final AtomicBoolean rewriting = new AtomicBoolean();
+
+    // Only accessed by the writer thread once it is started.
+    private final RespWriter out = new RespWriter(64 * 1024);
+    private FileChannel channel;
+    private Rewrite rewrite;
+    private boolean fsyncFailed;
+
+    private Thread writer;
+    private volatile boolean running;
+    private volatile long currentSize;
+    private volatile long baseSize;
+    private volatile String writeError;
+
+    public AppendOnlyFile(CommandPropagator propagator,
+                          CommandDispatcher dispatcher,
+                          DatabaseRepository repository,
+                          LatencyMonitor latencyMonitor,
+                          @Value("${miniredis.aof.enabled:false}") boolean enabled,
+                          @Value("${miniredis.aof.file:appendonly.aof}") String file,
+                          @Value("${miniredis.aof.fsync:everysec}") String fsyncPolicy,
+                          @Value("${miniredis.aof.buffer-size:65536}") int bufferSize,
+                          @Value("${miniredis.aof.rewrite-percentage:100}") int rewritePercentage,
+                          @Value("${miniredis.aof.rewrite-min-size-bytes:67108864}") long rewriteMinSize) {
+        this.propagator = propagator;
+        this.dispatcher = dispatcher;
+        this.repository = repository;
+        this.latencyMonitor = latencyMonitor;
+        this.enabled = enabled;
+        this.path = Paths.get(file);
+        this.fsyncPolicy = FsyncPolicy.valueOf(fsyncPolicy.trim().toUpperCase(Locale.ROOT));
+        this.queue = new ArrayBlockingQueue<>(bufferSize);
+        this.rewritePercentage = rewritePercentage;
+        this.rewriteMinSize = rewriteMinSize;
+
+        dispatcher.register("BGREWRITEAOF", 1, false, (session, args) -> {
+            if (!enabled) {
+                return Reply.error("ERR Append only file is disabled");
+            }
+            return this.backgroundRewrite()
+                    ? Reply.status("Background append only file rewriting started") : Reply.error(REWRITE_IN_PROGRESS);
+        });
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            log.info("Append only file disabled.");
+            return;
+        }
+        try {
+            long commands = this.load();
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            currentSize = channel.size();
+            baseSize = currentSize;
+            running = true;
+            writer = new Thread(this::writeLoop, "aof-writer");
+            writer.setDaemon(true);
+            writer.start();
+            propagator.addListener(this);
+            dispatcher.setWriteCheck(() -> writeError);
+            log.info("Append only file {} loaded with {} commands, fsync policy {}.", path, commands, fsyncPolicy);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open append only file " + path, e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        propagator.removeListener(this);
+        dispatcher.setWriteCheck(null);
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            log.error("Error closing append only file.", e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    /**
+     * @return size of the file in bytes.
+     */
+    public long getCurrentSize() {
+        return currentSize;
+    }
+
+    /**
+     * @return size of the file in bytes after the last rewrite, or on startup.
+     */
+    public long getBaseSize() {
+        return baseSize;
+    }
+
+    /**
+     * @return false while the last write or fsync of the file failed.
+     */
+    public boolean isLastWriteOk() {
+        return writeError == null;
+    }
+
+    public boolean isRewriting() {
+        return rewriting.get();
+    }
+
+    /**
+     * Starts a rewrite of the file in a background thread.
+     *
+     * @return false if the file is not open or a rewrite is already running.
+     */
+    public boolean backgroundRewrite() {
+        if (!running || !rewriting.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                this.enqueue(new Entry(Kind.REWRITE_START, null));
+                long keys = repository.dumpKeyspace(args -> {
+                    if (!running) {
+                        throw new CancellationException();
+                    }
+                    this.enqueue(new Entry(Kind.REWRITE, args));
+                });
+                this.enqueue(new Entry(Kind.REWRITE_DONE, null));
+                log.info("Append only file rewrite dumped {} keys.", keys);
+            } catch (RuntimeException e) {
+                log.error("Append only file rewrite failed.", e);
+                this.enqueue(new Entry(Kind.REWRITE_ABORT, null));
+            }
+        }, "aof-rewrite");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Enqueues the command, blocking while the buffer is full so a slow disk slows writers down instead of exhausting
+     * memory.
+     */
+    @Override
+    public void onCommand(String... args) {
+        Entry entry = new Entry(Kind.COMMAND, args);
+        if (this.enqueue(entry) && fsyncPolicy == FsyncPolicy.ALWAYS) {
+            pendingSync.set(entry);
+        }
+    }
+
+    private boolean enqueue(Entry entry) {
+        try {
+            queue.put(entry);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while appending to the append only file, {} not logged.", entry.kind);
+            return false;
+        }
+    }
+
+    /**
+     * With the <b>always</b> policy, waits until the last command enqueued by the current thread was fsynced.
+     */
+    @Override
+    public void sync() {
+        Entry entry = pendingSync.get();
+        if (entry == null) {
+            return;
+        }
+        pendingSync.remove();
+        synchronized (this) {
+            while (!entry.durable && running) {
+                try {
+                    this.wait(EVERYSEC_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replays the file through the dispatcher. An incomplete command at the end of the file, left by a crash in the
+     * middle of a write, is discarded and the file truncated; any other error stops the startup.
+     *
+     * @return number of commands replayed.
+     */
+    private long load() throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        ClientSession session = new ClientSession();
+        long commands = 0;
+        long valid = 0;
+        long size;
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = file.size();
+            ByteBuffer buffer = ByteBuffer.allocate(LOAD_BUFFER_SIZE);
+            boolean eof = false;
+            while (!eof) {
+                eof = file.read(buffer) < 0;
+                buffer.flip();
+                int start = buffer.position();
+                List<String> args;
+                try {
+                    while ((args = RespReader.read(buffer)) != null) {
+                        if (!args.isEmpty()) {
+                            Object reply = dispatcher.execute(session, args);
+                            if (reply instanceof Reply && ((Reply) reply).isError()) {
+                                log.warn("Error replaying {} from the append only file: {}", args.get(0), ((Reply) reply).getMessage());
+                            }
+                            commands++;
+                        }
+                    }
+                } catch (ProtocolException e) {
+                    throw new IllegalStateException("Append only file " + path + " is corrupted at offset "
+                            + (valid + buffer.position() - start) + ": " + e.getMessage(), e);
+                }
+                valid += buffer.position() - start;
+                buffer.compact();
+                if (!buffer.hasRemaining()) {
+                    ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffer = larger;
+                }
+            }
+        }
+        if (valid < size) {
+            log.warn("Append only file {} ends with an incomplete command, truncating it from {} to {} bytes.", path, size, valid);
+            try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                file.truncate(valid);
+            }
+        }
+        return commands;
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        List<Entry> unsynced = new ArrayList<>();
+        long lastFsync = System.currentTimeMillis();
+        boolean dirty = false;
+        while (running || !queue.isEmpty()) {
+            Entry first;
+            try {
+                first = queue.poll(EVERYSEC_INTERVAL_MILLIS / 10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (first != null) {
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                for (Entry entry : batch) {
+                    if (entry.kind == Kind.COMMAND) {
+                        out.write(Arrays.asList(entry.args), 2);
+                        if (rewrite != null) {
+                            rewrite.out.write(Arrays.asList(entry.args), 2);
+                        }
+                    } else if (entry.kind == Kind.REWRITE) {
+                        if (rewrite != null) {
+                            rewrite.out.write(Arrays.asList(entry.args), 2);
+                        }
+                    } else {
+                        dirty |= this.flushOutputs();
+                        this.onRewriteMarker(entry.kind);
+                    }
+                }
+                dirty |= this.flushOutputs();
+            }
+            long now = System.currentTimeMillis();
+            long interval = fsyncFailed ? RETRY_INTERVAL_MILLIS
+                    : fsyncPolicy == FsyncPolicy.EVERYSEC ? EVERYSEC_INTERVAL_MILLIS : 0;
+            if (dirty && fsyncPolicy != FsyncPolicy.NO && now - lastFsync >= interval) {
+                long started = System.nanoTime();
+                try {
+                    this.fsync();
+                    dirty = false;
+                    if (fsyncFailed) {
+                        log.info("Append only file {} synced again.", path);
+                        fsyncFailed = false;
+                        writeError = null;
+                    }
+                } catch (IOException e) {
+                    if (!fsyncFailed) {
+                        log.error("Error syncing append only file {}, retrying.", path, e);
+                    }
+                    fsyncFailed = true;
+                    writeError = WRITE_ERROR + e.getMessage();
+                }
+                latencyMonitor.recordSince(LatencyMonitor.AOF_FSYNC, started);
+                lastFsync = now;
+            }
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                // Commands are only durable once a fsync succeeds after they were written.
+                unsynced.addAll(batch);
+                if (!dirty && !unsynced.isEmpty()) {
+                    synchronized (this) {
+                        for (Entry entry : unsynced) {
+                            entry.durable = true;
+                        }
+                        this.notifyAll();
+                    }
+                    unsynced.clear();
+                }
+            }
+            batch.clear();
+            if (rewritePercentage > 0 && !rewriting.get() && currentSize >= rewriteMinSize
+                    && currentSize >= baseSize + baseSize * rewritePercentage / 100) {
+                log.info("Append only file grew from {} to {} bytes, starting a rewrite.", baseSize, currentSize);
+                this.backgroundRewrite();
+            }
+        }
+        if (rewrite != null) {
+            this.abortRewrite();
+        }
+        rewriting.set(false);
+    }
+
+    /**
+     * Writes the encoded commands to the file, and to the file being rewritten, if any.
+     *
+     * @return true if anything was written to the file.
+     */
+    private boolean flushOutputs() {
+        if (rewrite != null && rewrite.out.size() > 0) {
+            try {
+                writeFully(rewrite.channel, rewrite.out.toByteBuffer());
+                rewrite.out.reset();
+            } catch (IOException e) {
+                log.error("Error writing to rewritten append only file {}.", rewrite.path, e);
+                this.abortRewrite();
+            }
+        }
+        if (out.size() == 0) {
+            return false;
+        }
+        // Partial writes are truncated and written again, while writers block once the buffer fills up.
+        while (true) {
+            try {
+                writeFully(channel, out.toByteBuffer());
+                currentSize += out.size();
+                if (!fsyncFailed) {
+                    writeError = null;
+                }
+                break;
+            } catch (IOException e) {
+                log.error("Error writing to append only file {}, retrying.", path, e);
+                writeError = WRITE_ERROR + e.getMessage();
+                try {
+                    channel.truncate(currentSize);
+                    Thread.sleep(RETRY_INTERVAL_MILLIS);
+                } catch (IOException truncateError) {
+                    log.debug("Error truncating append only file.", truncateError);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (!running) {
+                    log.error("Append only file {} is not writable, discarding {} bytes on shutdown.", path, out.size());
+                    break;
+                }
+            }
+        }
+        out.reset();
+        return true;
+    }
+
+    /**
+     * Flushes the file to the disk.
+     */
+    void fsync() throws IOException {
+        channel.force(false);
+    }
+
+    private void onRewriteMarker(Kind kind) {
+        switch (kind) {
+            case REWRITE_START:
+                Path temporary = path.resolveSibling(path.getFileName() + ".rewrite");
+                try {
+                    rewrite = new Rewrite(temporary, FileChannel.open(temporary, StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+                } catch (IOException e) {
+                    log.error("Could not create rewritten append only file {}.", temporary, e);
+                }
+                break;
+            case REWRITE_DONE:
+                if (rewrite != null) {
+                    this.completeRewrite();
+                }
+                rewriting.set(false);
+                break;
+            default:
+                if (rewrite != null) {
+                    this.abortRewrite();
+                }
+                rewriting.set(false);
+        }
+    }
+
+    /**
+     * Replaces the file with the rewritten one, which is kept open as the new file: its channel is already positioned
+     * at the end, and it follows the file through the rename.
+     */
+    private void completeRewrite() {
+        long previousSize = currentSize;
+        try {
+            rewrite.channel.force(false);
+            Files.move(rewrite.path, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Could not replace append only file {} with {}.", path, rewrite.path, e);
+            this.abortRewrite();
+            return;
+        }
+        FileChannel previous = channel;
+        channel = rewrite.channel;
+        rewrite = null;
+        try {
+            currentSize = channel.size();
+            baseSize = currentSize;
+            previous.close();
+        } catch (IOException e) {
+            log.warn("Error closing replaced append only file.", e);
+        }
+        log.info("Append only file rewritten from {} to {} bytes.", previousSize, currentSize);
+    }
+
+    private void abortRewrite() {
+        try {
+            rewrite.channel.close();
+            Files.deleteIfExists(rewrite.path);
+        } catch (IOException e) {
+            log.warn("Could not delete rewritten append only file {}.", rewrite.path, e);
+        }
+        rewrite = null;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private enum Kind {
+        COMMAND, REWRITE, REWRITE_START, REWRITE_DONE, REWRITE_ABORT
+    }
+
+    private static final class Entry {
+        private final Kind kind;
+        private final String[] args;
+        private volatile boolean durable;
+
+        private Entry(Kind kind, String[] args) {
+            this.kind = kind;
+            this.args = args;
+        }
+    }
+
+    private static final class Rewrite {
+        private final Path path;
+        private final FileChannel channel;
+        private final RespWriter out = new RespWriter(64 * 1024);
+
+        private Rewrite(Path path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+}
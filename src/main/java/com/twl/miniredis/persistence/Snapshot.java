@@ -0,0 +1,194 @@
+package com.twl.miniredis.persistence;
+
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.command.Reply;
+import com.twl.miniredis.repository.DatabaseRepository;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Snapshots of the whole keyspace in a compact binary format, saved with SAVE, BGSAVE or periodically, and
+ * loaded on startup when the append only file is disabled (otherwise the log is the most recent copy of the data).
+ * <br/><br/>
+ * Background saves run in their own thread and iterate the shards incrementally, so requests are never paused. Keys
+ * written while a save is running may be saved with either their old or their new value.
+ *
+ * @author Tiago Wolker
+ */
+@Log4j2
+@Component
+public class Snapshot implements SmartLifecycle {
+
+    /**
+     * Loads the snapshot before the append only file starts, so both are never loaded on top of each other.
+     */
+    public static final int PHASE = AppendOnlyFile.PHASE - 1;
+
+    public static final String BACKGROUND_SAVE_IN_PROGRESS = "ERR Background save already in progress";
+
+    private static final long RETRY_DELAY_MILLIS = 5000;
+
+    private final DatabaseRepository repository;
+    private final Path path;
+    private final long intervalSeconds;
+    private final boolean aofEnabled;
+    private final AtomicBoolean saving = new AtomicBoolean();
+    private volatile long lastSave;
+    private volatile long lastAttempt;
+    private volatile boolean lastSaveFailed;
+    private volatile boolean running;
+
+    public Snapshot(DatabaseRepository repository,
+                    CommandDispatcher dispatcher,
+                    @Value("${miniredis.snapshot.file:dump.rdb}") String file,
+                    @Value("${miniredis.snapshot.interval-seconds:0}") long intervalSeconds,
+                    @Value("${miniredis.aof.enabled:false}") boolean aofEnabled) {
+        this.repository = repository;
+        this.path = Paths.get(file);
+        this.intervalSeconds = intervalSeconds;
+        this.aofEnabled = aofEnabled;
+        this.lastSave = System.currentTimeMillis();
+
+        dispatcher.register("SAVE", 1, false, (session, args) -> {
+            if (saving.get()) {
+                return Reply.error(BACKGROUND_SAVE_IN_PROGRESS);
+            }
+            this.save();
+            return Reply.OK;
+        });
+        dispatcher.register("BGSAVE", -1, false, (session, args) -> this.backgroundSave()
+                ? Reply.status("Background saving started") : Reply.error(BACKGROUND_SAVE_IN_PROGRESS));
+        dispatcher.register("LASTSAVE", 1, false, (session, args) -> this.lastSave / 1000);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        if (aofEnabled || !Files.exists(path)) {
+            return;
+        }
+        try {
+            long started = System.nanoTime();
+            long keys = SnapshotReader.read(path, repository);
+            log.info("Snapshot {} loaded with {} keys in {} ms.", path, keys, (System.nanoTime() - started) / 1_000_000);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load snapshot " + path, e);
+        }
+    }
+
+    /**
+     * Saves a last snapshot on shutdown when periodic saves are enabled.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        if (intervalSeconds > 0) {
+            try {
+                this.save();
+            } catch (IOException e) {
+                log.error("Could not save snapshot on shutdown.", e);
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return epoch milliseconds of the last successful save, or of the startup if there was none.
+     */
+    public long getLastSave() {
+        return lastSave;
+    }
+
+    public boolean isLastSaveFailed() {
+        return lastSaveFailed;
+    }
+
+    public boolean isSaving() {
+        return saving.get();
+    }
+
+    /**
+     * Saves the snapshot in the calling thread, waiting for a background save that is running to finish first.
+     */
+    public synchronized void save() throws IOException {
+        saving.set(true);
+        try {
+            this.doSave();
+        } finally {
+            saving.set(false);
+        }
+    }
+
+    /**
+     * Starts a save in a background thread.
+     *
+     * @return false if a save is already running.
+     */
+    public boolean backgroundSave() {
+        if (!saving.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                synchronized (this) {
+                    this.doSave();
+                }
+            } catch (IOException e) {
+                log.error("Background save failed.", e);
+            } finally {
+                saving.set(false);
+            }
+        }, "snapshot-writer");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Starts a background save when periodic saves are enabled and the interval has elapsed since the last one. After
+     * a failure, saves are retried every few seconds.
+     */
+    public void backgroundSaveIfDue() {
+        long now = System.currentTimeMillis();
+        if (intervalSeconds > 0 && now - lastSave >= intervalSeconds * 1000
+                && (!lastSaveFailed || now - lastAttempt >= RETRY_DELAY_MILLIS)) {
+            this.backgroundSave();
+        }
+    }
+
+    private void doSave() throws IOException {
+        long started = System.currentTimeMillis();
+        lastAttempt = started;
+        try {
+            long keys = SnapshotWriter.write(path);
+            lastSave = started;
+            lastSaveFailed = false;
+            log.info("Snapshot {} saved with {} keys in {} ms.", path, keys, System.currentTimeMillis() - started);
+        } catch (IOException e) {
+            lastSaveFailed = true;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.twl.miniredis.persistence;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary snapshot format, loosely modeled after Redis' RDB:
+ * <pre>
+ * "MINIREDIS" version:int32
+ * ( [EXPIRE_AT expireAt:int64] type:byte key:string value )*
+ * EOF checksum:int32
+ * </pre>
+ * Strings are written as a varint length followed by their UTF-8 bytes. Counters are zigzag varints, and sorted sets
+ * a varint size followed by <code>score:float64 member:string</code> pairs in ascending order. Hashes are a varint
+ * size followed by <code>field:string value:string</code> pairs. The checksum is the CRC-32C of every byte before it.
+ * Multi byte numbers are big endian.
+ * <br/><br/>
+ * Version 2 added hashes. Version 1 files are still read, as they are valid version 2 files without hashes.
+ *
+ * @author Tiago Wolker
+ */
+final class SnapshotFormat {
+
+    static final byte[] MAGIC = "MINIREDIS".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 2;
+    static final int MIN_VERSION = 1;
+
+    static final byte TYPE_STRING = 0;
+    static final byte TYPE_COUNTER = 1;
+    static final byte TYPE_ZSET = 2;
+    static final byte TYPE_HASH = 3;
+    static final byte OPCODE_EXPIRE_AT = (byte) 0xFC;
+    static final byte OPCODE_EOF = (byte) 0xFF;
+
+    private SnapshotFormat() {
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,188 @@
+package com.twl.miniredis.persistence;
+
+import com.twl.miniredis.db.hash.Hash;
+import com.twl.miniredis.db.zset.ZSet;
+import com.twl.miniredis.model.dto.ExpirableValue;
+import com.twl.miniredis.repository.DatabaseRepository;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * Loads a file written by {@link SnapshotWriter} through sequential windows of memory mapped reads, so the file is
+ * never copied into intermediate heap buffers and the only allocations per key are the key and its value.
+ *
+ * @author Tiago Wolker
+ */
+final class SnapshotReader {
+
+    private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private final CRC32C checksum = new CRC32C();
+    private MappedByteBuffer window;
+    private long windowStart;
+    private byte[] scratch = new byte[256];
+
+    private SnapshotReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+    }
+
+    /**
+     * Stores every key of the snapshot in the database.
+     *
+     * @return number of keys loaded.
+     * @throws IOException if the file can not be read, or is not a valid snapshot.
+     */
+    static long read(Path path, DatabaseRepository repository) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new SnapshotReader(channel).readKeyspace(repository);
+        }
+    }
+
+    private long readKeyspace(DatabaseRepository repository) throws IOException {
+        this.ensure(SnapshotFormat.MAGIC.length + 4);
+        byte[] magic = new byte[SnapshotFormat.MAGIC.length];
+        window.get(magic);
+        if (!Arrays.equals(magic, SnapshotFormat.MAGIC)) {
+            throw new IOException("Not a snapshot file.");
+        }
+        int version = window.getInt();
+        if (version < SnapshotFormat.MIN_VERSION || version > SnapshotFormat.VERSION) {
+            throw new IOException("Unsupported snapshot version " + version + ".");
+        }
+        long keys = 0;
+        long expireAt = ExpirableValue.NO_EXPIRE;
+        while (true) {
+            this.ensure(1);
+            byte opcode = window.get();
+            switch (opcode) {
+                case SnapshotFormat.OPCODE_EXPIRE_AT:
+                    this.ensure(8);
+                    expireAt = window.getLong();
+                    continue;
+                case SnapshotFormat.OPCODE_EOF:
+                    this.verifyChecksum();
+                    return keys;
+                case SnapshotFormat.TYPE_STRING:
+                    repository.restore(this.readString(), this.readBytes(), expireAt);
+                    break;
+                case SnapshotFormat.TYPE_COUNTER:
+                    String counterKey = this.readString();
+                    repository.restore(counterKey, new AtomicLong(SnapshotFormat.unZigZag(this.readVarLong())), expireAt);
+                    break;
+                case SnapshotFormat.TYPE_ZSET:
+                    String zsetKey = this.readString();
+                    long members = this.readVarLong();
+                    ZSet zset = new ZSet();
+                    for (long i = 0; i < members; i++) {
+                        this.ensure(8);
+                        double score = window.getDouble();
+                        zset.add(score, this.readString());
+                    }
+                    repository.restore(zsetKey, zset, expireAt);
+                    break;
+                case SnapshotFormat.TYPE_HASH:
+                    String hashKey = this.readString();
+                    long fields = this.readVarLong();
+                    Hash hash = new Hash();
+                    for (long i = 0; i < fields; i++) {
+                        hash.put(this.readString(), this.readString());
+                    }
+                    repository.restore(hashKey, hash, expireAt);
+                    break;
+                default:
+                    throw new IOException("Unknown snapshot opcode " + (opcode & 0xFF) + " at offset " + this.position() + ".");
+            }
+            expireAt = ExpirableValue.NO_EXPIRE;
+            keys++;
+        }
+    }
+
+    private void verifyChecksum() throws IOException {
+        window.flip();
+        checksum.update(window);
+        window.limit(window.capacity());
+        this.ensure(4);
+        int expected = window.getInt();
+        if (expected != (int) checksum.getValue()) {
+            throw new IOException("Snapshot checksum mismatch, the file is corrupted.");
+        }
+    }
+
+    private String readString() throws IOException {
+        int bytes = this.readLength();
+        this.ensure(bytes);
+        if (scratch.length < bytes) {
+            scratch = new byte[Math.max(bytes, scratch.length * 2)];
+        }
+        window.get(scratch, 0, bytes);
+        return new String(scratch, 0, bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a string value into an array of its exact length, which is stored as it is.
+     */
+    private byte[] readBytes() throws IOException {
+        int length = this.readLength();
+        this.ensure(length);
+        byte[] bytes = new byte[length];
+        window.get(bytes);
+        return bytes;
+    }
+
+    private int readLength() throws IOException {
+        long length = this.readVarLong();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid string length at offset " + this.position() + ".");
+        }
+        return (int) length;
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            this.ensure(1);
+            byte b = window.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid varint at offset " + this.position() + ".");
+    }
+
+    private long position() {
+        return windowStart + window.position();
+    }
+
+    /**
+     * Makes sure the next bytes are mapped, moving the window forward when they are not. The bytes consumed from the
+     * previous window are added to the checksum.
+     */
+    private void ensure(int bytes) throws IOException {
+        if (window != null && window.remaining() >= bytes) {
+            return;
+        }
+        long position = 0;
+        if (window != null) {
+            position = this.position();
+            window.flip();
+            checksum.update(window);
+        }
+        if (position + bytes > size) {
+            throw new IOException("Unexpected end of snapshot at offset " + position + ".");
+        }
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, Math.max(WINDOW_SIZE, bytes)));
+    }
+}
@@ -0,0 +1,175 @@
+package com.twl.miniredis.persistence;
+
+import com.twl.miniredis.db.Database;
+import com.twl.miniredis.db.Shard;
+import com.twl.miniredis.db.hash.Hash;
+import com.twl.miniredis.db.zset.ZSet;
+import com.twl.miniredis.model.dto.ExpirableValue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * Writes the keyspace with the {@link SnapshotFormat snapshot format}, iterating each shard incrementally instead of
+ * freezing the database: every value is written as it was when it was visited, so writes are never paused, and the
+ * snapshot is consistent per key.
+ * <br/><br/>
+ * The file is written to a temporary path, fsynced and then renamed over the target, so a crash never leaves a
+ * partial snapshot behind.
+ *
+ * @author Tiago Wolker
+ */
+final class SnapshotWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CRC32C checksum = new CRC32C();
+
+    private SnapshotWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * @return number of keys written.
+     */
+    static long write(Path target) throws IOException {
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        long keys;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            keys = new SnapshotWriter(channel).writeKeyspace();
+            channel.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return keys;
+    }
+
+    private long writeKeyspace() throws IOException {
+        buffer.put(SnapshotFormat.MAGIC);
+        buffer.putInt(SnapshotFormat.VERSION);
+        long now = System.currentTimeMillis();
+        long keys = 0;
+        for (Shard shard : Database.getShards()) {
+            for (Map.Entry<String, Object> entry : shard.getValues().entrySet()) {
+                if (this.writeEntry(entry.getKey(), (ExpirableValue) entry.getValue(), now)) {
+                    keys++;
+                }
+            }
+        }
+        this.ensure(1);
+        buffer.put(SnapshotFormat.OPCODE_EOF);
+        this.flush();
+        buffer.putInt((int) checksum.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return keys;
+    }
+
+    private boolean writeEntry(String key, ExpirableValue expirableValue, long now) throws IOException {
+        if (expirableValue.isExpired(now)) {
+            return false;
+        }
+        Object value = expirableValue.getValue();
+        byte[] bytes = null;
+        if (!(value instanceof AtomicLong) && !(value instanceof ZSet) && !(value instanceof Hash)) {
+            bytes = expirableValue.asBytes();
+            if (bytes == null) {
+                // Released off-heap value, the key was deleted or replaced after it was visited.
+                return false;
+            }
+        }
+        if (expirableValue.hasExpire()) {
+            this.ensure(9);
+            buffer.put(SnapshotFormat.OPCODE_EXPIRE_AT);
+            buffer.putLong(expirableValue.getExpireAt());
+        }
+        if (value instanceof AtomicLong) {
+            this.ensure(1);
+            buffer.put(SnapshotFormat.TYPE_COUNTER);
+            this.writeString(key);
+            this.writeVarLong(SnapshotFormat.zigZag(((AtomicLong) value).get()));
+        } else if (value instanceof ZSet) {
+            // A copy, so the zset is not locked while the snapshot waits for the disk.
+            Map<String, Double> members = ((ZSet) value).range(0, -1);
+            this.ensure(1);
+            buffer.put(SnapshotFormat.TYPE_ZSET);
+            this.writeString(key);
+            this.writeVarLong(members.size());
+            for (Map.Entry<String, Double> member : members.entrySet()) {
+                this.ensure(8);
+                buffer.putDouble(member.getValue());
+                this.writeString(member.getKey());
+            }
+        } else if (value instanceof Hash) {
+            Map<String, String> fields = ((Hash) value).entries();
+            this.ensure(1);
+            buffer.put(SnapshotFormat.TYPE_HASH);
+            this.writeString(key);
+            this.writeVarLong(fields.size());
+            for (Map.Entry<String, String> field : fields.entrySet()) {
+                this.writeString(field.getKey());
+                this.writeString(field.getValue());
+            }
+        } else {
+            this.ensure(1);
+            buffer.put(SnapshotFormat.TYPE_STRING);
+            this.writeString(key);
+            this.writeBytes(bytes);
+        }
+        return true;
+    }
+
+    private void writeString(String value) throws IOException {
+        this.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        this.writeVarLong(bytes.length);
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                this.flush();
+            }
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        this.ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            this.flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        checksum.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,23 @@
+package com.twl.miniredis.propagation;
+
+/**
+ * Receives the write commands applied to the database, in the same order they were applied to each key.
+ *
+ * @author Tiago Wolker
+ */
+public interface CommandListener {
+
+    /**
+     * Called while the key being written is still locked, so implementations must only enqueue the command.
+     *
+     * @param args command name followed by its arguments, in a deterministic form that can be replayed.
+     */
+    void onCommand(String... args);
+
+    /**
+     * Called after the write operation released its locks and before its result is returned to the client.
+     * Implementations that provide synchronous guarantees, such as an fsync per write, wait here.
+     */
+    default void sync() {
+    }
+}
@@ -0,0 +1,48 @@
+package com.twl.miniredis.propagation;
+
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Propagates the write commands applied by {@link com.twl.miniredis.repository.DatabaseRepository} to the registered
+ * {@link CommandListener listeners}, such as the append only file.
+ * <br/><br/>
+ * Commands are propagated in a deterministic form: relative expire times are sent as absolute deadlines, and
+ * operations whose result depends on the current value, such as INCRBYFLOAT, are sent as the resulting SET.
+ *
+ * @author Tiago Wolker
+ */
+@Component
+public class CommandPropagator {
+
+    private final List<CommandListener> listeners = new CopyOnWriteArrayList<>();
+
+    public void addListener(CommandListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(CommandListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return true if any listener is registered, so callers can skip building the command arguments otherwise.
+     */
+    public boolean isActive() {
+        return !listeners.isEmpty();
+    }
+
+    public void propagate(String... args) {
+        for (CommandListener listener : listeners) {
+            listener.onCommand(args);
+        }
+    }
+
+    public void sync() {
+        for (CommandListener listener : listeners) {
+            listener.sync();
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.twl.miniredis.replication;
+
+import com.twl.miniredis.exception.ProtocolException;
+import com.twl.miniredis.model.dto.ReplicaInfo;
+import com.twl.miniredis.resp.RespReader;
+import com.twl.miniredis.resp.RespWriter;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Connection of the primary to a single replica, served by its own thread once <code>PSYNC</code> took it over.
+ * <br/><br/>
+ * The thread writes the reply of <code>PSYNC</code> and then the stream from the replica's offset, reading it from the
+ * backlog as the replica keeps up. A replica that falls so far behind that its offset left the backlog is
+ * disconnected, and resynchronizes from scratch when it reconnects.
+ * <br/><br/>
+ * On a full resynchronization, a second thread dumps the keyspace into a bounded queue. Each dumped command carries
+ * the offset of the stream when its key was dumped, and is only sent once the stream up to that offset was sent, so
+ * the replica applies every write and dumped key in an order consistent with each key. The commands of a key are
+ * stamped under its lock but only enqueued once it is released, so a full queue never blocks writers; meanwhile the
+ * stream is not sent past their offset.
+ * <br/><br/>
+ * A replica that accepts none of the bytes sent to it, or that acknowledges nothing once synchronized, for the
+ * replication timeout is disconnected.
+ * <br/><br/>
+ * The replica acknowledges its offset with <code>REPLCONF ACK offset</code>, which is reported as its lag.
+ *
+ * @author Tiago Wolker
+ */
+@Log4j2
+final class ReplicaLink implements Runnable {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int DUMP_QUEUE_SIZE = 1024;
+    private static final long IDLE_SELECT_MILLIS = 1000;
+
+    /**
+     * Command of a full resynchronization, or the end of the dump if the command is null.
+     */
+    static final class DumpEntry {
+        final long offset;
+        final byte[] command;
+
+        DumpEntry(long offset, byte[] command) {
+            this.offset = offset;
+            this.command = command;
+        }
+    }
+
+    private final ReplicationPrimary primary;
+    private final String address;
+    private final Integer listeningPort;
+    private final BlockingQueue<DumpEntry> dump;
+    private final long timeoutMillis;
+
+    private SocketChannel channel;
+    private Selector selector;
+    private Thread sender;
+    private Thread dumper;
+    private ByteBuffer pending;
+
+    // Only accessed by the sender thread once started.
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private final ByteBuffer in = ByteBuffer.allocate(4096);
+    private long position;
+    private volatile boolean syncing;
+    // Offset of the dumped commands stamped but not enqueued yet.
+    private volatile long dumpFloor = Long.MAX_VALUE;
+
+    private volatile boolean idle;
+    private volatile boolean closed;
+    private volatile long ackOffset;
+    private volatile long lastAckMillis = System.currentTimeMillis();
+
+    ReplicaLink(ReplicationPrimary primary, String address, Integer listeningPort, long offset, boolean fullSync) {
+        this.primary = primary;
+        this.address = address;
+        this.listeningPort = listeningPort;
+        this.position = offset;
+        this.ackOffset = offset;
+        this.syncing = fullSync;
+        this.dump = fullSync ? new ArrayBlockingQueue<>(DUMP_QUEUE_SIZE) : null;
+        this.timeoutMillis = primary.getTimeoutMillis();
+    }
+
+    /**
+     * Takes the connection over from the RESP listener.
+     */
+    synchronized void start(SocketChannel channel, ByteBuffer pendingOutput) {
+        this.channel = channel;
+        this.pending = pendingOutput;
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            log.error("Could not serve replica {}.", address, e);
+            this.close();
+            return;
+        }
+        sender = new Thread(this, "replica-" + address);
+        sender.setDaemon(true);
+        sender.start();
+        if (syncing) {
+            dumper = new Thread(this::dump, "replica-dump-" + address);
+            dumper.setDaemon(true);
+            dumper.start();
+        }
+    }
+
+    ReplicaInfo info() {
+        return new ReplicaInfo(address, listeningPort, !syncing, ackOffset, lastAckMillis);
+    }
+
+    /**
+     * Called after a write was appended to the backlog, wakes the sender up if it is waiting for one.
+     */
+    void wakeUp() {
+        Selector selector = this.selector;
+        if (idle && selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        primary.remove(this);
+        if (dumper != null) {
+            dumper.interrupt();
+        }
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            log.debug("Error closing the connection to replica {}.", address, e);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            ByteBuffer out = pending;
+            pending = null;
+            long lastProgress = System.currentTimeMillis();
+            while (!closed) {
+                if (!out.hasRemaining()) {
+                    out = this.next();
+                    lastProgress = System.currentTimeMillis();
+                }
+                if (out.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    selector.select(IDLE_SELECT_MILLIS);
+                } else {
+                    key.interestOps(SelectionKey.OP_READ);
+                    idle = true;
+                    // A write appended after the check below wakes the select up.
+                    if (!this.hasNext()) {
+                        selector.select(IDLE_SELECT_MILLIS);
+                    }
+                    idle = false;
+                }
+                selector.selectedKeys().clear();
+                if (key.isValid() && key.isReadable()) {
+                    this.read();
+                }
+                if (key.isValid() && key.isWritable() && out.hasRemaining() && channel.write(out) > 0) {
+                    lastProgress = System.currentTimeMillis();
+                }
+                long now = System.currentTimeMillis();
+                if (out.hasRemaining() && now - lastProgress > timeoutMillis) {
+                    throw new IOException("timed out sending to the replica");
+                }
+                if (!syncing && now - lastAckMillis > timeoutMillis) {
+                    throw new IOException("no acknowledgement from the replica for " + timeoutMillis + " ms");
+                }
+            }
+        } catch (IOException | ProtocolException | RuntimeException e) {
+            if (!closed) {
+                log.info("Connection to replica {} lost: {}", address, e.getMessage());
+            }
+        } finally {
+            this.close();
+        }
+    }
+
+    /**
+     * @return the next bytes to send, empty if there are none yet.
+     */
+    private ByteBuffer next() {
+        // Read before the queue: a dumped command not enqueued yet either has an offset at or above the floor, or its
+        // key was still locked when the offset was read, so the stream up to here holds no later write to that key.
+        long available = Math.min(primary.getOffset(), dumpFloor);
+        if (syncing) {
+            DumpEntry entry = dump.peek();
+            if (entry != null && position >= entry.offset) {
+                dump.poll();
+                if (entry.command != null) {
+                    return ByteBuffer.wrap(entry.command);
+                }
+                syncing = false;
+                lastAckMillis = System.currentTimeMillis();
+                log.info("Full resynchronization of replica {} done at offset {}.", address, position);
+                return new RespWriter(64)
+                        .write(Arrays.asList("REPLCONF", "SYNCED", Long.toString(position)), 2)
+                        .toByteBuffer();
+            }
+            if (entry != null) {
+                return this.stream(entry.offset);
+            }
+        }
+        return this.stream(available);
+    }
+
+    /**
+     * @return the stream from the current position, up to the given offset.
+     */
+    private ByteBuffer stream(long limit) {
+        int length = primary.read(position, chunk);
+        if (length < 0) {
+            throw new IllegalStateException("offset " + position + " is no longer in the backlog");
+        }
+        length = (int) Math.min(length, limit - position);
+        position += length;
+        return ByteBuffer.wrap(chunk, 0, length);
+    }
+
+    private boolean hasNext() {
+        return position < primary.getOffset() || syncing && !dump.isEmpty();
+    }
+
+    /**
+     * Reads the acknowledgements of the replica.
+     */
+    private void read() throws IOException, ProtocolException {
+        if (channel.read(in) < 0) {
+            throw new IOException("closed by the replica");
+        }
+        in.flip();
+        List<String> args;
+        while ((args = RespReader.read(in)) != null) {
+            if (args.size() == 3 && "REPLCONF".equalsIgnoreCase(args.get(0)) && "ACK".equalsIgnoreCase(args.get(1))) {
+                ackOffset = Long.parseLong(args.get(2));
+                lastAckMillis = System.currentTimeMillis();
+            }
+        }
+        in.compact();
+        if (!in.hasRemaining()) {
+            throw new ProtocolException("Protocol error: replica request too long");
+        }
+    }
+
+    private void dump() {
+        List<DumpEntry> collected = new ArrayList<>();
+        try {
+            long keys = primary.getRepository().dumpKeyspace(args -> {
+                DumpEntry entry = primary.stamp(args);
+                if (collected.isEmpty()) {
+                    dumpFloor = entry.offset;
+                }
+                collected.add(entry);
+            }, () -> {
+                for (DumpEntry entry : collected) {
+                    this.enqueue(entry);
+                }
+                collected.clear();
+                dumpFloor = Long.MAX_VALUE;
+            });
+            this.enqueue(new DumpEntry(primary.getOffset(), null));
+            log.info("Dumped {} keys to replica {}.", keys, address);
+        } catch (CancellationException e) {
+            log.debug("Dump to replica {} cancelled.", address);
+        } catch (RuntimeException e) {
+            log.error("Dump to replica {} failed.", address, e);
+            this.close();
+        }
+    }
+
+    /**
+     * Blocks while the sender is behind, so a slow replica does not make the dump pile up in memory.
+     */
+    private void enqueue(DumpEntry entry) {
+        try {
+            if (closed) {
+                throw new CancellationException();
+            }
+            dump.put(entry);
+            this.wakeUp();
+        } catch (InterruptedException e) {
+            throw new CancellationException();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.twl.miniredis.replication;
+
+/**
+ * Circular buffer with the last bytes of the replication stream, so a replica that reconnects after a short
+ * disconnection continues from its offset instead of being synchronized again from scratch.
+ * <br/><br/>
+ * Offsets count the bytes appended since the backlog was created. Only the last {@link #getCapacity()} bytes are
+ * kept, older offsets can no longer be read.
+ * <br/><br/>
+ * <b>Note:</b> this class is not thread safe, access is guarded by {@link ReplicationPrimary}.
+ *
+ * @author Tiago Wolker
+ */
+final class ReplicationBacklog {
+
+    private final byte[] buffer;
+    private long offset;
+
+    ReplicationBacklog(int capacity) {
+        this.buffer = new byte[Math.max(capacity, 1)];
+    }
+
+    int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * @return offset of the next byte appended, which is the total number of bytes appended.
+     */
+    long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return oldest offset that can still be read.
+     */
+    long getFirstOffset() {
+        return Math.max(0, offset - buffer.length);
+    }
+
+    void append(byte[] data) {
+        int from = data.length > buffer.length ? data.length - buffer.length : 0;
+        int position = (int) ((offset + from) % buffer.length);
+        int length = data.length - from;
+        int first = Math.min(length, buffer.length - position);
+        System.arraycopy(data, from, buffer, position, first);
+        System.arraycopy(data, from + first, buffer, 0, length - first);
+        offset += data.length;
+    }
+
+    /**
+     * Copies the bytes from the given offset, up to the length of the destination.
+     *
+     * @return number of bytes copied, 0 if there are none after the offset yet, or -1 if the offset is no longer
+     * in the backlog.
+     */
+    int read(long from, byte[] destination) {
+        if (from < this.getFirstOffset() || from > offset) {
+            return -1;
+        }
+        int length = (int) Math.min(destination.length, offset - from);
+        int position = (int) (from % buffer.length);
+        int first = Math.min(length, buffer.length - position);
+        System.arraycopy(buffer, position, destination, 0, first);
+        System.arraycopy(buffer, 0, destination, first, length - first);
+        return length;
+    }
+}
@@ -0,0 +1,258 @@
+package com.twl.miniredis.replication;
+
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.command.Reply;
+import com.twl.miniredis.model.dto.ReplicaInfo;
+import com.twl.miniredis.propagation.CommandListener;
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.resp.RespWriter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Primary side of the replication: streams every write propagated by the repository to the connected replicas.
+ * <br/><br/>
+ * A replica connects to the RESP listener and sends <code>PSYNC replicationId offset</code>. The writes are encoded
+ * once, in the order they were applied to each key, and appended to a {@link ReplicationBacklog}; each replica is
+ * served by its own {@link ReplicaLink} thread, which sends the backlog from the replica's offset, so request threads
+ * never wait for a replica.
+ * <ul>
+ *     <li><b>Partial resynchronization</b> (<code>+CONTINUE</code>): the replication id matches and the offset is still
+ *     in the backlog, so only the missing writes are sent.</li>
+ *     <li><b>Full resynchronization</b> (<code>+FULLRESYNC id offset</code>): the keyspace is dumped key by key,
+ *     interleaved with the writes applied meanwhile, and followed by <code>REPLCONF SYNCED offset</code>, after which
+ *     the replica counts its offset.</li>
+ * </ul>
+ * The backlog is only created, and writes only encoded, once the first replica connects.
+ *
+ * @author Tiago Wolker
+ */
+@Log4j2
+@Component
+public class ReplicationPrimary implements CommandListener, SmartLifecycle {
+
+    private static final int REPLICATION_ID_LENGTH = 40;
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 60_000;
+
+    private final CommandPropagator propagator;
+    private final DatabaseRepository repository;
+    private final int backlogSize;
+    private final long timeoutMillis;
+    private final String replicationId;
+    private final List<ReplicaLink> links = new CopyOnWriteArrayList<>();
+    private final Map<Long, Integer> listeningPorts = new ConcurrentHashMap<>();
+    private final ThreadLocal<RespWriter> encoder = ThreadLocal.withInitial(RespWriter::new);
+
+    // Guarded by this.
+    private ReplicationBacklog backlog;
+
+    private volatile boolean running;
+
+    public ReplicationPrimary(CommandPropagator propagator,
+                              CommandDispatcher dispatcher,
+                              DatabaseRepository repository,
+                              int backlogSize) {
+        this(propagator, dispatcher, repository, backlogSize, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    @Autowired
+    public ReplicationPrimary(CommandPropagator propagator,
+                              CommandDispatcher dispatcher,
+                              DatabaseRepository repository,
+                              @Value("${miniredis.replication.backlog-size:1048576}") int backlogSize,
+                              @Value("${miniredis.replication.timeout-millis:60000}") long timeoutMillis) {
+        this.propagator = propagator;
+        this.repository = repository;
+        this.backlogSize = backlogSize;
+        this.timeoutMillis = timeoutMillis;
+        this.replicationId = randomId();
+
+        dispatcher.register("PSYNC", 3, false, this::psync);
+        dispatcher.register("REPLCONF", -3, false, this::replconf);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    /**
+     * Disconnects the replicas, which keep their data and resynchronize once the primary is back.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        propagator.removeListener(this);
+        for (ReplicaLink link : links) {
+            link.close();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    public String getReplicationId() {
+        return replicationId;
+    }
+
+    /**
+     * @return offset of the replication stream, 0 until the first replica connects.
+     */
+    public synchronized long getOffset() {
+        return backlog == null ? 0 : backlog.getOffset();
+    }
+
+    public synchronized boolean isBacklogActive() {
+        return backlog != null;
+    }
+
+    public int getBacklogSize() {
+        return backlogSize;
+    }
+
+    public synchronized long getBacklogFirstOffset() {
+        return backlog == null ? 0 : backlog.getFirstOffset();
+    }
+
+    public List<ReplicaInfo> getReplicas() {
+        List<ReplicaInfo> replicas = new ArrayList<>(links.size());
+        for (ReplicaLink link : links) {
+            replicas.add(link.info());
+        }
+        return replicas;
+    }
+
+    /**
+     * Appends the command to the backlog and wakes the replicas up. Called under the key lock, so the backlog holds
+     * the writes of each key in the order they were applied.
+     */
+    @Override
+    public void onCommand(String... args) {
+        byte[] bytes = this.encode(args);
+        synchronized (this) {
+            backlog.append(bytes);
+        }
+        for (ReplicaLink link : links) {
+            link.wakeUp();
+        }
+    }
+
+    /**
+     * PSYNC replicationId offset
+     */
+    private Object psync(ClientSession session, List<String> args) {
+        if (!running) {
+            return Reply.error("ERR Replication is not available while the server is stopping");
+        }
+        long requested;
+        try {
+            requested = Long.parseLong(args.get(2));
+        } catch (NumberFormatException e) {
+            requested = -1;
+        }
+        Integer listeningPort = listeningPorts.remove(session.getId());
+        ReplicaLink link;
+        String reply;
+        synchronized (this) {
+            if (backlog == null) {
+                backlog = new ReplicationBacklog(backlogSize);
+                propagator.addListener(this);
+                log.info("Replication backlog of {} bytes created.", backlogSize);
+            }
+            if (replicationId.equals(args.get(1)) && requested >= backlog.getFirstOffset()
+                    && requested <= backlog.getOffset()) {
+                link = new ReplicaLink(this, session.getAddress(), listeningPort, requested, false);
+                reply = "CONTINUE " + replicationId;
+                log.info("Partial resynchronization of replica {} from offset {}.", session.getAddress(), requested);
+            } else {
+                link = new ReplicaLink(this, session.getAddress(), listeningPort, backlog.getOffset(), true);
+                reply = "FULLRESYNC " + replicationId + " " + backlog.getOffset();
+                log.info("Full resynchronization of replica {} from offset {}.", session.getAddress(), backlog.getOffset());
+            }
+        }
+        links.add(link);
+        session.setHandoff(link::start);
+        return Reply.status(reply);
+    }
+
+    /**
+     * REPLCONF option value [option value ...], only <code>listening-port</code> is used, to report the replica.
+     */
+    private Object replconf(ClientSession session, List<String> args) {
+        if (args.size() % 2 == 0) {
+            return Reply.error(CommandDispatcher.SYNTAX_ERROR);
+        }
+        for (int i = 1; i < args.size(); i += 2) {
+            if ("listening-port".equalsIgnoreCase(args.get(i))) {
+                listeningPorts.put(session.getId(), Integer.parseInt(args.get(i + 1)));
+            }
+        }
+        return Reply.OK;
+    }
+
+    /**
+     * Copies the stream from the given offset.
+     *
+     * @see ReplicationBacklog#read(long, byte[])
+     */
+    synchronized int read(long from, byte[] destination) {
+        return backlog.read(from, destination);
+    }
+
+    /**
+     * @return milliseconds a replica may go without accepting any of the bytes sent to it, or without acknowledging
+     * its offset once synchronized, before it is disconnected.
+     */
+    long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Encodes a command of a full resynchronization, with the offset of the stream at the time the key was dumped.
+     * Called under the key lock, like {@link #onCommand(String...)}, so the stream up to the offset holds every write
+     * the dump reflects.
+     */
+    ReplicaLink.DumpEntry stamp(String[] args) {
+        byte[] bytes = this.encode(args);
+        return new ReplicaLink.DumpEntry(this.getOffset(), bytes);
+    }
+
+    DatabaseRepository getRepository() {
+        return repository;
+    }
+
+    void remove(ReplicaLink link) {
+        links.remove(link);
+    }
+
+    private byte[] encode(String[] args) {
+        RespWriter out = encoder.get();
+        out.reset();
+        return out.write(Arrays.asList(args), 2).toByteArray();
+    }
+
+    private static String randomId() {
+        SecureRandom random = new SecureRandom();
+        StringBuilder id = new StringBuilder(REPLICATION_ID_LENGTH);
+        for (int i = 0; i < REPLICATION_ID_LENGTH; i++) {
+            id.append(Character.forDigit(random.nextInt(16), 16));
+        }
+        return id.toString();
+    }
+}
@@ -0,0 +1,349 @@
+package com.twl.miniredis.replication;
+
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.command.Reply;
+import com.twl.miniredis.exception.ProtocolException;
+import com.twl.miniredis.model.dto.ReplicaInfo;
+import com.twl.miniredis.persistence.AppendOnlyFile;
+import com.twl.miniredis.resp.RespReader;
+import com.twl.miniredis.resp.RespServer;
+import com.twl.miniredis.resp.RespWriter;
+import com.twl.miniredis.service.DatabaseService;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replica side of the replication, enabled by <code>miniredis.replication.replicaof=host:port</code>.
+ * <br/><br/>
+ * A replica is read-only: write commands from clients are rejected, and only the writes streamed by the primary are
+ * applied, through the {@link CommandDispatcher} as the append only file is replayed. The replica keeps the replication
+ * id and offset it reached, so after a disconnection it asks for the missing writes only, and falls back to a full
+ * resynchronization, which first removes every key, when the primary can no longer provide them.
+ * <br/><br/>
+ * The offset is acknowledged to the primary every second. Replication is asynchronous: a write acknowledged by the
+ * primary may not have reached the replica yet, and is lost if the primary fails before it does.
+ *
+ * @author Tiago Wolker
+ */
+@Log4j2
+@Component
+public class ReplicationReplica implements SmartLifecycle {
+
+    /**
+     * Starts after the append only file is loaded, so the data of the replica is replaced by the primary's.
+     */
+    public static final int PHASE = AppendOnlyFile.PHASE + 1;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int ACK_INTERVAL_MILLIS = 1000;
+    private static final long RETRY_INTERVAL_MILLIS = 1000;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final CommandDispatcher dispatcher;
+    private final DatabaseService service;
+    private final ReplicationPrimary primary;
+    private final RespServer respServer;
+    private final String host;
+    private final int port;
+
+    private Thread thread;
+    // Only accessed by the replication thread, in write mode between reads.
+    private ByteBuffer in;
+    private volatile Socket socket;
+    private volatile boolean running;
+    private volatile boolean linkUp;
+    private volatile boolean syncing;
+    private volatile long lastIoMillis;
+    // Written by the replication thread only.
+    private volatile String replicationId;
+    private volatile long offset = -1;
+
+    public ReplicationReplica(CommandDispatcher dispatcher,
+                              DatabaseService service,
+                              ReplicationPrimary primary,
+                              RespServer respServer,
+                              @Value("${miniredis.replication.replicaof:}") String replicaOf) {
+        this.dispatcher = dispatcher;
+        this.service = service;
+        this.primary = primary;
+        this.respServer = respServer;
+        if (replicaOf.isBlank()) {
+            this.host = null;
+            this.port = 0;
+        } else {
+            int colon = replicaOf.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("miniredis.replication.replicaof must be host:port, got " + replicaOf);
+            }
+            this.host = replicaOf.substring(0, colon).trim();
+            this.port = Integer.parseInt(replicaOf.substring(colon + 1).trim());
+        }
+
+        dispatcher.register("ROLE", 1, false, (session, args) -> this.role());
+    }
+
+    @Override
+    public void start() {
+        if (host == null) {
+            return;
+        }
+        dispatcher.setReadOnly(true);
+        running = true;
+        thread = new Thread(this::replicate, "replication");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Replicating {}:{}, writes from clients are rejected.", host, port);
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        this.disconnect();
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    public boolean isEnabled() {
+        return host != null;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public boolean isLinkUp() {
+        return linkUp;
+    }
+
+    public boolean isSyncing() {
+        return syncing;
+    }
+
+    public long getLastIoMillis() {
+        return lastIoMillis;
+    }
+
+    /**
+     * @return offset of the primary's stream applied so far, or -1 before the first synchronization.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    private void replicate() {
+        while (running) {
+            try (Socket socket = new Socket()) {
+                this.socket = socket;
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                socket.setSoTimeout(ACK_INTERVAL_MILLIS);
+                socket.setTcpNoDelay(true);
+                this.sync(socket.getInputStream(), socket.getOutputStream());
+            } catch (IOException | ProtocolException | RuntimeException e) {
+                if (running) {
+                    log.warn("Connection to primary {}:{} lost: {}", host, port, e.getMessage());
+                }
+            } finally {
+                linkUp = false;
+                syncing = false;
+                socket = null;
+            }
+            if (running) {
+                try {
+                    Thread.sleep(RETRY_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void sync(InputStream input, OutputStream output) throws IOException, ProtocolException {
+        in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        send(output, "REPLCONF", "listening-port", Integer.toString(respServer.getPort()));
+        this.expect(input, "+OK");
+        String id = replicationId;
+        send(output, "PSYNC", id == null ? "?" : id, Long.toString(id == null ? -1 : offset));
+        List<String> reply = this.readReply(input);
+        if ("+FULLRESYNC".equals(reply.get(0)) && reply.size() == 3) {
+            // Until the dump is complete the data is not consistent with any offset.
+            replicationId = null;
+            syncing = true;
+            long removed = service.flushAll();
+            log.info("Full resynchronization with primary {}:{} started, {} keys removed.", host, port, removed);
+            id = reply.get(1);
+        } else if ("+CONTINUE".equals(reply.get(0)) && id != null) {
+            log.info("Partial resynchronization with primary {}:{} from offset {}.", host, port, offset);
+        } else {
+            throw new IOException("unexpected PSYNC reply " + String.join(" ", reply));
+        }
+        linkUp = true;
+        this.apply(input, output, id);
+    }
+
+    /**
+     * Applies the stream of the primary until the connection is lost.
+     */
+    private void apply(InputStream input, OutputStream output, String id) throws IOException, ProtocolException {
+        ClientSession session = new ClientSession();
+        session.setPrimary(true);
+        session.setName("primary");
+        long lastAck = System.currentTimeMillis();
+        while (running) {
+            in.flip();
+            List<String> args;
+            int start = in.position();
+            while ((args = RespReader.read(in)) != null) {
+                int consumed = in.position() - start;
+                start = in.position();
+                if (args.size() == 3 && "REPLCONF".equalsIgnoreCase(args.get(0)) && "SYNCED".equalsIgnoreCase(args.get(1))) {
+                    offset = Long.parseLong(args.get(2));
+                    replicationId = id;
+                    syncing = false;
+                    log.info("Full resynchronization with primary {}:{} done at offset {}.", host, port, offset);
+                    continue;
+                }
+                if (!args.isEmpty()) {
+                    Object reply = dispatcher.execute(session, args);
+                    if (reply instanceof Reply && ((Reply) reply).isError()) {
+                        log.warn("Error applying {} from the primary: {}", args.get(0), ((Reply) reply).getMessage());
+                    }
+                }
+                if (!syncing) {
+                    offset += consumed;
+                }
+            }
+            this.compact();
+            long now = System.currentTimeMillis();
+            if (!syncing && now - lastAck >= ACK_INTERVAL_MILLIS) {
+                send(output, "REPLCONF", "ACK", Long.toString(offset));
+                lastAck = now;
+            }
+            try {
+                this.fill(input);
+            } catch (SocketTimeoutException e) {
+                // No writes for a while, acknowledge the offset anyway.
+            }
+        }
+    }
+
+    /**
+     * Reads a reply of the primary, which is a simple string decoded as an inline request.
+     */
+    private List<String> readReply(InputStream input) throws IOException, ProtocolException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+        while (true) {
+            in.flip();
+            List<String> reply = RespReader.read(in);
+            this.compact();
+            if (reply != null && !reply.isEmpty()) {
+                return reply;
+            }
+            try {
+                this.fill(input);
+            } catch (SocketTimeoutException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void expect(InputStream input, String expected) throws IOException, ProtocolException {
+        List<String> reply = this.readReply(input);
+        if (!expected.equals(reply.get(0))) {
+            throw new IOException("unexpected reply " + String.join(" ", reply));
+        }
+    }
+
+    private void fill(InputStream input) throws IOException {
+        int read = input.read(in.array(), in.position(), in.remaining());
+        if (read < 0) {
+            throw new EOFException("closed by the primary");
+        }
+        in.position(in.position() + read);
+        lastIoMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Compacts the buffer back to write mode, growing it when a single command does not fit.
+     */
+    private void compact() {
+        in.compact();
+        if (!in.hasRemaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(in.capacity() * 2);
+            in.flip();
+            larger.put(in);
+            in = larger;
+        }
+    }
+
+    private static void send(OutputStream output, String... args) throws IOException {
+        output.write(new RespWriter(64).write(Arrays.asList(args), 2).toByteArray());
+        output.flush();
+    }
+
+    private void disconnect() {
+        Socket socket = this.socket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.debug("Error closing the connection to the primary.", e);
+            }
+        }
+    }
+
+    /**
+     * ROLE
+     */
+    private Object role() {
+        if (host != null) {
+            String state = !linkUp ? "connect" : syncing ? "sync" : "connected";
+            return Arrays.asList("slave", host, (long) port, state, offset);
+        }
+        List<Object> replicas = new ArrayList<>();
+        for (ReplicaInfo replica : primary.getReplicas()) {
+            String address = replica.getAddress();
+            String ip = address.contains(":") ? address.substring(0, address.lastIndexOf(':')) : address;
+            replicas.add(Arrays.asList(ip, String.valueOf(replica.getListeningPort()), String.valueOf(replica.getAckOffset())));
+        }
+        return Arrays.asList("master", primary.getOffset(), replicas);
+    }
+}
@@ -1,19 +1,42 @@
 package com.twl.miniredis.repository;
 
 import com.twl.miniredis.db.Database;
+import com.twl.miniredis.db.ExpiryIndex;
+import com.twl.miniredis.db.Glob;
+import com.twl.miniredis.db.MemoryUsage;
+import com.twl.miniredis.db.ScanCursors;
+import com.twl.miniredis.db.Shard;
+import com.twl.miniredis.db.SlotIndex;
+import com.twl.miniredis.db.eviction.AccessTracker;
+import com.twl.miniredis.db.eviction.EvictionPolicy;
+import com.twl.miniredis.db.hash.Hash;
+import com.twl.miniredis.db.zset.LexRange;
+import com.twl.miniredis.db.zset.ScoreRange;
+import com.twl.miniredis.db.zset.ZSet;
+import com.twl.miniredis.db.zset.ZSetAggregation;
 import com.twl.miniredis.exception.BusinessException;
 import com.twl.miniredis.exception.NonNumericValueException;
+import com.twl.miniredis.metrics.LatencyMonitor;
 import com.twl.miniredis.model.dto.ExpirableValue;
-import com.twl.miniredis.service.comparator.MapValueKeyComparator;
+import com.twl.miniredis.model.dto.ScanResult;
+import com.twl.miniredis.model.dto.ShardStats;
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.resp.RespWriter;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
-import java.time.LocalDateTime;
-import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * Method documentations from <a href="https://redis.io/commands/">Redis commands page</a>.
@@ -26,6 +49,57 @@ public class DatabaseRepository {
 
     public static final String INVALID_NUMBER_OF_ARGUMENTS_FOR_METHOD_ZADD = "Invalid number of arguments for method ZADD key score1 member1 score2 member2 ... .";
     public static final String INVALID_SCORE_PROVIDED = "Invalid score provided. Score must be a number.";
+    public static final String KEY_DOES_NOT_HOLD_A_ZSET = "Value stored in given key does not represent a zset.";
+    public static final String WRONG_TYPE = "WRONGTYPE Operation against a key holding the wrong kind of value.";
+    public static final String INVALID_NUMBER_OF_ARGUMENTS_FOR_METHOD_HSET = "ERR wrong number of arguments for 'hset' command";
+    public static final String INCREMENT_WOULD_OVERFLOW = "Increment or decrement would overflow.";
+    public static final String INCREMENT_WOULD_PRODUCE_NAN_OR_INFINITY = "Increment would produce NaN or Infinity.";
+    public static final String OUT_OF_MEMORY = "OOM command not allowed when used memory > 'maxmemory'.";
+    public static final String INVALID_CURSOR = "ERR invalid cursor";
+    public static final String TYPE_STRING = "string";
+    public static final String TYPE_ZSET = "zset";
+    public static final String TYPE_HASH = "hash";
+
+    private static final int REWRITE_ITEMS_PER_COMMAND = 64;
+    private static final int EMBSTR_SIZE_LIMIT = 44;
+
+    private static final AtomicInteger EXPIRE_CYCLE_CURSOR = new AtomicInteger();
+    private static final AtomicInteger EVICTION_CURSOR = new AtomicInteger();
+
+    private final CommandPropagator propagator;
+    private final LatencyMonitor latencyMonitor;
+    private final ScanCursors cursors = new ScanCursors();
+
+    /**
+     * State of a SCAN: the shard being iterated and its keys not visited yet.
+     */
+    private static final class KeyScan {
+        int shard;
+        Iterator<String> keys;
+    }
+
+    /**
+     * State of a ZSCAN: the scanned key, so its cursor cannot continue another key, and the members not visited yet.
+     */
+    private static final class ZSetScan {
+        final String key;
+        final Iterator<Map.Entry<String, Double>> entries;
+
+        ZSetScan(String key, Iterator<Map.Entry<String, Double>> entries) {
+            this.key = key;
+            this.entries = entries;
+        }
+    }
+
+    public DatabaseRepository(CommandPropagator propagator) {
+        this(propagator, new LatencyMonitor(0));
+    }
+
+    @Autowired
+    public DatabaseRepository(CommandPropagator propagator, LatencyMonitor latencyMonitor) {
+        this.propagator = propagator;
+        this.latencyMonitor = latencyMonitor;
+    }
 
     /**
      * Set key to hold the string value. If key already holds a value, it is overwritten, regardless of its type.
@@ -33,12 +107,48 @@ public class DatabaseRepository {
      * @param key
      * @param value
      */
-    public void setKeyValue(String key, Object value, Integer exSeconds) {
-        LocalDateTime expireTime = null;
+    public void setKeyValue(String key, Object value, Integer exSeconds) throws BusinessException {
+        long expireAt = ExpirableValue.NO_EXPIRE;
         if (exSeconds != null) {
-            expireTime = LocalDateTime.now().plusSeconds(exSeconds);
+            expireAt = System.currentTimeMillis() + exSeconds * 1000L;
         }
-        this.setValue(key, value, expireTime);
+        this.setValue(key, value, expireAt);
+    }
+
+    /**
+     * Same as {@link #setKeyValue(String, Object, Integer)}, but with an absolute expire time, as in
+     * <code>SET key value PXAT unix-time-milliseconds</code>.
+     * @param key
+     * @param value
+     * @param expireAt epoch milliseconds when the key expires, or {@link ExpirableValue#NO_EXPIRE} to keep it forever.
+     */
+    public void setKeyValueUntil(String key, Object value, long expireAt) throws BusinessException {
+        this.setValue(key, value, expireAt);
+    }
+
+    /**
+     * Stores a value loaded from a snapshot, replacing the current one, without propagating it.
+     * @param key
+     * @param value a string, its UTF-8 bytes, a counter, a zset or a hash.
+     * @param expireAt epoch milliseconds when the key expires, or {@link ExpirableValue#NO_EXPIRE} to keep it forever.
+     */
+    public void restore(String key, Object value, long expireAt) {
+        Shard shard = Database.shard(key);
+        ExpirableValue expirableValue = ExpirableValue.of(value instanceof String ? ExpirableValue.encode((String) value) : value, expireAt);
+        shard.getValues().compute(key, (k, previous) -> {
+            if (expirableValue.hasExpire()) {
+                shard.getExpires().put(k, expireAt);
+            } else if (previous != null) {
+                shard.getExpires().remove(k);
+            }
+            account(shard, k, MemoryUsage.estimate(k, previous), expirableValue);
+            discard(shard, previous);
+            if (expirableValue.getValue() instanceof ZSet) {
+                shard.getZsets().increment();
+                shard.getZsetMembers().add(((ZSet) expirableValue.getValue()).size());
+            }
+            return expirableValue;
+        });
     }
 
     /**
@@ -48,44 +158,130 @@ public class DatabaseRepository {
      * @return String value stored in given key.
      */
     public ExpirableValue getKey(String key) throws BusinessException {
-        Object value = Database.getValues().get(key);
+        Shard shard = Database.shard(key);
+        Object value = shard.getValues().get(key);
         if (value != null) {
             if (ExpirableValue.class.equals(value.getClass())) {
-                return (ExpirableValue) value;
+                ExpirableValue expirableValue = (ExpirableValue) value;
+                if (expirableValue.isExpired(System.currentTimeMillis())) {
+                    this.expire(shard, key, expirableValue);
+                    shard.getMisses().increment();
+                    return null;
+                }
+                shard.getHits().increment();
+                touch(expirableValue);
+                return expirableValue;
             } else {
                 String message = "Value can`t be resolved as a string. If you`re trying to get a zset, try using ZRANGE instead.";
                 log.error(message);
                 throw new BusinessException(message);
             }
         }
+        shard.getMisses().increment();
         return null;
     }
 
+    /**
+     * Returns the internal encoding of the value stored at key: <code>int</code> for strings stored as a 64 bit
+     * integer, <code>embstr</code> or <code>raw</code> for other strings, depending on their length, and
+     * <code>listpack</code> or <code>skiplist</code> for sorted sets, and <code>listpack</code> or
+     * <code>hashtable</code> for hashes.
+     * @param key
+     * @return the encoding, or null if the key does not exist.
+     */
+    public String encoding(String key) {
+        Object stored = Database.shard(key).getValues().get(key);
+        if (!(stored instanceof ExpirableValue) || ((ExpirableValue) stored).isExpired(System.currentTimeMillis())) {
+            return null;
+        }
+        ExpirableValue expirableValue = (ExpirableValue) stored;
+        Object value = expirableValue.getValue();
+        if (value instanceof AtomicLong) {
+            return "int";
+        } else if (value instanceof ZSet) {
+            return ((ZSet) value).encoding();
+        } else if (value instanceof Hash) {
+            return ((Hash) value).encoding();
+        }
+        byte[] bytes = expirableValue.asBytes();
+        if (bytes == null) {
+            return null;
+        }
+        return bytes.length <= EMBSTR_SIZE_LIMIT ? "embstr" : "raw";
+    }
+
     /**
      * Removes the specified keys. A key is ignored if it does not exist.
      * @param keys
      */
     public int del(String... keys) {
         int deletions = 0;
+        long now = System.currentTimeMillis();
         for (String key : keys) {
-            Object value = Database.getValues().get(key);
-            if (value != null) {
-                if (LinkedHashMap.class.equals(value.getClass())) {
-                    deletions += (((LinkedHashMap) value).size());
-                } else {
-                    deletions++;
-                }
-                Database.getValues().remove(key);
+            Object[] removed = new Object[1];
+            Shard shard = Database.shard(key);
+            shard.getValues().computeIfPresent(key, (k, value) -> {
+                shard.getExpires().remove(k);
+                account(shard, k, MemoryUsage.estimate(k, value), null);
+                discard(shard, value);
+                removed[0] = value;
+                this.propagate("DEL", k);
+                return null;
+            });
+            if (removed[0] != null && (!(removed[0] instanceof ExpirableValue) || !((ExpirableValue) removed[0]).isExpired(now))) {
+                deletions++;
             }
         }
+        propagator.sync();
         return deletions;
     }
 
+    /**
+     * Delete all the keys of all the existing databases. Keys written concurrently may or may not be removed, so each
+     * key is propagated as its own DEL, ordered with the writes to the same key.
+     *
+     * @return number of keys removed.
+     */
+    public long flushAll() {
+        long removed = 0;
+        for (Shard shard : Database.getShards()) {
+            for (String key : shard.getValues().keySet()) {
+                boolean[] deleted = new boolean[1];
+                shard.getValues().computeIfPresent(key, (k, value) -> {
+                    shard.getExpires().remove(k);
+                    account(shard, k, MemoryUsage.estimate(k, value), null);
+                    discard(shard, value);
+                    deleted[0] = true;
+                    this.propagate("DEL", k);
+                    return null;
+                });
+                if (deleted[0]) {
+                    removed++;
+                }
+            }
+        }
+        propagator.sync();
+        return removed;
+    }
+
     /**
      * @return Return the number of keys in the currently-selected database.
      */
     public Integer dbsize() {
-        return Database.getValues().size();
+        return Database.size();
+    }
+
+    /**
+     * @return keys, expiring keys and lookup statistics of each shard of the keyspace.
+     */
+    public List<ShardStats> shardStats() {
+        List<ShardStats> stats = new ArrayList<>();
+        for (Shard shard : Database.getShards()) {
+            stats.add(new ShardStats(shard.getIndex(), shard.getValues().size(), shard.getExpires().size(),
+                    shard.getHits().sum(), shard.getMisses().sum(), shard.getExpired().sum(), shard.getEvicted().sum(),
+                    shard.getMemory().get(), shard.getZsets().sum(), shard.getZsetMembers().sum()));
+        }
+        return stats;
     }
 
     /**
@@ -100,17 +296,172 @@ public class DatabaseRepository {
      * is no overhead for storing the string representation of the integer.
      * @param key
      */
-    public ExpirableValue incr(String key) throws NonNumericValueException, BusinessException {
+    public long incr(String key) throws NonNumericValueException, BusinessException {
+        return this.incrBy(key, 1);
+    }
+
+    /**
+     * Increments the number stored at key by increment. If the key does not exist, it is set to 0 before performing
+     * the operation. An error is returned if the key contains a value of the wrong type or contains a string that can
+     * not be represented as integer, or if the operation overflows a 64 bit signed integer. The time to live of the
+     * key, if any, is kept.
+     * <br/><br/>
+     * Counters are stored as a native <code>long</code>: the first increment converts the string representation, and
+     * the following ones update it in place inside a single atomic compute on the key, so concurrent increments are
+     * never lost and no string is allocated per increment.
+     *
+     * @param key
+     * @param increment value to add, which can be negative.
+     * @return the value of key after the increment.
+     */
+    public long incrBy(String key, long increment) throws NonNumericValueException, BusinessException {
+        this.performEvictions();
+        Shard shard = Database.shard(key);
+        long now = System.currentTimeMillis();
+        long[] result = new long[1];
+        try {
+            shard.getValues().compute(key, (k, current) -> {
+                ExpirableValue expirableValue = this.liveValue(shard, k, current, now);
+                if (expirableValue != null && expirableValue.getValue() instanceof AtomicLong) {
+                    AtomicLong counter = (AtomicLong) expirableValue.getValue();
+                    result[0] = Math.addExact(counter.get(), increment);
+                    counter.set(result[0]);
+                    touch(expirableValue);
+                    this.propagateIncrBy(k, increment);
+                    return expirableValue;
+                }
+                long base = expirableValue == null ? 0 : Long.parseLong(expirableValue.asString());
+                result[0] = Math.addExact(base, increment);
+                this.propagateIncrBy(k, increment);
+                ExpirableValue counter = new ExpirableValue(new AtomicLong(result[0]), expirableValue == null ? ExpirableValue.NO_EXPIRE : expirableValue.getExpireAt());
+                account(shard, k, MemoryUsage.estimate(k, current), counter);
+                discard(shard, current);
+                return counter;
+            });
+        } catch (NumberFormatException e) {
+            log.error(e);
+            throw new NonNumericValueException(e);
+        } catch (ArithmeticException e) {
+            log.error(INCREMENT_WOULD_OVERFLOW);
+            throw new BusinessException(INCREMENT_WOULD_OVERFLOW);
+        } catch (IllegalArgumentException e) {
+            log.error(e.getMessage());
+            throw new BusinessException(e.getMessage());
+        } finally {
+            propagator.sync();
+        }
+        return result[0];
+    }
+
+    /**
+     * Increment the string representing a floating point number stored at key by the specified increment. By using a
+     * negative increment value, the result is that the value stored at the key is decremented. If the key does not
+     * exist, it is set to 0 before performing the operation. An error is returned if the value contains a value of the
+     * wrong type or if the current value or the increment can not be parsed as a double precision floating point
+     * number. The result is stored as a string, and the time to live of the key, if any, is kept.
+     *
+     * @param key
+     * @param increment value to add, which can be negative.
+     * @return the value of key after the increment.
+     */
+    public String incrByFloat(String key, double increment) throws NonNumericValueException, BusinessException {
+        this.performEvictions();
+        Shard shard = Database.shard(key);
+        long now = System.currentTimeMillis();
+        String[] result = new String[1];
         try {
-            ExpirableValue expirableValue = this.getKey(key);
-            int numericValue = Integer.parseInt(String.valueOf(expirableValue.getValue()));
-            numericValue++;
-            this.setValue(key, numericValue, expirableValue.getExpireTime());
-            return this.getKey(key);
+            shard.getValues().compute(key, (k, current) -> {
+                ExpirableValue expirableValue = this.liveValue(shard, k, current, now);
+                double base = expirableValue == null ? 0 : Double.parseDouble(expirableValue.asString());
+                double value = base + increment;
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    throw new ArithmeticException();
+                }
+                result[0] = BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+                long expireAt = expirableValue == null ? ExpirableValue.NO_EXPIRE : expirableValue.getExpireAt();
+                // Propagated as the resulting SET, so replaying it does not depend on floating point rounding.
+                this.propagateSet(k, result[0], expireAt);
+                ExpirableValue updated = ExpirableValue.ofString(result[0], expireAt);
+                account(shard, k, MemoryUsage.estimate(k, current), updated);
+                discard(shard, current);
+                return updated;
+            });
         } catch (NumberFormatException e) {
             log.error(e);
             throw new NonNumericValueException(e);
+        } catch (ArithmeticException e) {
+            log.error(INCREMENT_WOULD_PRODUCE_NAN_OR_INFINITY);
+            throw new BusinessException(INCREMENT_WOULD_PRODUCE_NAN_OR_INFINITY);
+        } catch (IllegalArgumentException e) {
+            log.error(e.getMessage());
+            throw new BusinessException(e.getMessage());
+        } finally {
+            propagator.sync();
+        }
+        return result[0];
+    }
+
+    /**
+     * Same as {@link #liveValue(Shard, String, Object, long)}, for a sorted set.
+     *
+     * @throws IllegalArgumentException if the key holds a value that is not a sorted set.
+     */
+    private ExpirableValue liveZset(Shard shard, String key, Object current, long now) {
+        ExpirableValue expirableValue = current == null ? null : (ExpirableValue) current;
+        if (expirableValue != null && expirableValue.isExpired(now)) {
+            shard.getExpires().remove(key);
+            shard.getExpired().increment();
+            this.propagate("DEL", key);
+            discard(shard, expirableValue);
+            return null;
+        }
+        if (expirableValue != null && !(expirableValue.getValue() instanceof ZSet)) {
+            throw new IllegalArgumentException(KEY_DOES_NOT_HOLD_A_ZSET);
+        }
+        return expirableValue;
+    }
+
+    /**
+     * Used inside compute functions: returns the stored value, or null when there is none or it is expired, in which
+     * case it is dropped from the expiry index as it is about to be replaced.
+     *
+     * @throws IllegalArgumentException if the key holds a value that is not a string.
+     */
+    private ExpirableValue liveValue(Shard shard, String key, Object current, long now) {
+        if (current == null) {
+            return null;
+        }
+        ExpirableValue expirableValue = (ExpirableValue) current;
+        if (expirableValue.isExpired(now)) {
+            shard.getExpires().remove(key);
+            shard.getExpired().increment();
+            this.propagate("DEL", key);
+            return null;
+        }
+        if (expirableValue.getValue() instanceof ZSet || expirableValue.getValue() instanceof Hash) {
+            throw new IllegalArgumentException(WRONG_TYPE);
+        }
+        return expirableValue;
+    }
+
+    /**
+     * Same as {@link #liveValue(Shard, String, Object, long)}, for a hash.
+     *
+     * @throws IllegalArgumentException if the key holds a value that is not a hash.
+     */
+    private ExpirableValue liveHash(Shard shard, String key, Object current, long now) {
+        ExpirableValue expirableValue = current == null ? null : (ExpirableValue) current;
+        if (expirableValue != null && expirableValue.isExpired(now)) {
+            shard.getExpires().remove(key);
+            shard.getExpired().increment();
+            this.propagate("DEL", key);
+            discard(shard, expirableValue);
+            return null;
         }
+        if (expirableValue != null && !(expirableValue.getValue() instanceof Hash)) {
+            throw new IllegalArgumentException(WRONG_TYPE);
+        }
+        return expirableValue;
     }
 
     /**
@@ -132,46 +483,63 @@ public class DatabaseRepository {
             log.error(INVALID_NUMBER_OF_ARGUMENTS_FOR_METHOD_ZADD);
             throw new BusinessException(INVALID_NUMBER_OF_ARGUMENTS_FOR_METHOD_ZADD);
         } else {
-            Object existingKeyValue = this.getObject(key);
-            ConcurrentMap<String, Double> zset = new ConcurrentHashMap<>();
-            if (existingKeyValue != null) {
-                if (ConcurrentHashMap.class.equals(existingKeyValue.getClass())) {
-                    zset = (ConcurrentHashMap<String, Double>) existingKeyValue;
-                } else {
-                    throw new BusinessException("The given key does not hold a zset, thus can not be modified. Try `SET key value` instead.");
+            List<String> validPairs = new ArrayList<>(scoreMembers.length);
+            List<Double> scores = new ArrayList<>(scoreMembers.length / 2);
+            for (int i = 0; i + 1 < scoreMembers.length; i += 2) {
+                try {
+                    scores.add(ZSet.parseScore(scoreMembers[i]));
+                    validPairs.add(scoreMembers[i]);
+                    validPairs.add(scoreMembers[i + 1]);
+                } catch (NumberFormatException e) {
+                    log.warn(INVALID_SCORE_PROVIDED);
+                    log.warn("No valid score provided for member \"{}\". Member will not be added.", scoreMembers[i + 1]);
                 }
             }
-            int valuesSaved = 0;
-            Double score = null;
-            for (int i = 0; i < scoreMembers.length; i++) {
-                if ((i+1) % 2 != 0) {
-                    try {
-                        score = Double.parseDouble(scoreMembers[i]);
-                    } catch (NumberFormatException e) {
-                        log.warn(INVALID_SCORE_PROVIDED);
-                        score = null;
+            if (scores.isEmpty()) {
+                return 0;
+            }
+            this.performEvictions();
+            Shard shard = Database.shard(key);
+            long now = System.currentTimeMillis();
+            try {
+                // Members are added while holding the key's bin lock, so concurrent writes to the same key are
+                // applied and propagated in the same order.
+                shard.getValues().compute(key, (k, current) -> {
+                    long before = MemoryUsage.estimate(k, current);
+                    ExpirableValue expirableValue = this.liveZset(shard, k, current, now);
+                    if (expirableValue == null) {
+                        expirableValue = new ExpirableValue(new ZSet(), ExpirableValue.NO_EXPIRE);
+                        shard.getZsets().increment();
                     }
-                } else {
-                    if (score != null) {
-                        zset.put(scoreMembers[i], score);
-                        valuesSaved++;
-                        score = null;
-                    } else {
-                        log.warn("No valid score provided for member \"{}\". Member will not be added.", scoreMembers[i]);
+                    ZSet zset = (ZSet) expirableValue.getValue();
+                    int added = 0;
+                    for (int i = 0; i < scores.size(); i++) {
+                        if (zset.add(scores.get(i), validPairs.get(i * 2 + 1))) {
+                            added++;
+                        }
                     }
-                }
-            }
-            if (valuesSaved > 0) {
-                Database.getValues().put(key, new ExpirableValue(zset, null));
+                    shard.getZsetMembers().add(added);
+                    if (propagator.isActive()) {
+                        List<String> command = new ArrayList<>(validPairs.size() + 2);
+                        command.add("ZADD");
+                        command.add(k);
+                        command.addAll(validPairs);
+                        propagator.propagate(command.toArray(new String[0]));
+                    }
+                    touch(expirableValue);
+                    account(shard, k, before, expirableValue);
+                    return expirableValue;
+                });
+            } catch (IllegalArgumentException e) {
+                log.error(e.getMessage());
+                throw new BusinessException(e.getMessage());
+            } finally {
+                propagator.sync();
             }
-            return valuesSaved;
+            return scores.size();
         }
     }
 
-    private Object getObject(String key) {
-        return Database.getValues().get(key);
-    }
-
     /**
      * Returns the sorted set cardinality (number of elements) of the sorted set stored at key.
      *
@@ -179,7 +547,7 @@ public class DatabaseRepository {
      * @return the cardinality (number of elements) of the sorted set, or 0 if key does not exist.
      */
     public Integer zcard(String key) throws BusinessException {
-        ConcurrentHashMap<String, Double> value = this.getZset(key);
+        ZSet value = this.getZset(key);
         if (value != null) {
             return value.size();
         } else {
@@ -194,13 +562,9 @@ public class DatabaseRepository {
      * The rank (or index) is 0-based, which means that the member with the lowest score has rank 0.
      */
     public Integer zrank(String key, String member) throws BusinessException {
-        ConcurrentHashMap<String, Double> zset = this.getZset(key);
+        ZSet zset = this.getZset(key);
         if (zset != null) {
-            List<Map.Entry<String, Double>> list = new ArrayList<>(sortedMap(zset).entrySet());
-            return IntStream.range(0, list.size())
-                    .filter(value -> member.equals(list.get(value).getKey()))
-                    .findFirst()
-                    .orElse(-1);
+            return (int) zset.rank(member);
         }
         return null;
     }
@@ -225,66 +589,963 @@ public class DatabaseRepository {
      * @return Returns the specified range of elements in the sorted set stored at <b>key</b>.
      */
     public LinkedHashMap<String, Double> zrange(String key, int start, int stop) throws BusinessException {
-        ConcurrentHashMap<String, Double> zset = getZset(key);
+        ZSet zset = getZset(key);
         if (zset != null) {
+            return zset.range(start, stop);
+        }
+        return new LinkedHashMap<>();
+    }
 
-            List<Map.Entry<String, Double>> list = new ArrayList<>(sortedMap(zset).entrySet());
+    /**
+     * Same as {@link #zrange(String, int, int)}, but reads the range in chunks of at most <code>chunkSize</code>
+     * members as the returned iterator is consumed, see {@link ZSet#rangeChunks(long, long, int)}. If the key is
+     * deleted or replaced while iterating, the remaining chunks are read from the set it held before.
+     */
+    public Iterator<LinkedHashMap<String, Double>> zrangeChunks(String key, long start, long stop, int chunkSize)
+            throws BusinessException {
+        ZSet zset = getZset(key);
+        if (zset != null) {
+            return zset.rangeChunks(start, stop, chunkSize);
+        }
+        return Collections.emptyIterator();
+    }
 
-            if (list.isEmpty()) {
-                return new LinkedHashMap<>();
-            }
-            int size = list.size();
-            if (start > size && start > stop) {
-                return new LinkedHashMap<>();
+    /**
+     * Increments the score of member in the sorted set stored at key by increment. If member does not exist in the
+     * sorted set, it is added with increment as its score (as if its previous score was 0.0). If key does not exist, a
+     * new sorted set with the specified member as its sole member is created.
+     * <br/><br/>
+     * The increment is propagated as a ZADD of the resulting score, so replaying it gives the same score.
+     *
+     * @return the new score of member.
+     */
+    public Double zincrBy(String key, double increment, String member) throws BusinessException {
+        this.performEvictions();
+        Shard shard = Database.shard(key);
+        long now = System.currentTimeMillis();
+        double[] score = new double[1];
+        try {
+            shard.getValues().compute(key, (k, current) -> {
+                long before = MemoryUsage.estimate(k, current);
+                ExpirableValue expirableValue = this.liveZset(shard, k, current, now);
+                boolean created = expirableValue == null;
+                if (created) {
+                    expirableValue = new ExpirableValue(new ZSet(), ExpirableValue.NO_EXPIRE);
+                }
+                ZSet zset = (ZSet) expirableValue.getValue();
+                boolean added = zset.score(member) == null;
+                score[0] = zset.incrBy(increment, member);
+                if (created) {
+                    shard.getZsets().increment();
+                }
+                if (added) {
+                    shard.getZsetMembers().increment();
+                }
+                this.propagate("ZADD", k, RespWriter.formatDouble(score[0]), member);
+                touch(expirableValue);
+                account(shard, k, before, expirableValue);
+                return expirableValue;
+            });
+        } catch (IllegalArgumentException e) {
+            log.error(e.getMessage());
+            throw new BusinessException(e.getMessage());
+        } finally {
+            propagator.sync();
+        }
+        return score[0];
+    }
+
+    /**
+     * Removes the specified members from the sorted set stored at key. Non existing members are ignored. As in Redis,
+     * a sorted set is deleted when its last member is removed.
+     *
+     * @return the number of members removed from the sorted set, not including non existing members.
+     */
+    public Integer zrem(String key, String... members) throws BusinessException {
+        Shard shard = Database.shard(key);
+        long now = System.currentTimeMillis();
+        int[] removed = new int[1];
+        try {
+            shard.getValues().compute(key, (k, current) -> {
+                long before = MemoryUsage.estimate(k, current);
+                ExpirableValue expirableValue = this.liveZset(shard, k, current, now);
+                if (expirableValue == null) {
+                    account(shard, k, before, null);
+                    return null;
+                }
+                ZSet zset = (ZSet) expirableValue.getValue();
+                List<String> command = new ArrayList<>(members.length + 2);
+                command.add("ZREM");
+                command.add(k);
+                for (String member : members) {
+                    if (zset.remove(member)) {
+                        removed[0]++;
+                        command.add(member);
+                    }
+                }
+                if (removed[0] == 0) {
+                    return expirableValue;
+                }
+                shard.getZsetMembers().add(-removed[0]);
+                this.propagate(command.toArray(new String[0]));
+                if (zset.size() == 0) {
+                    shard.getExpires().remove(k);
+                    discard(shard, expirableValue);
+                    account(shard, k, before, null);
+                    return null;
+                }
+                touch(expirableValue);
+                account(shard, k, before, expirableValue);
+                return expirableValue;
+            });
+        } catch (IllegalArgumentException e) {
+            log.error(e.getMessage());
+            throw new BusinessException(e.getMessage());
+        } finally {
+            propagator.sync();
+        }
+        return removed[0];
+    }
+
+    /**
+     * @return the score of member in the sorted set at key, or null if the key or the member do not exist.
+     */
+    public Double zscore(String key, String member) throws BusinessException {
+        ZSet zset = this.getZset(key);
+        return zset == null ? null : zset.score(member);
+    }
+
+    /**
+     * Returns the rank of member in the sorted set stored at key, with the scores ordered from high to low. The rank
+     * (or index) is 0-based, which means that the member with the highest score has rank 0.
+     *
+     * @return the rank, -1 if the member does not exist, or null if the key does not exist.
+     */
+    public Integer zrevrank(String key, String member) throws BusinessException {
+        ZSet zset = this.getZset(key);
+        if (zset != null) {
+            return (int) zset.revRank(member);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the specified range of elements in the sorted set stored at key. The elements are considered to be
+     * ordered from the highest to the lowest score. Descending lexicographical order is used for elements with equal
+     * score. Apart from the reversed ordering, it is similar to {@link #zrange(String, int, int)}.
+     */
+    public LinkedHashMap<String, Double> zrevrange(String key, int start, int stop) throws BusinessException {
+        ZSet zset = getZset(key);
+        if (zset != null) {
+            return zset.revRange(start, stop);
+        }
+        return new LinkedHashMap<>();
+    }
+
+    /**
+     * Returns the number of elements in the sorted set at key with a score between min and max. The bounds are
+     * inclusive unless prefixed with <code>(</code>, and can be <code>-inf</code> and <code>+inf</code>.
+     */
+    public Integer zcount(String key, String min, String max) throws BusinessException {
+        ScoreRange range = scoreRange(min, max);
+        ZSet zset = getZset(key);
+        return zset == null ? 0 : (int) zset.count(range);
+    }
+
+    /**
+     * Returns all the elements in the sorted set at key with a score between min and max, ordered from low to high
+     * scores, or from high to low if <code>reverse</code> is true. The bounds are the same as
+     * {@link #zcount(String, String, String)}. Finding the first element takes O(log n), whatever the offset.
+     *
+     * @param offset number of elements of the range skipped.
+     * @param count maximum number of elements returned, or a negative value for every element of the range.
+     */
+    public LinkedHashMap<String, Double> zrangeByScore(String key, String min, String max, boolean reverse,
+                                                       long offset, long count) throws BusinessException {
+        ScoreRange range = scoreRange(min, max);
+        ZSet zset = getZset(key);
+        if (zset != null) {
+            return zset.rangeBy(range, reverse, offset, count);
+        }
+        return new LinkedHashMap<>();
+    }
+
+    /**
+     * When all the elements in a sorted set are inserted with the same score, in order to force lexicographical
+     * ordering, this command returns all the elements in the sorted set at key with a value between min and max. The
+     * bounds are <code>[member</code>, <code>(member</code>, <code>-</code> or <code>+</code>, see {@link LexRange}.
+     *
+     * @param offset number of elements of the range skipped.
+     * @param count maximum number of elements returned, or a negative value for every element of the range.
+     */
+    public LinkedHashMap<String, Double> zrangeByLex(String key, String min, String max, long offset, long count)
+            throws BusinessException {
+        LexRange range;
+        try {
+            range = LexRange.parse(min, max);
+        } catch (IllegalArgumentException e) {
+            throw new BusinessException(e.getMessage());
+        }
+        ZSet zset = getZset(key);
+        if (zset != null) {
+            return zset.rangeBy(range, false, offset, count);
+        }
+        return new LinkedHashMap<>();
+    }
+
+    /**
+     * Computes the union of the sorted sets given by the specified keys, and stores the result in destination, see
+     * {@link ZSetAggregation#union(List, double[], ZSetAggregation.Aggregate)}. A key that does not exist is
+     * considered to be an empty sorted set. If destination already exists, it is overwritten.
+     *
+     * @return the number of elements in the resulting sorted set at destination.
+     */
+    public Integer zunionstore(String destination, String[] keys, double[] weights, ZSetAggregation.Aggregate aggregate)
+            throws BusinessException {
+        List<ZSet> inputs = this.getZsets(keys);
+        this.performEvictions();
+        return this.zstore(destination, ZSetAggregation.union(inputs, weights, aggregate));
+    }
+
+    /**
+     * Computes the intersection of the sorted sets given by the specified keys, and stores the result in
+     * destination, see {@link ZSetAggregation#intersection(List, double[], ZSetAggregation.Aggregate)}. A key that
+     * does not exist makes the result empty. If destination already exists, it is overwritten.
+     *
+     * @return the number of elements in the resulting sorted set at destination.
+     */
+    public Integer zinterstore(String destination, String[] keys, double[] weights, ZSetAggregation.Aggregate aggregate)
+            throws BusinessException {
+        List<ZSet> inputs = this.getZsets(keys);
+        this.performEvictions();
+        return this.zstore(destination, ZSetAggregation.intersection(inputs, weights, aggregate));
+    }
+
+    private List<ZSet> getZsets(String[] keys) throws BusinessException {
+        List<ZSet> zsets = new ArrayList<>(keys.length);
+        for (String key : keys) {
+            zsets.add(this.getZset(key));
+        }
+        return zsets;
+    }
+
+    /**
+     * Replaces the value at destination by the given sorted set, or deletes it if the set is empty. The result is
+     * propagated as its members rather than as the command, since the inputs may have changed by the time it is
+     * replayed.
+     */
+    private Integer zstore(String destination, ZSet zset) {
+        Shard shard = Database.shard(destination);
+        try {
+            shard.getValues().compute(destination, (k, current) -> {
+                long before = MemoryUsage.estimate(k, current);
+                if (current != null) {
+                    shard.getExpires().remove(k);
+                    discard(shard, current);
+                }
+                if (zset.size() == 0) {
+                    this.propagate("DEL", k);
+                    account(shard, k, before, null);
+                    return null;
+                }
+                ExpirableValue expirableValue = new ExpirableValue(zset, ExpirableValue.NO_EXPIRE);
+                shard.getZsets().increment();
+                shard.getZsetMembers().add(zset.size());
+                if (propagator.isActive()) {
+                    dumpValue(k, expirableValue, propagator::propagate);
+                }
+                touch(expirableValue);
+                account(shard, k, before, expirableValue);
+                return expirableValue;
+            });
+        } finally {
+            propagator.sync();
+        }
+        return zset.size();
+    }
+
+    /**
+     * Sets the specified fields to their respective values in the hash stored at key. This command overwrites the
+     * values of specified fields that exist in the hash. If key doesn't exist, a new key holding a hash is created.
+     *
+     * @param key
+     * @param fieldValues field1, value1, field2, value2 ...
+     * @return the number of fields that were added.
+     */
+    public Integer hset(String key, String... fieldValues) throws BusinessException {
+        if (fieldValues == null || fieldValues.length < 2 || fieldValues.length % 2 != 0) {
+            log.error(INVALID_NUMBER_OF_ARGUMENTS_FOR_METHOD_HSET);
+            throw new BusinessException(INVALID_NUMBER_OF_ARGUMENTS_FOR_METHOD_HSET);
+        }
+        this.performEvictions();
+        Shard shard = Database.shard(key);
+        long now = System.currentTimeMillis();
+        int[] added = new int[1];
+        try {
+            shard.getValues().compute(key, (k, current) -> {
+                long before = MemoryUsage.estimate(k, current);
+                ExpirableValue expirableValue = this.liveHash(shard, k, current, now);
+                if (expirableValue == null) {
+                    expirableValue = new ExpirableValue(new Hash(), ExpirableValue.NO_EXPIRE);
+                }
+                Hash hash = (Hash) expirableValue.getValue();
+                for (int i = 0; i < fieldValues.length; i += 2) {
+                    if (hash.put(fieldValues[i], fieldValues[i + 1])) {
+                        added[0]++;
+                    }
+                }
+                if (propagator.isActive()) {
+                    String[] command = new String[fieldValues.length + 2];
+                    command[0] = "HSET";
+                    command[1] = k;
+                    System.arraycopy(fieldValues, 0, command, 2, fieldValues.length);
+                    propagator.propagate(command);
+                }
+                touch(expirableValue);
+                account(shard, k, before, expirableValue);
+                return expirableValue;
+            });
+        } catch (IllegalArgumentException e) {
+            log.error(e.getMessage());
+            throw new BusinessException(e.getMessage());
+        } finally {
+            propagator.sync();
+        }
+        return added[0];
+    }
+
+    /**
+     * @return the value associated with field in the hash stored at key, or null if the key or the field do not
+     * exist.
+     */
+    public String hget(String key, String field) throws BusinessException {
+        Hash hash = this.getHash(key);
+        return hash == null ? null : hash.get(field);
+    }
+
+    /**
+     * Returns the values associated with the specified fields in the hash stored at key. For every field that does
+     * not exist in the hash, a null value is returned. Because non-existing keys are treated as empty hashes, running
+     * HMGET against a non-existing key will return a list of null values.
+     */
+    public List<String> hmget(String key, String... fields) throws BusinessException {
+        Hash hash = this.getHash(key);
+        List<String> values = new ArrayList<>(fields.length);
+        for (String field : fields) {
+            values.add(hash == null ? null : hash.get(field));
+        }
+        return values;
+    }
+
+    /**
+     * Removes the specified fields from the hash stored at key. Specified fields that do not exist within this hash
+     * are ignored. As in Redis, a hash is deleted when its last field is removed.
+     *
+     * @return the number of fields that were removed from the hash, not including specified but non existing fields.
+     */
+    public Integer hdel(String key, String... fields) throws BusinessException {
+        Shard shard = Database.shard(key);
+        long now = System.currentTimeMillis();
+        int[] removed = new int[1];
+        try {
+            shard.getValues().compute(key, (k, current) -> {
+                long before = MemoryUsage.estimate(k, current);
+                ExpirableValue expirableValue = this.liveHash(shard, k, current, now);
+                if (expirableValue == null) {
+                    account(shard, k, before, null);
+                    return null;
+                }
+                Hash hash = (Hash) expirableValue.getValue();
+                List<String> command = new ArrayList<>(fields.length + 2);
+                command.add("HDEL");
+                command.add(k);
+                for (String field : fields) {
+                    if (hash.remove(field)) {
+                        removed[0]++;
+                        command.add(field);
+                    }
+                }
+                if (removed[0] == 0) {
+                    return expirableValue;
+                }
+                this.propagate(command.toArray(new String[0]));
+                if (hash.size() == 0) {
+                    shard.getExpires().remove(k);
+                    discard(shard, expirableValue);
+                    account(shard, k, before, null);
+                    return null;
+                }
+                touch(expirableValue);
+                account(shard, k, before, expirableValue);
+                return expirableValue;
+            });
+        } catch (IllegalArgumentException e) {
+            log.error(e.getMessage());
+            throw new BusinessException(e.getMessage());
+        } finally {
+            propagator.sync();
+        }
+        return removed[0];
+    }
+
+    /**
+     * Increments the number stored at field in the hash stored at key by increment. If key does not exist, a new key
+     * holding a hash is created. If field does not exist the value is set to 0 before the operation is performed. The
+     * range of values supported by HINCRBY is limited to 64 bit signed integers.
+     * <br/><br/>
+     * The increment is propagated as an HSET of the resulting value, as ZINCRBY is propagated as a ZADD.
+     *
+     * @return the value at field after the increment operation.
+     */
+    public Long hincrBy(String key, String field, long increment) throws BusinessException {
+        this.performEvictions();
+        Shard shard = Database.shard(key);
+        long now = System.currentTimeMillis();
+        long[] result = new long[1];
+        try {
+            shard.getValues().compute(key, (k, current) -> {
+                long before = MemoryUsage.estimate(k, current);
+                ExpirableValue expirableValue = this.liveHash(shard, k, current, now);
+                if (expirableValue == null) {
+                    expirableValue = new ExpirableValue(new Hash(), ExpirableValue.NO_EXPIRE);
+                }
+                result[0] = ((Hash) expirableValue.getValue()).incrBy(field, increment);
+                this.propagate("HSET", k, field, Long.toString(result[0]));
+                touch(expirableValue);
+                account(shard, k, before, expirableValue);
+                return expirableValue;
+            });
+        } catch (NumberFormatException e) {
+            log.error(Hash.VALUE_IS_NOT_AN_INTEGER);
+            throw new BusinessException(Hash.VALUE_IS_NOT_AN_INTEGER);
+        } catch (ArithmeticException e) {
+            log.error(INCREMENT_WOULD_OVERFLOW);
+            throw new BusinessException(INCREMENT_WOULD_OVERFLOW);
+        } catch (IllegalArgumentException e) {
+            log.error(e.getMessage());
+            throw new BusinessException(e.getMessage());
+        } finally {
+            propagator.sync();
+        }
+        return result[0];
+    }
+
+    /**
+     * @return the number of fields contained in the hash stored at key, or 0 when key does not exist.
+     */
+    public Integer hlen(String key) throws BusinessException {
+        Hash hash = this.getHash(key);
+        return hash == null ? 0 : hash.size();
+    }
+
+    /**
+     * @return every field and value of the hash stored at key, or an empty map when key does not exist.
+     */
+    public LinkedHashMap<String, String> hgetall(String key) throws BusinessException {
+        Hash hash = this.getHash(key);
+        return hash == null ? new LinkedHashMap<>() : hash.entries();
+    }
+
+    private static ScoreRange scoreRange(String min, String max) throws BusinessException {
+        try {
+            return ScoreRange.parse(min, max);
+        } catch (IllegalArgumentException e) {
+            throw new BusinessException(e.getMessage());
+        }
+    }
+
+    /**
+     * Incrementally iterates the keyspace, visiting at most <code>count</code> keys per call, shard by shard. Every
+     * key present for the whole iteration is returned exactly once, see {@link ScanCursors}; keys added or removed
+     * meanwhile may or may not be returned. Expired keys are visited but not returned.
+     *
+     * @param cursor {@link ScanCursors#START} or the cursor returned by the previous call.
+     * @param pattern glob pattern of the keys returned, see {@link Glob}, or null for every key.
+     * @param type <code>string</code>, <code>zset</code> or <code>hash</code> to return only keys of that type, or null.
+     * @return the keys found and the cursor of the next call, {@link ScanCursors#START} when the iteration is over.
+     * @throws BusinessException if the cursor is unknown, was already used or expired.
+     */
+    public ScanResult<List<String>> scan(long cursor, String pattern, long count, String type) throws BusinessException {
+        KeyScan scan;
+        if (cursor == ScanCursors.START) {
+            scan = new KeyScan();
+        } else {
+            Object state = cursors.take(cursor);
+            if (!(state instanceof KeyScan)) {
+                throw new BusinessException(INVALID_CURSOR);
             }
-            int lastElement = stop;
-            if (lastElement >= size) {
-                lastElement = size - 1;
-            } else if (lastElement < 0) {
-                lastElement = size + stop;
-                if (lastElement < 0 || lastElement < start) {
-                    return new LinkedHashMap<>();
+            scan = (KeyScan) state;
+        }
+        Shard[] shards = Database.getShards();
+        List<String> keys = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (long visited = 0; visited < count; ) {
+            if (scan.keys == null || !scan.keys.hasNext()) {
+                if (scan.keys != null) {
+                    scan.shard++;
+                }
+                if (scan.shard >= shards.length) {
+                    return new ScanResult<>(ScanCursors.START, keys);
                 }
+                scan.keys = shards[scan.shard].getValues().keySet().iterator();
+                continue;
+            }
+            String key = scan.keys.next();
+            visited++;
+            if (pattern != null && !Glob.matches(pattern, key)) {
+                continue;
+            }
+            Object value = shards[scan.shard].getValues().get(key);
+            if (value instanceof ExpirableValue && !((ExpirableValue) value).isExpired(now)
+                    && (type == null || type.equals(typeOf((ExpirableValue) value)))) {
+                keys.add(key);
+            }
+        }
+        return new ScanResult<>(cursors.store(scan), keys);
+    }
+
+    /**
+     * Incrementally iterates the members of a sorted set, visiting at most <code>count</code> members per call, with
+     * the same guarantees as {@link #scan(long, String, long, String)}. Sets with the listpack encoding are small, so
+     * they are returned in a single call, as Redis does.
+     *
+     * @return the members found with their scores, and the cursor of the next call.
+     */
+    public ScanResult<LinkedHashMap<String, Double>> zscan(String key, long cursor, String pattern, long count)
+            throws BusinessException {
+        ZSetScan scan;
+        if (cursor == ScanCursors.START) {
+            ZSet zset = getZset(key);
+            if (zset == null) {
+                return new ScanResult<>(ScanCursors.START, new LinkedHashMap<>());
+            }
+            if (ZSet.ENCODING_LISTPACK.equals(zset.encoding())) {
+                count = Long.MAX_VALUE;
+            }
+            scan = new ZSetScan(key, zset.scanIterator());
+        } else {
+            Object state = cursors.take(cursor);
+            if (!(state instanceof ZSetScan) || !((ZSetScan) state).key.equals(key)) {
+                throw new BusinessException(INVALID_CURSOR);
+            }
+            scan = (ZSetScan) state;
+        }
+        LinkedHashMap<String, Double> members = new LinkedHashMap<>();
+        for (long visited = 0; visited < count && scan.entries.hasNext(); visited++) {
+            Map.Entry<String, Double> entry = scan.entries.next();
+            if (pattern == null || Glob.matches(pattern, entry.getKey())) {
+                members.put(entry.getKey(), entry.getValue());
             }
+        }
+        return new ScanResult<>(scan.entries.hasNext() ? cursors.store(scan) : ScanCursors.START, members);
+    }
 
-            LinkedHashMap<String, Double> zsetRange = new LinkedHashMap<>();
-            IntStream.rangeClosed(start, lastElement)
-                    .mapToObj(list::get)
-                    .collect(Collectors.toList())
-                    .forEach(entry -> zsetRange.put(entry.getKey(), entry.getValue()));
-            return zsetRange;
+    /**
+     * @return the type of the value, as reported by Redis' <code>TYPE</code>.
+     */
+    private static String typeOf(ExpirableValue value) {
+        if (value.getValue() instanceof ZSet) {
+            return TYPE_ZSET;
         }
-        return new LinkedHashMap<>();
+        return value.getValue() instanceof Hash ? TYPE_HASH : TYPE_STRING;
     }
 
-    private ConcurrentHashMap<String, Double> getZset(String key) throws BusinessException {
+    private ZSet getZset(String key) throws BusinessException {
         ExpirableValue expirableValue = this.getKey(key);
-        if (expirableValue != null && expirableValue.getValue() != null) {
-            if (ConcurrentHashMap.class.equals(expirableValue.getValue().getClass())) {
+        if (expirableValue != null) {
+            if (expirableValue.getValue() instanceof ZSet) {
+                return (ZSet) expirableValue.getValue();
+            } else {
+                log.error(KEY_DOES_NOT_HOLD_A_ZSET);
+                throw new BusinessException(KEY_DOES_NOT_HOLD_A_ZSET);
+            }
+        }
+        return null;
+    }
 
-                return (ConcurrentHashMap<String, Double>) expirableValue.getValue() ;
+    private Hash getHash(String key) throws BusinessException {
+        ExpirableValue expirableValue = this.getKey(key);
+        if (expirableValue != null) {
+            if (expirableValue.getValue() instanceof Hash) {
+                return (Hash) expirableValue.getValue();
             } else {
-                String message = "Value stored in given key does not represent a zset.";
-                log.error(message);
-                throw new BusinessException(message);
+                log.error(WRONG_TYPE);
+                throw new BusinessException(WRONG_TYPE);
             }
         }
         return null;
     }
 
-    private static LinkedHashMap<String, Double> sortedMap(ConcurrentMap<String, Double> zset) {
-        List<Map.Entry<String, Double>> list = new ArrayList<>(zset.entrySet());
-        Collections.sort(list, new MapValueKeyComparator<String, Double>());
-        LinkedHashMap<String, Double> ordered = new LinkedHashMap<>();
+    /**
+     * Removes keys whose time to live has elapsed, visiting only the keys that are due according to each shard's
+     * expiry index. The cycle stops once the time budget is spent and the next one resumes from the shard where it
+     * stopped; until then the remaining keys are still never returned, because reads expire keys lazily.
+     *
+     * @param timeBudgetMillis maximum time spent in this cycle.
+     * @return number of keys removed.
+     */
+    public int activeExpireCycle(long timeBudgetMillis) {
+        long deadline = System.currentTimeMillis() + timeBudgetMillis;
+        Shard[] shards = Database.getShards();
+        int expired = 0;
+        for (int i = 0; i < shards.length; i++) {
+            int index = Math.floorMod(EXPIRE_CYCLE_CURSOR.get(), shards.length);
+            expired += this.activeExpireCycle(shards[index], deadline);
+            if (System.currentTimeMillis() >= deadline) {
+                break;
+            }
+            EXPIRE_CYCLE_CURSOR.incrementAndGet();
+        }
+        return expired;
+    }
+
+    private int activeExpireCycle(Shard shard, long deadlineMillis) {
+        long now = System.currentTimeMillis();
+        int processed = 0;
+        int expired = 0;
+        ExpiryIndex.Deadline deadline;
+        while ((deadline = shard.getExpires().pollExpired(now)) != null) {
+            Object value = shard.getValues().get(deadline.getKey());
+            if (value instanceof ExpirableValue && ((ExpirableValue) value).isExpired(now)
+                    && this.expire(shard, deadline.getKey(), (ExpirableValue) value)) {
+                log.debug("Key \"{}\" removed from database.", deadline.getKey());
+                expired++;
+            }
+            if ((++processed & 0xF) == 0) {
+                now = System.currentTimeMillis();
+                if (now >= deadlineMillis) {
+                    break;
+                }
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Stores the value and updates the expiry index while holding the key's bin lock, so the index never misses the
+     * deadline of the value that won a concurrent update.
+     */
+    private void setValue(String key, Object value, long expireAt) throws BusinessException {
+        this.performEvictions();
+        String string = String.valueOf(value);
+        ExpirableValue expirableValue = ExpirableValue.ofString(string, expireAt);
+        Shard shard = Database.shard(key);
+        shard.getValues().compute(key, (k, previous) -> {
+            account(shard, k, MemoryUsage.estimate(k, previous), expirableValue);
+            discard(shard, previous);
+            if (expirableValue.hasExpire()) {
+                shard.getExpires().put(k, expireAt);
+            } else if (previous instanceof ExpirableValue && ((ExpirableValue) previous).hasExpire()) {
+                shard.getExpires().remove(k);
+            }
+            this.propagateSet(k, string, expireAt);
+            return expirableValue;
+        });
+        propagator.sync();
+    }
+
+    /**
+     * Emits, for every live key, the commands that recreate its current value. Each key is visited while holding its
+     * lock, so these commands are ordered with the writes propagated concurrently for the same key, which lets the
+     * append only file be rewritten without pausing writes.
+     *
+     * @param sink receives the command name followed by its arguments.
+     * @return number of keys emitted.
+     */
+    public long dumpKeyspace(Consumer<String[]> sink) {
+        return this.dumpKeyspace(sink, () -> { });
+    }
+
+    /**
+     * Same as {@link #dumpKeyspace(Consumer)}, running <code>onKeyDumped</code> once the lock of each emitted key is
+     * released, so the sink can collect the commands of a key under its lock and hand them off, even blocking, after.
+     *
+     * @return number of keys emitted.
+     */
+    public long dumpKeyspace(Consumer<String[]> sink, Runnable onKeyDumped) {
+        long keys = 0;
+        for (Shard shard : Database.getShards()) {
+            for (String key : shard.getValues().keySet()) {
+                if (dumpKey(shard, key, sink)) {
+                    keys++;
+                    onKeyDumped.run();
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Emits the commands that recreate the current value of a key, while holding its lock.
+     *
+     * @return false if the key does not exist.
+     */
+    public boolean dumpKey(String key, Consumer<String[]> sink) {
+        return dumpKey(Database.shard(key), key, sink);
+    }
+
+    /**
+     * @return whether the key exists, without touching it.
+     */
+    public boolean exists(String key) {
+        Object stored = Database.shard(key).getValues().get(key);
+        return stored instanceof ExpirableValue && !((ExpirableValue) stored).isExpired(System.currentTimeMillis());
+    }
+
+    /**
+     * @return number of keys in the hash slot, see {@link SlotIndex#count(int)}.
+     * @throws IllegalStateException if keys are not indexed by slot, which only cluster mode enables.
+     */
+    public int countKeysInSlot(int slot) {
+        return slotIndex().count(slot);
+    }
+
+    /**
+     * @return up to the given number of live keys in the hash slot.
+     * @throws IllegalStateException if keys are not indexed by slot, which only cluster mode enables.
+     */
+    public List<String> getKeysInSlot(int slot, int count) {
+        List<String> keys = new ArrayList<>();
+        for (String key : slotIndex().keys(slot)) {
+            if (keys.size() >= count) {
+                break;
+            }
+            if (this.exists(key)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private static SlotIndex slotIndex() {
+        SlotIndex index = Database.getSlotIndex();
+        if (index == null) {
+            throw new IllegalStateException("Keys are only indexed by slot in cluster mode.");
+        }
+        return index;
+    }
+
+    private static boolean dumpKey(Shard shard, String key, Consumer<String[]> sink) {
+        long now = System.currentTimeMillis();
+        boolean[] emitted = new boolean[1];
+        shard.getValues().computeIfPresent(key, (k, current) -> {
+            ExpirableValue expirableValue = (ExpirableValue) current;
+            if (!expirableValue.isExpired(now)) {
+                dumpValue(k, expirableValue, sink);
+                emitted[0] = true;
+            }
+            return current;
+        });
+        return emitted[0];
+    }
+
+    private static void dumpValue(String key, ExpirableValue expirableValue, Consumer<String[]> sink) {
+        Object value = expirableValue.getValue();
+        if (value instanceof ZSet) {
+            Map<String, Double> members = ((ZSet) value).range(0, -1);
+            List<String> pairs = new ArrayList<>(members.size() * 2);
+            for (Map.Entry<String, Double> member : members.entrySet()) {
+                pairs.add(RespWriter.formatDouble(member.getValue()));
+                pairs.add(member.getKey());
+            }
+            dumpPairs("ZADD", key, pairs, sink);
+        } else if (value instanceof Hash) {
+            LinkedHashMap<String, String> fields = ((Hash) value).entries();
+            List<String> pairs = new ArrayList<>(fields.size() * 2);
+            for (Map.Entry<String, String> field : fields.entrySet()) {
+                pairs.add(field.getKey());
+                pairs.add(field.getValue());
+            }
+            dumpPairs("HSET", key, pairs, sink);
+        } else if (expirableValue.hasExpire()) {
+            sink.accept(new String[]{"SET", key, expirableValue.asString(), "PXAT", String.valueOf(expirableValue.getExpireAt())});
+        } else {
+            sink.accept(new String[]{"SET", key, expirableValue.asString()});
+        }
+    }
+
+    /**
+     * Emits <code>DEL key</code>, then the command that adds the pairs to the key, split in batches of
+     * {@link #REWRITE_ITEMS_PER_COMMAND} pairs.
+     *
+     * @param pairs arguments of the command after the key, two per item, such as score and member.
+     */
+    private static void dumpPairs(String name, String key, List<String> pairs, Consumer<String[]> sink) {
+        sink.accept(new String[]{"DEL", key});
+        for (int from = 0; from < pairs.size(); from += REWRITE_ITEMS_PER_COMMAND * 2) {
+            List<String> batch = pairs.subList(from, Math.min(from + REWRITE_ITEMS_PER_COMMAND * 2, pairs.size()));
+            String[] command = new String[batch.size() + 2];
+            command[0] = name;
+            command[1] = key;
+            for (int i = 0; i < batch.size(); i++) {
+                command[i + 2] = batch.get(i);
+            }
+            sink.accept(command);
+        }
+    }
+
+    /**
+     * Removes an expired key, unless it was replaced concurrently.
+     *
+     * @return true if the key was removed.
+     */
+    private boolean expire(Shard shard, String key, ExpirableValue value) {
+        return this.remove(shard, key, value, shard.getExpired());
+    }
+
+    /**
+     * Removes a key unless it was replaced concurrently, counting it in the given statistic.
+     *
+     * @return true if the key was removed.
+     */
+    private boolean remove(Shard shard, String key, ExpirableValue value, LongAdder counter) {
+        boolean[] removed = new boolean[1];
+        shard.getValues().computeIfPresent(key, (k, current) -> {
+            if (current != value) {
+                return current;
+            }
+            shard.getExpires().remove(k);
+            account(shard, k, MemoryUsage.estimate(k, current), null);
+            discard(shard, current);
+            removed[0] = true;
+            this.propagate("DEL", k);
+            return null;
+        });
+        if (removed[0]) {
+            counter.increment();
+        }
+        return removed[0];
+    }
+
+    /**
+     * Evicts keys while the database is over <code>maxmemory</code>, before a write that may use more memory.
+     *
+     * @throws BusinessException if the policy does not allow evictions, or there is nothing left to evict.
+     */
+    private void performEvictions() throws BusinessException {
+        long maxMemory = Database.getMaxMemory();
+        if (maxMemory <= 0 || Database.usedMemory() <= maxMemory) {
+            return;
+        }
+        EvictionPolicy policy = Database.getEvictionPolicy();
+        long started = System.nanoTime();
+        int failures = 0;
+        try {
+            while (Database.usedMemory() > maxMemory) {
+                if (policy == EvictionPolicy.NOEVICTION || failures > Database.getShards().length * 2) {
+                    log.warn(OUT_OF_MEMORY);
+                    throw new BusinessException(OUT_OF_MEMORY);
+                }
+                if (this.evictOne(policy)) {
+                    failures = 0;
+                } else {
+                    failures++;
+                }
+            }
+        } finally {
+            latencyMonitor.recordSince(LatencyMonitor.EVICTION_CYCLE, started);
+        }
+        propagator.sync();
+    }
+
+    /**
+     * Samples keys from the next shard, in round robin, and evicts the best candidate according to the policy.
+     *
+     * @return true if a key was evicted.
+     */
+    private boolean evictOne(EvictionPolicy policy) {
+        Shard[] shards = Database.getShards();
+        String[] sample = new String[Database.getEvictionSamples()];
+        for (int i = 0; i < shards.length; i++) {
+            Shard shard = shards[Math.floorMod(EVICTION_CURSOR.getAndIncrement(), shards.length)];
+            int sampled = shard.sample(sample, policy.isVolatileOnly());
+            String bestKey = null;
+            ExpirableValue bestValue = null;
+            long bestScore = Long.MIN_VALUE;
+            for (int j = 0; j < sampled; j++) {
+                Object value = shard.getValues().get(sample[j]);
+                if (!(value instanceof ExpirableValue)) {
+                    continue;
+                }
+                ExpirableValue expirableValue = (ExpirableValue) value;
+                long score = policy == EvictionPolicy.VOLATILE_TTL
+                        ? -expirableValue.getExpireAt()
+                        : AccessTracker.idleScore(expirableValue.getAccess(), policy);
+                if (score > bestScore) {
+                    bestKey = sample[j];
+                    bestValue = expirableValue;
+                    bestScore = score;
+                }
+            }
+            if (bestKey != null && this.remove(shard, bestKey, bestValue, shard.getEvicted())) {
+                log.debug("Key \"{}\" evicted from database.", bestKey);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Propagates a write while the key is still locked, so listeners see the writes to each key in the order they
+     * were applied.
+     */
+    private void propagate(String... args) {
+        if (propagator.isActive()) {
+            propagator.propagate(args);
+        }
+    }
+
+    private void propagateIncrBy(String key, long increment) {
+        if (propagator.isActive()) {
+            propagator.propagate("INCRBY", key, Long.toString(increment));
+        }
+    }
+
+    /**
+     * Propagates a SET with an absolute deadline, so replaying it later does not extend the time to live of the key.
+     */
+    private void propagateSet(String key, String value, long expireAt) {
+        if (!propagator.isActive()) {
+            return;
+        }
+        if (expireAt != ExpirableValue.NO_EXPIRE) {
+            propagator.propagate("SET", key, value, "PXAT", String.valueOf(expireAt));
+        } else {
+            propagator.propagate("SET", key, value);
+        }
+    }
 
-        for (Map.Entry<String, Double> entry : list) {
-            ordered.put(entry.getKey(), entry.getValue());
+    /**
+     * Records an access to the key for the eviction policies, only when a memory limit is set.
+     */
+    private static void touch(ExpirableValue value) {
+        if (Database.getMaxMemory() > 0) {
+            value.setAccess(AccessTracker.touch(value.getAccess(), Database.getEvictionPolicy()));
         }
-        return ordered;
     }
 
-    private void setValue(String key, Object value, LocalDateTime expireTime) {
-        Database.getValues().put(key, new ExpirableValue(String.valueOf(value), expireTime));
+    /**
+     * Frees the off-heap storage of a value that was just removed or replaced, if any, and removes it from the sorted
+     * set statistics.
+     */
+    private static void discard(Shard shard, Object previous) {
+        if (previous instanceof ExpirableValue) {
+            ExpirableValue expirableValue = (ExpirableValue) previous;
+            expirableValue.release();
+            if (expirableValue.getValue() instanceof ZSet) {
+                shard.getZsets().decrement();
+                shard.getZsetMembers().add(-((ZSet) expirableValue.getValue()).size());
+            }
+        }
+    }
+
+    private static void account(Shard shard, String key, long before, Object after) {
+        // Every entry has a positive estimate, so a zero estimate before means the key was created.
+        Database.indexKey(key, before == 0 && after != null, before != 0 && after == null);
+        long delta = MemoryUsage.estimate(key, after) - before;
+        if (delta != 0) {
+            shard.getMemory().addAndGet(delta);
+        }
     }
 
 }
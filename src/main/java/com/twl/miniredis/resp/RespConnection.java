@@ -0,0 +1,240 @@
+package com.twl.miniredis.resp;
+
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.command.Reply;
+import com.twl.miniredis.exception.ProtocolException;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * State of a single RESP client. Only accessed by the event loop thread that owns the channel, except for
+ * {@link #push(List)}, which queues push messages from any thread.
+ *
+ * @author Tiago Wolker
+ */
+@Log4j2
+final class RespConnection {
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    static final int MAX_OUTPUT_BUFFER_SIZE = 64 * 1024 * 1024;
+    static final int FLUSH_THRESHOLD = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final CommandDispatcher dispatcher;
+    private final AtomicInteger connectedClients;
+    private final ClientSession session = new ClientSession();
+    private final RespWriter out = new RespWriter(INITIAL_BUFFER_SIZE);
+    private final Queue<List<?>> pushes = new ConcurrentLinkedQueue<>();
+    private final Consumer<RespConnection> pushScheduler;
+    private final int queryBufferLimit;
+    private final RespReader reader = new RespReader();
+    private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private int written;
+    private boolean closing;
+
+    /**
+     * @param pushScheduler asks the event loop to call {@link #writePushes()} once a push message was queued.
+     * @param queryBufferLimit maximum size of a request not received in full yet, beyond which the client is closed.
+     */
+    RespConnection(SocketChannel channel, SelectionKey key, CommandDispatcher dispatcher, AtomicInteger connectedClients,
+                   Consumer<RespConnection> pushScheduler, int queryBufferLimit) {
+        this.channel = channel;
+        this.key = key;
+        this.dispatcher = dispatcher;
+        this.connectedClients = connectedClients;
+        this.pushScheduler = pushScheduler;
+        this.queryBufferLimit = queryBufferLimit;
+        connectedClients.incrementAndGet();
+        session.setPushSink(this::push);
+        try {
+            SocketAddress address = channel.getRemoteAddress();
+            if (address instanceof InetSocketAddress) {
+                InetSocketAddress inetAddress = (InetSocketAddress) address;
+                session.setAddress(inetAddress.getAddress().getHostAddress() + ":" + inetAddress.getPort());
+            }
+        } catch (IOException e) {
+            log.debug("Could not read the address of a RESP client: {}", e.getMessage());
+        }
+    }
+
+    void onReadable() throws IOException {
+        if (channel.read(in) < 0) {
+            close();
+            return;
+        }
+        processBuffered();
+    }
+
+    /**
+     * Resumes a flush that could not complete, and then the requests that were left in the input buffer while the
+     * client was not reading its replies.
+     */
+    void onWritable() throws IOException {
+        flush();
+        if (key.isValid() && key.interestOps() == SelectionKey.OP_READ && in.position() > 0) {
+            processBuffered();
+        }
+    }
+
+    /**
+     * Executes every complete request available in the input buffer, so pipelined requests are answered with a single
+     * write. Replies are flushed early only when a batch produces more than {@link #FLUSH_THRESHOLD} bytes, and
+     * processing stops while the client is not reading them.
+     */
+    private void processBuffered() throws IOException {
+        in.flip();
+        boolean incomplete = false;
+        try {
+            while (!closing) {
+                List<String> args = reader.next(in);
+                if (args == null) {
+                    incomplete = true;
+                    break;
+                }
+                if (args.isEmpty()) {
+                    continue;
+                }
+                this.encodePushes();
+                Object reply = dispatcher.execute(session, args);
+                out.write(reply, session.getProtocol());
+                if (session.getHandoff() != null) {
+                    this.handOff();
+                    return;
+                }
+                if (session.isCloseRequested()) {
+                    closing = true;
+                } else if (out.size() - written > FLUSH_THRESHOLD) {
+                    flush();
+                    if (!key.isValid() || key.interestOps() != SelectionKey.OP_READ) {
+                        break;
+                    }
+                }
+            }
+        } catch (ProtocolException e) {
+            log.warn("Closing RESP client {}: {}", channel.getRemoteAddress(), e.getMessage());
+            out.write(Reply.error(e.getMessage()), session.getProtocol());
+            closing = true;
+        }
+        if (key.isValid()) {
+            // Bytes of the arguments already decoded are discarded, only the rest of a partial request is kept.
+            in.compact();
+            if (incomplete && in.position() + reader.getPendingBytes() > queryBufferLimit) {
+                log.warn("Closing RESP client {}: query buffer limit reached.", channel.getRemoteAddress());
+                close();
+                return;
+            }
+            if (incomplete && !in.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate((int) Math.min(in.capacity() * 2L, queryBufferLimit + 2L));
+                in.flip();
+                larger.put(in);
+                in = larger;
+            } else if (in.position() == 0 && in.capacity() > INITIAL_BUFFER_SIZE) {
+                // Releases the memory of a large request once it was executed.
+                in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Queues a push message, to be written between replies by the event loop.
+     *
+     * @return false if the connection is closed.
+     */
+    boolean push(List<?> message) {
+        if (closing || !channel.isOpen()) {
+            return false;
+        }
+        pushes.add(message);
+        pushScheduler.accept(this);
+        return true;
+    }
+
+    /**
+     * Writes the queued push messages, unless the connection is closing or waiting for the client to read.
+     */
+    void writePushes() throws IOException {
+        if (key.isValid() && !closing && !pushes.isEmpty()) {
+            this.encodePushes();
+            if (key.interestOps() == SelectionKey.OP_READ) {
+                flush();
+            }
+        }
+    }
+
+    private void encodePushes() {
+        List<?> message;
+        while ((message = pushes.poll()) != null) {
+            out.writePush(message);
+        }
+    }
+
+    /**
+     * Writes as much of the pending output as the socket accepts, waiting for the channel to become writable again
+     * when the client is not reading fast enough.
+     */
+    void flush() throws IOException {
+        if (written < out.size()) {
+            ByteBuffer buffer = out.toByteBuffer();
+            buffer.position(written);
+            channel.write(buffer);
+            written = buffer.position();
+        }
+        if (written == out.size()) {
+            out.reset();
+            written = 0;
+            if (closing) {
+                close();
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        } else if (out.size() > MAX_OUTPUT_BUFFER_SIZE) {
+            log.warn("Closing RESP client {}: output buffer limit reached.", channel.getRemoteAddress());
+            close();
+        } else {
+            // Stop reading new requests until the client drains its replies.
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Stops serving the connection and gives its channel, with the replies not written yet, to the handoff of the
+     * session. Requests received after the one that took over the connection are discarded.
+     */
+    private void handOff() {
+        ByteBuffer pending = out.toByteBuffer();
+        pending.position(written);
+        ByteBuffer copy = ByteBuffer.allocate(pending.remaining());
+        copy.put(pending).flip();
+        key.cancel();
+        connectedClients.decrementAndGet();
+        closing = true;
+        session.getHandoff().takeOver(channel, copy);
+    }
+
+    void close() {
+        if (channel.isOpen()) {
+            connectedClients.decrementAndGet();
+            dispatcher.disconnect(session);
+        }
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Error closing RESP client.", e);
+        }
+    }
+}
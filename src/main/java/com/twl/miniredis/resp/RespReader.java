@@ -0,0 +1,209 @@
+package com.twl.miniredis.resp;
+
+import com.twl.miniredis.exception.ProtocolException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decodes client requests written with the Redis serialization protocol, both multi bulk requests
+ * (<code>*2\r\n$3\r\nGET\r\n$3\r\nkey\r\n</code>) and inline commands (<code>GET key\r\n</code>).
+ * <br/><br/>
+ * A connection decodes its requests with an instance of its own, which keeps the state of a partial multi bulk
+ * request across reads, as Redis does: the arguments decoded so far, how many are still expected and the length of
+ * the bulk string being waited for. Each complete argument is consumed from the buffer and decoded once, so a large
+ * request arriving in many reads is parsed in linear time. {@link #read(ByteBuffer)} decodes without keeping state,
+ * for callers that read whole requests.
+ *
+ * @author Tiago Wolker
+ */
+public final class RespReader {
+
+    public static final int MAX_INLINE_LENGTH = 64 * 1024;
+    public static final int MAX_MULTI_BULK_LENGTH = 1024 * 1024;
+    public static final int MAX_BULK_LENGTH = 512 * 1024 * 1024;
+
+    private static final long INCOMPLETE = Long.MIN_VALUE;
+
+    /**
+     * Arguments are added one by one, so the untrusted length of a request only sizes the list up to this.
+     */
+    private static final int MAX_INITIAL_ARGS_CAPACITY = 1024;
+
+    /**
+     * Arguments of the multi bulk request being read, or null between requests.
+     */
+    private List<String> args;
+    private long missingArgs;
+    private long bulkLength = -1;
+    private long pendingBytes;
+
+    /**
+     * Reads a single request from the buffer, which must be in read mode, without keeping any state: when the buffer
+     * does not hold a complete request yet, nothing is consumed.
+     *
+     * @return the command name followed by its arguments, an empty list for an empty inline request, or null if the
+     * buffer does not hold a complete request yet.
+     * @throws ProtocolException if the request is malformed.
+     */
+    public static List<String> read(ByteBuffer buffer) throws ProtocolException {
+        int start = buffer.position();
+        List<String> args = new RespReader().next(buffer);
+        if (args == null) {
+            buffer.position(start);
+        }
+        return args;
+    }
+
+    /**
+     * Reads the next request from the buffer, which must be in read mode. When the buffer does not hold a complete
+     * request yet, the arguments it does hold are consumed and kept, and the next call resumes from there.
+     *
+     * @return the command name followed by its arguments, an empty list for an empty inline request, or null if the
+     * buffer does not hold a complete request yet.
+     * @throws ProtocolException if the request is malformed.
+     */
+    public List<String> next(ByteBuffer buffer) throws ProtocolException {
+        if (args == null) {
+            if (!buffer.hasRemaining()) {
+                return null;
+            }
+            if (buffer.get(buffer.position()) != '*') {
+                return readInline(buffer);
+            }
+            int start = buffer.position();
+            buffer.get();
+            long count = readLong(buffer);
+            if (count == INCOMPLETE) {
+                buffer.position(start);
+                return null;
+            }
+            if (count > MAX_MULTI_BULK_LENGTH) {
+                throw new ProtocolException("Protocol error: invalid multibulk length");
+            }
+            if (count <= 0) {
+                return Collections.emptyList();
+            }
+            args = new ArrayList<>((int) Math.min(count, MAX_INITIAL_ARGS_CAPACITY));
+            missingArgs = count;
+        }
+        while (missingArgs > 0) {
+            if (bulkLength < 0) {
+                if (!buffer.hasRemaining()) {
+                    return null;
+                }
+                int start = buffer.position();
+                byte type = buffer.get();
+                if (type != '$') {
+                    throw new ProtocolException("Protocol error: expected '$', got '" + (char) type + "'");
+                }
+                long length = readLong(buffer);
+                if (length == INCOMPLETE) {
+                    buffer.position(start);
+                    return null;
+                }
+                if (length < 0 || length > MAX_BULK_LENGTH) {
+                    throw new ProtocolException("Protocol error: invalid bulk length");
+                }
+                bulkLength = length;
+            }
+            if (buffer.remaining() < bulkLength + 2) {
+                return null;
+            }
+            int end = buffer.position() + (int) bulkLength;
+            if (buffer.get(end) != '\r' || buffer.get(end + 1) != '\n') {
+                throw new ProtocolException("Protocol error: expected CRLF after bulk string");
+            }
+            args.add(decode(buffer, (int) bulkLength));
+            buffer.position(end + 2);
+            pendingBytes += bulkLength;
+            bulkLength = -1;
+            missingArgs--;
+        }
+        List<String> request = args;
+        args = null;
+        pendingBytes = 0;
+        return request;
+    }
+
+    /**
+     * @return total length of the arguments of the partial request decoded so far, which are held in memory until the
+     * request is complete.
+     */
+    public long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    private static List<String> readInline(ByteBuffer buffer) throws ProtocolException {
+        int start = buffer.position();
+        int end = -1;
+        for (int i = start; i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            if (buffer.remaining() > MAX_INLINE_LENGTH) {
+                throw new ProtocolException("Protocol error: too big inline request");
+            }
+            return null;
+        }
+        int lineEnd = end > start && buffer.get(end - 1) == '\r' ? end - 1 : end;
+        String line = decode(buffer, lineEnd - start);
+        buffer.position(end + 1);
+
+        List<String> args = new ArrayList<>();
+        for (String arg : line.trim().split("\\s+")) {
+            if (!arg.isEmpty()) {
+                args.add(arg);
+            }
+        }
+        return args;
+    }
+
+    /**
+     * Reads a signed integer terminated by CRLF, such as the length of a multi bulk or bulk string.
+     */
+    private static long readLong(ByteBuffer buffer) throws ProtocolException {
+        long value = 0;
+        boolean negative = false;
+        int digits = 0;
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\r') {
+                if (!buffer.hasRemaining()) {
+                    return INCOMPLETE;
+                }
+                if (buffer.get() != '\n' || digits == 0) {
+                    throw new ProtocolException("Protocol error: invalid length");
+                }
+                return negative ? -value : value;
+            } else if (b == '-' && digits == 0 && !negative) {
+                negative = true;
+            } else if (b >= '0' && b <= '9' && digits < 18) {
+                value = value * 10 + (b - '0');
+                digits++;
+            } else {
+                throw new ProtocolException("Protocol error: invalid length");
+            }
+        }
+        return INCOMPLETE;
+    }
+
+    private static String decode(ByteBuffer buffer, int length) {
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+}
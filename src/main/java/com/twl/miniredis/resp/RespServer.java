@@ -0,0 +1,265 @@
+package com.twl.miniredis.resp;
+
+import com.twl.miniredis.command.CommandDispatcher;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking TCP listener that speaks the Redis serialization protocol (RESP2, and RESP3 after <code>HELLO 3</code>),
+ * so standard Redis clients and benchmark tools can use the store without going through the HTTP controller.
+ * <br/><br/>
+ * Connections are spread across a fixed number of event loops, each one owning a selector and executing the commands
+ * of its clients inline, without any hand-off between threads.
+ *
+ * @author Tiago Wolker
+ */
+@Log4j2
+@Component
+public class RespServer implements SmartLifecycle {
+
+    /**
+     * Same default as Redis' <code>client-query-buffer-limit</code>.
+     */
+    public static final int DEFAULT_QUERY_BUFFER_LIMIT = 1024 * 1024 * 1024;
+
+    private final CommandDispatcher dispatcher;
+    private final boolean enabled;
+    private final String bindAddress;
+    private final int port;
+    private final int ioThreads;
+    private final int queryBufferLimit;
+
+    private ServerSocketChannel serverChannel;
+    private EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicInteger connectedClients = new AtomicInteger();
+    private volatile boolean running;
+
+    public RespServer(CommandDispatcher dispatcher, boolean enabled, String bindAddress, int port, int ioThreads) {
+        this(dispatcher, enabled, bindAddress, port, ioThreads, DEFAULT_QUERY_BUFFER_LIMIT);
+    }
+
+    /**
+     * @param queryBufferLimit maximum size of a request not received in full yet, beyond which the client is closed.
+     */
+    @Autowired
+    public RespServer(CommandDispatcher dispatcher,
+                      @Value("${miniredis.resp.enabled:true}") boolean enabled,
+                      @Value("${miniredis.resp.bind:0.0.0.0}") String bindAddress,
+                      @Value("${miniredis.resp.port:6379}") int port,
+                      @Value("${miniredis.resp.io-threads:0}") int ioThreads,
+                      @Value("${miniredis.resp.client-query-buffer-limit:1073741824}") int queryBufferLimit) {
+        this.dispatcher = dispatcher;
+        this.enabled = enabled;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.ioThreads = ioThreads > 0 ? ioThreads : Runtime.getRuntime().availableProcessors();
+        this.queryBufferLimit = queryBufferLimit;
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            log.info("RESP listener disabled.");
+            return;
+        }
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(new InetSocketAddress(bindAddress, port), 511);
+            serverChannel.configureBlocking(false);
+
+            loops = new EventLoop[ioThreads];
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop(i);
+            }
+            serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+            running = true;
+            for (EventLoop loop : loops) {
+                loop.thread.start();
+            }
+            log.info("RESP listener started on port {} with {} io threads.", getPort(), loops.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not start RESP listener on port " + port, e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (loops != null) {
+            for (EventLoop loop : loops) {
+                loop.selector.wakeup();
+            }
+            for (EventLoop loop : loops) {
+                try {
+                    loop.thread.join(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            log.warn("Error closing RESP listener.", e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the port the listener is bound to, which differs from the configured one when it is 0.
+     */
+    public int getPort() {
+        try {
+            return serverChannel != null ? ((InetSocketAddress) serverChannel.getLocalAddress()).getPort() : port;
+        } catch (IOException e) {
+            return port;
+        }
+    }
+
+    /**
+     * @return number of RESP clients currently connected.
+     */
+    public int getConnectedClients() {
+        return connectedClients.get();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)].register(channel);
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final Queue<RespConnection> pushing = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+
+        private EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "resp-io-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        private void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        private void schedulePushes(RespConnection connection) {
+            pushing.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    registerPending();
+                    writePushes();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                log.error("RESP event loop stopped unexpectedly.", e);
+            } finally {
+                closeAll();
+            }
+        }
+
+        private void registerPending() throws IOException {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new RespConnection(channel, key, dispatcher, connectedClients, this::schedulePushes,
+                        queryBufferLimit));
+            }
+        }
+
+        private void writePushes() {
+            RespConnection connection;
+            while ((connection = pushing.poll()) != null) {
+                try {
+                    connection.writePushes();
+                } catch (IOException e) {
+                    log.debug("Closing RESP client after I/O error.", e);
+                    connection.close();
+                }
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                try {
+                    accept();
+                } catch (IOException e) {
+                    log.warn("Error accepting RESP client.", e);
+                }
+                return;
+            }
+            RespConnection connection = (RespConnection) key.attachment();
+            try {
+                if (key.isReadable()) {
+                    connection.onReadable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.onWritable();
+                }
+            } catch (IOException e) {
+                log.debug("Closing RESP client after I/O error.", e);
+                connection.close();
+            }
+        }
+
+        private void closeAll() {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof RespConnection) {
+                    ((RespConnection) key.attachment()).close();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.debug("Error closing selector.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.twl.miniredis.resp;
+
+import com.twl.miniredis.command.Reply;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encodes {@link com.twl.miniredis.command.CommandDispatcher} replies with the Redis serialization protocol into a
+ * growable buffer. RESP2 and RESP3 are supported; RESP3 only types (null, double, boolean, map and set) are mapped to
+ * their closest RESP2 equivalent when the client did not negotiate version 3 with <code>HELLO</code>.
+ *
+ * @author Tiago Wolker
+ */
+public final class RespWriter {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] NULL_RESP2 = "$-1\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL_RESP3 = "_\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] bytes;
+    private int size;
+
+    public RespWriter() {
+        this(1024);
+    }
+
+    public RespWriter(int initialCapacity) {
+        this.bytes = new byte[initialCapacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    /**
+     * @return a buffer in read mode wrapping the bytes written so far. The buffer is only valid until the next write.
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(bytes, 0, size);
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    public RespWriter write(Object reply, int protocol) {
+        if (reply == null) {
+            append(protocol == 3 ? NULL_RESP3 : NULL_RESP2);
+        } else if (reply instanceof Reply) {
+            Reply simple = (Reply) reply;
+            append(simple.isError() ? '-' : '+');
+            append(simple.getMessage().getBytes(StandardCharsets.UTF_8));
+            append(CRLF);
+        } else if (reply instanceof String) {
+            writeBulk(((String) reply).getBytes(StandardCharsets.UTF_8));
+        } else if (reply instanceof byte[]) {
+            writeBulk((byte[]) reply);
+        } else if (reply instanceof Integer || reply instanceof Long || reply instanceof Short) {
+            writeHeader(':', ((Number) reply).longValue());
+        } else if (reply instanceof Double || reply instanceof Float) {
+            String value = formatDouble(((Number) reply).doubleValue());
+            if (protocol == 3) {
+                append(',');
+                append(value);
+                append(CRLF);
+            } else {
+                writeBulk(value.getBytes(StandardCharsets.US_ASCII));
+            }
+        } else if (reply instanceof Boolean) {
+            if (protocol == 3) {
+                append((Boolean) reply ? "#t\r\n" : "#f\r\n");
+            } else {
+                writeHeader(':', (Boolean) reply ? 1 : 0);
+            }
+        } else if (reply instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) reply;
+            if (protocol == 3) {
+                writeHeader('%', map.size());
+            } else {
+                writeHeader('*', map.size() * 2L);
+            }
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                write(entry.getKey(), protocol);
+                write(entry.getValue(), protocol);
+            }
+        } else if (reply instanceof Collection) {
+            Collection<?> collection = (Collection<?>) reply;
+            writeHeader(protocol == 3 && reply instanceof Set ? '~' : '*', collection.size());
+            for (Object element : collection) {
+                write(element, protocol);
+            }
+        } else if (reply instanceof Object[]) {
+            Object[] array = (Object[]) reply;
+            writeHeader('*', array.length);
+            for (Object element : array) {
+                write(element, protocol);
+            }
+        } else {
+            writeBulk(String.valueOf(reply).getBytes(StandardCharsets.UTF_8));
+        }
+        return this;
+    }
+
+    /**
+     * Writes a RESP3 push message, which clients tell apart from replies by its <code>&gt;</code> type.
+     */
+    public RespWriter writePush(Collection<?> elements) {
+        writeHeader('>', elements.size());
+        for (Object element : elements) {
+            write(element, 3);
+        }
+        return this;
+    }
+
+    /**
+     * Formats a double the way Redis does: integral values without a decimal part and infinities as
+     * <code>inf</code> and <code>-inf</code>.
+     */
+    public static String formatDouble(double value) {
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "inf" : "-inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e17) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private void writeBulk(byte[] value) {
+        writeHeader('$', value.length);
+        append(value);
+        append(CRLF);
+    }
+
+    private void writeHeader(char type, long value) {
+        append(type);
+        append(Long.toString(value));
+        append(CRLF);
+    }
+
+    private void append(char c) {
+        ensureCapacity(1);
+        bytes[size++] = (byte) c;
+    }
+
+    private void append(String ascii) {
+        int length = ascii.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            bytes[size++] = (byte) ascii.charAt(i);
+        }
+    }
+
+    private void append(byte[] value) {
+        ensureCapacity(value.length);
+        System.arraycopy(value, 0, bytes, size, value.length);
+        size += value.length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+}
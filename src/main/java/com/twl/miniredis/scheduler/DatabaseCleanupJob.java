@@ -1,36 +1,39 @@
 package com.twl.miniredis.scheduler;
 
-import com.twl.miniredis.db.Database;
-import com.twl.miniredis.model.dto.ExpirableValue;
+import com.twl.miniredis.metrics.LatencyMonitor;
 import com.twl.miniredis.service.DatabaseService;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.util.concurrent.ConcurrentMap;
-
+/**
+ * Active expiry of keys with a time to live. Each run only visits the keys that are due, within a time budget, so its
+ * cost depends on the number of expiring keys instead of the size of the dataset. Keys that are due but not yet
+ * collected are expired lazily when they are read.
+ */
 @Log4j2
 @Component
 public class DatabaseCleanupJob {
 
     private DatabaseService service;
+    private final LatencyMonitor latencyMonitor;
+    private final long timeBudgetMillis;
 
-    public DatabaseCleanupJob(DatabaseService service) {
+    public DatabaseCleanupJob(DatabaseService service, LatencyMonitor latencyMonitor,
+                              @Value("${miniredis.expire.cycle-time-budget-ms:25}") long timeBudgetMillis) {
         this.service = service;
+        this.latencyMonitor = latencyMonitor;
+        this.timeBudgetMillis = timeBudgetMillis;
     }
 
-    @Scheduled(cron = "*/1 * * * * *")
-    public void reportCurrentTime() {
-        ConcurrentMap<String, Object> values = Database.getValues();
-        values.forEach((key, value) -> {
-            if (ExpirableValue.class.equals(value.getClass())) {
-                LocalDateTime expireTime = ((ExpirableValue) value).getExpireTime();
-                if (expireTime != null && (expireTime.isBefore(LocalDateTime.now()) || expireTime.isEqual(LocalDateTime.now()))) {
-                    service.del(key);
-                    log.info("Key \"{}\" removed from database.", key);
-                }
-            }
-        });
+    @Scheduled(fixedDelayString = "${miniredis.expire.cycle-interval-ms:100}")
+    public void activeExpireCycle() {
+        long started = System.nanoTime();
+        int expired = service.activeExpireCycle(timeBudgetMillis);
+        latencyMonitor.recordSince(LatencyMonitor.EXPIRE_CYCLE, started);
+        if (expired > 0) {
+            log.debug("{} expired keys removed from database.", expired);
+        }
     }
 }
@@ -0,0 +1,23 @@
+package com.twl.miniredis.scheduler;
+
+import com.twl.miniredis.metrics.ServerMetrics;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Samples the number of commands executed per second reported by <code>INFO</code> and the metrics endpoint.
+ */
+@Component
+public class MetricsJob {
+
+    private final ServerMetrics metrics;
+
+    public MetricsJob(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Scheduled(fixedRate = 1000)
+    public void sampleOpsPerSecond() {
+        metrics.sampleOpsPerSecond();
+    }
+}
@@ -0,0 +1,23 @@
+package com.twl.miniredis.scheduler;
+
+import com.twl.miniredis.persistence.Snapshot;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Periodic background snapshots, enabled by <code>miniredis.snapshot.interval-seconds</code>.
+ */
+@Component
+public class SnapshotJob {
+
+    private final Snapshot snapshot;
+
+    public SnapshotJob(Snapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    @Scheduled(fixedDelay = 1000)
+    public void backgroundSaveIfDue() {
+        snapshot.backgroundSaveIfDue();
+    }
+}
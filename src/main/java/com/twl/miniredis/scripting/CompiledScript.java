@@ -0,0 +1,82 @@
+package com.twl.miniredis.scripting;
+
+import lombok.Getter;
+
+/**
+ * A script compiled by {@link ScriptCompiler} into a tree of statements, ready to be run any number of times,
+ * concurrently, with different keys and arguments.
+ *
+ * @author Tiago Wolker
+ */
+public final class CompiledScript {
+
+    /**
+     * SHA-1 digest of the source, as hex, which <code>EVALSHA</code> runs the script by.
+     */
+    @Getter
+    private final String sha;
+    @Getter
+    private final String source;
+    private final ScriptCompiler.Block body;
+    private final int locals;
+
+    CompiledScript(String sha, String source, ScriptCompiler.Block body, int locals) {
+        this.sha = sha;
+        this.source = source;
+        this.body = body;
+        this.locals = locals;
+    }
+
+    /**
+     * Runs <code>redis.call</code> and <code>redis.pcall</code> on behalf of the script.
+     */
+    interface Host {
+
+        /**
+         * @param args arguments of the call, already checked to be strings or numbers.
+         * @param raise whether an error reply is raised as a script error, as <code>redis.call</code> does, or
+         *              returned as a table, as <code>redis.pcall</code> does.
+         * @return the reply converted to a script value.
+         */
+        Object call(String[] args, boolean raise);
+    }
+
+    /**
+     * State of one run of a script.
+     */
+    static final class Frame {
+        final Object[] locals;
+        final LuaTable keys;
+        final LuaTable argv;
+        final Host host;
+        private final long deadline;
+        Object returned;
+
+        Frame(int locals, LuaTable keys, LuaTable argv, Host host, long deadline) {
+            this.locals = new Object[locals];
+            this.keys = keys;
+            this.argv = argv;
+            this.host = host;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Stops a script that ran for longer than its time limit, called on each loop iteration and call.
+         */
+        void checkDeadline() {
+            if (System.nanoTime() - deadline > 0) {
+                throw new ScriptError("Script killed: exceeded the time limit");
+            }
+        }
+    }
+
+    /**
+     * @param deadline {@link System#nanoTime()} after which the script is stopped.
+     * @return the value of the <code>return</code> statement, or null.
+     * @throws ScriptError if the script raised an error.
+     */
+    Object run(LuaTable keys, LuaTable argv, Host host, long deadline) {
+        Frame frame = new Frame(locals, keys, argv, host, deadline);
+        return body.exec(frame) == ScriptCompiler.RETURN ? frame.returned : null;
+    }
+}
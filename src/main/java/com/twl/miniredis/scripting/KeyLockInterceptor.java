@@ -0,0 +1,61 @@
+package com.twl.miniredis.scripting;
+
+import com.twl.miniredis.command.KeyLocks;
+import com.twl.miniredis.controller.RequestKeys;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.List;
+
+/**
+ * Holds the locks of the keys of a REST request shared while it is handled, as the command dispatcher does for
+ * commands, so REST requests do not see or change keys halfway through a script.
+ * <br/><br/>
+ * The locks are released once the request completed, or once its asynchronous handling started, so streamed
+ * responses do not block scripts. Must run after {@link com.twl.miniredis.cluster.ClusterRoutingInterceptor}, which
+ * locks the slot first, as commands do.
+ *
+ * @author Tiago Wolker
+ */
+public class KeyLockInterceptor implements AsyncHandlerInterceptor {
+
+    private static final String HELD_ATTRIBUTE = KeyLockInterceptor.class.getName() + ".held";
+
+    private final KeyLocks keyLocks;
+
+    public KeyLockInterceptor(KeyLocks keyLocks) {
+        this.keyLocks = keyLocks;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (request.getDispatcherType() != DispatcherType.REQUEST) {
+            return true;
+        }
+        List<String> keys = RequestKeys.of(request);
+        if (!keys.isEmpty()) {
+            request.setAttribute(HELD_ATTRIBUTE, keyLocks.lock(keys, false));
+        }
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        this.unlock(request);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        this.unlock(request);
+    }
+
+    private void unlock(HttpServletRequest request) {
+        Object held = request.getAttribute(HELD_ATTRIBUTE);
+        if (held != null) {
+            request.removeAttribute(HELD_ATTRIBUTE);
+            ((KeyLocks.Held) held).unlock();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.twl.miniredis.scripting;
+
+/**
+ * Function value of a script. Scripts cannot define functions, so every function is a library function.
+ *
+ * @author Tiago Wolker
+ */
+@FunctionalInterface
+interface LuaFunction {
+
+    /**
+     * @param args evaluated arguments, which may contain nils.
+     * @return the first result, as scripts only use one.
+     */
+    Object call(CompiledScript.Frame frame, Object[] args);
+}
@@ -0,0 +1,249 @@
+package com.twl.miniredis.scripting;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Global functions and libraries available to scripts: the base functions <code>tonumber</code>,
+ * <code>tostring</code>, <code>type</code> and <code>error</code>, a subset of the <code>math</code>,
+ * <code>string</code> and <code>table</code> libraries, and the <code>redis</code> library. The libraries are
+ * read-only, as they are shared by every script.
+ *
+ * @author Tiago Wolker
+ */
+final class LuaLibrary {
+
+    static final Map<String, Object> GLOBALS = new HashMap<>();
+
+    static {
+        GLOBALS.put("tonumber", (LuaFunction) (frame, args) -> tonumber(args));
+        GLOBALS.put("tostring", (LuaFunction) (frame, args) -> LuaValues.toText(arg(args, 0)));
+        GLOBALS.put("type", (LuaFunction) (frame, args) -> LuaValues.typeName(arg(args, 0)));
+        GLOBALS.put("error", (LuaFunction) (frame, args) -> {
+            throw error(arg(args, 0));
+        });
+        GLOBALS.put("math", math());
+        GLOBALS.put("string", string());
+        GLOBALS.put("table", table());
+        GLOBALS.put("redis", redis());
+    }
+
+    private LuaLibrary() {
+    }
+
+    private static LuaTable math() {
+        LuaTable math = new LuaTable();
+        math.put("floor", (LuaFunction) (frame, args) -> Math.floor(number(args, 0, "floor")));
+        math.put("ceil", (LuaFunction) (frame, args) -> Math.ceil(number(args, 0, "ceil")));
+        math.put("abs", (LuaFunction) (frame, args) -> Math.abs(number(args, 0, "abs")));
+        math.put("sqrt", (LuaFunction) (frame, args) -> Math.sqrt(number(args, 0, "sqrt")));
+        math.put("max", (LuaFunction) (frame, args) -> {
+            double max = number(args, 0, "max");
+            for (int i = 1; i < args.length; i++) {
+                max = Math.max(max, number(args, i, "max"));
+            }
+            return max;
+        });
+        math.put("min", (LuaFunction) (frame, args) -> {
+            double min = number(args, 0, "min");
+            for (int i = 1; i < args.length; i++) {
+                min = Math.min(min, number(args, i, "min"));
+            }
+            return min;
+        });
+        math.put("huge", Double.POSITIVE_INFINITY);
+        return math.freeze();
+    }
+
+    private static LuaTable string() {
+        LuaTable string = new LuaTable();
+        string.put("len", (LuaFunction) (frame, args) -> LuaValues.length(text(args, 0, "len")));
+        string.put("upper", (LuaFunction) (frame, args) -> text(args, 0, "upper").toUpperCase(Locale.ROOT));
+        string.put("lower", (LuaFunction) (frame, args) -> text(args, 0, "lower").toLowerCase(Locale.ROOT));
+        string.put("rep", (LuaFunction) (frame, args) -> {
+            String text = text(args, 0, "rep");
+            double count = number(args, 1, "rep");
+            if (count * text.length() > Integer.MAX_VALUE - 8) {
+                throw new ScriptError("not enough memory");
+            }
+            return count > 0 ? text.repeat((int) count) : "";
+        });
+        string.put("sub", (LuaFunction) (frame, args) -> {
+            String text = text(args, 0, "sub");
+            int length = text.length();
+            long start = (long) number(args, 1, "sub");
+            long end = arg(args, 2) == null ? -1 : (long) number(args, 2, "sub");
+            // Negative positions count from the end of the string.
+            if (start < 0) {
+                start = Math.max(length + start + 1, 1);
+            } else if (start == 0) {
+                start = 1;
+            }
+            if (end < 0) {
+                end = length + end + 1;
+            } else if (end > length) {
+                end = length;
+            }
+            return start > end ? "" : text.substring((int) start - 1, (int) end);
+        });
+        return string.freeze();
+    }
+
+    private static LuaTable table() {
+        LuaTable table = new LuaTable();
+        table.put("insert", (LuaFunction) (frame, args) -> {
+            LuaTable target = table(args, 0, "insert");
+            if (args.length < 3) {
+                target.add(arg(args, 1));
+                return null;
+            }
+            int length = target.length();
+            int position = (int) number(args, 1, "insert");
+            if (position < 1 || position > length + 1) {
+                throw new ScriptError("bad argument #2 to 'insert' (position out of bounds)");
+            }
+            for (int i = length; i >= position; i--) {
+                target.put((double) i + 1, target.get((double) i));
+            }
+            target.put((double) position, args[2]);
+            return null;
+        });
+        table.put("remove", (LuaFunction) (frame, args) -> {
+            LuaTable target = table(args, 0, "remove");
+            int length = target.length();
+            if (length == 0) {
+                return null;
+            }
+            int position = arg(args, 1) == null ? length : (int) number(args, 1, "remove");
+            Object removed = target.get((double) position);
+            for (int i = position; i < length; i++) {
+                target.put((double) i, target.get((double) i + 1));
+            }
+            target.put((double) length, null);
+            return removed;
+        });
+        table.put("concat", (LuaFunction) (frame, args) -> {
+            List<Object> values = table(args, 0, "concat").sequence();
+            String separator = arg(args, 1) == null ? "" : text(args, 1, "concat");
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < values.size(); i++) {
+                Object value = values.get(i);
+                if (!(value instanceof String) && !(value instanceof Double)) {
+                    throw new ScriptError("invalid value (at index " + (i + 1) + ") in table for 'concat'");
+                }
+                text.append(i > 0 ? separator : "").append(LuaValues.toText(value));
+            }
+            return text.toString();
+        });
+        table.put("getn", (LuaFunction) (frame, args) -> (double) table(args, 0, "getn").length());
+        return table.freeze();
+    }
+
+    private static LuaTable redis() {
+        LuaTable redis = new LuaTable();
+        redis.put("call", (LuaFunction) (frame, args) -> frame.host.call(command(args), true));
+        redis.put("pcall", (LuaFunction) (frame, args) -> frame.host.call(command(args), false));
+        redis.put("status_reply", (LuaFunction) (frame, args) -> reply("ok", text(args, 0, "status_reply")));
+        redis.put("error_reply", (LuaFunction) (frame, args) -> reply("err", text(args, 0, "error_reply")));
+        redis.put("sha1hex", (LuaFunction) (frame, args) -> sha1hex(text(args, 0, "sha1hex")));
+        return redis.freeze();
+    }
+
+    /**
+     * @return SHA-1 digest of the text, as hex, which scripts are cached by.
+     */
+    static String sha1hex(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object tonumber(Object[] args) {
+        Object value = arg(args, 0);
+        if (arg(args, 1) == null) {
+            return LuaValues.toNumber(value);
+        }
+        int base = (int) number(args, 1, "tonumber");
+        try {
+            return (double) Long.parseLong(LuaValues.toText(value).trim(), base);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the error raised by <code>error(value)</code>: a table with an <code>err</code> field is raised as an
+     * error reply, as <code>redis.error_reply</code> returns.
+     */
+    private static ScriptError error(Object value) {
+        if (value instanceof LuaTable && ((LuaTable) value).get("err") instanceof String) {
+            return ScriptError.ofReply((String) ((LuaTable) value).get("err"));
+        }
+        return new ScriptError(LuaValues.toText(value));
+    }
+
+    private static String[] command(Object[] args) {
+        if (args.length == 0) {
+            throw new ScriptError("Please specify at least one argument for this redis lib call");
+        }
+        String[] command = new String[args.length];
+        for (int i = 0; i < args.length; i++) {
+            if (!(args[i] instanceof String) && !(args[i] instanceof Double)) {
+                throw new ScriptError("Lua redis lib command arguments must be strings or integers");
+            }
+            command[i] = LuaValues.toText(args[i]);
+        }
+        return command;
+    }
+
+    static LuaTable reply(String field, String message) {
+        LuaTable reply = new LuaTable();
+        reply.put(field, message);
+        return reply;
+    }
+
+    private static Object arg(Object[] args, int index) {
+        return index < args.length ? args[index] : null;
+    }
+
+    private static double number(Object[] args, int index, String function) {
+        Double number = LuaValues.toNumber(arg(args, index));
+        if (number == null) {
+            throw badArgument(args, index, function, "number");
+        }
+        return number;
+    }
+
+    private static String text(Object[] args, int index, String function) {
+        Object value = arg(args, index);
+        if (!(value instanceof String) && !(value instanceof Double)) {
+            throw badArgument(args, index, function, "string");
+        }
+        return LuaValues.toText(value);
+    }
+
+    private static LuaTable table(Object[] args, int index, String function) {
+        Object value = arg(args, index);
+        if (!(value instanceof LuaTable)) {
+            throw badArgument(args, index, function, "table");
+        }
+        return (LuaTable) value;
+    }
+
+    private static ScriptError badArgument(Object[] args, int index, String function, String expected) {
+        return new ScriptError("bad argument #" + (index + 1) + " to '" + function + "' (" + expected
+                + " expected, got " + (index < args.length ? LuaValues.typeName(args[index]) : "no value") + ")");
+    }
+}
@@ -0,0 +1,126 @@
+package com.twl.miniredis.scripting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Table value of a script, with an array part for the consecutive integer keys from 1 and a hash part for the others.
+ * Integer keys are stored as the {@link Double} numbers scripts compute with.
+ *
+ * @author Tiago Wolker
+ */
+final class LuaTable {
+
+    private final List<Object> array = new ArrayList<>();
+    private Map<Object, Object> hash;
+    private boolean readOnly;
+
+    /**
+     * Prevents scripts from changing the table, as the libraries shared by every script.
+     */
+    LuaTable freeze() {
+        readOnly = true;
+        return this;
+    }
+
+    Object get(Object key) {
+        int index = arrayIndex(key);
+        if (index >= 0 && index < array.size()) {
+            return array.get(index);
+        }
+        return hash != null ? hash.get(normalize(key)) : null;
+    }
+
+    void put(Object key, Object value) {
+        if (readOnly) {
+            throw new ScriptError("Attempt to modify a readonly table");
+        }
+        if (key == null) {
+            throw new ScriptError("table index is nil");
+        }
+        int index = arrayIndex(key);
+        if (index >= 0 && index < array.size()) {
+            if (value == null && index == array.size() - 1) {
+                array.remove(index);
+            } else {
+                array.set(index, value);
+            }
+        } else if (index == array.size() && value != null) {
+            array.add(value);
+            // Moves the following integer keys from the hash part, so the array part stays a sequence.
+            while (hash != null && hash.containsKey((double) array.size() + 1)) {
+                array.add(hash.remove((double) array.size() + 1));
+            }
+        } else if (value == null) {
+            if (hash != null) {
+                hash.remove(normalize(key));
+            }
+        } else {
+            if (hash == null) {
+                hash = new HashMap<>();
+            }
+            hash.put(normalize(key), value);
+        }
+    }
+
+    void add(Object value) {
+        this.put((double) array.size() + 1, value);
+    }
+
+    /**
+     * @return the length of the sequence from key 1, as the <code>#</code> operator does.
+     */
+    int length() {
+        int length = array.size();
+        while (length > 0 && array.get(length - 1) == null) {
+            length--;
+        }
+        return length;
+    }
+
+    /**
+     * @return the values of the sequence from key 1, up to the first nil.
+     */
+    List<Object> sequence() {
+        List<Object> values = new ArrayList<>();
+        for (Object value : array) {
+            if (value == null) {
+                break;
+            }
+            values.add(value);
+        }
+        return values;
+    }
+
+    /**
+     * @return every key and value, the array part first.
+     */
+    List<Object[]> entries() {
+        List<Object[]> entries = new ArrayList<>();
+        for (int i = 0; i < array.size(); i++) {
+            if (array.get(i) != null) {
+                entries.add(new Object[]{(double) i + 1, array.get(i)});
+            }
+        }
+        if (hash != null) {
+            hash.forEach((key, value) -> entries.add(new Object[]{key, value}));
+        }
+        return entries;
+    }
+
+    private static int arrayIndex(Object key) {
+        if (key instanceof Double) {
+            double number = (Double) key;
+            if (number >= 1 && number <= Integer.MAX_VALUE && number == Math.rint(number)) {
+                return (int) number - 1;
+            }
+        }
+        return -1;
+    }
+
+    private static Object normalize(Object key) {
+        return key instanceof Double && (Double) key == 0 ? 0.0 : key;
+    }
+}
@@ -0,0 +1,179 @@
+package com.twl.miniredis.scripting;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Semantics of the values of a script, as in Lua 5.1: nil is null, booleans are {@link Boolean}, numbers are
+ * {@link Double}, strings are {@link String}, tables are {@link LuaTable} and functions are {@link LuaFunction}.
+ * Strings that hold numbers are converted to numbers by arithmetic, and numbers to strings by concatenation.
+ *
+ * @author Tiago Wolker
+ */
+final class LuaValues {
+
+    private LuaValues() {
+    }
+
+    static boolean isTrue(Object value) {
+        return value != null && value != Boolean.FALSE;
+    }
+
+    static String typeName(Object value) {
+        if (value == null) {
+            return "nil";
+        } else if (value instanceof Boolean) {
+            return "boolean";
+        } else if (value instanceof Double) {
+            return "number";
+        } else if (value instanceof String) {
+            return "string";
+        } else if (value instanceof LuaTable) {
+            return "table";
+        }
+        return "function";
+    }
+
+    /**
+     * @return the number, or the number a string holds, or null.
+     */
+    static Double toNumber(Object value) {
+        if (value instanceof Double) {
+            return (Double) value;
+        }
+        if (value instanceof String) {
+            String text = ((String) value).trim();
+            try {
+                if (text.startsWith("0x") || text.startsWith("0X")) {
+                    return (double) Long.parseLong(text.substring(2), 16);
+                }
+                // Java also accepts NaN, Infinity and type suffixes, which Lua does not.
+                if (text.isEmpty() || !Character.isDigit(text.charAt(text.length() - 1)) && text.charAt(text.length() - 1) != '.') {
+                    return null;
+                }
+                return Double.parseDouble(text);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    static String toText(Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        } else if (value instanceof Double) {
+            return formatNumber((Double) value);
+        } else if (value == null || value instanceof Boolean) {
+            return String.valueOf(value == null ? "nil" : value);
+        }
+        return typeName(value) + ": 0x" + Integer.toHexString(System.identityHashCode(value));
+    }
+
+    /**
+     * Formats a number as Lua's <code>%.14g</code>: integral values without a decimal part.
+     */
+    static String formatNumber(double number) {
+        if (Double.isNaN(number)) {
+            return "nan";
+        } else if (Double.isInfinite(number)) {
+            return number > 0 ? "inf" : "-inf";
+        } else if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+            return Long.toString((long) number);
+        }
+        String formatted = String.format(Locale.ROOT, "%.14g", number);
+        int exponent = formatted.indexOf('e');
+        String mantissa = exponent < 0 ? formatted : formatted.substring(0, exponent);
+        if (mantissa.contains(".")) {
+            mantissa = mantissa.replaceAll("0+$", "").replaceAll("\\.$", "");
+        }
+        return exponent < 0 ? mantissa : mantissa + formatted.substring(exponent);
+    }
+
+    static double arithmeticOperand(Object value) {
+        Double number = toNumber(value);
+        if (number == null) {
+            throw new ScriptError("attempt to perform arithmetic on a " + typeName(value) + " value");
+        }
+        return number;
+    }
+
+    static Object arithmetic(String operator, Object left, Object right) {
+        double a = arithmeticOperand(left);
+        double b = arithmeticOperand(right);
+        switch (operator) {
+            case "+":
+                return a + b;
+            case "-":
+                return a - b;
+            case "*":
+                return a * b;
+            case "/":
+                return a / b;
+            case "%":
+                return a - Math.floor(a / b) * b;
+            default:
+                return Math.pow(a, b);
+        }
+    }
+
+    static String concat(Object left, Object right) {
+        return concatOperand(left) + concatOperand(right);
+    }
+
+    private static String concatOperand(Object value) {
+        if (value instanceof String || value instanceof Double) {
+            return toText(value);
+        }
+        throw new ScriptError("attempt to concatenate a " + typeName(value) + " value");
+    }
+
+    static boolean equal(Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            return ((Double) left).doubleValue() == (Double) right;
+        }
+        return left == right || (left instanceof String || left instanceof Boolean) && left.equals(right);
+    }
+
+    static boolean lessThan(Object left, Object right) {
+        return compare(left, right) < 0;
+    }
+
+    static boolean lessOrEqual(Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double) left <= (Double) right;
+        }
+        return compare(left, right) <= 0;
+    }
+
+    private static int compare(Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            double a = (Double) left;
+            double b = (Double) right;
+            return a < b ? -1 : a > b ? 1 : a == b ? 0 : 2;
+        }
+        if (left instanceof String && right instanceof String) {
+            return ((String) left).compareTo((String) right);
+        }
+        String a = typeName(left);
+        String b = typeName(right);
+        throw new ScriptError(a.equals(b) ? "attempt to compare two " + a + " values"
+                : "attempt to compare " + a + " with " + b);
+    }
+
+    static double length(Object value) {
+        if (value instanceof String) {
+            return ((String) value).getBytes(StandardCharsets.UTF_8).length;
+        } else if (value instanceof LuaTable) {
+            return ((LuaTable) value).length();
+        }
+        throw new ScriptError("attempt to get length of a " + typeName(value) + " value");
+    }
+
+    static Object index(Object table, Object key) {
+        if (table instanceof LuaTable) {
+            return ((LuaTable) table).get(key);
+        }
+        throw new ScriptError("attempt to index a " + typeName(table) + " value");
+    }
+}
@@ -0,0 +1,852 @@
+package com.twl.miniredis.scripting;
+
+import com.twl.miniredis.scripting.CompiledScript.Frame;
+import com.twl.miniredis.scripting.ScriptLexer.Token;
+import com.twl.miniredis.scripting.ScriptLexer.Type;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles the subset of Lua 5.1 that Redis scripts use into a tree of {@link Stmt statements} and {@link Expr
+ * expressions}, which are run directly, without any further interpretation of the source:
+ * <ul>
+ *     <li>Local variables, assignments to locals and table fields, <code>if</code>, <code>while</code>,
+ *     <code>repeat</code>, numeric <code>for</code>, <code>for ... in pairs(t)</code> and <code>ipairs(t)</code>,
+ *     <code>break</code> and <code>return</code>.</li>
+ *     <li>Every Lua operator, table constructors, and calls of the library functions of {@link LuaLibrary}, such as
+ *     <code>redis.call</code>.</li>
+ * </ul>
+ * Scripts cannot define functions or create global variables, and reading an unknown global is a compile error.
+ * Local variables are resolved to slots of the {@link Frame} at compile time.
+ *
+ * @author Tiago Wolker
+ */
+final class ScriptCompiler {
+
+    static final int NORMAL = 0;
+    static final int BREAK = 1;
+    static final int RETURN = 2;
+
+    /**
+     * Binary operators, with their left and right priorities as in Lua 5.1.
+     */
+    private static final Map<String, int[]> BINARY = new HashMap<>();
+    private static final int UNARY_PRIORITY = 8;
+
+    static {
+        BINARY.put("or", new int[]{1, 1});
+        BINARY.put("and", new int[]{2, 2});
+        for (String comparison : new String[]{"<", ">", "<=", ">=", "~=", "=="}) {
+            BINARY.put(comparison, new int[]{3, 3});
+        }
+        BINARY.put("..", new int[]{5, 4});
+        BINARY.put("+", new int[]{6, 6});
+        BINARY.put("-", new int[]{6, 6});
+        BINARY.put("*", new int[]{7, 7});
+        BINARY.put("/", new int[]{7, 7});
+        BINARY.put("%", new int[]{7, 7});
+        BINARY.put("^", new int[]{10, 9});
+    }
+
+    @FunctionalInterface
+    interface Expr {
+        Object eval(Frame frame);
+    }
+
+    /**
+     * @see #NORMAL
+     * @see #BREAK
+     * @see #RETURN
+     */
+    @FunctionalInterface
+    interface Stmt {
+        int exec(Frame frame);
+    }
+
+    /**
+     * Sequence of statements, which tags the errors they raise with their line.
+     */
+    static final class Block implements Stmt {
+        private final Stmt[] statements;
+        private final int[] lines;
+
+        private Block(List<Stmt> statements, List<Integer> lines) {
+            this.statements = statements.toArray(new Stmt[0]);
+            this.lines = lines.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        @Override
+        public int exec(Frame frame) {
+            for (int i = 0; i < statements.length; i++) {
+                int status;
+                try {
+                    status = statements[i].exec(frame);
+                } catch (ScriptError e) {
+                    throw e.at(lines[i]);
+                }
+                if (status != NORMAL) {
+                    return status;
+                }
+            }
+            return NORMAL;
+        }
+    }
+
+    /**
+     * Result of parsing a name, field access or call, which may be the target of an assignment.
+     */
+    private static final class Reference {
+        Expr value;
+        boolean call;
+        int slot = -1;
+        String global;
+        Expr table;
+        Expr key;
+        int line;
+    }
+
+    private final List<Token> tokens;
+    private final Deque<Map<String, Integer>> scopes = new ArrayDeque<>();
+    private int position;
+    private int nextSlot;
+    private int maxSlots;
+    private int loops;
+
+    private ScriptCompiler(List<Token> tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * @throws ScriptError if the source is not a valid script.
+     */
+    static CompiledScript compile(String sha, String source) {
+        ScriptCompiler compiler = new ScriptCompiler(ScriptLexer.tokenize(source));
+        Block body;
+        try {
+            body = compiler.scopedBlock();
+        } catch (StackOverflowError e) {
+            throw new ScriptError("chunk has too many syntax levels", compiler.peek().line);
+        }
+        if (compiler.peek().type != Type.EOF) {
+            throw compiler.unexpected();
+        }
+        return new CompiledScript(sha, source, body, compiler.maxSlots);
+    }
+
+    // Statements
+
+    private Block scopedBlock() {
+        scopes.push(new HashMap<>());
+        int slots = nextSlot;
+        try {
+            return this.block();
+        } finally {
+            scopes.pop();
+            nextSlot = slots;
+        }
+    }
+
+    private Block block() {
+        List<Stmt> statements = new ArrayList<>();
+        List<Integer> lines = new ArrayList<>();
+        while (!this.blockEnds()) {
+            Token token = this.peek();
+            if (token.is("return")) {
+                statements.add(this.returnStatement());
+                lines.add(token.line);
+                if (!this.blockEnds()) {
+                    throw new ScriptError("'end' expected near " + this.peek(), this.peek().line);
+                }
+                break;
+            }
+            Stmt statement = this.statement();
+            if (statement != null) {
+                statements.add(statement);
+                lines.add(token.line);
+            }
+        }
+        return new Block(statements, lines);
+    }
+
+    private boolean blockEnds() {
+        Token token = this.peek();
+        return token.type == Type.EOF || token.is("end") || token.is("else") || token.is("elseif") || token.is("until");
+    }
+
+    private Stmt statement() {
+        Token token = this.peek();
+        if (token.is(";")) {
+            this.next();
+            return null;
+        } else if (token.is("local")) {
+            return this.localStatement();
+        } else if (token.is("if")) {
+            return this.ifStatement();
+        } else if (token.is("while")) {
+            return this.whileStatement();
+        } else if (token.is("repeat")) {
+            return this.repeatStatement();
+        } else if (token.is("for")) {
+            return this.forStatement();
+        } else if (token.is("do")) {
+            this.next();
+            Block body = this.scopedBlock();
+            this.expect("end");
+            return body;
+        } else if (token.is("break")) {
+            if (loops == 0) {
+                throw new ScriptError("no loop to break", token.line);
+            }
+            this.next();
+            return frame -> BREAK;
+        } else if (token.is("function")) {
+            throw new ScriptError("functions are not supported", token.line);
+        }
+        return this.expressionStatement();
+    }
+
+    private Stmt returnStatement() {
+        this.next();
+        if (this.blockEnds() || this.peek().is(";")) {
+            this.accept(";");
+            return frame -> {
+                frame.returned = null;
+                return RETURN;
+            };
+        }
+        List<Expr> values = this.expressionList();
+        this.accept(";");
+        Expr value = values.get(0);
+        return frame -> {
+            frame.returned = value.eval(frame);
+            for (int i = 1; i < values.size(); i++) {
+                values.get(i).eval(frame);
+            }
+            return RETURN;
+        };
+    }
+
+    private Stmt localStatement() {
+        this.next();
+        if (this.peek().is("function")) {
+            throw new ScriptError("functions are not supported", this.peek().line);
+        }
+        List<String> names = new ArrayList<>();
+        do {
+            names.add(this.name());
+        } while (this.accept(","));
+        List<Expr> values = this.accept("=") ? this.expressionList() : new ArrayList<>();
+        int[] slots = new int[names.size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = this.declare(names.get(i));
+        }
+        if (slots.length == 1 && values.size() == 1) {
+            int slot = slots[0];
+            Expr value = values.get(0);
+            return frame -> {
+                frame.locals[slot] = value.eval(frame);
+                return NORMAL;
+            };
+        }
+        return assignment(values, (frame, i, value) -> {
+            if (i < slots.length) {
+                frame.locals[slots[i]] = value;
+            }
+        }, slots.length);
+    }
+
+    private Stmt ifStatement() {
+        List<Expr> conditions = new ArrayList<>();
+        List<Block> blocks = new ArrayList<>();
+        Block otherwise = null;
+        do {
+            this.next();
+            conditions.add(this.expression());
+            this.expect("then");
+            blocks.add(this.scopedBlock());
+        } while (this.peek().is("elseif"));
+        if (this.accept("else")) {
+            otherwise = this.scopedBlock();
+        }
+        this.expect("end");
+        Expr[] branches = conditions.toArray(new Expr[0]);
+        Block[] bodies = blocks.toArray(new Block[0]);
+        Block fallback = otherwise;
+        return frame -> {
+            for (int i = 0; i < branches.length; i++) {
+                if (LuaValues.isTrue(branches[i].eval(frame))) {
+                    return bodies[i].exec(frame);
+                }
+            }
+            return fallback != null ? fallback.exec(frame) : NORMAL;
+        };
+    }
+
+    private Stmt whileStatement() {
+        this.next();
+        Expr condition = this.expression();
+        this.expect("do");
+        Block body = this.loopBody();
+        this.expect("end");
+        return frame -> {
+            while (LuaValues.isTrue(condition.eval(frame))) {
+                frame.checkDeadline();
+                int status = body.exec(frame);
+                if (status == BREAK) {
+                    break;
+                } else if (status == RETURN) {
+                    return RETURN;
+                }
+            }
+            return NORMAL;
+        };
+    }
+
+    private Stmt repeatStatement() {
+        this.next();
+        // The condition can read the locals of the body.
+        scopes.push(new HashMap<>());
+        int slots = nextSlot;
+        Block body;
+        Expr condition;
+        loops++;
+        try {
+            body = this.block();
+            this.expect("until");
+            condition = this.expression();
+        } finally {
+            loops--;
+            scopes.pop();
+            nextSlot = slots;
+        }
+        return frame -> {
+            do {
+                frame.checkDeadline();
+                int status = body.exec(frame);
+                if (status == BREAK) {
+                    break;
+                } else if (status == RETURN) {
+                    return RETURN;
+                }
+            } while (!LuaValues.isTrue(condition.eval(frame)));
+            return NORMAL;
+        };
+    }
+
+    private Stmt forStatement() {
+        int line = this.next().line;
+        String first = this.name();
+        if (this.peek().is("=")) {
+            this.next();
+            Expr start = this.expression();
+            this.expect(",");
+            Expr limit = this.expression();
+            Expr step = this.accept(",") ? this.expression() : frame -> 1.0;
+            this.expect("do");
+            scopes.push(new HashMap<>());
+            int slots = nextSlot;
+            int variable = this.declare(first);
+            Block body;
+            try {
+                body = this.loopBody();
+            } finally {
+                scopes.pop();
+                nextSlot = slots;
+            }
+            this.expect("end");
+            return frame -> {
+                double from = forNumber(start.eval(frame), "initial");
+                double to = forNumber(limit.eval(frame), "limit");
+                double increment = forNumber(step.eval(frame), "step");
+                for (double i = from; increment > 0 ? i <= to : i >= to; i += increment) {
+                    frame.checkDeadline();
+                    frame.locals[variable] = i;
+                    int status = body.exec(frame);
+                    if (status == BREAK) {
+                        break;
+                    } else if (status == RETURN) {
+                        return RETURN;
+                    }
+                }
+                return NORMAL;
+            };
+        }
+        String second = this.accept(",") ? this.name() : null;
+        this.expect("in");
+        String iterator = this.name();
+        if (!"pairs".equals(iterator) && !"ipairs".equals(iterator)) {
+            throw new ScriptError("only pairs and ipairs are supported in a generic for", line);
+        }
+        this.expect("(");
+        Expr source = this.expression();
+        this.expect(")");
+        this.expect("do");
+        scopes.push(new HashMap<>());
+        int slots = nextSlot;
+        int keySlot = this.declare(first);
+        int valueSlot = second != null ? this.declare(second) : -1;
+        Block body;
+        try {
+            body = this.loopBody();
+        } finally {
+            scopes.pop();
+            nextSlot = slots;
+        }
+        this.expect("end");
+        boolean ordered = "ipairs".equals(iterator);
+        return frame -> {
+            Object table = source.eval(frame);
+            if (!(table instanceof LuaTable)) {
+                throw new ScriptError("bad argument #1 to '" + iterator + "' (table expected, got "
+                        + LuaValues.typeName(table) + ")");
+            }
+            List<Object[]> entries;
+            if (ordered) {
+                entries = new ArrayList<>();
+                List<Object> sequence = ((LuaTable) table).sequence();
+                for (int i = 0; i < sequence.size(); i++) {
+                    entries.add(new Object[]{(double) i + 1, sequence.get(i)});
+                }
+            } else {
+                entries = ((LuaTable) table).entries();
+            }
+            for (Object[] entry : entries) {
+                frame.checkDeadline();
+                frame.locals[keySlot] = entry[0];
+                if (valueSlot >= 0) {
+                    frame.locals[valueSlot] = entry[1];
+                }
+                int status = body.exec(frame);
+                if (status == BREAK) {
+                    break;
+                } else if (status == RETURN) {
+                    return RETURN;
+                }
+            }
+            return NORMAL;
+        };
+    }
+
+    private Block loopBody() {
+        loops++;
+        try {
+            return this.scopedBlock();
+        } finally {
+            loops--;
+        }
+    }
+
+    private Stmt expressionStatement() {
+        Reference first = this.reference();
+        if (!this.peek().is("=") && !this.peek().is(",")) {
+            if (!first.call) {
+                throw new ScriptError("syntax error near " + this.peek(), this.peek().line);
+            }
+            Expr call = first.value;
+            return frame -> {
+                call.eval(frame);
+                return NORMAL;
+            };
+        }
+        List<Reference> targets = new ArrayList<>();
+        targets.add(first);
+        while (this.accept(",")) {
+            targets.add(this.reference());
+        }
+        this.expect("=");
+        List<Expr> values = this.expressionList();
+        for (Reference target : targets) {
+            if (target.call) {
+                throw new ScriptError("syntax error near '='", target.line);
+            }
+            if (target.global != null) {
+                throw new ScriptError("Script attempted to create global variable '" + target.global + "'", target.line);
+            }
+        }
+        if (targets.size() == 1 && values.size() == 1) {
+            Reference target = targets.get(0);
+            Expr value = values.get(0);
+            if (target.slot >= 0) {
+                int slot = target.slot;
+                return frame -> {
+                    frame.locals[slot] = value.eval(frame);
+                    return NORMAL;
+                };
+            }
+        }
+        // As in Lua, every expression is evaluated before any assignment.
+        Expr[] tables = new Expr[targets.size()];
+        Expr[] keys = new Expr[targets.size()];
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = targets.get(i).table;
+            keys[i] = targets.get(i).key;
+        }
+        int[] slots = targets.stream().mapToInt(target -> target.slot).toArray();
+        return frame -> {
+            Object[] resolvedTables = new Object[slots.length];
+            Object[] resolvedKeys = new Object[slots.length];
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] < 0) {
+                    resolvedTables[i] = tables[i].eval(frame);
+                    resolvedKeys[i] = keys[i].eval(frame);
+                }
+            }
+            Object[] results = evaluate(values, frame, slots.length);
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] >= 0) {
+                    frame.locals[slots[i]] = results[i];
+                } else if (resolvedTables[i] instanceof LuaTable) {
+                    ((LuaTable) resolvedTables[i]).put(resolvedKeys[i], results[i]);
+                } else {
+                    throw new ScriptError("attempt to index a " + LuaValues.typeName(resolvedTables[i]) + " value");
+                }
+            }
+            return NORMAL;
+        };
+    }
+
+    @FunctionalInterface
+    private interface Assign {
+        void assign(Frame frame, int index, Object value);
+    }
+
+    private static Stmt assignment(List<Expr> values, Assign target, int count) {
+        return frame -> {
+            Object[] results = evaluate(values, frame, count);
+            for (int i = 0; i < count; i++) {
+                target.assign(frame, i, results[i]);
+            }
+            return NORMAL;
+        };
+    }
+
+    /**
+     * Evaluates every expression, padding the results with nils up to the number of targets.
+     */
+    private static Object[] evaluate(List<Expr> values, Frame frame, int count) {
+        Object[] results = new Object[Math.max(count, values.size())];
+        for (int i = 0; i < values.size(); i++) {
+            results[i] = values.get(i).eval(frame);
+        }
+        return results;
+    }
+
+    // Expressions
+
+    private List<Expr> expressionList() {
+        List<Expr> expressions = new ArrayList<>();
+        do {
+            expressions.add(this.expression());
+        } while (this.accept(","));
+        return expressions;
+    }
+
+    private Expr expression() {
+        return this.expression(0);
+    }
+
+    private Expr expression(int limit) {
+        Expr left;
+        Token token = this.peek();
+        if (token.is("not") || token.is("-") || token.is("#")) {
+            this.next();
+            Expr operand = this.expression(UNARY_PRIORITY);
+            if (token.is("not")) {
+                left = frame -> !LuaValues.isTrue(operand.eval(frame));
+            } else if (token.is("-")) {
+                left = frame -> -LuaValues.arithmeticOperand(operand.eval(frame));
+            } else {
+                left = frame -> LuaValues.length(operand.eval(frame));
+            }
+        } else {
+            left = this.simpleExpression();
+        }
+        while (true) {
+            Token operator = this.peek();
+            int[] priority = operator.type == Type.SYMBOL || operator.type == Type.KEYWORD ? BINARY.get(operator.text) : null;
+            if (priority == null || priority[0] <= limit) {
+                return left;
+            }
+            this.next();
+            Expr right = this.expression(priority[1]);
+            left = binary(operator.text, left, right);
+        }
+    }
+
+    private static Expr binary(String operator, Expr left, Expr right) {
+        switch (operator) {
+            case "or":
+                return frame -> {
+                    Object value = left.eval(frame);
+                    return LuaValues.isTrue(value) ? value : right.eval(frame);
+                };
+            case "and":
+                return frame -> {
+                    Object value = left.eval(frame);
+                    return LuaValues.isTrue(value) ? right.eval(frame) : value;
+                };
+            case "==":
+                return frame -> LuaValues.equal(left.eval(frame), right.eval(frame));
+            case "~=":
+                return frame -> !LuaValues.equal(left.eval(frame), right.eval(frame));
+            case "<":
+                return frame -> LuaValues.lessThan(left.eval(frame), right.eval(frame));
+            case ">":
+                return frame -> {
+                    Object a = left.eval(frame);
+                    return LuaValues.lessThan(right.eval(frame), a);
+                };
+            case "<=":
+                return frame -> LuaValues.lessOrEqual(left.eval(frame), right.eval(frame));
+            case ">=":
+                return frame -> {
+                    Object a = left.eval(frame);
+                    return LuaValues.lessOrEqual(right.eval(frame), a);
+                };
+            case "..":
+                return frame -> LuaValues.concat(left.eval(frame), right.eval(frame));
+            default:
+                return frame -> LuaValues.arithmetic(operator, left.eval(frame), right.eval(frame));
+        }
+    }
+
+    private Expr simpleExpression() {
+        Token token = this.peek();
+        if (token.type == Type.NUMBER) {
+            this.next();
+            Double number = Double.parseDouble(token.text);
+            return frame -> number;
+        } else if (token.type == Type.STRING) {
+            this.next();
+            String text = token.text;
+            return frame -> text;
+        } else if (token.is("nil")) {
+            this.next();
+            return frame -> null;
+        } else if (token.is("true")) {
+            this.next();
+            return frame -> Boolean.TRUE;
+        } else if (token.is("false")) {
+            this.next();
+            return frame -> Boolean.FALSE;
+        } else if (token.is("{")) {
+            return this.tableConstructor();
+        } else if (token.is("function")) {
+            throw new ScriptError("functions are not supported", token.line);
+        } else if (token.is("...")) {
+            throw new ScriptError("varargs are not supported, use KEYS and ARGV", token.line);
+        }
+        return this.value(this.reference());
+    }
+
+    private Expr tableConstructor() {
+        this.expect("{");
+        List<Expr> keys = new ArrayList<>();
+        List<Expr> values = new ArrayList<>();
+        while (!this.peek().is("}")) {
+            if (this.accept("[")) {
+                keys.add(this.expression());
+                this.expect("]");
+                this.expect("=");
+            } else if (this.peek().type == Type.NAME && this.peekAhead().is("=")) {
+                String name = this.name();
+                keys.add(frame -> name);
+                this.expect("=");
+            } else {
+                keys.add(null);
+            }
+            values.add(this.expression());
+            if (!this.accept(",") && !this.accept(";")) {
+                break;
+            }
+        }
+        this.expect("}");
+        Expr[] fieldKeys = keys.toArray(new Expr[0]);
+        Expr[] fieldValues = values.toArray(new Expr[0]);
+        return frame -> {
+            LuaTable table = new LuaTable();
+            double index = 1;
+            for (int i = 0; i < fieldValues.length; i++) {
+                if (fieldKeys[i] == null) {
+                    table.put(index++, fieldValues[i].eval(frame));
+                } else {
+                    Object key = fieldKeys[i].eval(frame);
+                    table.put(key, fieldValues[i].eval(frame));
+                }
+            }
+            return table;
+        };
+    }
+
+    /**
+     * Parses a name or parenthesized expression followed by any number of field accesses and calls.
+     */
+    private Reference reference() {
+        Reference reference = new Reference();
+        Token token = this.peek();
+        reference.line = token.line;
+        if (token.type == Type.NAME) {
+            this.next();
+            Integer slot = this.resolve(token.text);
+            if (slot != null) {
+                int local = slot;
+                reference.slot = local;
+                reference.value = frame -> frame.locals[local];
+            } else {
+                reference.global = token.text;
+                reference.value = global(token.text);
+            }
+        } else if (this.accept("(")) {
+            Expr inner = this.expression();
+            this.expect(")");
+            reference.value = inner;
+        } else {
+            throw this.unexpected();
+        }
+        while (true) {
+            Token suffix = this.peek();
+            if (suffix.is(".") || suffix.is("[")) {
+                Expr table = this.value(reference);
+                Expr key;
+                this.next();
+                if (suffix.is(".")) {
+                    String name = this.name();
+                    key = frame -> name;
+                } else {
+                    key = this.expression();
+                    this.expect("]");
+                }
+                reference = new Reference();
+                reference.line = suffix.line;
+                reference.table = table;
+                reference.key = key;
+                reference.value = frame -> LuaValues.index(table.eval(frame), key.eval(frame));
+            } else if (suffix.is("(")) {
+                Expr function = this.value(reference);
+                this.next();
+                List<Expr> arguments = this.peek().is(")") ? new ArrayList<>() : this.expressionList();
+                this.expect(")");
+                Expr[] args = arguments.toArray(new Expr[0]);
+                reference = new Reference();
+                reference.line = suffix.line;
+                reference.call = true;
+                reference.value = frame -> {
+                    Object callee = function.eval(frame);
+                    if (!(callee instanceof LuaFunction)) {
+                        throw new ScriptError("attempt to call a " + LuaValues.typeName(callee) + " value");
+                    }
+                    Object[] values = new Object[args.length];
+                    for (int i = 0; i < args.length; i++) {
+                        values[i] = args[i].eval(frame);
+                    }
+                    frame.checkDeadline();
+                    return ((LuaFunction) callee).call(frame, values);
+                };
+            } else if (suffix.is(":")) {
+                throw new ScriptError("method calls are not supported", suffix.line);
+            } else {
+                return reference;
+            }
+        }
+    }
+
+    /**
+     * @return the expression that reads the reference.
+     * @throws ScriptError if it is an unknown global.
+     */
+    private Expr value(Reference reference) {
+        if (reference.value == null) {
+            throw new ScriptError("Script attempted to access nonexistent global variable '" + reference.global + "'",
+                    reference.line);
+        }
+        return reference.value;
+    }
+
+    private static Expr global(String name) {
+        if ("KEYS".equals(name)) {
+            return frame -> frame.keys;
+        } else if ("ARGV".equals(name)) {
+            return frame -> frame.argv;
+        }
+        if (!LuaLibrary.GLOBALS.containsKey(name)) {
+            return null;
+        }
+        Object value = LuaLibrary.GLOBALS.get(name);
+        return frame -> value;
+    }
+
+    // Scopes and tokens
+
+    private int declare(String name) {
+        int slot = nextSlot++;
+        maxSlots = Math.max(maxSlots, nextSlot);
+        scopes.peek().put(name, slot);
+        return slot;
+    }
+
+    private Integer resolve(String name) {
+        for (Map<String, Integer> scope : scopes) {
+            Integer slot = scope.get(name);
+            if (slot != null) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private static double forNumber(Object value, String what) {
+        Double number = LuaValues.toNumber(value);
+        if (number == null) {
+            throw new ScriptError("'for' " + what + " value must be a number");
+        }
+        return number;
+    }
+
+    private Token peek() {
+        return tokens.get(position);
+    }
+
+    private Token peekAhead() {
+        return tokens.get(Math.min(position + 1, tokens.size() - 1));
+    }
+
+    private Token next() {
+        Token token = tokens.get(position);
+        if (token.type != Type.EOF) {
+            position++;
+        }
+        return token;
+    }
+
+    private boolean accept(String symbol) {
+        if (this.peek().is(symbol)) {
+            this.next();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String symbol) {
+        if (!this.accept(symbol)) {
+            throw new ScriptError("'" + symbol + "' expected near " + this.peek(), this.peek().line);
+        }
+    }
+
+    private String name() {
+        Token token = this.peek();
+        if (token.type != Type.NAME) {
+            throw new ScriptError("<name> expected near " + token, token.line);
+        }
+        this.next();
+        return token.text;
+    }
+
+    private ScriptError unexpected() {
+        return new ScriptError("unexpected symbol near " + this.peek(), this.peek().line);
+    }
+}
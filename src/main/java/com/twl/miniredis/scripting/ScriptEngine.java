@@ -0,0 +1,333 @@
+package com.twl.miniredis.scripting;
+
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.command.CommandSpec;
+import com.twl.miniredis.command.KeyLocks;
+import com.twl.miniredis.command.Reply;
+import com.twl.miniredis.resp.RespWriter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-side scripting, opt-in with <code>miniredis.scripting.enabled</code>: runs scripts written in the subset of
+ * Lua that {@link ScriptCompiler} supports next to the data, so a compound operation costs one round trip.
+ * <ul>
+ *     <li><code>EVAL script numkeys [key ...] [arg ...]</code> compiles the script, caches it by its SHA-1 digest and
+ *     runs it with the keys in <code>KEYS</code> and the arguments in <code>ARGV</code>.</li>
+ *     <li><code>EVALSHA sha1 numkeys [key ...] [arg ...]</code> runs a cached script, or fails with
+ *     <code>NOSCRIPT</code>.</li>
+ *     <li><code>EVAL_RO</code> and <code>EVALSHA_RO</code> run scripts that only read, which replicas accept.</li>
+ *     <li><code>SCRIPT LOAD script</code>, <code>SCRIPT EXISTS sha1 [sha1 ...]</code> and
+ *     <code>SCRIPT FLUSH [ASYNC|SYNC]</code> manage the cache.</li>
+ * </ul>
+ * Scripts call commands with <code>redis.call</code> and <code>redis.pcall</code>, but only commands on the keys they
+ * declared, and not other scripts. A script is atomic: it holds the {@link KeyLocks locks} of its keys exclusively
+ * while every other command holds the locks of its keys shared, and writes without keys, such as
+ * <code>FLUSHALL</code>, hold every lock, so no command sees or changes those keys halfway through the script. Its
+ * writes are propagated to the AOF and replicas as the commands it called, and a script that runs for longer than
+ * <code>miniredis.scripting.time-limit-ms</code> is stopped, without undoing the writes it already made.
+ * <br/><br/>
+ * Scripts cached by <code>EVAL</code> are evicted, oldest first, beyond <code>miniredis.scripting.eval-cache-size</code>
+ * scripts, while scripts loaded with <code>SCRIPT LOAD</code> stay until <code>SCRIPT FLUSH</code>.
+ *
+ * @author Tiago Wolker
+ */
+@Component
+public class ScriptEngine {
+
+    public static final String NOSCRIPT = "NOSCRIPT No matching script. Please use EVAL.";
+
+    private static final Set<String> KEYLESS_COMMANDS = Set.of("PING", "ECHO", "DBSIZE");
+
+    private final CommandDispatcher dispatcher;
+    private final KeyLocks keyLocks;
+    private final long timeLimitNanos;
+    private final Map<String, CompiledScript> loaded = new ConcurrentHashMap<>();
+    private final Map<String, CompiledScript> evaluated;
+
+    public ScriptEngine(CommandDispatcher dispatcher,
+                        @Value("${miniredis.scripting.enabled:false}") boolean enabled,
+                        @Value("${miniredis.scripting.time-limit-ms:5000}") long timeLimitMillis,
+                        @Value("${miniredis.scripting.eval-cache-size:500}") int evalCacheSize) {
+        this.dispatcher = dispatcher;
+        this.timeLimitNanos = TimeUnit.MILLISECONDS.toNanos(timeLimitMillis);
+        this.evaluated = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+                return size() > evalCacheSize;
+            }
+        };
+        this.keyLocks = enabled ? new KeyLocks() : null;
+        if (enabled) {
+            dispatcher.setKeyLocks(keyLocks);
+            dispatcher.register("EVAL", -3, true, ScriptEngine::scriptKeys, true, this::eval);
+            dispatcher.register("EVALSHA", -3, true, ScriptEngine::scriptKeys, true, this::eval);
+            dispatcher.register("EVAL_RO", -3, false, ScriptEngine::scriptKeys, true, this::eval);
+            dispatcher.register("EVALSHA_RO", -3, false, ScriptEngine::scriptKeys, true, this::eval);
+            dispatcher.register("SCRIPT", -2, false, this::script);
+        }
+    }
+
+    public boolean isEnabled() {
+        return keyLocks != null;
+    }
+
+    /**
+     * @return the locks every command holds on its keys, or null if scripting is disabled.
+     */
+    public KeyLocks getKeyLocks() {
+        return keyLocks;
+    }
+
+    /**
+     * Keys declared by EVAL | EVALSHA, following numkeys.
+     */
+    private static List<String> scriptKeys(List<String> args) {
+        int numKeys;
+        try {
+            numKeys = Integer.parseInt(args.get(2));
+        } catch (NumberFormatException e) {
+            numKeys = 0;
+        }
+        return args.subList(3, Math.min(3 + Math.max(numKeys, 0), args.size()));
+    }
+
+    /**
+     * EVAL script numkeys [key ...] [arg ...] | EVALSHA sha1 numkeys [key ...] [arg ...]
+     */
+    private Object eval(ClientSession session, List<String> args) {
+        int numKeys;
+        try {
+            numKeys = Integer.parseInt(args.get(2));
+        } catch (NumberFormatException e) {
+            return Reply.error(CommandDispatcher.NOT_AN_INTEGER);
+        }
+        if (numKeys < 0) {
+            return Reply.error("ERR Number of keys can't be negative");
+        } else if (numKeys > args.size() - 3) {
+            return Reply.error("ERR Number of keys can't be greater than number of args");
+        }
+        String command = args.get(0).toUpperCase(Locale.ROOT);
+        CompiledScript script;
+        if (command.startsWith("EVALSHA")) {
+            script = this.lookup(args.get(1).toLowerCase(Locale.ROOT));
+            if (script == null) {
+                return Reply.error(NOSCRIPT);
+            }
+        } else {
+            try {
+                script = this.cache(args.get(1), false);
+            } catch (ScriptError e) {
+                return Reply.error("ERR Error compiling script: " + e.describe());
+            }
+        }
+        List<String> keys = args.subList(3, 3 + numKeys);
+        LuaTable keyTable = new LuaTable();
+        keys.forEach(keyTable::add);
+        LuaTable argTable = new LuaTable();
+        args.subList(3 + numKeys, args.size()).forEach(argTable::add);
+        ScriptHost host = new ScriptHost(session, new HashSet<>(keys), command.endsWith("_RO"));
+        try {
+            return toReply(script.run(keyTable, argTable, host, System.nanoTime() + timeLimitNanos));
+        } catch (ScriptError e) {
+            return Reply.error(e.isReply() ? e.getMessage() : "ERR Error running script: " + e.describe());
+        } catch (StackOverflowError e) {
+            return Reply.error("ERR Error running script: stack overflow");
+        }
+    }
+
+    /**
+     * SCRIPT LOAD script | SCRIPT EXISTS sha1 [sha1 ...] | SCRIPT FLUSH [ASYNC|SYNC]
+     */
+    private Object script(ClientSession session, List<String> args) {
+        String subcommand = args.get(1).toUpperCase(Locale.ROOT);
+        switch (subcommand) {
+            case "LOAD":
+                if (args.size() != 3) {
+                    return Reply.error("ERR wrong number of arguments for 'script|load' command");
+                }
+                try {
+                    return this.cache(args.get(2), true).getSha();
+                } catch (ScriptError e) {
+                    return Reply.error("ERR Error compiling script: " + e.describe());
+                }
+            case "EXISTS":
+                if (args.size() < 3) {
+                    return Reply.error("ERR wrong number of arguments for 'script|exists' command");
+                }
+                List<Long> exists = new ArrayList<>(args.size() - 2);
+                for (String sha : args.subList(2, args.size())) {
+                    exists.add(this.lookup(sha.toLowerCase(Locale.ROOT)) != null ? 1L : 0L);
+                }
+                return exists;
+            case "FLUSH":
+                if (args.size() > 3 || args.size() == 3 && !Arrays.asList("ASYNC", "SYNC")
+                        .contains(args.get(2).toUpperCase(Locale.ROOT))) {
+                    return Reply.error(CommandDispatcher.SYNTAX_ERROR);
+                }
+                loaded.clear();
+                synchronized (evaluated) {
+                    evaluated.clear();
+                }
+                return Reply.OK;
+            default:
+                return Reply.error("ERR unknown subcommand '" + args.get(1) + "'. Try SCRIPT LOAD, EXISTS or FLUSH.");
+        }
+    }
+
+    private CompiledScript lookup(String sha) {
+        CompiledScript script = loaded.get(sha);
+        if (script != null) {
+            return script;
+        }
+        synchronized (evaluated) {
+            return evaluated.get(sha);
+        }
+    }
+
+    /**
+     * @param load whether the script was loaded with SCRIPT LOAD, and is never evicted.
+     * @throws ScriptError if the script does not compile.
+     */
+    private CompiledScript cache(String source, boolean load) {
+        String sha = LuaLibrary.sha1hex(source);
+        CompiledScript script = this.lookup(sha);
+        if (script == null) {
+            script = ScriptCompiler.compile(sha, source);
+        }
+        if (load) {
+            loaded.put(sha, script);
+        } else if (!loaded.containsKey(sha)) {
+            synchronized (evaluated) {
+                evaluated.putIfAbsent(sha, script);
+            }
+        }
+        return script;
+    }
+
+    /**
+     * Runs the commands a script calls, with a session of its own that skips the key locks its script already holds.
+     */
+    private final class ScriptHost implements CompiledScript.Host {
+        private final ClientSession session = new ClientSession();
+        private final Set<String> keys;
+        private final boolean readOnly;
+
+        private ScriptHost(ClientSession caller, Set<String> keys, boolean readOnly) {
+            this.keys = keys;
+            this.readOnly = readOnly;
+            session.setScripted(true);
+            session.setName(caller.getName());
+            session.setAddress(caller.getAddress());
+        }
+
+        @Override
+        public Object call(String[] args, boolean raise) {
+            Reply rejection = this.check(args);
+            Object reply = rejection != null ? rejection : dispatcher.execute(session, Arrays.asList(args));
+            if (reply instanceof Reply && ((Reply) reply).isError()) {
+                if (raise) {
+                    throw ScriptError.ofReply(((Reply) reply).getMessage());
+                }
+                return LuaLibrary.reply("err", ((Reply) reply).getMessage());
+            }
+            return toLua(reply);
+        }
+
+        private Reply check(String[] args) {
+            CommandSpec spec = dispatcher.lookup(args[0]);
+            if (spec == null) {
+                return Reply.error("ERR Unknown Redis command called from script");
+            } else if (spec.isExclusive() || spec.getKeys() == null && !KEYLESS_COMMANDS.contains(spec.getName())) {
+                return Reply.error("ERR This Redis command is not allowed from script");
+            } else if (readOnly && spec.isWrite()) {
+                return Reply.error("ERR Write commands are not allowed from read-only scripts");
+            }
+            if (spec.getKeys() != null && spec.acceptsArity(args.length)) {
+                for (String key : spec.getKeys().keys(Arrays.asList(args))) {
+                    if (!keys.contains(key)) {
+                        return Reply.error("ERR Script attempted to access a non-declared key: " + key);
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Converts a reply into a script value, as Redis converts RESP2 replies.
+     */
+    private static Object toLua(Object reply) {
+        if (reply == null) {
+            return Boolean.FALSE;
+        } else if (reply instanceof Reply) {
+            return LuaLibrary.reply("ok", ((Reply) reply).getMessage());
+        } else if (reply instanceof Long || reply instanceof Integer) {
+            return ((Number) reply).doubleValue();
+        } else if (reply instanceof Boolean) {
+            return (Boolean) reply ? 1.0 : 0.0;
+        } else if (reply instanceof Double) {
+            return RespWriter.formatDouble((Double) reply);
+        } else if (reply instanceof byte[]) {
+            return new String((byte[]) reply, StandardCharsets.UTF_8);
+        } else if (reply instanceof Map) {
+            LuaTable table = new LuaTable();
+            ((Map<?, ?>) reply).forEach((key, value) -> {
+                table.add(toLua(key));
+                table.add(toLua(value));
+            });
+            return table;
+        } else if (reply instanceof Collection) {
+            LuaTable table = new LuaTable();
+            for (Object element : (Collection<?>) reply) {
+                table.add(toLua(element));
+            }
+            return table;
+        }
+        return String.valueOf(reply);
+    }
+
+    /**
+     * Converts the value a script returned into a reply: numbers are truncated to integers, true is 1, false is nil,
+     * and tables are arrays up to their first nil, unless they have an <code>ok</code> or <code>err</code> field.
+     */
+    private static Object toReply(Object value) {
+        if (value == null || value == Boolean.FALSE) {
+            return null;
+        } else if (value == Boolean.TRUE) {
+            return 1L;
+        } else if (value instanceof Double) {
+            return ((Double) value).longValue();
+        } else if (value instanceof String) {
+            return value;
+        } else if (value instanceof LuaTable) {
+            LuaTable table = (LuaTable) value;
+            if (table.get("err") instanceof String) {
+                return Reply.error((String) table.get("err"));
+            } else if (table.get("ok") instanceof String) {
+                String status = (String) table.get("ok");
+                return "OK".equals(status) ? Reply.OK : Reply.status(status);
+            }
+            List<Object> elements = new ArrayList<>();
+            for (Object element : table.sequence()) {
+                elements.add(toReply(element));
+            }
+            return elements;
+        }
+        return null;
+    }
+}
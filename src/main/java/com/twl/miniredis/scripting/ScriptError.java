@@ -0,0 +1,66 @@
+package com.twl.miniredis.scripting;
+
+/**
+ * Error compiling or running a script, reported with the line of the script it happened on.
+ *
+ * @author Tiago Wolker
+ */
+final class ScriptError extends RuntimeException {
+
+    private int line;
+    private final boolean reply;
+
+    ScriptError(String message) {
+        this(message, 0);
+    }
+
+    ScriptError(String message, int line) {
+        this(message, line, false);
+    }
+
+    private ScriptError(String message, int line, boolean reply) {
+        super(message, null, false, false);
+        this.line = line;
+        this.reply = reply;
+    }
+
+    /**
+     * @param message error reply of a command, e.g. <code>WRONGTYPE Operation against a key holding the wrong kind
+     *                of value</code>, which is replied to the client as is.
+     */
+    static ScriptError ofReply(String message) {
+        return new ScriptError(message, 0, true);
+    }
+
+    /**
+     * @return whether the error is the error reply of a command called by the script.
+     */
+    boolean isReply() {
+        return reply;
+    }
+
+    /**
+     * @return line of the script, or 0 if unknown.
+     */
+    int getLine() {
+        return line;
+    }
+
+    /**
+     * Sets the line of the statement that raised the error, unless a more precise one is known.
+     */
+    ScriptError at(int line) {
+        if (this.line == 0) {
+            this.line = line;
+        }
+        return this;
+    }
+
+    /**
+     * @return the message in the format of Lua errors, e.g. <code>user_script:3: attempt to compare nil with
+     * number</code>.
+     */
+    String describe() {
+        return "user_script:" + line + ": " + getMessage();
+    }
+}
@@ -0,0 +1,216 @@
+package com.twl.miniredis.scripting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Splits the source of a script into tokens: names, keywords, numbers, strings and symbols. Comments, both
+ * <code>-- line</code> and <code>--[[ block ]]</code>, are skipped.
+ *
+ * @author Tiago Wolker
+ */
+final class ScriptLexer {
+
+    enum Type {
+        NAME, KEYWORD, NUMBER, STRING, SYMBOL, EOF
+    }
+
+    static final class Token {
+        final Type type;
+        final String text;
+        final int line;
+
+        Token(Type type, String text, int line) {
+            this.type = type;
+            this.text = text;
+            this.line = line;
+        }
+
+        boolean is(String symbolOrKeyword) {
+            return (type == Type.SYMBOL || type == Type.KEYWORD) && text.equals(symbolOrKeyword);
+        }
+
+        @Override
+        public String toString() {
+            return type == Type.EOF ? "<eof>" : "'" + text + "'";
+        }
+    }
+
+    private static final Set<String> KEYWORDS = Set.of("and", "break", "do", "else", "elseif", "end", "false", "for",
+            "function", "if", "in", "local", "nil", "not", "or", "repeat", "return", "then", "true", "until", "while");
+    private static final String[] SYMBOLS = {"...", "..", "==", "~=", "<=", ">=", "+", "-", "*", "/", "%", "^", "#",
+            "<", ">", "=", "(", ")", "{", "}", "[", "]", ";", ":", ",", "."};
+
+    private final String source;
+    private int position;
+    private int line = 1;
+
+    private ScriptLexer(String source) {
+        this.source = source;
+    }
+
+    /**
+     * @throws ScriptError if the source contains an invalid token.
+     */
+    static List<Token> tokenize(String source) {
+        ScriptLexer lexer = new ScriptLexer(source);
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = lexer.next();
+            tokens.add(token);
+        } while (token.type != Type.EOF);
+        return tokens;
+    }
+
+    private Token next() {
+        this.skipSpaceAndComments();
+        if (position >= source.length()) {
+            return new Token(Type.EOF, "", line);
+        }
+        char c = source.charAt(position);
+        if (Character.isLetter(c) || c == '_') {
+            int start = position;
+            while (position < source.length()
+                    && (Character.isLetterOrDigit(source.charAt(position)) || source.charAt(position) == '_')) {
+                position++;
+            }
+            String name = source.substring(start, position);
+            return new Token(KEYWORDS.contains(name) ? Type.KEYWORD : Type.NAME, name, line);
+        }
+        if (Character.isDigit(c) || (c == '.' && position + 1 < source.length() && Character.isDigit(source.charAt(position + 1)))) {
+            return this.number();
+        }
+        if (c == '"' || c == '\'') {
+            return this.string(c);
+        }
+        if (c == '[' && position + 1 < source.length() && source.charAt(position + 1) == '[') {
+            int end = source.indexOf("]]", position + 2);
+            if (end < 0) {
+                throw new ScriptError("unfinished long string", line);
+            }
+            String text = source.substring(position + 2, end);
+            if (text.startsWith("\n")) {
+                text = text.substring(1);
+            }
+            Token token = new Token(Type.STRING, text, line);
+            line += countLines(source, position, end);
+            position = end + 2;
+            return token;
+        }
+        for (String symbol : SYMBOLS) {
+            if (source.startsWith(symbol, position)) {
+                position += symbol.length();
+                return new Token(Type.SYMBOL, symbol, line);
+            }
+        }
+        throw new ScriptError("unexpected symbol near '" + c + "'", line);
+    }
+
+    private void skipSpaceAndComments() {
+        while (position < source.length()) {
+            char c = source.charAt(position);
+            if (c == '\n') {
+                line++;
+                position++;
+            } else if (Character.isWhitespace(c)) {
+                position++;
+            } else if (source.startsWith("--[[", position)) {
+                int end = source.indexOf("]]", position + 4);
+                if (end < 0) {
+                    throw new ScriptError("unfinished long comment", line);
+                }
+                line += countLines(source, position, end);
+                position = end + 2;
+            } else if (source.startsWith("--", position)) {
+                while (position < source.length() && source.charAt(position) != '\n') {
+                    position++;
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    private Token number() {
+        int start = position;
+        if (source.startsWith("0x", position) || source.startsWith("0X", position)) {
+            position += 2;
+            while (position < source.length() && Character.digit(source.charAt(position), 16) >= 0) {
+                position++;
+            }
+            return new Token(Type.NUMBER, Double.toString(Long.parseLong(source.substring(start + 2, position), 16)), line);
+        }
+        while (position < source.length()) {
+            char c = source.charAt(position);
+            boolean exponentSign = (c == '+' || c == '-')
+                    && (source.charAt(position - 1) == 'e' || source.charAt(position - 1) == 'E');
+            if (Character.isDigit(c) || c == '.' || c == 'e' || c == 'E' || exponentSign) {
+                position++;
+            } else {
+                break;
+            }
+        }
+        String text = source.substring(start, position);
+        try {
+            Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new ScriptError("malformed number near '" + text + "'", line);
+        }
+        return new Token(Type.NUMBER, text, line);
+    }
+
+    private Token string(char quote) {
+        StringBuilder text = new StringBuilder();
+        position++;
+        while (true) {
+            if (position >= source.length() || source.charAt(position) == '\n') {
+                throw new ScriptError("unfinished string", line);
+            }
+            char c = source.charAt(position++);
+            if (c == quote) {
+                return new Token(Type.STRING, text.toString(), line);
+            }
+            if (c != '\\') {
+                text.append(c);
+                continue;
+            }
+            if (position >= source.length()) {
+                throw new ScriptError("unfinished string", line);
+            }
+            char escaped = source.charAt(position++);
+            switch (escaped) {
+                case 'n':
+                    text.append('\n');
+                    break;
+                case 't':
+                    text.append('\t');
+                    break;
+                case 'r':
+                    text.append('\r');
+                    break;
+                case '0':
+                    text.append('\0');
+                    break;
+                case '\\':
+                case '"':
+                case '\'':
+                    text.append(escaped);
+                    break;
+                default:
+                    throw new ScriptError("invalid escape sequence '\\" + escaped + "'", line);
+            }
+        }
+    }
+
+    private static int countLines(String source, int from, int to) {
+        int lines = 0;
+        for (int i = from; i < to; i++) {
+            if (source.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,172 @@
+package com.twl.miniredis.service;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking facade of {@link DatabaseService}: each call runs on the application task executor (virtual threads
+ * when {@link com.twl.miniredis.config.ExecutionConfig} enables them) and returns a {@link CompletableFuture}, which
+ * completes exceptionally with the same exceptions the imperative call throws.
+ * <br/><br/>
+ * Large ranges are published as a {@link Flow.Publisher} of chunks instead: a chunk is only read once the subscriber
+ * requested it, so a slow consumer never makes the whole range pile up in memory, and no thread is blocked while it
+ * catches up.
+ *
+ * @author Tiago Wolker
+ */
+@Service
+public class AsyncDatabaseService {
+
+    private final DatabaseService service;
+    private final Executor executor;
+
+    @FunctionalInterface
+    private interface Call<T> {
+        T call() throws Exception;
+    }
+
+    public AsyncDatabaseService(DatabaseService service, @Qualifier("applicationTaskExecutor") Executor executor) {
+        this.service = service;
+        this.executor = executor;
+    }
+
+    public CompletableFuture<String> setKeyValue(String key, Object value, Integer exSeconds) {
+        return this.submit(() -> service.setKeyValue(key, value, exSeconds));
+    }
+
+    public CompletableFuture<String> getStringValue(String key) {
+        return this.submit(() -> service.getStringValue(key));
+    }
+
+    public CompletableFuture<Integer> del(String... keys) {
+        return this.submit(() -> service.del(keys));
+    }
+
+    public CompletableFuture<String> incrBy(String key, long increment) {
+        return this.submit(() -> service.incrBy(key, increment));
+    }
+
+    public CompletableFuture<Integer> zadd(String key, String... scoreMembers) {
+        return this.submit(() -> service.zadd(key, scoreMembers));
+    }
+
+    public CompletableFuture<Integer> zcard(String key) {
+        return this.submit(() -> service.zcard(key));
+    }
+
+    public CompletableFuture<Integer> zrank(String key, String member) {
+        return this.submit(() -> service.zrank(key, member));
+    }
+
+    public CompletableFuture<LinkedHashMap<String, Double>> zrange(String key, int start, int stop) {
+        return this.submit(() -> service.zrange(key, start, stop));
+    }
+
+    /**
+     * Publishes the range of {@link DatabaseService#zrangeChunks(String, long, long, int)} to each subscriber. Chunks
+     * are only read when requested, and errors, such as an empty range, are delivered with <code>onError</code>.
+     */
+    public Flow.Publisher<LinkedHashMap<String, Double>> zrangeChunks(String key, long start, long stop, int chunkSize) {
+        return subscriber -> {
+            ChunkSubscription subscription = new ChunkSubscription(subscriber,
+                    () -> service.zrangeChunks(key, start, stop, chunkSize));
+            subscriber.onSubscribe(subscription);
+            subscription.schedule();
+        };
+    }
+
+    private <T> CompletableFuture<T> submit(Call<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(call.call());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Emits chunks on the executor while the subscriber has outstanding demand. Drains are serialized by
+     * <code>pending</code>, so the subscriber is never called concurrently and no thread waits for demand.
+     */
+    private final class ChunkSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super LinkedHashMap<String, Double>> subscriber;
+        private final Call<Iterator<LinkedHashMap<String, Double>>> open;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled;
+        // Only accessed by the drain that is running.
+        private Iterator<LinkedHashMap<String, Double>> chunks;
+        private boolean done;
+
+        ChunkSubscription(Flow.Subscriber<? super LinkedHashMap<String, Double>> subscriber,
+                          Call<Iterator<LinkedHashMap<String, Double>>> open) {
+            this.subscriber = subscriber;
+            this.open = open;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancelled = true;
+                subscriber.onError(new IllegalArgumentException("Demand must be positive."));
+                return;
+            }
+            demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            this.schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                this.drain();
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (done || cancelled) {
+                return;
+            }
+            try {
+                if (chunks == null) {
+                    chunks = open.call();
+                }
+                while (demand.get() > 0 && chunks.hasNext() && !cancelled) {
+                    subscriber.onNext(chunks.next());
+                    demand.decrementAndGet();
+                }
+                if (!chunks.hasNext() && !cancelled) {
+                    done = true;
+                    subscriber.onComplete();
+                }
+            } catch (Exception e) {
+                done = true;
+                subscriber.onError(e);
+            }
+        }
+    }
+}
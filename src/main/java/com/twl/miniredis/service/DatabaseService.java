@@ -1,14 +1,23 @@
 package com.twl.miniredis.service;
 
+import com.twl.miniredis.db.hash.Hash;
+import com.twl.miniredis.db.zset.ZSet;
+import com.twl.miniredis.db.zset.ZSetAggregation;
 import com.twl.miniredis.exception.BusinessException;
 import com.twl.miniredis.exception.NonNumericValueException;
 import com.twl.miniredis.exception.NotFoundException;
 import com.twl.miniredis.model.dto.ExpirableValue;
+import com.twl.miniredis.model.dto.ScanResult;
+import com.twl.miniredis.model.dto.ShardStats;
 import com.twl.miniredis.repository.DatabaseRepository;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.stereotype.Service;
 
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * @author Tiago Wolker
@@ -20,7 +29,11 @@ public class DatabaseService {
     // TODO: mover mensagens para arquivo properties.
     public static final String KEY_DOES_NOT_EXIST = "(nil) Key does not exist in database.";
     public static final String MEMBER_NOT_FOUND = "(nil) Member not found in zset.";
+    public static final String FIELD_NOT_FOUND = "(nil) Field not found in hash.";
     public static final String COULD_NOT_FIND_RESULTS = "Could not find any results.";
+    public static final String DECREMENT_WOULD_OVERFLOW = "Decrement would overflow.";
+    public static final String AT_LEAST_ONE_INPUT_KEY = "ERR at least 1 input key is needed";
+    public static final String WEIGHTS_DO_NOT_MATCH_KEYS = "ERR syntax error, the number of weights must match the number of keys";
 
     private DatabaseRepository repository;
 
@@ -34,27 +47,101 @@ public class DatabaseService {
         return this.getStringValue(key);
     }
 
+    public void setKeyValueUntil(String key, Object value, long expireAt) throws BusinessException {
+        repository.setKeyValueUntil(key, value, expireAt);
+    }
+
     public String getStringValue(String key) throws BusinessException, NotFoundException {
-        ExpirableValue expirableValue = repository.getKey(key);
-        if (expirableValue != null && expirableValue.getValue() != null) {
-            return String.valueOf(expirableValue.getValue());
+        ExpirableValue expirableValue = this.getStringKey(key);
+        String value = expirableValue == null ? null : expirableValue.asString();
+        if (value != null) {
+            return value;
+        } else {
+            log.warn(KEY_DOES_NOT_EXIST);
+            throw new NotFoundException(KEY_DOES_NOT_EXIST);
+        }
+    }
+
+    /**
+     * Same as {@link #getStringValue(String)}, but returns the stored bytes without decoding them, so they can be
+     * written as they are to a client.
+     */
+    public byte[] getBytesValue(String key) throws BusinessException, NotFoundException {
+        ExpirableValue expirableValue = this.getStringKey(key);
+        byte[] value = expirableValue == null ? null : expirableValue.asBytes();
+        if (value != null) {
+            return value;
         } else {
             log.warn(KEY_DOES_NOT_EXIST);
             throw new NotFoundException(KEY_DOES_NOT_EXIST);
         }
     }
 
+    /**
+     * @return the value stored at key, or null if it does not exist.
+     * @throws BusinessException if the key holds a sorted set or a hash rather than a string.
+     */
+    private ExpirableValue getStringKey(String key) throws BusinessException {
+        ExpirableValue expirableValue = repository.getKey(key);
+        if (expirableValue != null && (expirableValue.getValue() instanceof ZSet || expirableValue.getValue() instanceof Hash)) {
+            throw new BusinessException(DatabaseRepository.WRONG_TYPE);
+        }
+        return expirableValue;
+    }
+
+    /**
+     * @return internal encoding of the value stored at key, as in <code>OBJECT ENCODING key</code>.
+     */
+    public String encoding(String key) throws NotFoundException {
+        String encoding = repository.encoding(key);
+        if (encoding == null) {
+            throw new NotFoundException(KEY_DOES_NOT_EXIST);
+        }
+        return encoding;
+    }
+
     public int del(String... keys) {
         return repository.del(keys);
     }
 
+    public long flushAll() {
+        return repository.flushAll();
+    }
+
     public Integer dbsize() {
         return repository.dbsize();
     }
 
+    public List<ShardStats> shardStats() {
+        return repository.shardStats();
+    }
+
+    public int activeExpireCycle(long timeBudgetMillis) {
+        return repository.activeExpireCycle(timeBudgetMillis);
+    }
+
     public String incr(String key) throws NonNumericValueException, BusinessException {
-        ExpirableValue expirableValue = repository.incr(key);
-        return expirableValue == null || expirableValue.getValue() == null ? "0" : String.valueOf(expirableValue.getValue());
+        return String.valueOf(repository.incr(key));
+    }
+
+    public String incrBy(String key, long increment) throws NonNumericValueException, BusinessException {
+        return String.valueOf(repository.incrBy(key, increment));
+    }
+
+    public String decr(String key) throws NonNumericValueException, BusinessException {
+        return String.valueOf(repository.incrBy(key, -1));
+    }
+
+    public String decrBy(String key, long decrement) throws NonNumericValueException, BusinessException {
+        if (decrement == Long.MIN_VALUE) {
+            log.warn(DECREMENT_WOULD_OVERFLOW);
+            throw new BusinessException(DECREMENT_WOULD_OVERFLOW);
+        }
+        return String.valueOf(repository.incrBy(key, -decrement));
+    }
+
+    public String incrByFloat(String key, double increment) throws NonNumericValueException, BusinessException {
+        return repository.incrByFloat(key, increment);
     }
 
     public Integer zadd(String key, String... scoreMembers) throws BusinessException {
@@ -88,4 +175,198 @@ public class DatabaseService {
         }
         return zrange;
     }
+
+    public Double zscore(String key, String member) throws NotFoundException, BusinessException {
+        Double score = repository.zscore(key, member);
+        if (score == null) {
+            log.warn(MEMBER_NOT_FOUND);
+            throw new NotFoundException(MEMBER_NOT_FOUND);
+        }
+        return score;
+    }
+
+    public Double zincrBy(String key, double increment, String member) throws BusinessException {
+        return repository.zincrBy(key, increment, member);
+    }
+
+    public Integer zrem(String key, String... members) throws BusinessException {
+        return repository.zrem(key, members);
+    }
+
+    public Integer zrevrank(String key, String member) throws NotFoundException, BusinessException {
+        Integer zrevrank = repository.zrevrank(key, member);
+        if (zrevrank == null) {
+            log.warn(KEY_DOES_NOT_EXIST);
+            throw new NotFoundException(KEY_DOES_NOT_EXIST);
+        } else if (zrevrank.equals(-1)) {
+            log.warn(MEMBER_NOT_FOUND);
+            throw new NotFoundException(MEMBER_NOT_FOUND);
+        }
+        return zrevrank;
+    }
+
+    public LinkedHashMap<String, Double> zrevrange(String key, int start, int stop) throws BusinessException, NotFoundException {
+        return this.found(repository.zrevrange(key, start, stop));
+    }
+
+    public Integer zcount(String key, String min, String max) throws BusinessException {
+        return repository.zcount(key, min, max);
+    }
+
+    /**
+     * @see DatabaseRepository#zrangeByScore(String, String, String, boolean, long, long)
+     */
+    public LinkedHashMap<String, Double> zrangeByScore(String key, String min, String max, long offset, long count)
+            throws BusinessException, NotFoundException {
+        return this.found(repository.zrangeByScore(key, min, max, false, offset, count));
+    }
+
+    /**
+     * Same as {@link #zrangeByScore(String, String, String, long, long)}, from the highest to the lowest score. As in
+     * Redis, the bounds are given as max and then min.
+     */
+    public LinkedHashMap<String, Double> zrevrangeByScore(String key, String max, String min, long offset, long count)
+            throws BusinessException, NotFoundException {
+        return this.found(repository.zrangeByScore(key, min, max, true, offset, count));
+    }
+
+    /**
+     * @see DatabaseRepository#zrangeByLex(String, String, String, long, long)
+     */
+    public LinkedHashMap<String, Double> zrangeByLex(String key, String min, String max, long offset, long count)
+            throws BusinessException, NotFoundException {
+        return this.found(repository.zrangeByLex(key, min, max, offset, count));
+    }
+
+    /**
+     * @see DatabaseRepository#zunionstore(String, String[], double[], ZSetAggregation.Aggregate)
+     */
+    public Integer zunionstore(String destination, String[] keys, double[] weights, String aggregate)
+            throws BusinessException {
+        return repository.zunionstore(destination, this.inputKeys(keys), this.weights(keys, weights),
+                this.aggregate(aggregate));
+    }
+
+    /**
+     * @see DatabaseRepository#zinterstore(String, String[], double[], ZSetAggregation.Aggregate)
+     */
+    public Integer zinterstore(String destination, String[] keys, double[] weights, String aggregate)
+            throws BusinessException {
+        return repository.zinterstore(destination, this.inputKeys(keys), this.weights(keys, weights),
+                this.aggregate(aggregate));
+    }
+
+    private String[] inputKeys(String[] keys) throws BusinessException {
+        if (keys == null || keys.length == 0) {
+            throw new BusinessException(AT_LEAST_ONE_INPUT_KEY);
+        }
+        return keys;
+    }
+
+    /**
+     * @return the given weights, or a weight of 1 for every key if none is given.
+     */
+    private double[] weights(String[] keys, double[] weights) throws BusinessException {
+        if (weights == null || weights.length == 0) {
+            double[] ones = new double[keys.length];
+            Arrays.fill(ones, 1);
+            return ones;
+        } else if (weights.length != keys.length) {
+            throw new BusinessException(WEIGHTS_DO_NOT_MATCH_KEYS);
+        }
+        return weights;
+    }
+
+    private ZSetAggregation.Aggregate aggregate(String aggregate) throws BusinessException {
+        if (aggregate == null) {
+            return ZSetAggregation.Aggregate.SUM;
+        }
+        try {
+            return ZSetAggregation.Aggregate.parse(aggregate);
+        } catch (IllegalArgumentException e) {
+            throw new BusinessException(e.getMessage());
+        }
+    }
+
+    private LinkedHashMap<String, Double> found(LinkedHashMap<String, Double> range) throws NotFoundException {
+        if (range.isEmpty()) {
+            log.warn(COULD_NOT_FIND_RESULTS);
+            throw new NotFoundException(COULD_NOT_FIND_RESULTS);
+        }
+        return range;
+    }
+
+    public Integer hset(String key, String... fieldValues) throws BusinessException {
+        return repository.hset(key, fieldValues);
+    }
+
+    public String hget(String key, String field) throws NotFoundException, BusinessException {
+        String value = repository.hget(key, field);
+        if (value == null) {
+            log.warn(FIELD_NOT_FOUND);
+            throw new NotFoundException(FIELD_NOT_FOUND);
+        }
+        return value;
+    }
+
+    public List<String> hmget(String key, String... fields) throws BusinessException {
+        return repository.hmget(key, fields);
+    }
+
+    public Integer hdel(String key, String... fields) throws BusinessException {
+        return repository.hdel(key, fields);
+    }
+
+    public Long hincrBy(String key, String field, long increment) throws BusinessException {
+        return repository.hincrBy(key, field, increment);
+    }
+
+    public Integer hlen(String key) throws BusinessException {
+        return repository.hlen(key);
+    }
+
+    public LinkedHashMap<String, String> hgetall(String key) throws BusinessException {
+        return repository.hgetall(key);
+    }
+
+    /**
+     * @see DatabaseRepository#scan(long, String, long, String)
+     */
+    public ScanResult<List<String>> scan(long cursor, String pattern, long count, String type) throws BusinessException {
+        return repository.scan(cursor, pattern, this.scanCount(count), type == null ? null : type.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @see DatabaseRepository#zscan(String, long, String, long)
+     */
+    public ScanResult<LinkedHashMap<String, Double>> zscan(String key, long cursor, String pattern, long count)
+            throws BusinessException {
+        return repository.zscan(key, cursor, pattern, this.scanCount(count));
+    }
+
+    private long scanCount(long count) throws BusinessException {
+        if (count <= 0) {
+            throw new BusinessException("Count must be positive.");
+        }
+        return count;
+    }
+
+    /**
+     * Same as {@link #zrange(String, int, int)}, but reads the range in chunks as the returned iterator is consumed,
+     * so a large range is never held in memory at once.
+     *
+     * @throws NotFoundException if the range is empty.
+     */
+    public Iterator<LinkedHashMap<String, Double>> zrangeChunks(String key, long start, long stop, int chunkSize)
+            throws BusinessException, NotFoundException {
+        if (chunkSize <= 0) {
+            throw new BusinessException("Chunk size must be positive.");
+        }
+        Iterator<LinkedHashMap<String, Double>> chunks = repository.zrangeChunks(key, start, stop, chunkSize);
+        if (!chunks.hasNext()) {
+            log.warn(COULD_NOT_FIND_RESULTS);
+            throw new NotFoundException(COULD_NOT_FIND_RESULTS);
+        }
+        return chunks;
+    }
 }
@@ -0,0 +1,129 @@
+package com.twl.miniredis.tracking;
+
+import com.twl.miniredis.command.ClientSession;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client tracking over HTTP: each subscriber of <code>/TRACKING</code> gets a server-sent events stream, registered in
+ * the {@link TrackingTable} as a client of its own.
+ * <ul>
+ *     <li>The first event, <code>tracking</code>, carries the id of the client. GET requests sent with that id in the
+ *     {@link #TRACKING_HEADER} header have their key tracked, and echo the header back when it is.</li>
+ *     <li>Each following event, <code>invalidate</code>, carries a JSON array of keys that changed.</li>
+ * </ul>
+ * Tracking ends with the stream, so a client must drop its cache whenever the stream is interrupted. A stream that
+ * falls <code>miniredis.tracking.max-pending-invalidations</code> events behind is closed, rather than buffering them
+ * for a client that stopped reading.
+ *
+ * @author Tiago Wolker
+ */
+@Log4j2
+@Component
+public class InvalidationStreams {
+
+    public static final String TRACKING_HEADER = "X-Tracking-Id";
+    public static final String TRACKING_EVENT = "tracking";
+
+    private final TrackingTable tracking;
+    private final Executor executor;
+    private final int maxPending;
+
+    public InvalidationStreams(TrackingTable tracking,
+                               @Qualifier("applicationTaskExecutor") Executor executor,
+                               @Value("${miniredis.tracking.max-pending-invalidations:10000}") int maxPending) {
+        this.tracking = tracking;
+        this.executor = executor;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Opens a stream of invalidations, without timeout.
+     *
+     * @param broadcast whether to track every written key with one of the prefixes instead of the keys read.
+     */
+    public SseEmitter subscribe(boolean broadcast, List<String> prefixes) throws IOException {
+        SseEmitter emitter = new SseEmitter(0L);
+        ClientSession session = new ClientSession();
+        Stream stream = new Stream(emitter, session);
+        session.setPushSink(stream::push);
+        emitter.onCompletion(stream::close);
+        emitter.onTimeout(stream::close);
+        emitter.onError(e -> stream.close());
+        tracking.enable(session, broadcast, prefixes);
+        emitter.send(SseEmitter.event().name(TRACKING_EVENT).data(session.getId()));
+        return emitter;
+    }
+
+    /**
+     * Sends the invalidations on the executor, so the writes that produce them never wait for the network. Sends are
+     * serialized by <code>pending</code>, as in {@link com.twl.miniredis.service.AsyncDatabaseService}.
+     */
+    private final class Stream implements Runnable {
+
+        private final SseEmitter emitter;
+        private final ClientSession session;
+        private final Queue<List<?>> messages = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean closed;
+
+        Stream(SseEmitter emitter, ClientSession session) {
+            this.emitter = emitter;
+            this.session = session;
+        }
+
+        boolean push(List<?> message) {
+            if (closed) {
+                return false;
+            }
+            // Counts the messages not sent yet, plus one while they are being sent.
+            if (pending.get() > maxPending) {
+                log.warn("Closing invalidation stream of client {}: more than {} invalidations pending.", session.getId(), maxPending);
+                closed = true;
+                messages.clear();
+                // Completed on the executor, since this is called while keys are locked.
+                executor.execute(emitter::complete);
+                return false;
+            }
+            messages.add(message);
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                List<?> message;
+                while ((message = messages.poll()) != null && !closed) {
+                    try {
+                        emitter.send(SseEmitter.event().name(String.valueOf(message.get(0))).data(message.get(1)));
+                    } catch (IOException | IllegalStateException e) {
+                        log.debug("Closing invalidation stream of client {}: {}", session.getId(), e.getMessage());
+                        this.close();
+                        emitter.completeWithError(e);
+                    }
+                }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        void close() {
+            closed = true;
+            messages.clear();
+            tracking.disable(session);
+        }
+    }
+}
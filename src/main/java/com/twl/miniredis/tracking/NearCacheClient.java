@@ -0,0 +1,249 @@
+package com.twl.miniredis.tracking;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Client of the HTTP API that keeps the string values it reads in local memory, and drops them as soon as the server
+ * pushes their invalidation on the <code>/TRACKING</code> stream, see {@link InvalidationStreams}. Hot keys are then
+ * read without a round trip, and never served after the server applied a write to them and delivered its
+ * invalidation.
+ * <br/><br/>
+ * A value is only cached if the server confirmed it tracks the key. Each read first stores a placeholder that an
+ * invalidation removes, so a value read before a concurrent write is never cached after its invalidation arrived.
+ * Whenever the stream is interrupted, the whole cache is dropped and reads go to the server until it is reopened.
+ * Missing keys are not cached.
+ *
+ * @author Tiago Wolker
+ */
+@Log4j2
+public class NearCacheClient implements AutoCloseable {
+
+    static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    private static final TypeReference<List<String>> KEYS = new TypeReference<>() {
+    };
+
+    private final RestTemplate restTemplate;
+    private final String baseUrl;
+    private final int maxEntries;
+    private final List<String> prefixes;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, Object> cache = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final Thread listener;
+
+    private volatile Long trackingId;
+    private volatile HttpURLConnection stream;
+    private volatile boolean closed;
+
+    /**
+     * @param baseUrl base URL of the server, e.g. <code>http://10.0.0.1:8080</code>.
+     * @param maxEntries values cached at most; reads beyond that are not cached.
+     * @param prefixes if not empty, only keys with one of these prefixes are cached, and the server broadcasts every
+     *                 write to them instead of remembering the keys read (BCAST mode).
+     */
+    public NearCacheClient(RestTemplate restTemplate, String baseUrl, int maxEntries, List<String> prefixes) {
+        this.restTemplate = restTemplate;
+        this.baseUrl = baseUrl;
+        this.maxEntries = maxEntries;
+        this.prefixes = Collections.unmodifiableList(prefixes);
+        this.listener = new Thread(this::listen, "near-cache-invalidations");
+        this.listener.setDaemon(true);
+    }
+
+    /**
+     * Opens the invalidation stream in the background. Values are only cached once it is open.
+     */
+    public void start() {
+        listener.start();
+    }
+
+    /**
+     * @return whether the invalidation stream is open, so values read from now on are cached.
+     */
+    public boolean isTracking() {
+        return trackingId != null;
+    }
+
+    /**
+     * @return the value of the key, or null if it does not exist.
+     * @throws org.springframework.web.client.RestClientException if the server could not be read.
+     */
+    public String get(String key) {
+        Object cached = cache.get(key);
+        if (cached instanceof String) {
+            hits.increment();
+            return (String) cached;
+        }
+        misses.increment();
+        Long id = trackingId;
+        Object placeholder = null;
+        if (id != null && cached == null && cache.size() < maxEntries) {
+            placeholder = new Object();
+            if (cache.putIfAbsent(key, placeholder) != null) {
+                placeholder = null;
+            }
+        }
+        HttpHeaders headers = new HttpHeaders();
+        if (id != null) {
+            headers.set(InvalidationStreams.TRACKING_HEADER, id.toString());
+        }
+        try {
+            ResponseEntity<String> response = restTemplate.exchange(baseUrl + "/GET/{key}", HttpMethod.GET,
+                    new HttpEntity<>(headers), String.class, key);
+            String value = response.getBody();
+            boolean tracked = id != null && id.toString()
+                    .equals(response.getHeaders().getFirst(InvalidationStreams.TRACKING_HEADER));
+            if (placeholder != null && tracked && value != null) {
+                cache.replace(key, placeholder, value);
+            }
+            return value;
+        } catch (HttpClientErrorException.NotFound e) {
+            return null;
+        } finally {
+            // Still there if the value was not cached, and gone if it was invalidated meanwhile.
+            if (placeholder != null) {
+                cache.remove(key, placeholder);
+            }
+        }
+    }
+
+    /**
+     * Writes through to the server. The cached value is dropped now, and again when the invalidation arrives.
+     */
+    public void set(String key, String value, Integer exSeconds) {
+        cache.remove(key);
+        UriComponentsBuilder uri = UriComponentsBuilder.fromHttpUrl(baseUrl + "/SET")
+                .queryParam("key", key)
+                .queryParam("value", value);
+        if (exSeconds != null) {
+            uri.queryParam("exSeconds", exSeconds);
+        }
+        restTemplate.exchange(uri.encode().build().toUri(), HttpMethod.PUT, HttpEntity.EMPTY, String.class);
+    }
+
+    public Integer del(String... keys) {
+        for (String key : keys) {
+            cache.remove(key);
+        }
+        return restTemplate.exchange(baseUrl + "/DEL/{keys}", HttpMethod.DELETE, HttpEntity.EMPTY, Integer.class,
+                String.join(",", keys)).getBody();
+    }
+
+    public int size() {
+        return (int) cache.values().stream().filter(value -> value instanceof String).count();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        HttpURLConnection connection = stream;
+        if (connection != null) {
+            connection.disconnect();
+        }
+        listener.interrupt();
+        this.invalidateAll();
+    }
+
+    /**
+     * Keeps the invalidation stream open, dropping the cache whenever it is interrupted.
+     */
+    private void listen() {
+        while (!closed) {
+            try {
+                this.readStream();
+            } catch (IOException | RuntimeException e) {
+                if (!closed) {
+                    log.warn("Invalidation stream of {} interrupted, dropping the near cache: {}", baseUrl, e.getMessage());
+                }
+            }
+            this.invalidateAll();
+            try {
+                TimeUnit.MILLISECONDS.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void readStream() throws IOException {
+        UriComponentsBuilder uri = UriComponentsBuilder.fromHttpUrl(baseUrl + "/TRACKING");
+        if (!prefixes.isEmpty()) {
+            uri.queryParam("bcast", true).queryParam("prefix", prefixes.toArray());
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL(uri.encode().toUriString()).openConnection();
+        connection.setRequestProperty(HttpHeaders.ACCEPT, MediaType.TEXT_EVENT_STREAM_VALUE);
+        stream = connection;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            String event = null;
+            StringBuilder data = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null && !closed) {
+                if (line.isEmpty()) {
+                    this.onEvent(event, data.toString());
+                    event = null;
+                    data.setLength(0);
+                } else if (line.startsWith("event:")) {
+                    event = field(line, 6);
+                } else if (line.startsWith("data:")) {
+                    data.append(data.length() > 0 ? "\n" : "").append(field(line, 5));
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void onEvent(String event, String data) throws IOException {
+        if (InvalidationStreams.TRACKING_EVENT.equals(event)) {
+            trackingId = Long.parseLong(data);
+            log.info("Near cache of {} tracking as client {}.", baseUrl, data);
+        } else if (TrackingTable.INVALIDATE.equals(event)) {
+            for (String key : objectMapper.readValue(data, KEYS)) {
+                cache.remove(key);
+            }
+        }
+    }
+
+    private void invalidateAll() {
+        trackingId = null;
+        cache.clear();
+    }
+
+    private static String field(String line, int start) {
+        return line.startsWith(" ", start) ? line.substring(start + 1) : line.substring(start);
+    }
+}
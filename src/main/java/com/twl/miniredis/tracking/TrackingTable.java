@@ -0,0 +1,290 @@
+package com.twl.miniredis.tracking;
+
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.command.CommandSpec;
+import com.twl.miniredis.command.KeyTracker;
+import com.twl.miniredis.command.PushSink;
+import com.twl.miniredis.command.Reply;
+import com.twl.miniredis.propagation.CommandListener;
+import com.twl.miniredis.propagation.CommandPropagator;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Server side of client-side caching, as Redis' <code>CLIENT TRACKING</code>: remembers which clients read which
+ * keys, and pushes <code>["invalidate", [key, ...]]</code> to them when those keys are written, expire or are evicted.
+ * <ul>
+ *     <li><b>Default mode</b>: each key read by a client is remembered until it is invalidated once, so a client is
+ *     only told about the keys it may have cached. The table holds at most <code>miniredis.tracking.max-keys</code>
+ *     keys; beyond that, keys are invalidated early to make room.</li>
+ *     <li><b>Broadcast mode</b> (<code>BCAST</code>): nothing is remembered, and the client is told about every
+ *     written key that starts with one of its prefixes, or about every key without prefixes.</li>
+ * </ul>
+ * Writes are observed as the {@link CommandPropagator} propagates them, while the key is still locked, and reads are
+ * tracked before they are executed, so an invalidation is always sent after a read that could have returned the
+ * previous value. The table only listens to writes while some client has tracking enabled.
+ * <br/><br/>
+ * RESP clients enable tracking after <code>HELLO 3</code>; HTTP clients subscribe to <code>/TRACKING</code>, see
+ * {@link NearCacheClient}. <code>REDIRECT</code>, <code>OPTIN</code>, <code>OPTOUT</code> and <code>NOLOOP</code> are
+ * not supported.
+ *
+ * @author Tiago Wolker
+ */
+@Log4j2
+@Component
+public class TrackingTable implements KeyTracker, CommandListener {
+
+    public static final String INVALIDATE = "invalidate";
+    public static final String RESP3_REQUIRED = "ERR Client tracking requires RESP3, see HELLO 3";
+
+    private final CommandPropagator propagator;
+    private final CommandDispatcher dispatcher;
+    private final int maxKeys;
+    private final Map<Long, TrackedClient> clients = new ConcurrentHashMap<>();
+    private final Map<Long, TrackedClient> broadcasting = new ConcurrentHashMap<>();
+    private final Map<String, Set<Long>> keys = new ConcurrentHashMap<>();
+
+    // Guarded by this.
+    private boolean listening;
+
+    /**
+     * A client with tracking enabled.
+     */
+    private static final class TrackedClient {
+        private final long id;
+        private final PushSink sink;
+        private final boolean broadcast;
+        private final List<String> prefixes;
+
+        private TrackedClient(long id, PushSink sink, boolean broadcast, List<String> prefixes) {
+            this.id = id;
+            this.sink = sink;
+            this.broadcast = broadcast;
+            this.prefixes = prefixes;
+        }
+
+        private boolean matches(String key) {
+            if (prefixes.isEmpty()) {
+                return true;
+            }
+            for (String prefix : prefixes) {
+                if (key.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public TrackingTable(CommandPropagator propagator, CommandDispatcher dispatcher,
+                         @Value("${miniredis.tracking.max-keys:1000000}") int maxKeys) {
+        this.propagator = propagator;
+        this.dispatcher = dispatcher;
+        this.maxKeys = maxKeys;
+        dispatcher.setTracker(this);
+    }
+
+    /**
+     * CLIENT TRACKING ON|OFF [BCAST] [PREFIX prefix [PREFIX prefix ...]]
+     */
+    @Override
+    public Object configure(ClientSession session, List<String> args) {
+        if (args.size() < 3) {
+            return Reply.error(CommandDispatcher.SYNTAX_ERROR);
+        }
+        String state = args.get(2).toUpperCase(Locale.ROOT);
+        boolean broadcast = false;
+        List<String> prefixes = new ArrayList<>();
+        for (int i = 3; i < args.size(); i++) {
+            String option = args.get(i).toUpperCase(Locale.ROOT);
+            if ("BCAST".equals(option)) {
+                broadcast = true;
+            } else if ("PREFIX".equals(option) && i + 1 < args.size()) {
+                prefixes.add(args.get(++i));
+            } else {
+                return Reply.error(CommandDispatcher.SYNTAX_ERROR);
+            }
+        }
+        if ("OFF".equals(state)) {
+            this.disable(session);
+            return Reply.OK;
+        }
+        if (!"ON".equals(state)) {
+            return Reply.error(CommandDispatcher.SYNTAX_ERROR);
+        }
+        if (!prefixes.isEmpty() && !broadcast) {
+            return Reply.error("ERR PREFIX option requires BCAST mode to be enabled");
+        }
+        if (session.getProtocol() != 3 || session.getPushSink() == null) {
+            return Reply.error(RESP3_REQUIRED);
+        }
+        this.enable(session, broadcast, prefixes);
+        return Reply.OK;
+    }
+
+    /**
+     * Enables tracking for the session, which must have a {@link PushSink}, replacing its previous options.
+     */
+    public void enable(ClientSession session, boolean broadcast, List<String> prefixes) {
+        TrackedClient client = new TrackedClient(session.getId(), session.getPushSink(), broadcast,
+                Collections.unmodifiableList(new ArrayList<>(prefixes)));
+        synchronized (this) {
+            clients.put(client.id, client);
+            if (broadcast) {
+                broadcasting.put(client.id, client);
+            } else {
+                broadcasting.remove(client.id);
+            }
+            if (!listening) {
+                propagator.addListener(this);
+                listening = true;
+            }
+        }
+        session.setTracking(true);
+    }
+
+    public void disable(ClientSession session) {
+        session.setTracking(false);
+        this.remove(session.getId());
+    }
+
+    @Override
+    public void untrack(ClientSession session) {
+        this.disable(session);
+    }
+
+    @Override
+    public void track(ClientSession session, List<String> keys) {
+        this.track(session.getId(), keys);
+    }
+
+    /**
+     * Remembers that the client read the keys, unless it tracks in broadcast mode.
+     *
+     * @param clientId id of the session that enabled tracking.
+     * @return whether the client will be told when the keys change: false if it does not have tracking enabled, or if
+     * it tracks prefixes that do not match every key.
+     */
+    public boolean track(long clientId, List<String> keys) {
+        TrackedClient client = clients.get(clientId);
+        if (client == null) {
+            return false;
+        }
+        if (client.broadcast) {
+            for (String key : keys) {
+                if (!client.matches(key)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        for (String key : keys) {
+            this.keys.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(clientId);
+        }
+        if (this.keys.size() > maxKeys) {
+            this.evict();
+        }
+        return true;
+    }
+
+    /**
+     * @return number of keys tracked in default mode.
+     */
+    public int getTrackedKeys() {
+        return keys.size();
+    }
+
+    /**
+     * @return number of clients with tracking enabled.
+     */
+    public int getTrackingClients() {
+        return clients.size();
+    }
+
+    @Override
+    public void onCommand(String... args) {
+        CommandSpec spec = dispatcher.lookup(args[0]);
+        List<String> written = spec != null && spec.getKeys() != null
+                ? spec.getKeys().keys(Arrays.asList(args))
+                : Collections.singletonList(args[1]);
+        this.invalidate(written);
+    }
+
+    /**
+     * Pushes the invalidation of the keys to each client that read them, or that tracks them in broadcast mode, in a
+     * single message per client.
+     */
+    void invalidate(List<String> written) {
+        Map<Long, List<String>> messages = null;
+        for (String key : written) {
+            Set<Long> readers = keys.remove(key);
+            if (readers != null) {
+                for (Long id : readers) {
+                    messages = add(messages, id, key);
+                }
+            }
+            for (TrackedClient client : broadcasting.values()) {
+                if (client.matches(key)) {
+                    messages = add(messages, client.id, key);
+                }
+            }
+        }
+        if (messages != null) {
+            messages.forEach(this::push);
+        }
+    }
+
+    private void push(long clientId, List<String> invalidated) {
+        TrackedClient client = clients.get(clientId);
+        if (client != null && !client.sink.push(Arrays.asList(INVALIDATE, invalidated))) {
+            this.remove(clientId);
+        }
+    }
+
+    /**
+     * Invalidates arbitrary keys until the table is back under its limit, as Redis does.
+     */
+    private void evict() {
+        Iterator<String> iterator = keys.keySet().iterator();
+        List<String> evicted = new ArrayList<>();
+        while (keys.size() - evicted.size() > maxKeys && iterator.hasNext()) {
+            evicted.add(iterator.next());
+        }
+        this.invalidate(evicted);
+    }
+
+    private void remove(long clientId) {
+        synchronized (this) {
+            if (clients.remove(clientId) == null) {
+                return;
+            }
+            broadcasting.remove(clientId);
+            if (clients.isEmpty() && listening) {
+                propagator.removeListener(this);
+                listening = false;
+                keys.clear();
+            }
+        }
+    }
+
+    private static Map<Long, List<String>> add(Map<Long, List<String>> messages, long id, String key) {
+        if (messages == null) {
+            messages = new HashMap<>();
+        }
+        messages.computeIfAbsent(id, i -> new ArrayList<>()).add(key);
+        return messages;
+    }
+}
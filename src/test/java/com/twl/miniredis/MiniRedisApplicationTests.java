@@ -3,7 +3,7 @@ package com.twl.miniredis;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(properties = {"miniredis.resp.port=0", "miniredis.scheduling.enabled=false"})
 class MiniRedisApplicationTests {
 
 	@Test
@@ -0,0 +1,178 @@
+package com.twl.miniredis.cluster;
+
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.command.Reply;
+import com.twl.miniredis.db.HashSlots;
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.resp.RespReader;
+import com.twl.miniredis.service.DatabaseService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClusterManagerTest {
+
+    private static final String LOCAL = "cluster_local";
+    private static final String REMOTE = "cluster_remote";
+    private static final String OTHER = "127.0.0.1:7002";
+
+    private final DatabaseRepository repository = new DatabaseRepository(new CommandPropagator());
+    private final DatabaseService service = new DatabaseService(repository);
+    private final CommandDispatcher dispatcher = new CommandDispatcher(service);
+    private final ClusterManager cluster = new ClusterManager(repository, dispatcher, true, "127.0.0.1:7001@8001",
+            "127.0.0.1:7001@8001=0-16383", 7001, 8001);
+    private final ClientSession session = new ClientSession();
+
+    @BeforeEach
+    void setUp() {
+        cluster.start();
+        assertEquals(Reply.OK, execute("CLUSTER", "MEET", "127.0.0.1", "7002", "8002"));
+        assertEquals(Reply.OK, execute("CLUSTER", "SETSLOT", slot(REMOTE), "NODE", OTHER));
+    }
+
+    @AfterEach
+    void tearDown() {
+        cluster.stop();
+        service.del(LOCAL, "{" + LOCAL + "}:other", REMOTE);
+    }
+
+    @Test
+    void shouldSuccess_route_whenKeysAreOwnedElsewhere() {
+        assertEquals(Reply.OK, execute("SET", LOCAL, "v"));
+        assertEquals("v", text(execute("GET", LOCAL)));
+        assertEquals("MOVED " + slot(REMOTE) + " " + OTHER, text(execute("GET", REMOTE)));
+        assertEquals(ClusterManager.CROSSSLOT, execute("DEL", LOCAL, REMOTE).toString());
+        assertEquals(1L, ((Number) execute("DEL", LOCAL, "{" + LOCAL + "}:other")).longValue());
+        // Commands without keys are never redirected.
+        assertEquals((long) HashSlots.slot(REMOTE), execute("CLUSTER", "KEYSLOT", REMOTE));
+        assertEquals(OTHER, cluster.getOwner(HashSlots.slot(REMOTE)).getAddress());
+    }
+
+    @Test
+    void shouldSuccess_route_whenSlotIsMigrating() {
+        String slot = slot(LOCAL);
+        String missing = "{" + LOCAL + "}:other";
+        assertEquals(Reply.OK, execute("SET", LOCAL, "v"));
+        assertEquals(Reply.OK, execute("CLUSTER", "SETSLOT", slot, "MIGRATING", OTHER));
+
+        assertEquals("v", text(execute("GET", LOCAL)));
+        assertEquals("ASK " + slot + " " + OTHER, text(execute("GET", missing)));
+        assertEquals(ClusterManager.TRYAGAIN, execute("DEL", LOCAL, missing).toString());
+        assertTrue(execute("CLUSTER", "SETSLOT", slot, "NODE", OTHER).toString().startsWith("ERR Can't assign"));
+
+        assertEquals(Reply.OK, execute("CLUSTER", "SETSLOT", slot, "STABLE"));
+        assertEquals("null", text(execute("GET", missing)));
+    }
+
+    @Test
+    void shouldSuccess_route_whenSlotIsImporting() {
+        String slot = slot(REMOTE);
+        assertEquals(Reply.OK, execute("CLUSTER", "SETSLOT", slot, "IMPORTING", OTHER));
+
+        assertEquals("MOVED " + slot + " " + OTHER, execute("SET", REMOTE, "v").toString());
+        assertEquals(Reply.OK, execute("ASKING"));
+        assertEquals(Reply.OK, execute("SET", REMOTE, "v"));
+        // ASKING only applies to the next command.
+        assertEquals("MOVED " + slot + " " + OTHER, text(execute("GET", REMOTE)));
+
+        assertEquals(Reply.OK, execute("CLUSTER", "SETSLOT", slot, "NODE", "127.0.0.1:7001"));
+        assertEquals("v", text(execute("GET", REMOTE)));
+    }
+
+    @Test
+    void shouldSuccess_migrate_whenTargetAcceptsKeys() throws Exception {
+        assertEquals(Reply.OK, execute("SET", LOCAL, "v"));
+        try (ServerSocket target = new ServerSocket(0)) {
+            List<List<String>> received = Collections.synchronizedList(new ArrayList<>());
+            Thread acceptor = new Thread(() -> accept(target, received));
+            acceptor.start();
+
+            Object reply = execute("MIGRATE", "127.0.0.1", Integer.toString(target.getLocalPort()), LOCAL, "0", "5000");
+            acceptor.join(5000);
+
+            assertEquals(Reply.OK, reply);
+            assertEquals(List.of("ASKING"), received.get(0));
+            assertEquals("SET", received.get(1).get(0));
+            assertEquals(LOCAL, received.get(1).get(1));
+            assertEquals("v", received.get(1).get(2));
+            assertFalse(repository.exists(LOCAL));
+        }
+        assertEquals("NOKEY", execute("MIGRATE", "127.0.0.1", "1", LOCAL, "0", "5000").toString());
+    }
+
+    @Test
+    void shouldSuccess_migrate_whenTargetIsUnreachable() throws Exception {
+        assertEquals(Reply.OK, execute("SET", LOCAL, "v"));
+        int port;
+        try (ServerSocket closed = new ServerSocket(0)) {
+            port = closed.getLocalPort();
+        }
+        Object reply = execute("MIGRATE", "127.0.0.1", Integer.toString(port), LOCAL, "0", "1000");
+        assertTrue(reply.toString().startsWith("IOERR"));
+        assertEquals("v", text(execute("GET", LOCAL)));
+    }
+
+    @Test
+    void shouldFail_migrate_whenTargetDoesNotReplyAndTimeoutIsZero() throws Exception {
+        assertEquals(Reply.OK, execute("SET", LOCAL, "v"));
+        try (ServerSocket silent = new ServerSocket(0)) {
+            // Accepted by the backlog, but never read nor replied to.
+            Object reply = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                    () -> execute("MIGRATE", "127.0.0.1", Integer.toString(silent.getLocalPort()), LOCAL, "0", "0"));
+            assertTrue(reply.toString().startsWith("IOERR"));
+        }
+        assertEquals("v", text(execute("GET", LOCAL)));
+    }
+
+    private Object execute(String... args) {
+        return dispatcher.execute(session, List.of(args));
+    }
+
+    private static String text(Object reply) {
+        return reply instanceof byte[] ? new String((byte[]) reply, StandardCharsets.UTF_8) : String.valueOf(reply);
+    }
+
+    private static String slot(String key) {
+        return Integer.toString(HashSlots.slot(key));
+    }
+
+    /**
+     * Fake target of MIGRATE, which records each command and replies <code>+OK</code>.
+     */
+    private static void accept(ServerSocket server, List<List<String>> received) {
+        try (Socket socket = server.accept()) {
+            socket.setSoTimeout(5000);
+            InputStream input = socket.getInputStream();
+            OutputStream output = socket.getOutputStream();
+            ByteBuffer in = ByteBuffer.allocate(4096);
+            int read;
+            while ((read = input.read(in.array(), in.position(), in.remaining())) > 0) {
+                in.position(in.position() + read);
+                in.flip();
+                List<String> command;
+                while ((command = RespReader.read(in)) != null) {
+                    received.add(command);
+                    output.write("+OK\r\n".getBytes(StandardCharsets.US_ASCII));
+                }
+                in.compact();
+            }
+        } catch (Exception e) {
+            // The client closed the connection.
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.twl.miniredis.db;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseTest {
+
+    @Test
+    void shouldSuccess_shard_whenSameKey() {
+        assertSame(Database.shard("key"), Database.shard(new String("key")));
+    }
+
+    @Test
+    void shouldSuccess_shard_whenKeysAreSpreadEvenly() {
+        Shard[] shards = Database.getShards();
+        int[] counts = new int[shards.length];
+        int keys = 100_000;
+        for (int i = 0; i < keys; i++) {
+            counts[Database.shard("user:" + i).getIndex()]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > keys / shards.length / 2, "Uneven shard distribution: " + count);
+        }
+    }
+}
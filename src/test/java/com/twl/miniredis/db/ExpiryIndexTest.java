@@ -0,0 +1,42 @@
+package com.twl.miniredis.db;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpiryIndexTest {
+
+    @Test
+    void shouldSuccess_pollExpired_inDeadlineOrder() {
+        ExpiryIndex index = new ExpiryIndex();
+        index.put("b", 200);
+        index.put("a", 100);
+        index.put("c", 300);
+
+        assertEquals("a", index.pollExpired(250).getKey());
+        assertEquals("b", index.pollExpired(250).getKey());
+        assertNull(index.pollExpired(250));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void shouldSuccess_put_whenDeadlineIsReplaced() {
+        ExpiryIndex index = new ExpiryIndex();
+        index.put("a", 100);
+        index.put("a", 500);
+
+        assertNull(index.pollExpired(200));
+        assertEquals(500, index.pollExpired(500).getExpireAt());
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    void shouldSuccess_remove() {
+        ExpiryIndex index = new ExpiryIndex();
+        index.put("a", 100);
+        index.remove("a");
+
+        assertNull(index.pollExpired(Long.MAX_VALUE));
+        assertEquals(0, index.size());
+    }
+}
@@ -0,0 +1,28 @@
+package com.twl.miniredis.db;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GlobTest {
+
+    @Test
+    void shouldSuccess_matches_whenPatternUsesWildcards() {
+        assertTrue(Glob.matches("*", ""));
+        assertTrue(Glob.matches("user:*", "user:42"));
+        assertTrue(Glob.matches("h?llo", "hello"));
+        assertTrue(Glob.matches("h*llo", "heeeello"));
+        assertTrue(Glob.matches("h[ae]llo", "hallo"));
+        assertTrue(Glob.matches("h[^e]llo", "hallo"));
+        assertTrue(Glob.matches("h[a-c]llo", "hbllo"));
+        assertTrue(Glob.matches("h\\*llo", "h*llo"));
+        assertTrue(Glob.matches("*:*:*", "a:b:c"));
+
+        assertFalse(Glob.matches("user:*", "session:42"));
+        assertFalse(Glob.matches("h?llo", "hllo"));
+        assertFalse(Glob.matches("h[^e]llo", "hello"));
+        assertFalse(Glob.matches("h[a-c]llo", "hello"));
+        assertFalse(Glob.matches("h\\*llo", "hello"));
+        assertFalse(Glob.matches("hello", "hello!"));
+    }
+}
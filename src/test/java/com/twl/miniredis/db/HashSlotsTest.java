@@ -0,0 +1,28 @@
+package com.twl.miniredis.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashSlotsTest {
+
+    @Test
+    void shouldSuccess_slot_whenKeyMatchesRedis() {
+        assertEquals(0x31C3, HashSlots.crc16("123456789".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(12182, HashSlots.slot("foo"));
+        assertEquals(5061, HashSlots.slot("bar"));
+        assertEquals(0, HashSlots.slot(""));
+    }
+
+    @Test
+    void shouldSuccess_slot_whenKeyHasHashtag() {
+        assertEquals(HashSlots.slot("user"), HashSlots.slot("{user}:profile"));
+        assertEquals(HashSlots.slot("user"), HashSlots.slot("session:{user}"));
+        assertEquals(HashSlots.slot("user"), HashSlots.slot("{user}{other}"));
+        // Empty or unterminated tags hash the whole key.
+        assertEquals(HashSlots.crc16("{}user".getBytes(StandardCharsets.UTF_8)) & 16383, HashSlots.slot("{}user"));
+        assertEquals(HashSlots.crc16("{user".getBytes(StandardCharsets.UTF_8)) & 16383, HashSlots.slot("{user"));
+    }
+}
@@ -0,0 +1,36 @@
+package com.twl.miniredis.db.eviction;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AccessTrackerTest {
+
+    @Test
+    void shouldSuccess_fromName() {
+        assertEquals(EvictionPolicy.ALLKEYS_LRU, EvictionPolicy.fromName("allkeys-lru"));
+        assertEquals(EvictionPolicy.VOLATILE_TTL, EvictionPolicy.fromName(" VOLATILE-TTL "));
+        assertEquals("allkeys-lfu", EvictionPolicy.ALLKEYS_LFU.getName());
+    }
+
+    @Test
+    void shouldSuccess_touch_whenLfuCounterGrowsLogarithmically() {
+        int access = AccessTracker.initial(EvictionPolicy.ALLKEYS_LFU);
+        assertEquals(AccessTracker.LFU_INIT_VAL, AccessTracker.decayedCounter(access));
+        for (int i = 0; i < 1000; i++) {
+            access = AccessTracker.touch(access, EvictionPolicy.ALLKEYS_LFU);
+        }
+        int counter = AccessTracker.decayedCounter(access);
+        assertTrue(counter > AccessTracker.LFU_INIT_VAL && counter < 40, "Unexpected LFU counter " + counter);
+    }
+
+    @Test
+    void shouldSuccess_idleScore_whenMoreFrequentKeysScoreLower() {
+        int cold = AccessTracker.initial(EvictionPolicy.ALLKEYS_LFU);
+        int hot = cold;
+        for (int i = 0; i < 10_000; i++) {
+            hot = AccessTracker.touch(hot, EvictionPolicy.ALLKEYS_LFU);
+        }
+        assertTrue(AccessTracker.idleScore(hot, EvictionPolicy.ALLKEYS_LFU) < AccessTracker.idleScore(cold, EvictionPolicy.ALLKEYS_LFU));
+    }
+}
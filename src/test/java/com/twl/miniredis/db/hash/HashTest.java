@@ -0,0 +1,80 @@
+package com.twl.miniredis.db.hash;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashTest {
+
+    @AfterEach
+    void tearDown() {
+        Hash.configureListpack(128, 64);
+    }
+
+    @Test
+    void shouldSuccess_put_whenFieldIsNew() {
+        Hash hash = new Hash();
+        assertTrue(hash.put("a", "1"));
+        assertFalse(hash.put("a", "2"));
+        assertEquals("2", hash.get("a"));
+        assertNull(hash.get("b"));
+        assertEquals(1, hash.size());
+        assertEquals(2, hash.contentBytes());
+    }
+
+    @Test
+    void shouldSuccess_keepInsertionOrder_whenFieldIsRemoved() {
+        Hash hash = new Hash();
+        for (String field : List.of("a", "b", "c", "d", "e")) {
+            hash.put(field, field.toUpperCase());
+        }
+        assertTrue(hash.remove("b"));
+        assertFalse(hash.remove("b"));
+        hash.put("f", "F");
+
+        assertEquals(List.of("a", "c", "d", "e", "f"), List.copyOf(hash.entries().keySet()));
+        assertEquals(Hash.ENCODING_LISTPACK, hash.encoding());
+    }
+
+    @Test
+    void shouldSuccess_convertToHashtable_whenOverListpackLimits() {
+        Hash.configureListpack(3, 8);
+        Hash hash = new Hash();
+        hash.put("a", "1");
+        hash.put("b", "2");
+        hash.put("c", "3");
+        assertEquals(Hash.ENCODING_LISTPACK, hash.encoding());
+        hash.put("d", "4");
+        assertEquals(Hash.ENCODING_HASHTABLE, hash.encoding());
+
+        Hash longValue = new Hash();
+        longValue.put("a", "1");
+        longValue.put("a", "123456789");
+        assertEquals(Hash.ENCODING_HASHTABLE, longValue.encoding());
+
+        LinkedHashMap<String, String> expected = new LinkedHashMap<>();
+        expected.put("a", "1");
+        expected.put("b", "2");
+        expected.put("c", "3");
+        expected.put("d", "4");
+        assertEquals(expected, hash.entries());
+        assertEquals("123456789", longValue.get("a"));
+        assertEquals(10, longValue.contentBytes());
+    }
+
+    @Test
+    void shouldSuccess_incrBy_whenValueIsInteger() {
+        Hash hash = new Hash();
+        assertEquals(5, hash.incrBy("visits", 5));
+        assertEquals(3, hash.incrBy("visits", -2));
+        hash.put("name", "Ana");
+        assertThrows(NumberFormatException.class, () -> hash.incrBy("name", 1));
+        hash.put("max", String.valueOf(Long.MAX_VALUE));
+        assertThrows(ArithmeticException.class, () -> hash.incrBy("max", 1));
+        assertEquals("3", hash.get("visits"));
+    }
+}
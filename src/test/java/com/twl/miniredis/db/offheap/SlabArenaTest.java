@@ -0,0 +1,51 @@
+package com.twl.miniredis.db.offheap;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SlabArenaTest {
+
+    private final SlabArena arena = new SlabArena();
+
+    @Test
+    void shouldSuccess_read_whenAllocated() {
+        byte[] small = "välue".getBytes(StandardCharsets.UTF_8);
+        byte[] large = new byte[100_000];
+        large[99_999] = 7;
+
+        long smallHandle = arena.allocate(small);
+        long largeHandle = arena.allocate(large);
+
+        assertArrayEquals(small, arena.read(smallHandle));
+        assertArrayEquals(large, arena.read(largeHandle));
+        assertEquals(16, SlabArena.chunkSize(smallHandle));
+        assertEquals(128 * 1024, SlabArena.chunkSize(largeHandle));
+        assertEquals(16 + 128 * 1024, arena.getAllocatedBytes());
+        assertArrayEquals(new byte[0], arena.read(arena.allocate(new byte[0])));
+    }
+
+    @Test
+    void shouldSuccess_read_whenHandleIsStale() {
+        long handle = arena.allocate("first".getBytes(StandardCharsets.UTF_8));
+        arena.free(handle);
+        long reused = arena.allocate("other".getBytes(StandardCharsets.UTF_8));
+
+        assertNotEquals(handle, reused);
+        assertNull(arena.read(handle));
+        assertArrayEquals("other".getBytes(StandardCharsets.UTF_8), arena.read(reused));
+
+        arena.free(handle);
+        assertArrayEquals("other".getBytes(StandardCharsets.UTF_8), arena.read(reused));
+        assertEquals(16, arena.getAllocatedBytes());
+    }
+
+    @Test
+    void shouldSuccess_allocate_whenValueIsLargerThanSlab() {
+        assertEquals(0, arena.allocate(new byte[SlabArena.SLAB_SIZE]));
+        assertNotEquals(0, arena.allocate(new byte[SlabArena.maxValueSize()]));
+        assertEquals(SlabArena.SLAB_SIZE, arena.getReservedBytes());
+    }
+}
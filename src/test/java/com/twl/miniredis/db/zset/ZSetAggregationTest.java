@@ -0,0 +1,79 @@
+package com.twl.miniredis.db.zset;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZSetAggregationTest {
+
+    @Test
+    void shouldSuccess_union_whenWeightedAndAggregated() {
+        ZSet first = zset("a", 1, "b", 2);
+        ZSet second = zset("b", 3, "c", 4);
+
+        assertEquals(Map.of("a", 1.0, "b", 8.0, "c", 8.0),
+                members(ZSetAggregation.union(Arrays.asList(first, second, null), new double[]{1, 2, 1},
+                        ZSetAggregation.Aggregate.SUM)));
+        assertEquals(Map.of("a", 1.0, "b", 2.0, "c", 4.0),
+                members(ZSetAggregation.union(Arrays.asList(first, second), new double[]{1, 1},
+                        ZSetAggregation.Aggregate.MIN)));
+        assertEquals(Map.of("a", 0.0),
+                members(ZSetAggregation.union(Arrays.asList(zset("a", Double.POSITIVE_INFINITY),
+                        zset("a", Double.NEGATIVE_INFINITY)), new double[]{1, 1}, ZSetAggregation.Aggregate.SUM)));
+        assertEquals(Map.of("a", 0.0),
+                members(ZSetAggregation.union(Arrays.asList(zset("a", Double.POSITIVE_INFINITY)), new double[]{0},
+                        ZSetAggregation.Aggregate.SUM)));
+    }
+
+    @Test
+    void shouldSuccess_intersection_whenSmallestInputIsLast() {
+        ZSet large = new ZSet();
+        for (int i = 0; i < 1000; i++) {
+            large.add(i, "m" + i);
+        }
+        ZSet small = zset("m1", 10, "m500", 20, "missing", 30);
+
+        assertEquals(Map.of("m1", 10.0, "m500", 500.0),
+                members(ZSetAggregation.intersection(Arrays.asList(large, small), new double[]{1, 1},
+                        ZSetAggregation.Aggregate.MAX)));
+        assertEquals(0, ZSetAggregation.intersection(Arrays.asList(large, null), new double[]{1, 1},
+                ZSetAggregation.Aggregate.SUM).size());
+        assertThrows(IllegalArgumentException.class, () -> ZSetAggregation.Aggregate.parse("AVG"));
+    }
+
+    @Test
+    void shouldSuccess_union_whenLargerThanParallelThreshold() {
+        int size = ZSetAggregation.PARALLEL_UNION_THRESHOLD;
+        ZSet first = new ZSet();
+        ZSet second = new ZSet();
+        Map<String, Double> expected = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            first.add(i, "m" + i);
+            second.add(1, "m" + (i + size / 2));
+            expected.merge("m" + i, (double) i, Double::sum);
+            expected.merge("m" + (i + size / 2), 3.0, Double::sum);
+        }
+
+        ZSet union = ZSetAggregation.union(Arrays.asList(first, second), new double[]{1, 3},
+                ZSetAggregation.Aggregate.SUM);
+        assertEquals(expected, members(union));
+        assertEquals(size / 2 * 3, union.size());
+    }
+
+    private static ZSet zset(Object... scoreMembers) {
+        ZSet zset = new ZSet();
+        for (int i = 0; i < scoreMembers.length; i += 2) {
+            zset.add(((Number) scoreMembers[i + 1]).doubleValue(), (String) scoreMembers[i]);
+        }
+        return zset;
+    }
+
+    private static LinkedHashMap<String, Double> members(ZSet zset) {
+        return zset.range(0, -1);
+    }
+}
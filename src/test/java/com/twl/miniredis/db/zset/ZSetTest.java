@@ -0,0 +1,257 @@
+package com.twl.miniredis.db.zset;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZSetTest {
+
+    @Test
+    void shouldSuccess_add_whenMemberIsNew() {
+        ZSet zset = new ZSet();
+        assertTrue(zset.add(1, "a"));
+        assertFalse(zset.add(2, "a"));
+        assertEquals(1, zset.size());
+    }
+
+    @Test
+    void shouldSuccess_rank_whenScoreIsUpdated() {
+        ZSet zset = new ZSet();
+        zset.add(1, "a");
+        zset.add(2, "b");
+        zset.add(3, "c");
+        zset.add(10, "a");
+
+        assertEquals(0, zset.rank("b"));
+        assertEquals(2, zset.rank("a"));
+        assertEquals(-1, zset.rank("d"));
+    }
+
+    @Test
+    void shouldSuccess_rank_whenScoresAreEqual() {
+        ZSet zset = new ZSet();
+        zset.add(1, "c");
+        zset.add(1, "a");
+        zset.add(1, "b");
+
+        assertEquals(0, zset.rank("a"));
+        assertEquals(2, zset.rank("c"));
+    }
+
+    @Test
+    void shouldSuccess_range_whenNegativeIndexes() {
+        ZSet zset = new ZSet();
+        zset.add(1, "a");
+        zset.add(2, "b");
+        zset.add(3, "c");
+
+        LinkedHashMap<String, Double> expected = new LinkedHashMap<>();
+        expected.put("b", 2.0);
+        expected.put("c", 3.0);
+
+        assertEquals(expected, zset.range(-2, -1));
+        assertEquals(expected, zset.range(1, 100));
+        assertEquals(3, zset.range(-100, 2).size());
+        assertTrue(zset.range(2, 1).isEmpty());
+        assertTrue(zset.range(5, 10).isEmpty());
+    }
+
+    @Test
+    void shouldSuccess_rangeChunks_whenRangeIsLargerThanChunk() {
+        ZSet zset = new ZSet();
+        for (int i = 0; i < 1000; i++) {
+            zset.add(i, "member" + i);
+        }
+
+        LinkedHashMap<String, Double> streamed = new LinkedHashMap<>();
+        int chunks = 0;
+        for (Iterator<LinkedHashMap<String, Double>> it = zset.rangeChunks(10, -11, 64); it.hasNext(); chunks++) {
+            LinkedHashMap<String, Double> chunk = it.next();
+            assertTrue(chunk.size() <= 64);
+            streamed.putAll(chunk);
+        }
+        assertEquals(zset.range(10, -11), streamed);
+        assertEquals(16, chunks);
+        assertFalse(zset.rangeChunks(1000, -1, 64).hasNext());
+    }
+
+    @Test
+    void shouldSuccess_parseScore_whenInfinity() {
+        assertEquals(Double.POSITIVE_INFINITY, ZSet.parseScore("+inf"));
+        assertEquals(Double.NEGATIVE_INFINITY, ZSet.parseScore("-inf"));
+        assertThrows(NumberFormatException.class, () -> ZSet.parseScore("NaN"));
+    }
+
+    @Test
+    void shouldSuccess_rankAndRange_whenComparedToSortedReference() {
+        ZSet zset = new ZSet();
+        Map<String, Double> reference = new TreeMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            String member = "m" + random.nextInt(1000);
+            double score = random.nextInt(200);
+            zset.add(score, member);
+            reference.put(member, score);
+        }
+
+        List<Map.Entry<String, Double>> sorted = new ArrayList<>(reference.entrySet());
+        sorted.sort(Map.Entry.<String, Double>comparingByValue().thenComparing(Map.Entry.comparingByKey()));
+
+        assertEquals(sorted.size(), zset.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            assertEquals(i, zset.rank(sorted.get(i).getKey()));
+        }
+        List<String> range = new ArrayList<>(zset.range(100, 199).keySet());
+        for (int i = 0; i < range.size(); i++) {
+            assertEquals(sorted.get(100 + i).getKey(), range.get(i));
+        }
+    }
+
+    @Test
+    void shouldSuccess_encoding_whenOverListpackLimits() {
+        ZSet zset = new ZSet();
+        for (int i = 0; i < ZSet.getMaxListpackEntries(); i++) {
+            zset.add(i % 7, "m" + i);
+        }
+        assertEquals(ZSet.ENCODING_LISTPACK, zset.encoding());
+        LinkedHashMap<String, Double> before = zset.range(0, -1);
+
+        zset.add(-1, "last");
+        assertEquals(ZSet.ENCODING_SKIPLIST, zset.encoding());
+        assertEquals(ZSet.getMaxListpackEntries() + 1, zset.size());
+        assertEquals(0, zset.rank("last"));
+        LinkedHashMap<String, Double> after = zset.range(1, -1);
+        assertEquals(new ArrayList<>(before.entrySet()), new ArrayList<>(after.entrySet()));
+
+        ZSet longMember = new ZSet();
+        longMember.add(1, "a");
+        longMember.add(2, "x".repeat(ZSet.getMaxListpackValue() + 1));
+        assertEquals(ZSet.ENCODING_SKIPLIST, longMember.encoding());
+        assertEquals(1, longMember.rank("x".repeat(ZSet.getMaxListpackValue() + 1)));
+    }
+
+    @Test
+    void shouldSuccess_rankAndRange_whenListpackComparedToSortedReference() {
+        ZSet zset = new ZSet();
+        Map<String, Double> reference = new TreeMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            String member = "m" + random.nextInt(ZSet.getMaxListpackEntries());
+            double score = random.nextInt(20);
+            assertEquals(!reference.containsKey(member), zset.add(score, member));
+            reference.put(member, score);
+        }
+        assertEquals(ZSet.ENCODING_LISTPACK, zset.encoding());
+
+        List<Map.Entry<String, Double>> sorted = new ArrayList<>(reference.entrySet());
+        sorted.sort(Map.Entry.<String, Double>comparingByValue().thenComparing(Map.Entry.comparingByKey()));
+
+        assertEquals(sorted.size(), zset.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            assertEquals(i, zset.rank(sorted.get(i).getKey()));
+        }
+        assertEquals(sorted, new ArrayList<>(zset.range(0, -1).entrySet()));
+    }
+
+    @Test
+    void shouldSuccess_rangeByScore_whenComparedToSortedReference() {
+        for (int members : new int[]{ZSet.getMaxListpackEntries(), 3000}) {
+            ZSet zset = new ZSet();
+            Map<String, Double> reference = new TreeMap<>();
+            Random random = new Random(members);
+            for (int i = 0; i < members; i++) {
+                double score = random.nextInt(100);
+                zset.add(score, "m" + i);
+                reference.put("m" + i, score);
+            }
+            List<Map.Entry<String, Double>> sorted = new ArrayList<>(reference.entrySet());
+            sorted.sort(Map.Entry.<String, Double>comparingByValue().thenComparing(Map.Entry.comparingByKey()));
+
+            for (String[] bounds : new String[][]{{"10", "20"}, {"(10", "(20"}, {"-inf", "5"}, {"(95", "+inf"},
+                    {"30", "30"}, {"(30", "30"}, {"50", "40"}}) {
+                ScoreRange range = ScoreRange.parse(bounds[0], bounds[1]);
+                List<Map.Entry<String, Double>> expected = new ArrayList<>();
+                for (Map.Entry<String, Double> entry : sorted) {
+                    if (range.gteMin(entry.getValue(), entry.getKey()) && range.lteMax(entry.getValue(), entry.getKey())) {
+                        expected.add(entry);
+                    }
+                }
+                assertEquals(expected.size(), zset.count(range));
+                assertEquals(expected, new ArrayList<>(zset.rangeBy(range, false, 0, -1).entrySet()));
+                assertEquals(expected.subList(Math.min(2, expected.size()), Math.min(5, expected.size())),
+                        new ArrayList<>(zset.rangeBy(range, false, 2, 3).entrySet()));
+
+                List<Map.Entry<String, Double>> reversed = new ArrayList<>(expected);
+                Collections.reverse(reversed);
+                assertEquals(reversed.subList(Math.min(1, reversed.size()), reversed.size()),
+                        new ArrayList<>(zset.rangeBy(range, true, 1, -1).entrySet()));
+            }
+            assertTrue(zset.rangeBy(ScoreRange.parse("-inf", "+inf"), false, -1, 10).isEmpty());
+            assertTrue(zset.rangeBy(ScoreRange.parse("-inf", "+inf"), false, members, 10).isEmpty());
+
+            List<Map.Entry<String, Double>> reversed = new ArrayList<>(sorted);
+            Collections.reverse(reversed);
+            assertEquals(reversed.subList(0, 10), new ArrayList<>(zset.revRange(0, 9).entrySet()));
+            assertEquals(reversed.subList(members - 3, members), new ArrayList<>(zset.revRange(-3, -1).entrySet()));
+            String first = sorted.get(0).getKey();
+            assertEquals(members - 1, zset.revRank(first));
+        }
+    }
+
+    @Test
+    void shouldSuccess_rangeBy_whenLexRange() {
+        for (int members : new int[]{26, 26 * 26}) {
+            ZSet zset = new ZSet();
+            List<String> sorted = new ArrayList<>();
+            for (int i = 0; i < members; i++) {
+                String member = members == 26 ? String.valueOf((char) ('a' + i))
+                        : "" + (char) ('a' + i / 26) + (char) ('a' + i % 26);
+                zset.add(0, member);
+                sorted.add(member);
+            }
+            assertEquals(sorted, new ArrayList<>(zset.rangeBy(LexRange.parse("-", "+"), false, 0, -1).keySet()));
+            int d = sorted.indexOf(members == 26 ? "d" : "da");
+            assertEquals(sorted.subList(0, d), new ArrayList<>(zset.rangeBy(LexRange.parse("-", "(d"), false, 0, -1).keySet()));
+            assertEquals(sorted.subList(d, d + 2), new ArrayList<>(zset.rangeBy(LexRange.parse("[d", "+"), false, 0, 2).keySet()));
+            assertEquals(sorted.subList(d + 1, d + 3), new ArrayList<>(zset.rangeBy(LexRange.parse("(" + sorted.get(d), "+"), false, 0, 2).keySet()));
+            assertTrue(zset.rangeBy(LexRange.parse("+", "-"), false, 0, -1).isEmpty());
+        }
+        assertThrows(IllegalArgumentException.class, () -> LexRange.parse("a", "+"));
+        assertThrows(IllegalArgumentException.class, () -> ScoreRange.parse("(a", "1"));
+    }
+
+    @Test
+    void shouldSuccess_removeAndIncrBy_whenBothEncodings() {
+        for (int members : new int[]{10, 500}) {
+            ZSet zset = new ZSet();
+            for (int i = 0; i < members; i++) {
+                zset.add(i, "m" + i);
+            }
+            long bytes = zset.memberBytes();
+
+            assertTrue(zset.remove("m0"));
+            assertFalse(zset.remove("m0"));
+            assertEquals(members - 1, zset.size());
+            assertEquals(bytes - 2, zset.memberBytes());
+            assertNull(zset.score("m0"));
+
+            assertEquals(members + 0.5, zset.incrBy(members - 0.5, "m1"));
+            assertEquals(members - 2, zset.rank("m1"));
+            assertEquals(0, zset.revRank("m1"));
+            assertEquals(2.5, zset.incrBy(2.5, "new"));
+            assertEquals(bytes - 2 + 3, zset.memberBytes());
+            zset.incrBy(Double.POSITIVE_INFINITY, "m2");
+            assertThrows(IllegalArgumentException.class, () -> zset.incrBy(Double.NEGATIVE_INFINITY, "m2"));
+            assertEquals(Double.POSITIVE_INFINITY, zset.score("m2"));
+        }
+    }
+}
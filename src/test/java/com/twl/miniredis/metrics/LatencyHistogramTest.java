@@ -0,0 +1,49 @@
+package com.twl.miniredis.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void shouldSuccess_percentile_whenValuesAreUniform() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(100_000_000, histogram.getMax());
+        assertWithinPrecision(50_000_000, histogram.percentile(50));
+        assertWithinPrecision(99_000_000, histogram.percentile(99));
+        assertWithinPrecision(99_900_000, histogram.percentile(99.9));
+        assertEquals(100_000_000, histogram.percentile(100));
+    }
+
+    @Test
+    void shouldSuccess_bucket_whenValuesGrow() {
+        int previous = -1;
+        for (long value = 0; value < 1 << 20; value++) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(bucket == previous || bucket == previous + 1);
+            assertTrue(LatencyHistogram.highestEquivalentValue(bucket) >= value);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    void shouldSuccess_percentile_whenEmptyOrOutOfRange() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(99));
+
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.percentile(50));
+        assertEquals(histogram.getMax(), histogram.percentile(100));
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected * 0.032, "expected about " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,42 @@
+package com.twl.miniredis.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyMonitorTest {
+
+    @Test
+    void shouldSuccess_record_whenOverThreshold() {
+        LatencyMonitor monitor = new LatencyMonitor(10);
+        monitor.record(LatencyMonitor.EXPIRE_CYCLE, 5);
+        monitor.record(LatencyMonitor.EXPIRE_CYCLE, 30);
+        monitor.record(LatencyMonitor.EXPIRE_CYCLE, 20);
+        monitor.record(LatencyMonitor.AOF_FSYNC, 15);
+
+        LatencyMonitor.Event expireCycle = monitor.get(LatencyMonitor.EXPIRE_CYCLE);
+        assertEquals(20, expireCycle.getLatest());
+        assertEquals(30, expireCycle.getMax());
+        // Samples of the same second are merged into their maximum.
+        List<long[]> history = expireCycle.history();
+        assertTrue(history.size() <= 2);
+        assertEquals(30, history.stream().mapToLong(sample -> sample[1]).max().orElse(0));
+
+        assertEquals(2, monitor.latest().size());
+        assertEquals(1, monitor.reset(List.of(LatencyMonitor.AOF_FSYNC, "unknown")));
+        assertNull(monitor.get(LatencyMonitor.AOF_FSYNC));
+        assertEquals(1, monitor.reset(List.of()));
+        assertTrue(monitor.latest().isEmpty());
+    }
+
+    @Test
+    void shouldSuccess_record_whenDisabled() {
+        LatencyMonitor monitor = new LatencyMonitor(0);
+        monitor.record(LatencyMonitor.COMMAND, 1000);
+
+        assertFalse(monitor.isEnabled());
+        assertTrue(monitor.latest().isEmpty());
+    }
+}
@@ -0,0 +1,68 @@
+package com.twl.miniredis.metrics;
+
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.persistence.AppendOnlyFile;
+import com.twl.miniredis.persistence.Snapshot;
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.replication.ReplicationPrimary;
+import com.twl.miniredis.replication.ReplicationReplica;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.resp.RespServer;
+import com.twl.miniredis.service.DatabaseService;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerMetricsTest {
+
+    private final CommandPropagator propagator = new CommandPropagator();
+    private final DatabaseRepository repository = new DatabaseRepository(propagator);
+    private final DatabaseService service = new DatabaseService(repository);
+    private final CommandDispatcher dispatcher = new CommandDispatcher(service);
+    private final RespServer respServer = new RespServer(dispatcher, false, "127.0.0.1", 0, 1);
+    private final ReplicationPrimary primary = new ReplicationPrimary(propagator, dispatcher, repository, 1024);
+    private final ServerMetrics metrics = new ServerMetrics(dispatcher, service,
+            new AppendOnlyFile(propagator, dispatcher, repository, new LatencyMonitor(0), false, "metrics.aof", "everysec", 16, 0, 0),
+            new Snapshot(repository, dispatcher, "metrics.rdb", 0, false), respServer, new LatencyMonitor(0),
+            primary, new ReplicationReplica(dispatcher, service, primary, respServer, ""));
+    private final ClientSession session = new ClientSession();
+
+    @Test
+    void shouldSuccess_info_whenCommandsWereExecuted() {
+        try {
+            dispatcher.execute(session, List.of("SET", "metrics_string", "value"));
+            dispatcher.execute(session, List.of("ZADD", "metrics_zset", "1", "a", "2", "b"));
+            dispatcher.execute(session, List.of("INCR", "metrics_string"));
+            dispatcher.execute(session, List.of("GET"));
+
+            String info = (String) dispatcher.execute(session, List.of("INFO", "commandstats", "latencystats", "keyspace"));
+
+            assertTrue(info.startsWith("# Keyspace\r\n"));
+            assertTrue(info.contains("cmdstat_set:calls=1,"));
+            assertTrue(info.contains("cmdstat_incr:calls=1,") && info.contains("failed_calls=1"));
+            assertTrue(info.contains("cmdstat_get:calls=0,") && info.contains("rejected_calls=1"));
+            assertTrue(info.contains("latency_percentiles_usec_zadd:p50="));
+            assertTrue(info.contains(",zsets=") && info.contains(",zset_members="));
+            assertFalse(info.contains("# Server"));
+        } finally {
+            service.del("metrics_string", "metrics_zset");
+        }
+    }
+
+    @Test
+    void shouldSuccess_prometheus_whenCommandsWereExecuted() {
+        dispatcher.execute(session, List.of("PING"));
+        metrics.sampleOpsPerSecond();
+
+        String exposition = metrics.prometheus();
+
+        assertTrue(exposition.contains("# TYPE miniredis_commands_total counter\n"));
+        assertTrue(exposition.contains("miniredis_commands_total{command=\"ping\"} 1\n"));
+        assertTrue(exposition.contains("miniredis_command_duration_seconds{command=\"ping\",quantile=\"0.999\"} "));
+        assertTrue(exposition.contains("miniredis_command_duration_seconds_count{command=\"ping\"} 1\n"));
+        assertTrue(exposition.contains("\nminiredis_keys "));
+    }
+}
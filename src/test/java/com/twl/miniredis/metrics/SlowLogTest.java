@@ -0,0 +1,63 @@
+package com.twl.miniredis.metrics;
+
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.service.DatabaseService;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SlowLogTest {
+
+    private final CommandDispatcher dispatcher =
+            new CommandDispatcher(new DatabaseService(new DatabaseRepository(new CommandPropagator())));
+    private final ClientSession session = new ClientSession();
+
+    @Test
+    void shouldSuccess_slowlog_whenThresholdIsZero() {
+        new SlowLog(dispatcher, 0, 2);
+        session.setName("slowlog-client");
+        dispatcher.execute(session, List.of("SET", "slowlog_key", "value"));
+        dispatcher.execute(session, List.of("GET", "slowlog_key"));
+        dispatcher.execute(session, List.of("DEL", "slowlog_key"));
+
+        assertEquals(2L, ((Number) dispatcher.execute(session, List.of("SLOWLOG", "LEN"))).longValue());
+        List<?> entries = (List<?>) dispatcher.execute(session, List.of("SLOWLOG", "GET"));
+        assertEquals(2, entries.size());
+        // SLOWLOG LEN is logged too, before the GET that reads the log.
+        List<?> newest = (List<?>) entries.get(0);
+        List<?> oldest = (List<?>) entries.get(1);
+        assertEquals(List.of("SLOWLOG", "LEN"), newest.get(3));
+        assertEquals(List.of("DEL", "slowlog_key"), oldest.get(3));
+        assertEquals("slowlog-client", oldest.get(5));
+        assertTrue((Long) newest.get(0) > (Long) oldest.get(0));
+
+        dispatcher.execute(session, List.of("SLOWLOG", "RESET"));
+        assertTrue(((Number) dispatcher.execute(session, List.of("SLOWLOG", "LEN"))).longValue() <= 1);
+    }
+
+    @Test
+    void shouldSuccess_add_whenArgumentsAreTruncated() {
+        SlowLog slowLog = new SlowLog(dispatcher, -1, 8);
+        dispatcher.execute(session, List.of("GET", "slowlog_disabled"));
+        assertEquals(0, slowLog.length());
+
+        List<String> args = new ArrayList<>();
+        args.add("DEL");
+        for (int i = 0; i < 40; i++) {
+            args.add(i == 0 ? "k".repeat(SlowLog.MAX_ARG_LENGTH + 10) : "key" + i);
+        }
+        slowLog.add(session, args, 42);
+
+        SlowLog.Entry entry = slowLog.get(-1).get(0);
+        assertEquals(42, entry.getDurationMicros());
+        assertEquals(SlowLog.MAX_ARGS, entry.getArgs().size());
+        assertEquals("k".repeat(SlowLog.MAX_ARG_LENGTH) + "... (10 more characters)", entry.getArgs().get(1));
+        assertEquals("... (10 more arguments)", entry.getArgs().get(SlowLog.MAX_ARGS - 1));
+    }
+}
@@ -0,0 +1,194 @@
+package com.twl.miniredis.persistence;
+
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.command.Reply;
+import com.twl.miniredis.metrics.LatencyMonitor;
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.service.DatabaseService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AppendOnlyFileTest {
+
+    private final CommandPropagator propagator = new CommandPropagator();
+    private final DatabaseRepository repository = new DatabaseRepository(propagator);
+    private final DatabaseService service = new DatabaseService(repository);
+    private final CommandDispatcher dispatcher = new CommandDispatcher(service);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldSuccess_replay_whenRestarted() throws Exception {
+        Path file = directory.resolve("appendonly.aof");
+        AppendOnlyFile aof = newAppendOnlyFile(file, "always");
+        aof.start();
+        service.setKeyValue("aof_string", "value", 1000);
+        service.setKeyValue("aof_deleted", "value", null);
+        service.del("aof_deleted");
+        service.incr("aof_counter");
+        service.incrBy("aof_counter", 41);
+        service.incrByFloat("aof_float", 1.5);
+        service.zadd("aof_zset", "2", "b", "1", "a", "invalid", "c");
+        aof.stop();
+
+        service.del("aof_string", "aof_counter", "aof_float", "aof_zset");
+        aof = newAppendOnlyFile(file, "always");
+        aof.start();
+        try {
+            assertEquals("value", service.getStringValue("aof_string"));
+            assertEquals("42", service.getStringValue("aof_counter"));
+            assertEquals("1.5", service.getStringValue("aof_float"));
+            assertThrows(Exception.class, () -> service.getStringValue("aof_deleted"));
+            LinkedHashMap<String, Double> expected = new LinkedHashMap<>();
+            expected.put("a", 1.0);
+            expected.put("b", 2.0);
+            assertEquals(expected, service.zrange("aof_zset", 0, -1));
+        } finally {
+            aof.stop();
+            service.del("aof_string", "aof_counter", "aof_float", "aof_zset");
+        }
+    }
+
+    @Test
+    void shouldSuccess_load_whenLastCommandIsIncomplete() throws Exception {
+        Path file = directory.resolve("truncated.aof");
+        String complete = "*3\r\n$3\r\nSET\r\n$13\r\naof_truncated\r\n$5\r\nvalue\r\n";
+        Files.write(file, (complete + "*3\r\n$3\r\nSET\r\n$4\r\naof_").getBytes(StandardCharsets.UTF_8));
+
+        AppendOnlyFile aof = newAppendOnlyFile(file, "everysec");
+        aof.start();
+        try {
+            assertEquals("value", service.getStringValue("aof_truncated"));
+            assertEquals(complete.length(), Files.size(file));
+        } finally {
+            aof.stop();
+            service.del("aof_truncated");
+        }
+    }
+
+    @Test
+    void shouldSuccess_backgroundRewrite_whenWritingConcurrently() throws Exception {
+        Path file = directory.resolve("rewrite.aof");
+        AppendOnlyFile aof = newAppendOnlyFile(file, "everysec");
+        aof.start();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                service.incr("aof_rewrite_counter");
+                service.zadd("aof_rewrite_zset", String.valueOf(i % 10), "member" + (i % 10));
+                service.hset("aof_rewrite_hash", "field" + (i % 100), String.valueOf(i));
+            }
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 1000; i++) {
+                        service.incr("aof_rewrite_counter");
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            writer.start();
+            assertTrue(aof.backgroundRewrite());
+            writer.join();
+            while (aof.isRewriting()) {
+                Thread.sleep(10);
+            }
+            service.incr("aof_rewrite_counter");
+        } finally {
+            aof.stop();
+        }
+        assertTrue(aof.getBaseSize() > 0);
+        assertFalse(Files.exists(directory.resolve("rewrite.aof.rewrite")));
+
+        service.del("aof_rewrite_counter", "aof_rewrite_zset", "aof_rewrite_hash");
+        aof = newAppendOnlyFile(file, "everysec");
+        aof.start();
+        try {
+            assertEquals("2001", service.getStringValue("aof_rewrite_counter"));
+            assertEquals(10, service.zcard("aof_rewrite_zset"));
+            assertEquals(Integer.valueOf(100), service.hlen("aof_rewrite_hash"));
+            assertEquals("999", service.hget("aof_rewrite_hash", "field99"));
+        } finally {
+            aof.stop();
+            service.del("aof_rewrite_counter", "aof_rewrite_zset", "aof_rewrite_hash");
+        }
+    }
+
+    @Test
+    void shouldSuccess_rewrite_whenFileGrows() throws Exception {
+        Path file = directory.resolve("growing.aof");
+        AppendOnlyFile aof = new AppendOnlyFile(propagator, dispatcher, repository, new LatencyMonitor(0), true, file.toString(), "no", 1024, 100, 4096);
+        aof.start();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                service.incr("aof_growing_counter");
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (aof.getBaseSize() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(aof.getBaseSize() > 0);
+        } finally {
+            aof.stop();
+            service.del("aof_growing_counter");
+        }
+    }
+
+    @Test
+    void shouldFail_write_whenFsyncFails() throws Exception {
+        AtomicBoolean failing = new AtomicBoolean(true);
+        AppendOnlyFile aof = new AppendOnlyFile(propagator, dispatcher, repository, new LatencyMonitor(0), true,
+                directory.resolve("failing.aof").toString(), "always", 1024, 0, 0) {
+            @Override
+            void fsync() throws IOException {
+                if (failing.get()) {
+                    throw new IOException("No space left on device");
+                }
+                super.fsync();
+            }
+        };
+        aof.start();
+        try {
+            Thread writer = new Thread(() -> {
+                try {
+                    service.incr("aof_failing_counter");
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            writer.start();
+            writer.join(500);
+            assertTrue(writer.isAlive());
+            assertFalse(aof.isLastWriteOk());
+
+            Object reply = dispatcher.execute(new ClientSession(), Arrays.asList("SET", "aof_failing_key", "value"));
+            assertTrue(reply instanceof Reply && ((Reply) reply).isError());
+            assertEquals(AppendOnlyFile.WRITE_ERROR + "No space left on device", ((Reply) reply).getMessage());
+
+            failing.set(false);
+            writer.join(5000);
+            assertFalse(writer.isAlive());
+            assertTrue(aof.isLastWriteOk());
+            assertEquals("OK", ((Reply) dispatcher.execute(new ClientSession(), Arrays.asList("SET", "aof_failing_key", "value"))).getMessage());
+        } finally {
+            aof.stop();
+            service.del("aof_failing_counter", "aof_failing_key");
+        }
+    }
+
+    private AppendOnlyFile newAppendOnlyFile(Path file, String fsyncPolicy) {
+        return new AppendOnlyFile(propagator, dispatcher, repository, new LatencyMonitor(0), true, file.toString(), fsyncPolicy, 1024, 0, 0);
+    }
+}
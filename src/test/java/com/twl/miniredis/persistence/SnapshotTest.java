@@ -0,0 +1,95 @@
+package com.twl.miniredis.persistence;
+
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.service.DatabaseService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotTest {
+
+    private final DatabaseRepository repository = new DatabaseRepository(new CommandPropagator());
+    private final DatabaseService service = new DatabaseService(repository);
+    private final CommandDispatcher dispatcher = new CommandDispatcher(service);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldSuccess_load_whenSaved() throws Exception {
+        Snapshot snapshot = new Snapshot(repository, dispatcher, directory.resolve("dump.rdb").toString(), 0, false);
+        service.setKeyValue("rdb_string", "välue", null);
+        service.setKeyValue("rdb_expiring", "value", 1000);
+        service.incrBy("rdb_counter", -42);
+        service.zadd("rdb_zset", "2", "b", "-inf", "a", "1.5", "c");
+        service.hset("rdb_hash", "name", "Ana", "visits", "3");
+        snapshot.save();
+
+        service.del("rdb_string", "rdb_expiring", "rdb_counter", "rdb_zset", "rdb_hash");
+        snapshot.start();
+        try {
+            assertEquals("välue", service.getStringValue("rdb_string"));
+            assertEquals("value", service.getStringValue("rdb_expiring"));
+            assertEquals("-41", service.incr("rdb_counter"));
+            LinkedHashMap<String, Double> expected = new LinkedHashMap<>();
+            expected.put("a", Double.NEGATIVE_INFINITY);
+            expected.put("c", 1.5);
+            expected.put("b", 2.0);
+            assertEquals(expected, service.zrange("rdb_zset", 0, -1));
+            assertEquals(Long.valueOf(4), service.hincrBy("rdb_hash", "visits", 1));
+            assertEquals("Ana", service.hget("rdb_hash", "name"));
+        } finally {
+            service.del("rdb_string", "rdb_expiring", "rdb_counter", "rdb_zset", "rdb_hash");
+        }
+    }
+
+    @Test
+    void shouldSuccess_backgroundSave_whenIdle() throws Exception {
+        Snapshot snapshot = new Snapshot(repository, dispatcher, directory.resolve("background.rdb").toString(), 0, false);
+        long lastSave = snapshot.getLastSave();
+        assertTrue(snapshot.backgroundSave());
+        while (snapshot.isSaving()) {
+            Thread.sleep(10);
+        }
+        assertFalse(snapshot.isLastSaveFailed());
+        assertTrue(snapshot.getLastSave() >= lastSave);
+    }
+
+    @Test
+    void shouldFail_load_whenCorrupted() throws Exception {
+        Path file = directory.resolve("corrupted.rdb");
+        Snapshot snapshot = new Snapshot(repository, dispatcher, file.toString(), 0, false);
+        service.setKeyValue("rdb_corrupted", "value", null);
+        try {
+            snapshot.save();
+        } finally {
+            service.del("rdb_corrupted");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0x7F}), channel.size() - 1);
+        }
+        assertThrows(UncheckedIOException.class, snapshot::start);
+    }
+
+    @Test
+    void shouldFail_load_whenVersionIsNewer() throws Exception {
+        Path file = directory.resolve("newer.rdb");
+        Snapshot snapshot = new Snapshot(repository, dispatcher, file.toString(), 0, false);
+        snapshot.save();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, SnapshotFormat.VERSION + 1), SnapshotFormat.MAGIC.length);
+        }
+        UncheckedIOException e = assertThrows(UncheckedIOException.class, snapshot::start);
+        assertEquals("Unsupported snapshot version " + (SnapshotFormat.VERSION + 1) + ".", e.getCause().getMessage());
+    }
+}
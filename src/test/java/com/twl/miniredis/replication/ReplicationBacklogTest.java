@@ -0,0 +1,41 @@
+package com.twl.miniredis.replication;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicationBacklogTest {
+
+    @Test
+    void shouldSuccess_read_whenBacklogWrapsAround() {
+        ReplicationBacklog backlog = new ReplicationBacklog(8);
+        backlog.append(bytes("abcde"));
+        backlog.append(bytes("fghij"));
+
+        byte[] destination = new byte[16];
+        assertEquals(10, backlog.getOffset());
+        assertEquals(2, backlog.getFirstOffset());
+        assertEquals(6, backlog.read(4, destination));
+        assertEquals("efghij", new String(destination, 0, 6, StandardCharsets.US_ASCII));
+        assertEquals(0, backlog.read(10, destination));
+        assertEquals(3, backlog.read(2, new byte[3]));
+    }
+
+    @Test
+    void shouldFail_read_whenOffsetLeftTheBacklog() {
+        ReplicationBacklog backlog = new ReplicationBacklog(4);
+        backlog.append(bytes("abcdefghij"));
+
+        byte[] destination = new byte[4];
+        assertEquals(-1, backlog.read(5, destination));
+        assertEquals(-1, backlog.read(11, destination));
+        assertEquals(4, backlog.read(6, destination));
+        assertEquals("ghij", new String(destination, StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,212 @@
+package com.twl.miniredis.replication;
+
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.resp.RespReader;
+import com.twl.miniredis.resp.RespServer;
+import com.twl.miniredis.service.DatabaseService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicationPrimaryTest {
+
+    private final CommandPropagator propagator = new CommandPropagator();
+    private final DatabaseRepository repository = new DatabaseRepository(propagator);
+    private final DatabaseService service = new DatabaseService(repository);
+    private final CommandDispatcher dispatcher = new CommandDispatcher(service);
+    private final ReplicationPrimary primary = new ReplicationPrimary(propagator, dispatcher, repository, 1024 * 1024);
+    private final RespServer server = new RespServer(dispatcher, true, "127.0.0.1", 0, 1);
+    private final ClientSession session = new ClientSession();
+
+    @BeforeEach
+    void setUp() {
+        primary.start();
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop();
+        primary.stop();
+        service.del("repl_primary_before", "repl_primary_after");
+    }
+
+    @Test
+    void shouldSuccess_psync_whenReplicaReconnects() throws Exception {
+        dispatcher.execute(session, List.of("SET", "repl_primary_before", "v0"));
+
+        String replicationId;
+        long syncedOffset;
+        try (Replica replica = new Replica(server.getPort())) {
+            replica.send("REPLCONF listening-port 7000\r\n");
+            assertEquals(List.of("+OK"), replica.next());
+            replica.send("PSYNC ? -1\r\n");
+            List<String> fullResync = replica.next();
+            assertEquals("+FULLRESYNC", fullResync.get(0));
+            assertEquals("0", fullResync.get(2));
+            replicationId = fullResync.get(1);
+
+            dispatcher.execute(session, List.of("SET", "repl_primary_after", "v1"));
+
+            boolean dumped = false;
+            boolean streamed = false;
+            List<String> command;
+            while (!(command = replica.next()).get(0).equals("REPLCONF")) {
+                dumped |= command.contains("repl_primary_before");
+                streamed |= command.equals(List.of("SET", "repl_primary_after", "v1"));
+            }
+            assertTrue(dumped);
+            assertEquals("SYNCED", command.get(1));
+            syncedOffset = Long.parseLong(command.get(2));
+            if (!streamed) {
+                assertEquals(List.of("SET", "repl_primary_after", "v1"), replica.next());
+            }
+            replica.send("REPLCONF ACK " + primary.getOffset() + "\r\n");
+            waitFor(() -> primary.getReplicas().get(0).getAckOffset() == primary.getOffset());
+            assertEquals(7000, primary.getReplicas().get(0).getListeningPort());
+        }
+        waitFor(() -> primary.getReplicas().isEmpty());
+
+        try (Replica replica = new Replica(server.getPort())) {
+            replica.send("PSYNC " + replicationId + " 0\r\n");
+            assertEquals(List.of("+CONTINUE", replicationId), replica.next());
+            assertEquals(List.of("SET", "repl_primary_after", "v1"), replica.next());
+        }
+        assertTrue(syncedOffset >= 0 && syncedOffset <= primary.getOffset());
+    }
+
+    @Test
+    void shouldSuccess_psync_whenOffsetIsNotInBacklog() throws Exception {
+        try (Replica replica = new Replica(server.getPort())) {
+            replica.send("PSYNC " + primary.getReplicationId() + " 100\r\n");
+            assertEquals("+FULLRESYNC", replica.next().get(0));
+        }
+    }
+
+    @Test
+    void shouldSuccess_psync_whenWritingDuringFullResync() throws Exception {
+        int keys = 2000;
+        for (int i = 0; i < keys; i++) {
+            dispatcher.execute(session, List.of("SET", "repl_primary_key" + i, "0"));
+        }
+        try (Replica replica = new Replica(server.getPort())) {
+            replica.send("PSYNC ? -1\r\n");
+            assertEquals("+FULLRESYNC", replica.next().get(0));
+            Thread writer = new Thread(() -> {
+                ClientSession client = new ClientSession();
+                for (int round = 1; round <= 5; round++) {
+                    for (int i = 0; i < keys; i++) {
+                        dispatcher.execute(client, List.of("SET", "repl_primary_key" + i, Integer.toString(round)));
+                    }
+                }
+                dispatcher.execute(client, List.of("SET", "repl_primary_after", "done"));
+            });
+            writer.start();
+
+            Map<String, String> replicated = new HashMap<>();
+            List<String> command;
+            while (!(command = replica.next()).equals(List.of("SET", "repl_primary_after", "done"))) {
+                if (command.get(0).equals("SET")) {
+                    replicated.put(command.get(1), command.get(2));
+                } else if (command.get(0).equals("DEL")) {
+                    replicated.remove(command.get(1));
+                }
+            }
+            writer.join();
+            for (int i = 0; i < keys; i++) {
+                assertEquals("5", replicated.get("repl_primary_key" + i), "repl_primary_key" + i);
+            }
+        } finally {
+            for (int i = 0; i < keys; i++) {
+                service.del("repl_primary_key" + i);
+            }
+        }
+    }
+
+    @Test
+    void shouldSuccess_disconnect_whenReplicaStopsAcknowledging() throws Exception {
+        CommandDispatcher dispatcher = new CommandDispatcher(service);
+        ReplicationPrimary primary = new ReplicationPrimary(propagator, dispatcher, repository, 1024 * 1024, 200);
+        RespServer server = new RespServer(dispatcher, true, "127.0.0.1", 0, 1);
+        primary.start();
+        server.start();
+        try (Replica replica = new Replica(server.getPort())) {
+            replica.send("PSYNC ? -1\r\n");
+            waitFor(() -> primary.getReplicas().size() == 1);
+            dispatcher.execute(session, List.of("SET", "repl_primary_after", "v1"));
+            waitFor(() -> primary.getReplicas().isEmpty());
+        } finally {
+            server.stop();
+            primary.stop();
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the primary.");
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Replica side of a replication connection, decoding the stream of the primary.
+     */
+    private static final class Replica implements AutoCloseable {
+
+        private final Socket socket;
+        private final InputStream input;
+        private ByteBuffer in = ByteBuffer.allocate(1024);
+
+        Replica(int port) throws IOException {
+            socket = new Socket("127.0.0.1", port);
+            socket.setSoTimeout(5000);
+            input = socket.getInputStream();
+        }
+
+        void send(String request) throws IOException {
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.UTF_8));
+        }
+
+        List<String> next() throws Exception {
+            while (true) {
+                in.flip();
+                List<String> args = RespReader.read(in);
+                in.compact();
+                if (args != null) {
+                    return args;
+                }
+                if (!in.hasRemaining()) {
+                    ByteBuffer larger = ByteBuffer.allocate(in.capacity() * 2);
+                    in.flip();
+                    in = larger.put(in);
+                }
+                int read = input.read(in.array(), in.position(), in.remaining());
+                if (read < 0) {
+                    throw new IOException("Connection closed by the primary.");
+                }
+                in.position(in.position() + read);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
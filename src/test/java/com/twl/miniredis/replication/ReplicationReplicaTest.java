@@ -0,0 +1,89 @@
+package com.twl.miniredis.replication;
+
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.command.Reply;
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.resp.RespReader;
+import com.twl.miniredis.resp.RespServer;
+import com.twl.miniredis.service.DatabaseService;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicationReplicaTest {
+
+    private final CommandPropagator propagator = new CommandPropagator();
+    private final DatabaseRepository repository = new DatabaseRepository(propagator);
+    private final DatabaseService service = new DatabaseService(repository);
+    private final CommandDispatcher dispatcher = new CommandDispatcher(service);
+    private final RespServer respServer = new RespServer(dispatcher, false, "127.0.0.1", 0, 1);
+    private final ReplicationPrimary primary = new ReplicationPrimary(propagator, dispatcher, repository, 1024);
+
+    @Test
+    void shouldSuccess_replicate_whenPrimarySendsFullResync() throws Exception {
+        String dumped = "*3\r\n$3\r\nSET\r\n$16\r\nrepl_replica_old\r\n$2\r\nv0\r\n";
+        String synced = "*3\r\n$8\r\nREPLCONF\r\n$6\r\nSYNCED\r\n$3\r\n100\r\n";
+        String streamed = "*3\r\n$3\r\nSET\r\n$16\r\nrepl_replica_new\r\n$2\r\nv1\r\n";
+        try (ServerSocket fakePrimary = new ServerSocket(0)) {
+            ReplicationReplica replica = new ReplicationReplica(dispatcher, service, primary, respServer,
+                    "127.0.0.1:" + fakePrimary.getLocalPort());
+            replica.start();
+            try (Socket socket = fakePrimary.accept()) {
+                socket.setSoTimeout(5000);
+                InputStream input = socket.getInputStream();
+                OutputStream output = socket.getOutputStream();
+                ByteBuffer in = ByteBuffer.allocate(1024);
+
+                assertEquals("REPLCONF", read(input, in).get(0));
+                output.write("+OK\r\n".getBytes(StandardCharsets.US_ASCII));
+                assertEquals(List.of("PSYNC", "?", "-1"), read(input, in));
+                output.write(("+FULLRESYNC 0123456789abcdef 100\r\n" + dumped + synced + streamed)
+                        .getBytes(StandardCharsets.US_ASCII));
+
+                List<String> ack = read(input, in);
+                assertEquals(List.of("REPLCONF", "ACK", Long.toString(100 + streamed.length())), ack);
+                assertEquals("v0", service.getStringValue("repl_replica_old"));
+                assertEquals("v1", service.getStringValue("repl_replica_new"));
+
+                ClientSession client = new ClientSession();
+                Object reply = dispatcher.execute(client, List.of("SET", "repl_replica_new", "v2"));
+                assertEquals(CommandDispatcher.READONLY, ((Reply) reply).getMessage());
+                assertEquals(List.of("slave", "127.0.0.1", (long) fakePrimary.getLocalPort(), "connected",
+                        100L + streamed.length()), dispatcher.execute(client, List.of("ROLE")));
+            } finally {
+                replica.stop();
+                service.del("repl_replica_old", "repl_replica_new");
+            }
+        }
+    }
+
+    /**
+     * Reads a request of the replica.
+     */
+    private static List<String> read(InputStream input, ByteBuffer in) throws Exception {
+        while (true) {
+            in.flip();
+            List<String> args = RespReader.read(in);
+            in.compact();
+            if (args != null) {
+                return args;
+            }
+            int read = input.read(in.array(), in.position(), in.remaining());
+            if (read < 0) {
+                throw new IOException("Connection closed by the replica.");
+            }
+            in.position(in.position() + read);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.twl.miniredis.resp;
+
+import com.twl.miniredis.exception.ProtocolException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RespReaderTest {
+
+    @Test
+    void shouldSuccess_read_whenMultiBulk() throws ProtocolException {
+        ByteBuffer buffer = buffer("*3\r\n$3\r\nSET\r\n$3\r\nkey\r\n$5\r\nvalue\r\n");
+        assertEquals(List.of("SET", "key", "value"), RespReader.read(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    void shouldSuccess_read_whenInline() throws ProtocolException {
+        assertEquals(List.of("GET", "key"), RespReader.read(buffer("GET  key\r\n")));
+    }
+
+    @Test
+    void shouldSuccess_read_whenPipelined() throws ProtocolException {
+        ByteBuffer buffer = buffer("*1\r\n$4\r\nPING\r\n*2\r\n$4\r\nINCR\r\n$1\r\na\r\n");
+        assertEquals(List.of("PING"), RespReader.read(buffer));
+        assertEquals(List.of("INCR", "a"), RespReader.read(buffer));
+        assertNull(RespReader.read(buffer));
+    }
+
+    @Test
+    void shouldReturnNull_read_whenIncomplete() throws ProtocolException {
+        ByteBuffer buffer = buffer("*2\r\n$3\r\nGET\r\n$3\r\nke");
+        assertNull(RespReader.read(buffer));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    void shouldFail_read_whenInvalidBulkLength() {
+        assertThrows(ProtocolException.class, () -> RespReader.read(buffer("*1\r\n$x\r\n")));
+    }
+
+    @Test
+    void shouldSuccess_next_whenRequestArrivesInPieces() throws ProtocolException {
+        byte[] request = "*3\r\n$3\r\nSET\r\n$3\r\nkey\r\n$5\r\nvalue\r\n".getBytes(StandardCharsets.UTF_8);
+        RespReader reader = new RespReader();
+        ByteBuffer buffer = ByteBuffer.allocate(request.length);
+        List<String> args = null;
+        for (int i = 0; i < request.length; i++) {
+            buffer.put(request[i]).flip();
+            args = reader.next(buffer);
+            // Complete arguments are consumed as they arrive, as the connection compacts the buffer.
+            buffer.compact();
+            assertTrue(args == null || i == request.length - 1);
+        }
+        assertEquals(List.of("SET", "key", "value"), args);
+        assertEquals(0, buffer.position());
+        assertEquals(0, reader.getPendingBytes());
+    }
+
+    @Test
+    void shouldSuccess_next_whenArgumentsArePending() throws ProtocolException {
+        RespReader reader = new RespReader();
+        ByteBuffer buffer = buffer("*2\r\n$3\r\nGET\r\n$3\r\nke");
+        assertNull(reader.next(buffer));
+        assertEquals(3, reader.getPendingBytes());
+        assertEquals(2, buffer.remaining());
+    }
+
+    @Test
+    void shouldFail_read_whenBulkIsNotFollowedByCrlf() {
+        assertThrows(ProtocolException.class, () -> RespReader.read(buffer("*1\r\n$4\r\nPINGxx")));
+    }
+
+    @Test
+    void shouldSuccess_write_whenResp3() {
+        RespWriter writer = new RespWriter();
+        writer.write(null, 3).write(null, 2).write(1.5, 3).write(List.of("a", 2L), 2);
+        assertEquals("_\r\n$-1\r\n,1.5\r\n*2\r\n$1\r\na\r\n:2\r\n",
+                new String(writer.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer buffer(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,121 @@
+package com.twl.miniredis.resp;
+
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.service.DatabaseService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RespServerTest {
+
+    private RespServer server;
+
+    @BeforeEach
+    void setUp() {
+        CommandDispatcher dispatcher = new CommandDispatcher(new DatabaseService(new DatabaseRepository(new CommandPropagator())));
+        server = new RespServer(dispatcher, true, "127.0.0.1", 0, 1);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    void shouldSuccess_ping() throws IOException {
+        assertEquals("+PONG\r\n", roundTrip("PING\r\n", 7));
+    }
+
+    @Test
+    void shouldSuccess_pipelinedCommands() throws IOException {
+        String request = "*3\r\n$3\r\nSET\r\n$8\r\nresp_key\r\n$2\r\n41\r\n"
+                + "*2\r\n$4\r\nINCR\r\n$8\r\nresp_key\r\n"
+                + "*2\r\n$3\r\nGET\r\n$8\r\nresp_key\r\n"
+                + "*2\r\n$3\r\nGET\r\n$12\r\nresp_missing\r\n";
+        String expected = "+OK\r\n:42\r\n$2\r\n42\r\n$-1\r\n";
+        assertEquals(expected, roundTrip(request, expected.length()));
+    }
+
+    @Test
+    void shouldSuccess_largePipeline() throws IOException {
+        StringBuilder request = new StringBuilder("*3\r\n$3\r\nSET\r\n$13\r\nresp_pipeline\r\n$1\r\n0\r\n");
+        StringBuilder expected = new StringBuilder("+OK\r\n");
+        for (int i = 1; i <= 20000; i++) {
+            request.append("*2\r\n$4\r\nINCR\r\n$13\r\nresp_pipeline\r\n");
+            expected.append(':').append(i).append("\r\n");
+        }
+        assertEquals(expected.toString(), roundTrip(request.toString(), expected.length()));
+    }
+
+    @Test
+    void shouldFail_unknownCommand() throws IOException {
+        String expected = "-ERR unknown command 'NOPE'\r\n";
+        assertEquals(expected, roundTrip("NOPE\r\n", expected.length()));
+    }
+
+    @Test
+    void shouldFail_hello_whenOptionIsInvalid() throws IOException {
+        // The protocol stays RESP2, so a missing key is still a null bulk string rather than a RESP3 null.
+        String request = "HELLO 3 BOGUS\r\nGET resp_missing\r\n";
+        String expected = "-ERR syntax error\r\n$-1\r\n";
+        assertEquals(expected, roundTrip(request, expected.length()));
+    }
+
+    @Test
+    void shouldFail_closeClient_whenQueryBufferLimitIsReached() throws IOException {
+        CommandDispatcher dispatcher = new CommandDispatcher(new DatabaseService(new DatabaseRepository(new CommandPropagator())));
+        RespServer limited = new RespServer(dispatcher, true, "127.0.0.1", 0, 1, 64 * 1024);
+        limited.start();
+        try (Socket socket = new Socket("127.0.0.1", limited.getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write("*2\r\n$4\r\nECHO\r\n$1000000\r\n".getBytes(StandardCharsets.UTF_8));
+            byte[] chunk = new byte[1024];
+            try {
+                for (int i = 0; i < 1000; i++) {
+                    out.write(chunk);
+                }
+            } catch (IOException e) {
+                // The server may close the connection before the whole request was sent.
+            }
+            InputStream in = socket.getInputStream();
+            assertEquals(-1, in.read());
+        } catch (SocketException e) {
+            // Connection reset: closed as well.
+        } finally {
+            limited.stop();
+        }
+    }
+
+    private String roundTrip(String request, int expectedLength) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            byte[] response = new byte[expectedLength];
+            int read = 0;
+            while (read < expectedLength) {
+                int n = in.read(response, read, expectedLength - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            return new String(response, 0, read, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.twl.miniredis.scripting;
+
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.command.Reply;
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.service.DatabaseService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScriptEngineTest {
+
+    private static final String LIMITER = "local current = redis.call('INCR', KEYS[1])\n"
+            + "if current == 1 then\n"
+            + "  redis.call('ZADD', KEYS[2], ARGV[1], KEYS[1])\n"
+            + "end\n"
+            + "if current > tonumber(ARGV[2]) then\n"
+            + "  return redis.error_reply('LIMITED too many requests')\n"
+            + "end\n"
+            + "return current";
+
+    private final DatabaseService service = new DatabaseService(new DatabaseRepository(new CommandPropagator()));
+    private final CommandDispatcher dispatcher = new CommandDispatcher(service);
+    private final ScriptEngine engine = new ScriptEngine(dispatcher, true, 200, 2);
+    private final ClientSession session = new ClientSession();
+
+    @AfterEach
+    void tearDown() {
+        service.del("script_a", "script_b", "script_z");
+    }
+
+    @Test
+    void shouldSuccess_runCompoundOperation_whenEval() {
+        assertEquals(1L, execute("EVAL", LIMITER, "2", "script_a", "script_z", "10", "2"));
+        assertEquals(2L, execute("EVAL", LIMITER, "2", "script_a", "script_z", "10", "2"));
+        Reply limited = (Reply) execute("EVAL", LIMITER, "2", "script_a", "script_z", "10", "2");
+        assertEquals("LIMITED too many requests", limited.getMessage());
+        assertEquals(1, execute("ZCARD", "script_z"));
+    }
+
+    @Test
+    void shouldSuccess_runCachedScript_whenEvalSha() {
+        String sha = (String) execute("SCRIPT", "LOAD", "return ARGV[1] .. KEYS[1]");
+        assertEquals(LuaLibrary.sha1hex("return ARGV[1] .. KEYS[1]"), sha);
+        assertEquals("xscript_a", execute("EVALSHA", sha.toUpperCase(), "1", "script_a", "x"));
+        assertEquals(List.of(1L, 0L), execute("SCRIPT", "EXISTS", sha, "0000"));
+
+        assertEquals(Reply.OK, execute("SCRIPT", "FLUSH"));
+        assertEquals(ScriptEngine.NOSCRIPT, ((Reply) execute("EVALSHA", sha, "0")).getMessage());
+    }
+
+    @Test
+    void shouldSuccess_evictOldestEvaluatedScripts_whenCacheIsFull() {
+        execute("EVAL", "return 1", "0");
+        execute("EVAL", "return 2", "0");
+        execute("EVAL", "return 3", "0");
+        assertEquals(List.of(0L, 1L, 1L), execute("SCRIPT", "EXISTS",
+                LuaLibrary.sha1hex("return 1"), LuaLibrary.sha1hex("return 2"), LuaLibrary.sha1hex("return 3")));
+    }
+
+    @Test
+    void shouldSuccess_convertValues_whenScriptReturns() {
+        execute("SET", "script_a", "7");
+        assertEquals(Arrays.asList(7L, "7", 1L, 3L, null), execute("EVAL",
+                "local v = redis.call('GET', KEYS[1])\n"
+                        + "return {tonumber(v) + 0.5, v, true, #'abc', false, nil, 'ignored'}", "1", "script_a"));
+        assertNull(execute("EVAL", "return redis.call('GET', KEYS[1])", "1", "script_b"));
+        assertEquals(Reply.OK, execute("EVAL", "return redis.call('SET', KEYS[1], 'x')", "1", "script_b"));
+        assertEquals("PONG", ((Reply) execute("EVAL", "return redis.status_reply('PONG')", "0")).getMessage());
+    }
+
+    @Test
+    void shouldSuccess_runLuaStatements_whenEval() {
+        String script = "local t = {}\n"
+                + "for i = 1, 5 do t[#t + 1] = i * i end\n"
+                + "local sum, n = 0, 0\n"
+                + "for _, v in ipairs(t) do\n"
+                + "  if v % 2 == 0 then sum = sum + v elseif v > 20 then break else n = n + 1 end\n"
+                + "end\n"
+                + "local s = table.concat({string.upper('a'), string.sub('hello', 2, -2), string.rep('-', 2)}, ',')\n"
+                + "local w = 0\n"
+                + "while w < 3 do w = w + 1 end\n"
+                + "repeat local last = w; w = w - 1 until last == 1\n"
+                + "return {sum, n, s, w, math.max(3, 9, 4), type(nil), 2 ^ 3 .. '', not nil and -1 < 0}";
+        assertEquals(Arrays.asList(20L, 2L, "A,ell,--", 0L, 9L, "nil", "8", 1L), execute("EVAL", script, "0"));
+    }
+
+    @Test
+    void shouldSuccess_catchErrorReply_whenPcall() {
+        execute("SET", "script_a", "text");
+        assertEquals("ERR value is not an integer or out of range", execute("EVAL",
+                "local r = redis.pcall('INCR', KEYS[1])\nreturn r.err", "1", "script_a"));
+        assertEquals("ERR value is not an integer or out of range",
+                ((Reply) execute("EVAL", "return redis.call('INCR', KEYS[1])", "1", "script_a")).getMessage());
+    }
+
+    @Test
+    void shouldFail_reportLine_whenScriptIsInvalid() {
+        assertEquals("ERR Error compiling script: user_script:2: 'end' expected near <eof>",
+                ((Reply) execute("EVAL", "if true then\nreturn 1", "0")).getMessage());
+        assertEquals("ERR Error compiling script: user_script:1: Script attempted to create global variable 'x'",
+                ((Reply) execute("EVAL", "x = 1", "0")).getMessage());
+        assertEquals("ERR Error compiling script: user_script:1: functions are not supported",
+                ((Reply) execute("EVAL", "local f = function() end", "0")).getMessage());
+        assertEquals("ERR Error running script: user_script:3: attempt to compare nil with number",
+                ((Reply) execute("EVAL", "local a\n\nif a < 1 then return 1 end", "0")).getMessage());
+        assertEquals("ERR Error running script: user_script:1: Attempt to modify a readonly table",
+                ((Reply) execute("EVAL", "redis.call = nil", "0")).getMessage());
+        assertEquals("ERR Number of keys can't be greater than number of args",
+                ((Reply) execute("EVAL", "return 1", "2", "script_a")).getMessage());
+    }
+
+    @Test
+    void shouldFail_rejectCall_whenKeyIsNotDeclared() {
+        Reply reply = (Reply) execute("EVAL", "return redis.call('SET', 'script_b', '1')", "1", "script_a");
+        assertEquals("ERR Script attempted to access a non-declared key: script_b", reply.getMessage());
+        assertNull(execute("GET", "script_b"));
+
+        reply = (Reply) execute("EVAL", "return redis.call('EVAL', 'return 1', '0')", "0");
+        assertEquals("ERR This Redis command is not allowed from script", reply.getMessage());
+        reply = (Reply) execute("EVAL_RO", "return redis.call('DEL', KEYS[1])", "1", "script_a");
+        assertEquals("ERR Write commands are not allowed from read-only scripts", reply.getMessage());
+    }
+
+    @Test
+    void shouldFail_stopScript_whenTimeLimitIsExceeded() {
+        Reply reply = (Reply) execute("EVAL", "local i = 0\nwhile true do i = i + 1 end", "0");
+        assertEquals("ERR Error running script: user_script:2: Script killed: exceeded the time limit",
+                reply.getMessage());
+    }
+
+    @Test
+    void shouldSuccess_runAtomically_whenCommandsRunConcurrently() throws Exception {
+        // Reads the counter, then writes it back, which loses increments unless no command runs in between.
+        String increment = "local v = tonumber(redis.call('GET', KEYS[1]) or '0')\n"
+                + "redis.call('SET', KEYS[1], tostring(v + 1))\n"
+                + "return v + 1";
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                boolean script = thread % 2 == 0;
+                futures.add(executor.submit(() -> {
+                    ClientSession client = new ClientSession();
+                    for (int i = 0; i < 250; i++) {
+                        if (script) {
+                            dispatcher.execute(client, List.of("EVAL", increment, "1", "script_a"));
+                        } else {
+                            dispatcher.execute(client, List.of("INCR", "script_a"));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals("1000", execute("GET", "script_a"));
+    }
+
+    @Test
+    void shouldSuccess_runAtomically_whenFlushAllRunsConcurrently() throws Exception {
+        // Writes the key, then reads it back, which finds nothing if the database is flushed in between.
+        String script = "redis.call('SET', KEYS[1], 'v')\n"
+                + "local i = 0\n"
+                + "while i < 2000 do i = i + 1 end\n"
+                + "return redis.call('GET', KEYS[1])";
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<Object>> scripts = executor.submit(() -> {
+                ClientSession client = new ClientSession();
+                List<Object> replies = new ArrayList<>();
+                for (int i = 0; i < 200; i++) {
+                    Object reply = dispatcher.execute(client, List.of("EVAL", script, "1", "script_a"));
+                    replies.add(reply instanceof byte[] ? new String((byte[]) reply) : reply);
+                }
+                return replies;
+            });
+            Future<?> flushes = executor.submit(() -> {
+                ClientSession client = new ClientSession();
+                while (!scripts.isDone()) {
+                    assertEquals(Reply.OK, dispatcher.execute(client, List.of("FLUSHALL")));
+                }
+            });
+            assertEquals(Collections.nCopies(200, "v"), scripts.get(30, TimeUnit.SECONDS));
+            flushes.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Object execute(String... args) {
+        Object reply = dispatcher.execute(session, Collections.unmodifiableList(Arrays.asList(args)));
+        return reply instanceof byte[] ? new String((byte[]) reply) : reply;
+    }
+}
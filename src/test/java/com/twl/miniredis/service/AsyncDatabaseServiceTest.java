@@ -0,0 +1,84 @@
+package com.twl.miniredis.service;
+
+import com.twl.miniredis.exception.NotFoundException;
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.repository.DatabaseRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncDatabaseServiceTest {
+
+    private final DatabaseService service = new DatabaseService(new DatabaseRepository(new CommandPropagator()));
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final AsyncDatabaseService asyncService = new AsyncDatabaseService(service, executor);
+
+    @Test
+    void shouldSuccess_getStringValue_whenCompletedAsynchronously() throws Exception {
+        try {
+            assertEquals("value", asyncService.setKeyValue("async_string", "value", null).get(5, TimeUnit.SECONDS));
+            assertEquals("value", asyncService.getStringValue("async_string").get(5, TimeUnit.SECONDS));
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> asyncService.getStringValue("async_missing").get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof NotFoundException);
+        } finally {
+            service.del("async_string");
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void shouldSuccess_zrangeChunks_whenSubscriberRequestsOneAtATime() throws Exception {
+        try {
+            for (int i = 0; i < 250; i++) {
+                service.zadd("async_zset", String.valueOf(i), "member" + i);
+            }
+            List<LinkedHashMap<String, Double>> received = new ArrayList<>();
+            CompletableFuture<Void> completed = new CompletableFuture<>();
+            asyncService.zrangeChunks("async_zset", 0, -1, 100).subscribe(new Flow.Subscriber<>() {
+                private Flow.Subscription subscription;
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onNext(LinkedHashMap<String, Double> chunk) {
+                    received.add(chunk);
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    completed.completeExceptionally(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    completed.complete(null);
+                }
+            });
+            completed.get(5, TimeUnit.SECONDS);
+
+            assertEquals(3, received.size());
+            assertEquals(50, received.get(2).size());
+            assertEquals(0.0, received.get(0).get("member0"));
+            assertEquals(249.0, received.get(2).get("member249"));
+        } finally {
+            service.del("async_zset");
+            executor.shutdown();
+        }
+    }
+}
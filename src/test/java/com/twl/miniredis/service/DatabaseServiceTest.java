@@ -1,17 +1,31 @@
 package com.twl.miniredis.service;
 
+import com.twl.miniredis.db.Database;
+import com.twl.miniredis.db.ScanCursors;
+import com.twl.miniredis.db.eviction.EvictionPolicy;
+import com.twl.miniredis.exception.BusinessException;
 import com.twl.miniredis.exception.NonNumericValueException;
 import com.twl.miniredis.exception.NotFoundException;
+import com.twl.miniredis.model.dto.ScanResult;
+import com.twl.miniredis.propagation.CommandPropagator;
 import com.twl.miniredis.repository.DatabaseRepository;
 import junit.framework.TestCase;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.Answers;
 import org.mockito.InjectMocks;
-import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.*;
 
@@ -26,10 +40,30 @@ public class DatabaseServiceTest {
     public static final String TEST_KEY_SET5 = "test_zset5";
     public static final String TEST_KEY_SET6 = "test_zset6";
     public static final String TEST_KEY_SET7 = "test_zset7";
+    public static final String TEST_KEY_SET8 = "test_zset8";
+    public static final String TEST_KEY_SET9 = "test_zset9";
+    public static final String TEST_KEY_SET10 = "test_zset10";
+    public static final String TEST_KEY_SET11 = "test_zset11";
+    public static final String TEST_KEY_DESTINATION = "test_destination";
     public static final String TEST_STRING_VALUE = "test_value";
     public static final Integer TEST_INTEGER_VALUE_ONE = 1;
     public static final Integer TEST_INTEGER_VALUE_TWO = 2;
     public static final String TEST_KEY_2 = "test2";
+    public static final String TEST_KEY_EXPIRING = "test_expiring";
+    public static final String TEST_KEY_COUNTER = "test_counter";
+    public static final String TEST_KEY_COUNTER_2 = "test_counter2";
+    public static final String TEST_KEY_COUNTER_3 = "test_counter3";
+    public static final String TEST_KEY_COUNTER_4 = "test_counter4";
+    public static final String TEST_KEY_EXPIRING_2 = "test_expiring2";
+    public static final String TEST_KEY_EVICTION = "test_eviction";
+    public static final String TEST_KEY_ENCODING = "test_encoding";
+    public static final String TEST_KEY_OFF_HEAP = "test_off_heap";
+    public static final String TEST_KEY_SCAN = "test_scan:";
+    public static final String TEST_KEY_SCAN_CHURN = "test_scan_churn:";
+    public static final String TEST_KEY_ZSCAN = "test_zscan";
+    public static final String TEST_KEY_HASH = "test_hash";
+    public static final String TEST_KEY_WRONG_TYPE = "test_wrong_type";
+    public static final String OUT_OF_MEMORY = "OOM command not allowed when used memory > 'maxmemory'.";
     public static final String STRING_VALUE_1 = "1";
     public static final String MEMBER_1 = "member1";
     public static final String STRING_VALUE_2 = "2";
@@ -37,11 +71,12 @@ public class DatabaseServiceTest {
     public static final String KEY_DOES_NOT_EXIST_IN_DATABASE = "(nil) Key does not exist in database.";
     public static final String MEMBER_NOT_FOUND = "(nil) Member not found in zset.";
     public static final String COULD_NOT_FIND_ANY_RESULTS = "Could not find any results.";
+    public static final String WRONG_TYPE = "WRONGTYPE Operation against a key holding the wrong kind of value.";
 
     @InjectMocks
     private DatabaseService service;
-    @Mock(answer = Answers.CALLS_REAL_METHODS)
-    private DatabaseRepository repository;
+    @Spy
+    private DatabaseRepository repository = new DatabaseRepository(new CommandPropagator());
 
     @Test
     public void shouldSuccess_setKeyValue() {
@@ -64,6 +99,30 @@ public class DatabaseServiceTest {
         }
     }
 
+    @Test
+    public void shouldFail_getKey_whenKeyIsExpired() {
+        try {
+            service.setKeyValue(TEST_KEY_EXPIRING, TEST_STRING_VALUE, 1);
+            Thread.sleep(1100);
+            NotFoundException e = assertThrows(NotFoundException.class, () -> service.getStringValue(TEST_KEY_EXPIRING));
+            assertEquals(KEY_DOES_NOT_EXIST_IN_DATABASE, e.getMessage());
+        } catch (Exception e) {
+            TestCase.fail();
+        }
+    }
+
+    @Test
+    public void shouldSuccess_activeExpireCycle_whenKeyIsExpired() {
+        try {
+            service.setKeyValue(TEST_KEY_EXPIRING_2, TEST_STRING_VALUE, 1);
+            Thread.sleep(1100);
+            assertTrue(service.activeExpireCycle(25) > 0);
+            assertEquals(0, service.del(TEST_KEY_EXPIRING_2));
+        } catch (Exception e) {
+            TestCase.fail();
+        }
+    }
+
     @Test
     public void shouldSuccess_del() {
         try {
@@ -109,6 +168,68 @@ public class DatabaseServiceTest {
         }
     }
 
+    @Test
+    public void shouldSuccess_incr_whenKeyDoesNotExist() {
+        try {
+            service.del(TEST_KEY_COUNTER);
+            assertEquals(STRING_VALUE_1, service.incr(TEST_KEY_COUNTER));
+            assertEquals("11", service.incrBy(TEST_KEY_COUNTER, 10));
+            assertEquals("10", service.decr(TEST_KEY_COUNTER));
+            assertEquals("5", service.decrBy(TEST_KEY_COUNTER, 5));
+            assertEquals("5", service.getStringValue(TEST_KEY_COUNTER));
+        } catch (Exception e) {
+            TestCase.fail();
+        }
+    }
+
+    @Test
+    public void shouldFail_incrBy_whenOverflow() {
+        try {
+            service.setKeyValue(TEST_KEY_COUNTER_2, String.valueOf(Long.MAX_VALUE), null);
+            assertThrows(BusinessException.class, () -> service.incr(TEST_KEY_COUNTER_2));
+            assertEquals(String.valueOf(Long.MAX_VALUE), service.getStringValue(TEST_KEY_COUNTER_2));
+        } catch (Exception e) {
+            TestCase.fail();
+        }
+    }
+
+    @Test
+    public void shouldSuccess_incrByFloat() {
+        try {
+            service.setKeyValue(TEST_KEY_COUNTER_3, "10.5", null);
+            assertEquals("10.6", service.incrByFloat(TEST_KEY_COUNTER_3, 0.1));
+            assertEquals("15.6", service.incrByFloat(TEST_KEY_COUNTER_3, 5));
+        } catch (Exception e) {
+            TestCase.fail();
+        }
+    }
+
+    @Test
+    public void shouldSuccess_incr_whenConcurrent() {
+        try {
+            service.del(TEST_KEY_COUNTER_4);
+            int threads = 8;
+            int increments = 10_000;
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < increments; i++) {
+                        service.incr(TEST_KEY_COUNTER_4);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+            assertEquals(String.valueOf(threads * increments), service.getStringValue(TEST_KEY_COUNTER_4));
+        } catch (Exception e) {
+            TestCase.fail();
+        }
+    }
+
     @Test
     public void shouldSuccess_zadd_whenEvenArgs() {
         try {
@@ -129,6 +250,18 @@ public class DatabaseServiceTest {
         }
     }
 
+    @Test
+    public void shouldSuccess_zadd_whenKeyAlreadyHoldsZset() {
+        try {
+            service.zadd(TEST_KEY_SET8, STRING_VALUE_1, MEMBER_1);
+            Integer actual = service.zadd(TEST_KEY_SET8, STRING_VALUE_2, MEMBER_2);
+            assertEquals(TEST_INTEGER_VALUE_ONE, actual);
+            assertEquals(TEST_INTEGER_VALUE_TWO, service.zcard(TEST_KEY_SET8));
+        } catch (Exception e) {
+            TestCase.fail();
+        }
+    }
+
     @Test
     public void shouldSuccess_zcard() {
         try {
@@ -140,6 +273,21 @@ public class DatabaseServiceTest {
         }
     }
 
+    @Test
+    public void shouldFail_getKey_whenKeyHoldsZset() {
+        try {
+            service.zadd(TEST_KEY_WRONG_TYPE, STRING_VALUE_1, MEMBER_1);
+            Exception e = assertThrows(BusinessException.class, () -> service.getStringValue(TEST_KEY_WRONG_TYPE));
+            assertEquals(WRONG_TYPE, e.getMessage());
+            e = assertThrows(BusinessException.class, () -> service.getBytesValue(TEST_KEY_WRONG_TYPE));
+            assertEquals(WRONG_TYPE, e.getMessage());
+        } catch (Exception e) {
+            TestCase.fail();
+        } finally {
+            service.del(TEST_KEY_WRONG_TYPE);
+        }
+    }
+
     @Test
     public void shouldFail_zrank_whenKeyDoesNotExist() {
         try {
@@ -221,4 +369,275 @@ public class DatabaseServiceTest {
             TestCase.fail();
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldFail_setKeyValue_whenOverMaxMemoryWithNoEviction() {
+        try {
+            Database.configureEviction(1, EvictionPolicy.NOEVICTION, 5);
+            service.setKeyValue(TEST_KEY_EVICTION, TEST_STRING_VALUE, null);
+            Exception e = assertThrows(BusinessException.class, () -> service.setKeyValue(TEST_KEY_EVICTION, TEST_STRING_VALUE, null));
+            assertEquals(OUT_OF_MEMORY, e.getMessage());
+        } catch (Exception e) {
+            // The first write may already be rejected, if other keys are stored.
+            assertEquals(OUT_OF_MEMORY, e.getMessage());
+        } finally {
+            Database.configureEviction(0, EvictionPolicy.NOEVICTION, 5);
+            service.del(TEST_KEY_EVICTION);
+        }
+    }
+
+    @Test
+    public void shouldSuccess_setKeyValue_whenOverMaxMemoryWithLru() {
+        String[] keys = new String[2000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = TEST_KEY_EVICTION + i;
+        }
+        try {
+            long maxMemory = Database.usedMemory() + 50_000;
+            Database.configureEviction(maxMemory, EvictionPolicy.ALLKEYS_LRU, 5);
+            for (String key : keys) {
+                service.setKeyValue(key, TEST_STRING_VALUE, null);
+            }
+            assertTrue(Database.usedMemory() <= maxMemory + 1_000);
+            assertTrue(service.dbsize() < keys.length);
+        } catch (Exception e) {
+            TestCase.fail();
+        } finally {
+            Database.configureEviction(0, EvictionPolicy.NOEVICTION, 5);
+            service.del(keys);
+        }
+    }
+
+    @Test
+    public void shouldSuccess_encoding_whenValueIsCompact() {
+        try {
+            service.setKeyValue(TEST_KEY_ENCODING, "12345", null);
+            assertEquals("int", service.encoding(TEST_KEY_ENCODING));
+            assertEquals("12346", service.incr(TEST_KEY_ENCODING));
+
+            service.setKeyValue(TEST_KEY_ENCODING, "007", null);
+            assertEquals("embstr", service.encoding(TEST_KEY_ENCODING));
+            assertEquals("007", service.getStringValue(TEST_KEY_ENCODING));
+
+            String raw = "välue".repeat(20);
+            service.setKeyValue(TEST_KEY_ENCODING, raw, null);
+            assertEquals("raw", service.encoding(TEST_KEY_ENCODING));
+            assertEquals(raw, service.getStringValue(TEST_KEY_ENCODING));
+            assertEquals(raw, new String(service.getBytesValue(TEST_KEY_ENCODING), StandardCharsets.UTF_8));
+
+            service.del(TEST_KEY_ENCODING);
+            service.zadd(TEST_KEY_ENCODING, STRING_VALUE_1, MEMBER_1);
+            assertEquals("listpack", service.encoding(TEST_KEY_ENCODING));
+            assertThrows(NotFoundException.class, () -> service.encoding(TEST_KEY_2));
+        } catch (Exception e) {
+            TestCase.fail();
+        } finally {
+            service.del(TEST_KEY_ENCODING);
+        }
+    }
+
+    @Test
+    public void shouldSuccess_setKeyValue_whenStoredOffHeap() {
+        try {
+            Database.configureStorage(true);
+            long allocated = Database.getArena().getAllocatedBytes();
+            service.setKeyValue(TEST_KEY_OFF_HEAP, TEST_STRING_VALUE, null);
+            assertEquals(TEST_STRING_VALUE, service.getStringValue(TEST_KEY_OFF_HEAP));
+            assertTrue(Database.getArena().getAllocatedBytes() > allocated);
+
+            service.setKeyValue(TEST_KEY_OFF_HEAP, STRING_VALUE_1, null);
+            assertEquals("2", service.incr(TEST_KEY_OFF_HEAP));
+            assertEquals(allocated, Database.getArena().getAllocatedBytes());
+
+            service.setKeyValue(TEST_KEY_OFF_HEAP, TEST_STRING_VALUE, null);
+            service.del(TEST_KEY_OFF_HEAP);
+            assertEquals(allocated, Database.getArena().getAllocatedBytes());
+            assertThrows(NotFoundException.class, () -> service.getStringValue(TEST_KEY_OFF_HEAP));
+        } catch (Exception e) {
+            TestCase.fail();
+        } finally {
+            Database.configureStorage(false);
+            service.del(TEST_KEY_OFF_HEAP);
+        }
+    }
+
+    @Test
+    public void shouldSuccess_scan_whenKeysAreWrittenConcurrently() {
+        int keys = 5000;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int i = 0; i < keys; i++) {
+                service.setKeyValue(TEST_KEY_SCAN + i, TEST_STRING_VALUE, null);
+            }
+            // Grows and shrinks the shards while they are being scanned.
+            Future<?> churn = executor.submit(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    service.setKeyValue(TEST_KEY_SCAN_CHURN + i, TEST_STRING_VALUE, null);
+                    if (i % 2 == 0) {
+                        service.del(TEST_KEY_SCAN_CHURN + (i / 2));
+                    }
+                }
+                return null;
+            });
+            Set<String> scanned = new HashSet<>();
+            long cursor = ScanCursors.START;
+            do {
+                ScanResult<List<String>> result = service.scan(cursor, TEST_KEY_SCAN + "*", 100, "string");
+                scanned.addAll(result.getElements());
+                cursor = result.getCursor();
+            } while (cursor != ScanCursors.START);
+            churn.get();
+
+            assertEquals(keys, scanned.size());
+            assertEquals(0, service.scan(ScanCursors.START, TEST_KEY_SCAN + "*", 100_000, "zset").getElements().size());
+        } catch (Exception e) {
+            TestCase.fail();
+        } finally {
+            executor.shutdown();
+            for (int i = 0; i < keys; i++) {
+                service.del(TEST_KEY_SCAN + i);
+            }
+            for (int i = 0; i < 50_000; i++) {
+                service.del(TEST_KEY_SCAN_CHURN + i);
+            }
+        }
+    }
+
+    @Test
+    public void shouldSuccess_zscan_whenSetIsLarge() {
+        try {
+            for (int i = 0; i < 1000; i++) {
+                service.zadd(TEST_KEY_ZSCAN, String.valueOf(i), MEMBER_1 + i);
+            }
+            LinkedHashMap<String, Double> scanned = new LinkedHashMap<>();
+            ScanResult<LinkedHashMap<String, Double>> result = service.zscan(TEST_KEY_ZSCAN, ScanCursors.START, null, 100);
+            long first = result.getCursor();
+            while (true) {
+                scanned.putAll(result.getElements());
+                // Members added during the iteration may or may not be returned.
+                service.zadd(TEST_KEY_ZSCAN, "-1", MEMBER_2 + scanned.size());
+                if (result.getCursor() == ScanCursors.START) {
+                    break;
+                }
+                result = service.zscan(TEST_KEY_ZSCAN, result.getCursor(), MEMBER_1 + "*", 100);
+            }
+            assertEquals(1000, scanned.size());
+            assertEquals(Double.valueOf(999), scanned.get(MEMBER_1 + 999));
+            assertThrows(BusinessException.class, () -> service.zscan(TEST_KEY_ZSCAN, first, null, 100));
+        } catch (Exception e) {
+            TestCase.fail();
+        } finally {
+            service.del(TEST_KEY_ZSCAN);
+        }
+    }
+
+    @Test
+    public void shouldSuccess_zrangeByScore_whenLimitIsGiven() {
+        try {
+            service.zadd(TEST_KEY_SET9, STRING_VALUE_1, MEMBER_1, STRING_VALUE_2, MEMBER_2, "3", "member3", "4", "member4");
+
+            LinkedHashMap<String, Double> expected = new LinkedHashMap<>();
+            expected.put(MEMBER_2, Double.valueOf(STRING_VALUE_2));
+            expected.put("member3", 3.0);
+
+            assertEquals(expected, service.zrangeByScore(TEST_KEY_SET9, "(1", "+inf", 0, 2));
+            assertEquals(new ArrayList<>(List.of("member3", MEMBER_2)),
+                    new ArrayList<>(service.zrevrangeByScore(TEST_KEY_SET9, "3", "-inf", 0, 2).keySet()));
+            assertEquals(Integer.valueOf(3), service.zcount(TEST_KEY_SET9, STRING_VALUE_2, "4"));
+            assertEquals(Integer.valueOf(0), service.zrevrank(TEST_KEY_SET9, "member4"));
+            assertEquals(new ArrayList<>(List.of("member4", "member3")),
+                    new ArrayList<>(service.zrevrange(TEST_KEY_SET9, 0, 1).keySet()));
+            assertThrows(NotFoundException.class, () -> service.zrangeByScore(TEST_KEY_SET9, "5", "+inf", 0, -1));
+            assertThrows(BusinessException.class, () -> service.zcount(TEST_KEY_SET9, "one", "2"));
+        } catch (Exception e) {
+            TestCase.fail();
+        } finally {
+            service.del(TEST_KEY_SET9);
+        }
+    }
+
+    @Test
+    public void shouldSuccess_zrem_whenLastMemberIsRemoved() {
+        try {
+            assertEquals(Double.valueOf(1.5), service.zincrBy(TEST_KEY_SET10, 1.5, MEMBER_1));
+            assertEquals(Double.valueOf(3.5), service.zincrBy(TEST_KEY_SET10, 2, MEMBER_1));
+            assertEquals(Double.valueOf(3.5), service.zscore(TEST_KEY_SET10, MEMBER_1));
+            service.zadd(TEST_KEY_SET10, STRING_VALUE_2, MEMBER_2);
+
+            assertEquals(Integer.valueOf(1), service.zrem(TEST_KEY_SET10, MEMBER_2, "member3"));
+            assertThrows(NotFoundException.class, () -> service.zscore(TEST_KEY_SET10, MEMBER_2));
+            assertEquals(Integer.valueOf(1), service.zrem(TEST_KEY_SET10, MEMBER_1));
+            assertEquals(Integer.valueOf(0), service.zcard(TEST_KEY_SET10));
+            assertEquals(0, service.del(TEST_KEY_SET10));
+            assertEquals(Integer.valueOf(0), service.zrem(TEST_KEY_SET10, MEMBER_1));
+        } catch (Exception e) {
+            TestCase.fail();
+        } finally {
+            service.del(TEST_KEY_SET10);
+        }
+    }
+
+    @Test
+    public void shouldSuccess_zunionstore_whenDestinationExists() {
+        try {
+            service.zadd(TEST_KEY_SET11, STRING_VALUE_1, MEMBER_1, STRING_VALUE_2, MEMBER_2);
+            service.setKeyValue(TEST_KEY_DESTINATION, TEST_STRING_VALUE, null);
+
+            assertEquals(Integer.valueOf(2), service.zunionstore(TEST_KEY_DESTINATION,
+                    new String[]{TEST_KEY_SET11, TEST_KEY_SET11}, new double[]{1, 2}, "max"));
+            assertEquals(Double.valueOf(4), service.zscore(TEST_KEY_DESTINATION, MEMBER_2));
+
+            assertEquals(Integer.valueOf(2), service.zinterstore(TEST_KEY_DESTINATION,
+                    new String[]{TEST_KEY_SET11, TEST_KEY_DESTINATION}, null, null));
+            assertEquals(Double.valueOf(6), service.zscore(TEST_KEY_DESTINATION, MEMBER_2));
+
+            assertEquals(Integer.valueOf(0), service.zinterstore(TEST_KEY_DESTINATION,
+                    new String[]{TEST_KEY_SET11, TEST_KEY_DESTINATION + "_missing"}, null, null));
+            assertEquals(0, service.del(TEST_KEY_DESTINATION));
+            assertThrows(BusinessException.class, () -> service.zunionstore(TEST_KEY_DESTINATION,
+                    new String[]{TEST_KEY_SET11}, new double[]{1, 2}, null));
+        } catch (Exception e) {
+            TestCase.fail();
+        } finally {
+            service.del(TEST_KEY_SET11, TEST_KEY_DESTINATION);
+        }
+    }
+
+    @Test
+    public void shouldSuccess_hdel_whenLastFieldIsRemoved() {
+        try {
+            assertEquals(Integer.valueOf(2), service.hset(TEST_KEY_HASH, "name", "Ana", "visits", STRING_VALUE_1));
+            assertEquals(Integer.valueOf(0), service.hset(TEST_KEY_HASH, "name", "Bia"));
+            assertEquals(Long.valueOf(3), service.hincrBy(TEST_KEY_HASH, "visits", 2));
+            assertEquals(Arrays.asList("Bia", null, "3"), service.hmget(TEST_KEY_HASH, "name", "age", "visits"));
+            assertEquals(Integer.valueOf(2), service.hlen(TEST_KEY_HASH));
+            assertEquals("listpack", service.encoding(TEST_KEY_HASH));
+            assertThrows(BusinessException.class, () -> service.hincrBy(TEST_KEY_HASH, "name", 1));
+            assertThrows(BusinessException.class, () -> service.getBytesValue(TEST_KEY_HASH));
+            assertThrows(BusinessException.class, () -> service.zadd(TEST_KEY_HASH, STRING_VALUE_1, MEMBER_1));
+
+            assertEquals(Integer.valueOf(2), service.hdel(TEST_KEY_HASH, "name", "visits", "age"));
+            assertThrows(NotFoundException.class, () -> service.hget(TEST_KEY_HASH, "name"));
+            assertTrue(service.hgetall(TEST_KEY_HASH).isEmpty());
+            assertEquals(0, service.del(TEST_KEY_HASH));
+        } catch (Exception e) {
+            TestCase.fail();
+        } finally {
+            service.del(TEST_KEY_HASH);
+        }
+    }
+
+    @Test
+    public void shouldFail_hset_whenKeyHoldsString() {
+        try {
+            service.setKeyValue(TEST_KEY_HASH, TEST_STRING_VALUE, null);
+            assertThrows(BusinessException.class, () -> service.hset(TEST_KEY_HASH, "name", "Ana"));
+            assertThrows(BusinessException.class, () -> service.hgetall(TEST_KEY_HASH));
+            assertThrows(BusinessException.class, () -> service.hset(TEST_KEY_HASH + "_odd", "name"));
+        } catch (Exception e) {
+            TestCase.fail();
+        } finally {
+            service.del(TEST_KEY_HASH);
+        }
+    }
+}
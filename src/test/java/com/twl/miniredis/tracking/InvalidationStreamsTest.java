@@ -0,0 +1,44 @@
+package com.twl.miniredis.tracking;
+
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.service.DatabaseService;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvalidationStreamsTest {
+
+    private final CommandPropagator propagator = new CommandPropagator();
+    private final DatabaseService service = new DatabaseService(new DatabaseRepository(propagator));
+    private final CommandDispatcher dispatcher = new CommandDispatcher(service);
+    private final TrackingTable tracking = new TrackingTable(propagator, dispatcher, 1000);
+    // Never runs the sends, as for a client that stopped reading.
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final InvalidationStreams streams = new InvalidationStreams(tracking, tasks::add, 2);
+
+    @Test
+    void shouldSuccess_close_whenStreamFallsBehind() throws Exception {
+        streams.subscribe(true, List.of("stream:"));
+        assertEquals(1, tracking.getTrackingClients());
+
+        ClientSession writer = new ClientSession();
+        try {
+            for (int i = 0; i < 3; i++) {
+                dispatcher.execute(writer, List.of("SET", "stream:a", Integer.toString(i)));
+            }
+            assertEquals(1, tracking.getTrackingClients());
+
+            dispatcher.execute(writer, List.of("SET", "stream:a", "3"));
+            assertEquals(0, tracking.getTrackingClients());
+            assertFalse(propagator.isActive());
+        } finally {
+            service.del("stream:a");
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.twl.miniredis.tracking;
+
+import com.twl.miniredis.command.ClientSession;
+import com.twl.miniredis.command.CommandDispatcher;
+import com.twl.miniredis.command.Reply;
+import com.twl.miniredis.propagation.CommandPropagator;
+import com.twl.miniredis.repository.DatabaseRepository;
+import com.twl.miniredis.resp.RespServer;
+import com.twl.miniredis.service.DatabaseService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrackingTableTest {
+
+    private final CommandPropagator propagator = new CommandPropagator();
+    private final DatabaseService service = new DatabaseService(new DatabaseRepository(propagator));
+    private final CommandDispatcher dispatcher = new CommandDispatcher(service);
+    private final TrackingTable tracking = new TrackingTable(propagator, dispatcher, 2);
+    private final ClientSession writer = new ClientSession();
+
+    @AfterEach
+    void tearDown() {
+        service.del("tracking_a", "tracking_b", "tracking_c", "config:a", "other:a");
+    }
+
+    @Test
+    void shouldSuccess_invalidate_whenTrackedKeyIsWritten() {
+        List<List<?>> pushes = new ArrayList<>();
+        ClientSession reader = session(pushes);
+        assertEquals(Reply.OK, execute(reader, "CLIENT", "TRACKING", "ON"));
+        execute(writer, "SET", "tracking_a", "1");
+        assertTrue(pushes.isEmpty());
+
+        execute(reader, "GET", "tracking_a");
+        execute(writer, "SET", "tracking_a", "2");
+        assertEquals(List.of(List.of(TrackingTable.INVALIDATE, List.of("tracking_a"))), pushes);
+
+        // Invalidated once, until the key is read again.
+        execute(writer, "SET", "tracking_a", "3");
+        assertEquals(1, pushes.size());
+
+        execute(reader, "GET", "tracking_a");
+        execute(writer, "DEL", "tracking_a");
+        assertEquals(2, pushes.size());
+
+        assertEquals(Reply.OK, execute(reader, "CLIENT", "TRACKING", "OFF"));
+        assertEquals(0, tracking.getTrackingClients());
+        assertFalse(propagator.isActive());
+    }
+
+    @Test
+    void shouldSuccess_invalidate_whenTableIsFull() {
+        List<List<?>> pushes = new ArrayList<>();
+        ClientSession reader = session(pushes);
+        execute(reader, "CLIENT", "TRACKING", "ON");
+        execute(reader, "GET", "tracking_a");
+        execute(reader, "GET", "tracking_b");
+        execute(reader, "GET", "tracking_c");
+
+        assertEquals(2, tracking.getTrackedKeys());
+        assertEquals(1, pushes.size());
+        tracking.untrack(reader);
+    }
+
+    @Test
+    void shouldSuccess_invalidate_whenBroadcastPrefixMatches() {
+        List<List<?>> pushes = new ArrayList<>();
+        ClientSession reader = session(pushes);
+        assertEquals(Reply.OK, execute(reader, "CLIENT", "TRACKING", "ON", "BCAST", "PREFIX", "config:"));
+
+        execute(writer, "SET", "config:a", "1");
+        execute(writer, "SET", "other:a", "1");
+        assertEquals(List.of(List.of(TrackingTable.INVALIDATE, List.of("config:a"))), pushes);
+        assertTrue(tracking.track(reader.getId(), List.of("config:b")));
+        assertFalse(tracking.track(reader.getId(), List.of("other:b")));
+        assertEquals(0, tracking.getTrackedKeys());
+        tracking.untrack(reader);
+    }
+
+    @Test
+    void shouldFail_tracking_whenClientCannotReceivePushes() {
+        ClientSession resp2 = session(new ArrayList<>());
+        resp2.setProtocol(2);
+        assertEquals(TrackingTable.RESP3_REQUIRED, execute(resp2, "CLIENT", "TRACKING", "ON").toString());
+        assertEquals(CommandDispatcher.SYNTAX_ERROR, execute(resp2, "CLIENT", "TRACKING", "ON", "NOLOOP").toString());
+        assertTrue(execute(session(new ArrayList<>()), "CLIENT", "TRACKING", "ON", "PREFIX", "a").toString()
+                .contains("BCAST"));
+    }
+
+    @Test
+    void shouldSuccess_push_whenClientIsConnectedWithResp3() throws Exception {
+        RespServer server = new RespServer(dispatcher, true, "127.0.0.1", 0, 1);
+        server.start();
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write("HELLO 3\r\nCLIENT TRACKING ON\r\nGET tracking_a\r\n".getBytes(StandardCharsets.UTF_8));
+            String expected = "+OK\r\n_\r\n";
+            assertTrue(read(in, "_\r\n").endsWith(expected));
+
+            execute(writer, "SET", "tracking_a", "1");
+            expected = ">2\r\n$10\r\ninvalidate\r\n*1\r\n$10\r\ntracking_a\r\n";
+            assertEquals(expected, read(in, expected));
+            assertEquals(1, tracking.getTrackingClients());
+        } finally {
+            server.stop();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (tracking.getTrackingClients() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, tracking.getTrackingClients());
+    }
+
+    private Object execute(ClientSession session, String... args) {
+        return dispatcher.execute(session, List.of(args));
+    }
+
+    private static ClientSession session(List<List<?>> pushes) {
+        ClientSession session = new ClientSession();
+        session.setProtocol(3);
+        List<List<?>> synchronizedPushes = Collections.synchronizedList(pushes);
+        session.setPushSink(synchronizedPushes::add);
+        return session;
+    }
+
+    /**
+     * Reads until the response ends with the given suffix.
+     */
+    private static String read(InputStream in, String suffix) throws Exception {
+        StringBuilder response = new StringBuilder();
+        while (!response.toString().endsWith(suffix)) {
+            int b = in.read();
+            if (b < 0) {
+                break;
+            }
+            response.append((char) b);
+        }
+        return response.toString();
+    }
+}